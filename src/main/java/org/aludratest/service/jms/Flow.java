@@ -0,0 +1,75 @@
+/*
+ * Copyright (C) 2015 Hamburg Sud and the contributors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.aludratest.service.jms;
+
+/**
+ * Interfaces for demand-driven streams of items, equivalent to those of <code>java.util.concurrent.Flow</code> 
+ * in Java 9 and later and of the Reactive Streams specification, which are not available on all Java versions 
+ * supported by this service. An adapter to either of them only has to forward each call.
+ * <p>
+ * A {@link Subscriber} receives items only after it has signalled demand for them with {@link Subscription#request(long)}, 
+ * so a slow subscriber slows down the publisher instead of making it buffer an unbounded number of items.
+ */
+
+public final class Flow {
+
+	private Flow() {
+	}
+
+	/** A source of items which are delivered to subscribers on demand.
+	 *  @param <T> the type of the items */
+	public interface Publisher<T> {
+
+		/** Adds a subscriber, which is first called back with {@link Subscriber#onSubscribe(Subscription)}.
+		 *  @param subscriber the subscriber */
+		void subscribe(Subscriber<? super T> subscriber);
+
+	}
+
+	/** A receiver of items. The methods of a subscriber are called one at a time, never concurrently.
+	 *  @param <T> the type of the items */
+	public interface Subscriber<T> {
+
+		/** Called before any other method, with the subscription to signal demand with.
+		 *  @param subscription the subscription */
+		void onSubscribe(Subscription subscription);
+
+		/** Called with the next item, if there is demand for it.
+		 *  @param item the item */
+		void onNext(T item);
+
+		/** Called when the publisher failed; no further calls follow.
+		 *  @param throwable the failure */
+		void onError(Throwable throwable);
+
+		/** Called when the publisher has no more items; no further calls follow. */
+		void onComplete();
+
+	}
+
+	/** The link between a publisher and one of its subscribers. */
+	public interface Subscription {
+
+		/** Adds to the number of items which may be delivered to the subscriber.
+		 *  @param n the number of additional items, <code>Long.MAX_VALUE</code> for an unbounded number */
+		void request(long n);
+
+		/** Stops the delivery of items to the subscriber. */
+		void cancel();
+
+	}
+
+}
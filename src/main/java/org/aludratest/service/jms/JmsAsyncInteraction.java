@@ -0,0 +1,66 @@
+/*
+ * Copyright (C) 2015 Hamburg Sud and the contributors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.aludratest.service.jms;
+
+import java.util.concurrent.Future;
+
+import org.aludratest.exception.AccessFailure;
+import org.aludratest.exception.PerformanceFailure;
+import org.aludratest.service.jms.data.ObjectMessageData;
+import org.aludratest.service.jms.data.TextMessageData;
+
+/**
+ * Non-blocking variant of the send operations of {@link JmsInteraction}.
+ * Each send returns immediately with a {@link Future} which completes when the broker 
+ * has accepted the message. The number of uncompleted sends is limited, when the limit 
+ * is reached, further sends block until earlier ones have completed.
+ */
+
+public interface JmsAsyncInteraction {
+
+	/**
+	 * Sends a text message asynchronously.
+	 * @param text the message text
+	 * @param destinationName jms destination.
+	 * @return a future which completes when the message has been sent
+	 */
+	Future<Void> sendTextMessage(String text, String destinationName);
+
+	/**
+	 * Sends a jms message (TextMessageData) with the jms properties support asynchronously.
+	 * @param textMessageData the jms message
+	 * @param destinationName jms destination.
+	 * @return a future which completes when the message has been sent
+	 */
+	Future<Void> sendMessage(TextMessageData textMessageData, String destinationName);
+
+	/**
+	 * Sends a jms message (ObjectMessageData) with the jms properties support asynchronously.
+	 * @param objectMessageData the jms message
+	 * @param destinationName jms destination.
+	 * @return a future which completes when the message has been sent
+	 */
+	Future<Void> sendMessage(ObjectMessageData objectMessageData, String destinationName);
+
+	/**
+	 * Waits until all pending sends have completed.
+	 * @param timeout the maximum number of milliseconds to wait
+	 * @throws PerformanceFailure if there are still pending sends after the timeout
+	 * @throws AccessFailure if a send failed since the previous call of this method
+	 */
+	void awaitCompletion(long timeout);
+
+}
@@ -16,9 +16,46 @@
 package org.aludratest.service.jms;
 
 import org.aludratest.service.Condition;
+import org.aludratest.service.TechnicalArgument;
+import org.aludratest.service.TechnicalLocator;
 
 public interface JmsCondition extends Condition {
 
 	boolean isDestinationAvailable(String destinationName);
 
+	/**
+	 * Tells if a latency percentile of an operation, as recorded by the service metrics, is below a limit.
+	 * Requires metrics to be enabled in the service configuration.
+	 * @param operation the recorded operation: SEND, RECEIVE, REQUEST_REPLY, LOOKUP, CONNECTION_START,
+	 * 	CONNECTION_STOP, SUBSCRIBER_START, SUBSCRIBER_STOP or END_TO_END
+	 * @param destinationName the destination or subscription name, or an empty string for operations without destination
+	 * @param percentile the percentile in the range 0 to 100, e.g. 99.9
+	 * @param maxMillis the number of milliseconds the percentile must stay below
+	 * @return true if the operation has been recorded and the percentile is below the limit, otherwise false
+	 */
+	boolean isLatencyPercentileBelow(@TechnicalArgument String operation, @TechnicalLocator String destinationName,
+			@TechnicalArgument double percentile, @TechnicalArgument long maxMillis);
+
+	/**
+	 * Tells if all recorded executions of an operation took less time than a limit.
+	 * Requires metrics to be enabled in the service configuration.
+	 * @param operation the recorded operation, see {@link #isLatencyPercentileBelow(String, String, double, long)}
+	 * @param destinationName the destination or subscription name, or an empty string for operations without destination
+	 * @param maxMillis the number of milliseconds each execution must stay below
+	 * @return true if the operation has been recorded and no execution reached the limit, otherwise false
+	 */
+	boolean isMaxLatencyBelow(@TechnicalArgument String operation, @TechnicalLocator String destinationName,
+			@TechnicalArgument long maxMillis);
+
+	/**
+	 * Tells if an operation has been executed at least at a given rate from the start of its first to the end of its last recorded execution.
+	 * Requires metrics to be enabled in the service configuration.
+	 * @param operation the recorded operation, see {@link #isLatencyPercentileBelow(String, String, double, long)}
+	 * @param destinationName the destination or subscription name, or an empty string for operations without destination
+	 * @param minPerSecond the minimum number of executions per second
+	 * @return true if the throughput is at least the given rate, otherwise false
+	 */
+	boolean isThroughputAtLeast(@TechnicalArgument String operation, @TechnicalLocator String destinationName,
+			@TechnicalArgument double minPerSecond);
+
 }
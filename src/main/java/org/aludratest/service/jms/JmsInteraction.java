@@ -16,6 +16,8 @@
 package org.aludratest.service.jms;
 
 import java.io.Serializable;
+import java.util.Collection;
+import java.util.List;
 
 import org.aludratest.service.AttachParameter;
 import org.aludratest.service.AttachResult;
@@ -23,6 +25,7 @@ import org.aludratest.service.Interaction;
 import org.aludratest.service.TechnicalArgument;
 import org.aludratest.service.TechnicalLocator;
 import org.aludratest.service.jms.data.FileMessageData;
+import org.aludratest.service.jms.data.LoadProfileData;
 import org.aludratest.service.jms.data.ObjectMessageData;
 import org.aludratest.service.jms.data.TextMessageData;
 import org.databene.commons.Validator;
@@ -60,6 +63,77 @@ public interface JmsInteraction extends Interaction {
 	 * @return file content
 	 */
 	@AttachResult("Message text") String sendMessage(@AttachParameter("Message fileMessageData") FileMessageData fileMessageData, @TechnicalLocator String destinationName);
+
+	/**
+	 * Sends a sequence of jms messages (TextMessageData) with the jms properties support in transactions, 
+	 * committing every <code>commitInterval</code> messages and after the last one.
+	 * @param messages the jms messages
+	 * @param destinationName jms destination.
+	 * @param commitInterval the number of messages to send per transaction, 
+	 * 		<code>0</code> sends all messages in a single transaction
+	 */
+	void sendTextMessageBatch(@AttachParameter("Messages") Collection<TextMessageData> messages, @TechnicalLocator String destinationName, 
+			@TechnicalArgument int commitInterval);
+
+	/**
+	 * Sends a sequence of jms messages (ObjectMessageData) with the jms properties support in transactions, 
+	 * committing every <code>commitInterval</code> messages and after the last one.
+	 * @param messages the jms messages
+	 * @param destinationName jms destination.
+	 * @param commitInterval the number of messages to send per transaction, 
+	 * 		<code>0</code> sends all messages in a single transaction
+	 */
+	void sendObjectMessageBatch(@AttachParameter("Messages") Collection<ObjectMessageData> messages, @TechnicalLocator String destinationName, 
+			@TechnicalArgument int commitInterval);
+
+	/**
+	 * Sends copies of a jms message (TextMessageData) to a destination at the rate and for the duration 
+	 * defined by a load profile, using the profile's number of concurrent producers.
+	 * @param template the jms message to send repeatedly
+	 * @param destinationName jms destination.
+	 * @param profile the target rate, ramp-up time, duration and number of producers
+	 * @return a summary of the achieved rate and the send latencies
+	 */
+	@AttachResult("Load summary") String generateLoad(@AttachParameter("Message template") TextMessageData template, 
+			@TechnicalLocator String destinationName, @TechnicalArgument LoadProfileData profile);
+
+	/**
+	 * Sends a request (TextMessageData) and waits for the text reply. The request carries a temporary 
+	 * reply queue as <code>JMSReplyTo</code> and a unique <code>JMSCorrelationID</code>; the responder must 
+	 * send its reply to that queue with the request's correlation ID or message ID as correlation ID.
+	 * The round-trip time of the exchange is logged.
+	 * @param request the jms request message
+	 * @param destinationName jms destination.
+	 * @param timeout the number of milliseconds to wait for the reply, <code>0</code> waits without timeout
+	 * @return the text of the reply
+	 */
+	@AttachResult("Reply text") String requestTextReply(@AttachParameter("Request") TextMessageData request, 
+			@TechnicalLocator String destinationName, @TechnicalArgument long timeout);
+
+	/**
+	 * Sends a request (ObjectMessageData) and waits for the object reply, 
+	 * like {@link #requestTextReply(TextMessageData, String, long)}.
+	 * @param request the jms request message
+	 * @param destinationName jms destination.
+	 * @param timeout the number of milliseconds to wait for the reply, <code>0</code> waits without timeout
+	 * @return the object of the reply
+	 */
+	Serializable requestObjectReply(@AttachParameter("Request") ObjectMessageData request, 
+			@TechnicalLocator String destinationName, @TechnicalArgument long timeout);
+
+	/**
+	 * Discards the cached JNDI lookup result of a destination, 
+	 * so that the next access to the destination performs a fresh lookup.
+	 * @param destinationName the name of the destination, or <code>null</code> to discard all cached lookup results
+	 */
+	void invalidateDestination(@TechnicalLocator String destinationName);
+
+	/**
+	 * Reports the latency percentiles, throughput, error counts and payload sizes which the service has 
+	 * recorded per operation and destination, if metrics are enabled in the service configuration.
+	 * @return the metrics as text
+	 */
+	@AttachResult("JMS metrics") String reportMetrics();
 	
 	// receiving messages from a queue -----------------------------------------
 	
@@ -85,6 +159,82 @@ public interface JmsInteraction extends Interaction {
 			@TechnicalArgument long timeout, 
 			@TechnicalArgument Validator<Serializable> validator);
 
+	/**
+	 * Receives the text messages which arrive at a queue until <code>maxCount</code> messages 
+	 * have been received or <code>totalTimeout</code> has elapsed, whichever comes first.
+	 * @param destinationName jms destination.
+	 * @param messageSelector a message selector or <code>null</code>
+	 * @param maxCount the maximum number of messages to receive
+	 * @param totalTimeout the number of milliseconds to wait for all messages together, 
+	 * 		<code>0</code> only collects the messages which are available without waiting
+	 * @return the texts of the received messages in the order of arrival, possibly empty
+	 */
+	List<String> receiveTextMessagesFromQueue(
+			@TechnicalLocator String destinationName, 
+			@TechnicalArgument String messageSelector, 
+			@TechnicalArgument int maxCount, 
+			@TechnicalArgument long totalTimeout);
+
+	/**
+	 * Receives the object messages which arrive at a queue until <code>maxCount</code> messages 
+	 * have been received or <code>totalTimeout</code> has elapsed, whichever comes first.
+	 * @param destinationName jms destination.
+	 * @param messageSelector a message selector or <code>null</code>
+	 * @param maxCount the maximum number of messages to receive
+	 * @param totalTimeout the number of milliseconds to wait for all messages together, 
+	 * 		<code>0</code> only collects the messages which are available without waiting
+	 * @return the objects of the received messages in the order of arrival, possibly empty
+	 */
+	List<Serializable> receiveObjectMessagesFromQueue(
+			@TechnicalLocator String destinationName, 
+			@TechnicalArgument String messageSelector, 
+			@TechnicalArgument int maxCount, 
+			@TechnicalArgument long totalTimeout);
+
+	/**
+	 * Waits on several queues at once and receives the first text message which arrives at any of them. 
+	 * The other queues keep their messages.
+	 * @param destinationNames jms destinations.
+	 * @param messageSelector a message selector or <code>null</code>
+	 * @param timeout the number of milliseconds to wait, <code>0</code> waits without timeout
+	 * @return the text of the first message
+	 */
+	String receiveFirstTextMessageFromQueues(
+			@TechnicalLocator List<String> destinationNames, 
+			@TechnicalArgument String messageSelector, 
+			@TechnicalArgument long timeout);
+
+	/**
+	 * Waits on several queues at once and receives one text message from each of them. 
+	 * If one of the queues does not deliver a message within the timeout, all queues keep their messages.
+	 * @param destinationNames jms destinations.
+	 * @param messageSelector a message selector or <code>null</code>
+	 * @param timeout the number of milliseconds to wait, <code>0</code> waits without timeout
+	 * @return the texts of the messages in the order of the destinations
+	 */
+	List<String> receiveTextMessageFromEachQueue(
+			@TechnicalLocator List<String> destinationNames, 
+			@TechnicalArgument String messageSelector, 
+			@TechnicalArgument long timeout);
+
+
+	/**
+	 * Starts a message listener on a queue which buffers the arriving messages in memory, 
+	 * so that subsequent receive calls on the queue with the same message selector are served from the buffer. 
+	 * Buffered messages are acknowledged one by one when they are handed over by a receive call, 
+	 * which requires a JMS provider that can acknowledge single messages, like ActiveMQ.
+	 * @param destinationName jms destination.
+	 * @param messageSelector a message selector or <code>null</code>
+	 */
+	void startQueueListener(
+			@TechnicalLocator String destinationName, 
+			@TechnicalArgument String messageSelector);
+
+	/**
+	 * Stops the message listener of a queue. Messages which are still buffered return to the queue.
+	 * @param destinationName jms destination.
+	 */
+	void stopQueueListener(@TechnicalLocator String destinationName);
 	
 	// subscribing a topic and receiving messages ------------------------------
 
@@ -122,4 +272,16 @@ public interface JmsInteraction extends Interaction {
 			@TechnicalArgument boolean required, 
 			@TechnicalArgument Validator<Serializable> validator);
 
+	/**
+	 * Waits on several subscriptions at once and receives one text message from each of them.
+	 * @param subscriptionNames the names of started subscribers
+	 * @param messageSelector a message selector or <code>null</code>
+	 * @param timeout the number of milliseconds to wait, <code>0</code> waits without timeout
+	 * @return the texts of the messages in the order of the subscriptions
+	 */
+	List<String> receiveTextMessageFromEachTopic(
+			@TechnicalLocator List<String> subscriptionNames, 
+			@TechnicalArgument String messageSelector, 
+			@TechnicalArgument long timeout);
+
 }
@@ -15,8 +15,11 @@
  */
 package org.aludratest.service.jms;
 
+import java.util.Collection;
+
 import org.aludratest.dict.ActionWordLibrary;
 import org.aludratest.service.jms.data.FileMessageData;
+import org.aludratest.service.jms.data.LoadProfileData;
 import org.aludratest.service.jms.data.ObjectMessageData;
 import org.aludratest.service.jms.data.TextMessageData;
 
@@ -89,6 +92,33 @@ public abstract class JmsSender<E extends JmsSender<E>> implements ActionWordLib
 		return verifyState();
 	}
 
+	/** Sends text messages to this sender's destination in transactions of <code>commitInterval</code> messages. 
+	 *  This method supports jms properties.
+	 *  @param data data objects holding the message texts
+	 *  @param commitInterval the number of messages to commit at once, <code>0</code> commits all messages at once */
+	public final E sendTextMessages(Collection<TextMessageData> data, int commitInterval) {
+		service.perform().sendTextMessageBatch(data, destinationName, commitInterval);
+		return verifyState();
+	}
+
+	/** Sends object messages to this sender's destination in transactions of <code>commitInterval</code> messages. 
+	 *  This method supports jms properties.
+	 *  @param data data objects holding the message objects
+	 *  @param commitInterval the number of messages to commit at once, <code>0</code> commits all messages at once */
+	public final E sendObjectMessages(Collection<ObjectMessageData> data, int commitInterval) {
+		service.perform().sendObjectMessageBatch(data, destinationName, commitInterval);
+		return verifyState();
+	}
+
+	/** Sends copies of a text message to this sender's destination according to a load profile. 
+	 *  This method supports jms properties.
+	 *  @param template a data object holding the message text
+	 *  @param profile the target rate, ramp-up time, duration and number of producers */
+	public final E generateLoad(TextMessageData template, LoadProfileData profile) {
+		service.perform().generateLoad(template, destinationName, profile);
+		return verifyState();
+	}
+
 	@SuppressWarnings("unchecked")
 	@Override
 	public E verifyState() {
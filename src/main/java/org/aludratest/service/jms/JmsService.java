@@ -21,10 +21,36 @@ import org.aludratest.service.AludraService;
 
 @ConfigProperties({
 		@ConfigProperty(name = "initialContextFactory", description = "The name of the InitialContextFactory class to use for JMS initialization.", type = String.class, required = true),
-		@ConfigProperty(name = "providerUrl", description = "The URL to use as Provider URL for the initial context.", type = String.class, required = true),
+		@ConfigProperty(name = "providerUrl", description = "The URL to use as Provider URL for the initial context. Several brokers can be listed, separated by semicolons; sends and requests are then distributed among them and fail over to the others if one is not available.", type = String.class, required = true),
 		@ConfigProperty(name = "connectionFactoryJndiName", description = "The JNDI name of the Connection Factory to use.", type = String.class, required = true),
 		@ConfigProperty(name = "jmsUser", description = "User name to use for JMS connection. May not be required.", type = String.class, required = false),
-		@ConfigProperty(name = "jmsPassword", description = "Password to use for JMS connection. Only required if jmsUser is set.", type = String.class, required = false) })
+		@ConfigProperty(name = "jmsPassword", description = "Password to use for JMS connection. Only required if jmsUser is set.", type = String.class, required = false),
+		@ConfigProperty(name = "producerCacheSize", description = "Maximum number of message producers to keep open for reuse, one per destination. The least recently used producer is closed when the limit is exceeded. 0 disables producer caching.", type = int.class, defaultValue = "20", required = false),
+		@ConfigProperty(name = "consumerCacheSize", description = "Maximum number of queue consumers to keep open for reuse, one per destination. Saves a subscription round-trip per receive, but messages prefetched by a cached consumer are not visible to other consumers, including those of other threads and test processes, until it is closed. 0 disables consumer caching.", type = int.class, defaultValue = "0", required = false),
+		@ConfigProperty(name = "consumerIdleTimeout", description = "Number of milliseconds after which an unused cached queue consumer is closed, returning its prefetched messages to the queue.", type = int.class, defaultValue = "30000", required = false),
+		@ConfigProperty(name = "destinationCacheTtl", description = "Number of milliseconds to cache the result of a successful destination lookup in JNDI. 0 disables caching, a negative value caches until the destination is invalidated.", type = int.class, defaultValue = "300000", required = false),
+		@ConfigProperty(name = "destinationNegativeCacheTtl", description = "Number of milliseconds to cache the result of a failed destination lookup in JNDI by isDestinationAvailable(), so that polling for a missing destination does not hit JNDI each time. Other operations always retry the lookup. 0 disables caching of failed lookups.", type = int.class, defaultValue = "1000", required = false),
+		@ConfigProperty(name = "keepConnectionStarted", description = "If true, the JMS connection is started on first use and stays started until the service is closed. If false, it is started and stopped around each receive operation.", type = boolean.class, defaultValue = "false", required = false),
+		@ConfigProperty(name = "asyncMaxInFlight", description = "Maximum number of pending asynchronous sends. When it is reached, further asynchronous sends block until earlier ones have completed.", type = int.class, defaultValue = "1000", required = false),
+		@ConfigProperty(name = "queueBufferCapacity", description = "Maximum number of messages a queue listener buffers in memory.", type = int.class, defaultValue = "1000", required = false),
+		@ConfigProperty(name = "queueBufferOverflowPolicy", description = "What a queue listener does when its buffer is full: BLOCK waits until a message has been received from the buffer, DROP_OLDEST discards the oldest buffered message, DROP_NEWEST discards the arriving message, SPILL keeps the arriving message in an unbounded overflow list.", type = String.class, defaultValue = "BLOCK", required = false),
+		@ConfigProperty(name = "topicListenerMode", description = "If true, topic subscriptions are drained continuously by a message listener into an in-memory buffer, from which receive calls are served. If false, receive calls pull messages from the subscription.", type = boolean.class, defaultValue = "false", required = false),
+		@ConfigProperty(name = "topicBufferCapacity", description = "Maximum number of messages the buffer of a topic subscription holds in listener mode.", type = int.class, defaultValue = "10000", required = false),
+		@ConfigProperty(name = "topicBufferOverflowPolicy", description = "What a topic subscription in listener mode does when its buffer is full: BLOCK, DROP_OLDEST, DROP_NEWEST or SPILL, see queueBufferOverflowPolicy.", type = String.class, defaultValue = "DROP_OLDEST", required = false),
+		@ConfigProperty(name = "shareConnections", description = "If true, service instances with the same providerUrl, connectionFactoryJndiName and jmsUser share one JNDI context, connection factory and connection. The connection settings of the first instance apply.", type = boolean.class, defaultValue = "false", required = false),
+		@ConfigProperty(name = "sharedConnectionIdleTimeout", description = "Number of milliseconds for which a shared connection is kept open after the last service instance using it has been closed. 0 closes it immediately.", type = int.class, defaultValue = "60000", required = false),
+		@ConfigProperty(name = "warmUp", description = "If true, the service opens its connection, creates sessions and resolves the warmUpDestinations when it is initialized, so that the first operations of a test do not pay for it. The duration of the warm-up is logged.", type = boolean.class, defaultValue = "false", required = false),
+		@ConfigProperty(name = "warmUpSessions", description = "Number of sessions to create in advance during warm-up.", type = int.class, defaultValue = "1", required = false),
+		@ConfigProperty(name = "warmUpDestinations", description = "Comma-separated list of JNDI names of destinations to resolve concurrently during warm-up.", type = String.class, required = false),
+		@ConfigProperty(name = "reconnect", description = "If true, a failed connection is replaced automatically, and the sessions, queue listeners and topic subscriptions of the service are recreated on the new connection. Reconnecting stops if the broker keeps rejecting the client ID of the connection, e.g. because it still holds the failed one.", type = boolean.class, defaultValue = "false", required = false),
+		@ConfigProperty(name = "reconnectInitialDelay", description = "Number of milliseconds to wait before the first reconnect attempt. The delay doubles with each failed attempt, reduced by a random jitter of up to one half.", type = int.class, defaultValue = "100", required = false),
+		@ConfigProperty(name = "reconnectMaxDelay", description = "Maximum number of milliseconds to wait between two reconnect attempts.", type = int.class, defaultValue = "30000", required = false),
+		@ConfigProperty(name = "brokerRouting", description = "How sends are distributed if several brokers are listed in providerUrl: ROUND_ROBIN or LEAST_LATENCY.", type = String.class, defaultValue = "ROUND_ROBIN", required = false),
+		@ConfigProperty(name = "brokerHealthCheckInterval", description = "Number of milliseconds between two health and latency checks of the brokers listed in providerUrl. 0 disables the checks.", type = int.class, defaultValue = "5000", required = false),
+		@ConfigProperty(name = "virtualThreadReceives", description = "If true, the receives of operations which wait on several destinations at once run on virtual threads when the JVM supports them (Java 21 and later), otherwise on platform threads.", type = boolean.class, defaultValue = "false", required = false),
+		@ConfigProperty(name = "metrics", description = "If true, the service records latency histograms, throughput, error counts and payload sizes per operation and destination, publishes them as a JMX MBean and reports them with reportMetrics().", type = boolean.class, defaultValue = "false", required = false),
+		@ConfigProperty(name = "timelineSize", description = "Number of recent operations whose type, destination, start time, duration, payload size and outcome are kept for the debug attachments of a failed test. 0 disables the timeline, which is the default since recording costs time on each operation.", type = int.class, defaultValue = "0", required = false),
+		@ConfigProperty(name = "endToEndLatency", description = "If true, each sent message is stamped with its send time and a sequence number in the properties AludraTestSendTime and AludraTestSequence, and the time from sending to receiving stamped messages is recorded as END_TO_END per queue or topic in the metrics. Requires metrics to be enabled, and producer and consumer to run in the same JVM or on hosts with synchronized clocks.", type = boolean.class, defaultValue = "false", required = false) })
 public interface JmsService extends AludraService {
 
 	@Override
@@ -36,4 +62,15 @@ public interface JmsService extends AludraService {
 	@Override
 	JmsVerification verify();
 
+	/** Provides non-blocking variants of the send operations of {@link #perform()}.
+	 *  @return the {@link JmsAsyncInteraction} of this service */
+	JmsAsyncInteraction performAsync();
+
+	/** Provides the messages of a subscription started with {@link JmsInteraction#startSubscriber} 
+	 *  as a stream of texts, which receives a message only when a subscriber has requested it.
+	 *  @param subscriptionName the name of the subscription
+	 *  @param messageSelector a message selector or <code>null</code>
+	 *  @return a publisher of the texts of the subscription's messages */
+	Flow.Publisher<String> getTextMessagePublisher(String subscriptionName, String messageSelector);
+
 }
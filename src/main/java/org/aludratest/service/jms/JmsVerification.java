@@ -15,10 +15,49 @@
  */
 package org.aludratest.service.jms;
 
+import org.aludratest.service.TechnicalArgument;
+import org.aludratest.service.TechnicalLocator;
 import org.aludratest.service.Verification;
 
 public interface JmsVerification extends Verification {
 
 	void assertDestinationAvailable(String destinationName);
 
+	/**
+	 * Asserts that a latency percentile of an operation, as recorded by the service metrics, is below a limit.
+	 * Requires metrics to be enabled in the service configuration.
+	 * @param operation the recorded operation: SEND, RECEIVE, REQUEST_REPLY, LOOKUP, CONNECTION_START,
+	 * 	CONNECTION_STOP, SUBSCRIBER_START, SUBSCRIBER_STOP or END_TO_END
+	 * @param destinationName the destination or subscription name, or an empty string for operations without destination
+	 * @param percentile the percentile in the range 0 to 100, e.g. 99.9
+	 * @param maxMillis the number of milliseconds the percentile must stay below
+	 * @throws org.aludratest.exception.PerformanceFailure if the percentile is not below the limit
+	 * 	or the operation has not been recorded
+	 */
+	void assertLatencyPercentileBelow(@TechnicalArgument String operation, @TechnicalLocator String destinationName,
+			@TechnicalArgument double percentile, @TechnicalArgument long maxMillis);
+
+	/**
+	 * Asserts that no recorded execution of an operation took as long as a limit or longer.
+	 * Requires metrics to be enabled in the service configuration.
+	 * @param operation the recorded operation, see {@link #assertLatencyPercentileBelow(String, String, double, long)}
+	 * @param destinationName the destination or subscription name, or an empty string for operations without destination
+	 * @param maxMillis the number of milliseconds each execution must stay below
+	 * @throws org.aludratest.exception.PerformanceFailure if an execution reached the limit
+	 * 	or the operation has not been recorded
+	 */
+	void assertMaxLatencyBelow(@TechnicalArgument String operation, @TechnicalLocator String destinationName,
+			@TechnicalArgument long maxMillis);
+
+	/**
+	 * Asserts that an operation has been executed at least at a given rate from the start of its first to the end of its last recorded execution.
+	 * Requires metrics to be enabled in the service configuration.
+	 * @param operation the recorded operation, see {@link #assertLatencyPercentileBelow(String, String, double, long)}
+	 * @param destinationName the destination or subscription name, or an empty string for operations without destination
+	 * @param minPerSecond the minimum number of executions per second
+	 * @throws org.aludratest.exception.PerformanceFailure if the throughput is lower
+	 */
+	void assertThroughputAtLeast(@TechnicalArgument String operation, @TechnicalLocator String destinationName,
+			@TechnicalArgument double minPerSecond);
+
 }
@@ -16,6 +16,7 @@
 package org.aludratest.service.jms;
 
 import java.io.Serializable;
+import java.util.List;
 
 import javax.jms.Queue;
 
@@ -52,6 +53,20 @@ public abstract class QueueReceiver<E extends QueueReceiver<E>> extends Abstract
 		super(queueName, service);
 	}
 
+	/** Starts a listener which buffers the messages arriving at the queue, 
+	 *  so that subsequent receive calls with the same message selector are served from memory.
+	 *  @param messageSelector a String or null value for filtering messages as described in https://docs.oracle.com/cd/E19798-01/821-1841/bncer/index.html */
+	public final E startListener(String messageSelector) {
+		service.perform().startQueueListener(destinationName, messageSelector);
+		return verifyState();
+	}
+
+	/** Stops the listener of the queue. Messages which have not been received yet return to the queue. */
+	public final E stopListener() {
+		service.perform().stopQueueListener(destinationName);
+		return verifyState();
+	}
+
 	/** Receives a text message from the queue and puts its content into the result object provided as invocation parameter.
 	 *  @exception PerformanceFailure if no message is received within the timeout period.
 	 *  @param messageSelector a String or null value for filtering messages as described in https://docs.oracle.com/cd/E19798-01/821-1841/bncer/index.html
@@ -85,6 +100,37 @@ public abstract class QueueReceiver<E extends QueueReceiver<E>> extends Abstract
 		return verifyState();
 	}
 
+	/** Receives up to <code>maxCount</code> text messages from the queue within one overall timeout 
+	 *  and adds a {@link TextMessageData} object for each of them to the result list.
+	 *  @param messageSelector a String or null value for filtering messages as described in https://docs.oracle.com/cd/E19798-01/821-1841/bncer/index.html
+	 *  @param maxCount the maximum number of messages to receive
+	 *  @param totalTimeout the timeout to apply to all messages together in milliseconds
+	 *  @param result the list to add the received messages to */
+	public final E receiveTextMessages(String messageSelector, int maxCount, long totalTimeout, List<TextMessageData> result) {
+		List<String> texts = service.perform().receiveTextMessagesFromQueue(destinationName, messageSelector, maxCount, totalTimeout);
+		for (String text : texts) {
+			result.add(new TextMessageData(text));
+		}
+		return verifyState();
+	}
+
+	/** Receives up to <code>maxCount</code> object messages from the queue within one overall timeout 
+	 *  and adds an {@link ObjectMessageData} object for each of them to the result list.
+	 *  @param messageSelector a String or null value for filtering messages as described in https://docs.oracle.com/cd/E19798-01/821-1841/bncer/index.html
+	 *  @param maxCount the maximum number of messages to receive
+	 *  @param totalTimeout the timeout to apply to all messages together in milliseconds
+	 *  @param result the list to add the received messages to */
+	public final E receiveObjectMessages(String messageSelector, int maxCount, long totalTimeout, List<ObjectMessageData> result) {
+		List<Serializable> objects = service.perform().receiveObjectMessagesFromQueue(destinationName, messageSelector, maxCount, 
+				totalTimeout);
+		for (Serializable object : objects) {
+			ObjectMessageData data = new ObjectMessageData();
+			data.setMessageObject(object);
+			result.add(data);
+		}
+		return verifyState();
+	}
+
 	/** Receives an object message from the queue and validates it using the {@link Validator} object provided as parameter.
 	 *  @exception PerformanceFailure if no message is received within the timeout period.
 	 *  @exception FunctionalFailure if the message object is not valid
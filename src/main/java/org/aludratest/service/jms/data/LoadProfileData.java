@@ -0,0 +1,88 @@
+/*
+ * Copyright (C) 2015 Hamburg Sud and the contributors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.aludratest.service.jms.data;
+
+import org.aludratest.dict.Data;
+
+/**
+ * Describes the load to generate on a JMS destination: The target rate, 
+ * how long to ramp up to it, the total duration and the number of concurrent producers.
+ */
+
+public class LoadProfileData extends Data {
+
+	/** The number of messages per second to send after ramp-up. */
+	private int messagesPerSecond;
+
+	/** The number of seconds in which the rate is raised linearly from 0 to {@link #messagesPerSecond}. */
+	private int rampUpSeconds;
+
+	/** The total number of seconds to send, including ramp-up. */
+	private int durationSeconds;
+
+	/** The number of producers sending concurrently, each with its own session. */
+	private int producerCount;
+
+	public LoadProfileData() {
+		this(0, 0, 0, 1);
+	}
+
+	public LoadProfileData(int messagesPerSecond, int rampUpSeconds, int durationSeconds, int producerCount) {
+		this.messagesPerSecond = messagesPerSecond;
+		this.rampUpSeconds = rampUpSeconds;
+		this.durationSeconds = durationSeconds;
+		this.producerCount = producerCount;
+	}
+
+	public int getMessagesPerSecond() {
+		return messagesPerSecond;
+	}
+
+	public void setMessagesPerSecond(int messagesPerSecond) {
+		this.messagesPerSecond = messagesPerSecond;
+	}
+
+	public int getRampUpSeconds() {
+		return rampUpSeconds;
+	}
+
+	public void setRampUpSeconds(int rampUpSeconds) {
+		this.rampUpSeconds = rampUpSeconds;
+	}
+
+	public int getDurationSeconds() {
+		return durationSeconds;
+	}
+
+	public void setDurationSeconds(int durationSeconds) {
+		this.durationSeconds = durationSeconds;
+	}
+
+	public int getProducerCount() {
+		return producerCount;
+	}
+
+	public void setProducerCount(int producerCount) {
+		this.producerCount = producerCount;
+	}
+
+	@Override
+	public String toString() {
+		return "LoadProfileData: " + messagesPerSecond + " msg/s, ramp-up " + rampUpSeconds + " s, duration " 
+				+ durationSeconds + " s, " + producerCount + " producer(s)";
+	}
+
+}
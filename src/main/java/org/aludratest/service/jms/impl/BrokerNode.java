@@ -0,0 +1,121 @@
+/*
+ * Copyright (C) 2015 Hamburg Sud and the contributors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.aludratest.service.jms.impl;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * One broker of a {@link BrokerRouter}, with the {@link JmsActionImpl} that connects to it 
+ * and the health and latency observed for it. A broker is considered unavailable after an operation 
+ * on it failed or while its connection is being reconnected, until an operation or a health check succeeds.
+ * The latency is tracked as an exponentially weighted moving average of sends and health checks.
+ */
+
+public class BrokerNode {
+
+	/** Weight of a new latency sample in the moving average. */
+	private static final double LATENCY_SMOOTHING = 0.2;
+
+	private final String providerUrl;
+	private final JmsActionImpl action;
+	private final LatencyHistogram latency;
+	private final AtomicLong failures;
+
+	// the following fields are guarded by this
+	private boolean available;
+	private double averageLatencyNanos;
+	private String lastFailure;
+
+	/** Full constructor.
+	 *  @param providerUrl the URL of the broker
+	 *  @param action the action which connects to the broker */
+	public BrokerNode(String providerUrl, JmsActionImpl action) {
+		this.providerUrl = providerUrl;
+		this.action = action;
+		this.latency = new LatencyHistogram();
+		this.failures = new AtomicLong();
+		this.available = true;
+		this.averageLatencyNanos = -1;
+	}
+
+	public String getProviderUrl() {
+		return providerUrl;
+	}
+
+	public JmsActionImpl getAction() {
+		return action;
+	}
+
+	/** @return the latencies of the successful operations routed to the broker */
+	public LatencyHistogram getLatency() {
+		return latency;
+	}
+
+	public long getFailureCount() {
+		return failures.get();
+	}
+
+	/** @return false if the last operation or health check failed or the connection is being reconnected */
+	public boolean isAvailable() {
+		synchronized (this) {
+			if (!available) {
+				return false;
+			}
+		}
+		ConnectionSupervisor supervisor = action.getConnectionSupervisor();
+		return (supervisor == null || !supervisor.isReconnecting());
+	}
+
+	/** @return the moving average of the latency in nanoseconds, or <code>-1</code> if it has not been measured yet */
+	public synchronized double getAverageLatencyNanos() {
+		return averageLatencyNanos;
+	}
+
+	/** Records a successful operation and marks the broker as available.
+	 *  @param nanos the duration of the operation */
+	public void recordSuccess(long nanos) {
+		latency.record(nanos);
+		recordHealthy(nanos);
+	}
+
+	/** Records a successful health check and marks the broker as available.
+	 *  @param nanos the duration of the round-trip */
+	public synchronized void recordHealthy(long nanos) {
+		available = true;
+		averageLatencyNanos = (averageLatencyNanos < 0 ? nanos 
+				: LATENCY_SMOOTHING * nanos + (1 - LATENCY_SMOOTHING) * averageLatencyNanos);
+	}
+
+	/** Records a failed operation or health check and marks the broker as unavailable.
+	 *  @param failure the cause of the failure */
+	public synchronized void recordFailure(Throwable failure) {
+		failures.incrementAndGet();
+		available = false;
+		lastFailure = String.valueOf(failure);
+	}
+
+	@Override
+	public String toString() {
+		String failure;
+		synchronized (this) {
+			failure = lastFailure;
+		}
+		return providerUrl + " (" + (isAvailable() ? "available" : "unavailable: " + failure) 
+				+ ", average latency=" + LatencyHistogram.millis((long) Math.max(0, getAverageLatencyNanos())) + " ms"
+				+ ", failures=" + failures.get() + ", sends: " + latency + ")";
+	}
+
+}
@@ -0,0 +1,281 @@
+/*
+ * Copyright (C) 2015 Hamburg Sud and the contributors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.aludratest.service.jms.impl;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.aludratest.exception.AccessFailure;
+import org.aludratest.exception.AutomationException;
+import org.aludratest.exception.TechnicalException;
+import org.aludratest.service.jms.JmsCondition;
+import org.aludratest.service.jms.JmsInteraction;
+import org.aludratest.service.jms.JmsVerification;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Spreads the operations of a service across several brokers, each of which is accessed by its own 
+ * {@link JmsActionImpl}. Sends and request-reply exchanges are routed to a broker chosen by the 
+ * {@link RoutingPolicy}; if the broker fails with an {@link AccessFailure} or {@link TechnicalException}, 
+ * the operation is repeated on the next broker, so a message may be sent twice if the broker failed 
+ * after accepting it. All other operations, notably receives and subscriptions, which depend on state 
+ * kept on a particular broker, are performed on the first broker of the list, the primary one; 
+ * in a cluster, the brokers forward messages to where they are consumed.
+ * <p>
+ * The health and latency of each broker are checked periodically with a round-trip to the broker, 
+ * which also detects when an unavailable broker is back.
+ */
+
+public class BrokerRouter implements InvocationHandler {
+
+	private static final Logger LOGGER = LoggerFactory.getLogger(BrokerRouter.class);
+
+	/** Selects the broker for the next routed operation among the available ones. */
+	public enum RoutingPolicy {
+		/** Uses the available brokers in turn. */
+		ROUND_ROBIN, 
+		/** Uses the available broker with the lowest average latency. */
+		LEAST_LATENCY
+	}
+
+	/** Number of milliseconds to wait for a running health check on close. */
+	private static final long HEALTH_CHECK_CLOSE_TIMEOUT = 5000;
+
+	private final List<BrokerNode> nodes;
+	private final RoutingPolicy policy;
+	private final AtomicInteger next;
+	private final ThreadLocal<BrokerNode> lastNode;
+	private final Object proxy;
+	private final ScheduledExecutorService healthChecker;
+
+	/** Full constructor.
+	 *  @param nodes the brokers, the first one being the primary one
+	 *  @param policy the routing policy
+	 *  @param healthCheckInterval the number of milliseconds between two health checks, <code>0</code> disables them */
+	public BrokerRouter(List<BrokerNode> nodes, RoutingPolicy policy, long healthCheckInterval) {
+		if (nodes.isEmpty()) {
+			throw new IllegalArgumentException("No broker specified");
+		}
+		this.nodes = Collections.unmodifiableList(new ArrayList<BrokerNode>(nodes));
+		this.policy = policy;
+		this.next = new AtomicInteger();
+		this.lastNode = new ThreadLocal<BrokerNode>();
+		this.proxy = Proxy.newProxyInstance(JmsInteraction.class.getClassLoader(), 
+				new Class<?>[] { JmsInteraction.class, JmsCondition.class, JmsVerification.class }, this);
+		if (healthCheckInterval > 0) {
+			this.healthChecker = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+				@Override
+				public Thread newThread(Runnable runnable) {
+					Thread thread = new Thread(runnable, "JMS broker health check");
+					thread.setDaemon(true);
+					return thread;
+				}
+			});
+			this.healthChecker.scheduleWithFixedDelay(new Runnable() {
+				@Override
+				public void run() {
+					checkHealth();
+				}
+			}, 0, healthCheckInterval, TimeUnit.MILLISECONDS);
+		} else {
+			this.healthChecker = null;
+		}
+	}
+
+	public JmsInteraction getInteraction() {
+		return (JmsInteraction) proxy;
+	}
+
+	public JmsCondition getCondition() {
+		return (JmsCondition) proxy;
+	}
+
+	public JmsVerification getVerification() {
+		return (JmsVerification) proxy;
+	}
+
+	public List<BrokerNode> getNodes() {
+		return nodes;
+	}
+
+	/** @return the broker which performs the operations that are not routed */
+	public BrokerNode getPrimary() {
+		return nodes.get(0);
+	}
+
+	@Override
+	public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+		String name = method.getName();
+		if ("equals".equals(name) && args != null && args.length == 1) {
+			return proxy == args[0];
+		} else if ("hashCode".equals(name) && args == null) {
+			return System.identityHashCode(proxy);
+		} else if ("toString".equals(name) && args == null) {
+			return toString();
+		} else if (name.startsWith("send") || name.startsWith("request")) {
+			return route(method, args);
+		} else if ("invalidateDestination".equals(name)) {
+			for (BrokerNode node : nodes) {
+				invoke(node, method, args);
+			}
+			return null;
+		} else if ("reportMetrics".equals(name)) {
+			StringBuilder report = new StringBuilder();
+			for (BrokerNode node : nodes) {
+				report.append(invoke(node, method, args));
+			}
+			return report.toString();
+		} else if ("createDebugAttachments".equals(name)) {
+			// the recent message is kept by the action which handled it
+			BrokerNode node = lastNode.get();
+			return invoke(node != null ? node : getPrimary(), method, args);
+		} else {
+			return invoke(getPrimary(), method, args);
+		}
+	}
+
+	private Object route(Method method, Object[] args) throws Throwable {
+		Throwable failure = null;
+		for (BrokerNode node : selectCandidates()) {
+			long start = System.nanoTime();
+			try {
+				Object result = method.invoke(node.getAction(), args);
+				node.recordSuccess(System.nanoTime() - start);
+				lastNode.set(node);
+				return result;
+			}
+			catch (InvocationTargetException e) {
+				Throwable cause = e.getCause();
+				lastNode.set(node);
+				if (!(cause instanceof AccessFailure || cause instanceof TechnicalException)) {
+					throw cause;
+				}
+				node.recordFailure(cause);
+				LOGGER.warn(method.getName() + " failed on broker " + node.getProviderUrl() + ", trying next broker: " + cause);
+				failure = cause;
+			}
+			catch (IllegalAccessException e) {
+				throw new AutomationException("Could not invoke " + method, e);
+			}
+		}
+		throw failure;
+	}
+
+	/** Orders the brokers for a routed operation: The one selected by the policy comes first, 
+	 *  followed by the other available ones and finally by the unavailable ones, which may be back 
+	 *  although no health check has noticed it yet. */
+	List<BrokerNode> selectCandidates() {
+		List<BrokerNode> available = new ArrayList<BrokerNode>(nodes.size());
+		List<BrokerNode> unavailable = new ArrayList<BrokerNode>(nodes.size());
+		for (BrokerNode node : nodes) {
+			(node.isAvailable() ? available : unavailable).add(node);
+		}
+		if (!available.isEmpty()) {
+			int selected;
+			if (policy == RoutingPolicy.LEAST_LATENCY) {
+				selected = 0;
+				for (int i = 1; i < available.size(); i++) {
+					if (available.get(i).getAverageLatencyNanos() < available.get(selected).getAverageLatencyNanos()) {
+						selected = i;
+					}
+				}
+			} else {
+				selected = (next.getAndIncrement() & Integer.MAX_VALUE) % available.size();
+			}
+			Collections.rotate(available, -selected);
+		}
+		available.addAll(unavailable);
+		return available;
+	}
+
+	private Object invoke(BrokerNode node, Method method, Object[] args) throws Throwable {
+		try {
+			return method.invoke(node.getAction(), args);
+		}
+		catch (InvocationTargetException e) {
+			throw e.getCause();
+		}
+		catch (IllegalAccessException e) {
+			throw new AutomationException("Could not invoke " + method, e);
+		}
+	}
+
+	/** Runs on the health check thread. */
+	void checkHealth() {
+		for (BrokerNode node : nodes) {
+			boolean wasAvailable = node.isAvailable();
+			try {
+				node.recordHealthy(node.getAction().measureRoundTrip());
+				if (!wasAvailable) {
+					LOGGER.info("Broker " + node.getProviderUrl() + " is available again");
+				}
+			}
+			catch (RuntimeException e) {
+				node.recordFailure(e);
+				if (wasAvailable) {
+					LOGGER.warn("Health check failed for broker " + node.getProviderUrl() + ": " + e);
+				}
+			}
+		}
+	}
+
+	/** Stops the health checks and closes the actions of all brokers. */
+	public void close() {
+		if (healthChecker != null) {
+			healthChecker.shutdownNow();
+			try {
+				// a running health check may still open a connection
+				healthChecker.awaitTermination(HEALTH_CHECK_CLOSE_TIMEOUT, TimeUnit.MILLISECONDS);
+			}
+			catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+			}
+		}
+		RuntimeException failure = null;
+		for (BrokerNode node : nodes) {
+			LOGGER.info("Closing broker " + node);
+			try {
+				node.getAction().close();
+			}
+			catch (RuntimeException e) {
+				LOGGER.warn("Failed to close the connections to broker " + node.getProviderUrl(), e);
+				if (failure == null) {
+					failure = e;
+				}
+			}
+		}
+		if (failure != null) {
+			throw failure;
+		}
+	}
+
+	@Override
+	public String toString() {
+		return "broker router (" + policy + ") for " + nodes;
+	}
+
+}
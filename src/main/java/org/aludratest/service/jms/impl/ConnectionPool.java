@@ -0,0 +1,267 @@
+/*
+ * Copyright (C) 2015 Hamburg Sud and the contributors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.aludratest.service.jms.impl;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Hashtable;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+import javax.jms.Connection;
+import javax.jms.ConnectionFactory;
+import javax.jms.JMSException;
+import javax.naming.Context;
+import javax.naming.InitialContext;
+import javax.naming.NamingException;
+
+import org.aludratest.config.ConfigurationException;
+import org.aludratest.exception.TechnicalException;
+import org.apache.commons.lang.StringUtils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * JVM-wide pool of JNDI contexts, connection factories and connections, which lets service instances 
+ * of the same broker and user share them. Entries are keyed by provider URL, connection factory JNDI name 
+ * and user name, and are reference-counted: Each service {@link #acquire}s an entry when it is configured 
+ * and {@link Entry#release()}s it when it is closed. Since a test framework usually closes the service 
+ * of one test case before it creates the one of the next test case, an entry without users is kept 
+ * for an idle timeout before its connection is closed.
+ * <p>
+ * The connection of an entry is created with the settings of the service which created the entry; 
+ * in particular, <code>keepConnectionStarted</code> of later users does not apply to it.
+ */
+
+public class ConnectionPool {
+
+	private static final Logger LOGGER = LoggerFactory.getLogger(ConnectionPool.class);
+
+	private static final ConnectionPool INSTANCE = new ConnectionPool();
+
+	/** Entries by key, guarded by <code>this</code>. */
+	private final Map<Key, Entry> entries;
+
+	private ScheduledExecutorService closer;
+
+	ConnectionPool() {
+		this.entries = new HashMap<Key, Entry>();
+	}
+
+	public static ConnectionPool getInstance() {
+		return INSTANCE;
+	}
+
+	/** Provides an entry for the given settings, creating it if necessary.
+	 *  @param environment the JNDI environment, including provider URL and credentials
+	 *  @param connectionFactoryName the JNDI name of the connection factory
+	 *  @param userName the user of the connection, may be <code>null</code>
+	 *  @param password the password of the connection, may be <code>null</code>
+	 *  @param keepConnectionStarted the connection mode if the entry is created, see {@link ManagedConnection}
+	 *  @param reconnectPolicy the reconnect delays if the entry is created, or <code>null</code> to not reconnect
+	 *  @param idleTimeout the number of milliseconds to keep the entry after its last release
+	 *  @return the acquired entry, which must be released by the caller */
+	public synchronized Entry acquire(Hashtable<String, String> environment, String connectionFactoryName, 
+			String userName, String password, boolean keepConnectionStarted, ReconnectPolicy reconnectPolicy, 
+			long idleTimeout) {
+		Key key = new Key(environment.get(Context.PROVIDER_URL), connectionFactoryName, userName);
+		Entry entry = entries.get(key);
+		if (entry == null) {
+			entry = new Entry(key, environment, connectionFactoryName, userName, password, keepConnectionStarted, 
+					reconnectPolicy);
+			entries.put(key, entry);
+			LOGGER.debug("Created " + entry);
+		}
+		entry.users++;
+		entry.idleTimeout = idleTimeout;
+		if (entry.pendingClose != null) {
+			entry.pendingClose.cancel(false);
+			entry.pendingClose = null;
+		}
+		return entry;
+	}
+
+	/** @return the number of entries in the pool */
+	public synchronized int size() {
+		return entries.size();
+	}
+
+	private synchronized void release(final Entry entry) {
+		if (--entry.users > 0) {
+			return;
+		}
+		if (entry.idleTimeout <= 0) {
+			remove(entry);
+			return;
+		}
+		entry.pendingClose = getCloser().schedule(new Runnable() {
+			@Override
+			public void run() {
+				synchronized (ConnectionPool.this) {
+					if (entry.users == 0) {
+						remove(entry);
+					}
+				}
+			}
+		}, entry.idleTimeout, TimeUnit.MILLISECONDS);
+	}
+
+	private void remove(Entry entry) {
+		entries.remove(entry.key);
+		entry.pendingClose = null;
+		entry.close();
+	}
+
+	private ScheduledExecutorService getCloser() {
+		if (closer == null) {
+			closer = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+				@Override
+				public Thread newThread(Runnable runnable) {
+					Thread thread = new Thread(runnable, "JMS connection pool closer");
+					thread.setDaemon(true);
+					return thread;
+				}
+			});
+		}
+		return closer;
+	}
+
+	/** Pooled JNDI context, connection factory and connection of one broker and user. */
+	public final class Entry {
+
+		private final Key key;
+		private final InitialContext context;
+		private final ConnectionFactory connectionFactory;
+		private final ManagedConnection connection;
+
+		private int users;
+		private long idleTimeout;
+		private ScheduledFuture<?> pendingClose;
+
+		Entry(Key key, Hashtable<String, String> environment, String connectionFactoryName, final String userName, 
+				final String password, boolean keepConnectionStarted, ReconnectPolicy reconnectPolicy) {
+			this.key = key;
+			try {
+				this.context = new InitialContext(environment);
+				this.connectionFactory = (ConnectionFactory) context.lookup(connectionFactoryName);
+			}
+			catch (NamingException e) {
+				throw new TechnicalException("Could not retrieve objects from JNDI context", e);
+			}
+			if (connectionFactory == null) {
+				throw new ConfigurationException("The connection factory could not be found.");
+			}
+			final String clientId = userName + "@" + ConnectionPool.class.getSimpleName() + System.identityHashCode(this);
+			try {
+				this.connection = new ManagedConnection(createConnection(userName, password, clientId), keepConnectionStarted, 
+						"pooled jms connection for client-id [ " + clientId + " ]");
+				if (reconnectPolicy != null) {
+					new ConnectionSupervisor(connection, new Callable<Connection>() {
+						@Override
+						public Connection call() throws JMSException {
+							return createConnection(userName, password, clientId);
+						}
+					}, reconnectPolicy);
+				}
+			}
+			catch (JMSException e) {
+				closeContext();
+				throw new TechnicalException("Could not establish JMS connection", e);
+			}
+		}
+
+		private Connection createConnection(String userName, String password, String clientId) throws JMSException {
+			Connection c = (StringUtils.isEmpty(userName) ? connectionFactory.createConnection() 
+					: connectionFactory.createConnection(userName, password));
+			try {
+				c.setClientID(clientId);
+			}
+			catch (JMSException e) {
+				c.close();
+				throw e;
+			}
+			return c;
+		}
+
+		/** @return the shared JNDI context, which must only be used while synchronized on it */
+		public InitialContext getContext() {
+			return context;
+		}
+
+		public ConnectionFactory getConnectionFactory() {
+			return connectionFactory;
+		}
+
+		public ManagedConnection getConnection() {
+			return connection;
+		}
+
+		/** Unregisters a user of the entry. */
+		public void release() {
+			ConnectionPool.this.release(this);
+		}
+
+		void close() {
+			LOGGER.debug("Closing " + this);
+			connection.close();
+			closeContext();
+		}
+
+		private void closeContext() {
+			try {
+				context.close();
+			}
+			catch (NamingException e) {
+				LOGGER.debug("Failed to close JNDI context : ", e);
+			}
+		}
+
+		@Override
+		public String toString() {
+			return "connection pool entry " + key;
+		}
+	}
+
+	private static final class Key {
+
+		private final String[] values;
+
+		Key(String providerUrl, String connectionFactoryName, String userName) {
+			this.values = new String[] { providerUrl, connectionFactoryName, userName };
+		}
+
+		@Override
+		public boolean equals(Object obj) {
+			return (obj instanceof Key && Arrays.equals(values, ((Key) obj).values));
+		}
+
+		@Override
+		public int hashCode() {
+			return Arrays.hashCode(values);
+		}
+
+		@Override
+		public String toString() {
+			return Arrays.toString(values);
+		}
+	}
+
+}
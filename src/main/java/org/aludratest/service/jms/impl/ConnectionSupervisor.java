@@ -0,0 +1,289 @@
+/*
+ * Copyright (C) 2015 Hamburg Sud and the contributors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.aludratest.service.jms.impl;
+
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.TimeUnit;
+
+import javax.jms.Connection;
+import javax.jms.ExceptionListener;
+import javax.jms.InvalidClientIDException;
+import javax.jms.JMSException;
+import javax.jms.Session;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Watches a {@link ManagedConnection} with an {@link ExceptionListener}. When the provider reports 
+ * an exception, a background thread checks if the connection is still usable, since providers also report 
+ * errors which do not affect the connection. If it has failed, the thread creates a new connection, 
+ * retrying with the delays of a {@link ReconnectPolicy}, and replaces the failed one with it. Afterwards, the registered 
+ * {@link Listener}s are notified, so that they can recreate the resources which belonged 
+ * to the failed connection.
+ * <p>
+ * A new connection uses the client ID of the failed one, which the broker may still consider in use. 
+ * Since that does not necessarily resolve itself, reconnecting is abandoned after 
+ * {@link #MAX_CLIENT_ID_CONFLICTS} consecutive attempts which failed for this reason.
+ */
+
+public class ConnectionSupervisor implements ExceptionListener {
+
+	private static final Logger LOGGER = LoggerFactory.getLogger(ConnectionSupervisor.class);
+
+	/** Number of consecutive reconnect attempts which may fail with an {@link InvalidClientIDException}. */
+	static final int MAX_CLIENT_ID_CONFLICTS = 5;
+
+	/** Is notified when a failed connection has been replaced. */
+	public interface Listener {
+
+		/** Called on the reconnect thread after the connection has been replaced.
+		 *  @param connection the new connection */
+		void reconnected(ManagedConnection connection);
+	}
+
+	private final ManagedConnection connection;
+	private final Callable<Connection> connector;
+	private final ReconnectPolicy policy;
+	private final List<Listener> listeners;
+
+	// the following fields are guarded by this
+	/** Checks the connection after an exception and replaces it if it has failed. */
+	private Thread reconnectThread;
+	private boolean reconnecting;
+	private long failureNanos;
+	private int failureCount;
+	private int reconnectCount;
+	private long downtimeNanos;
+	private boolean abandoned;
+	private boolean closed;
+
+	/** Full constructor. Registers the supervisor as exception listener of the connection.
+	 *  @param connection the connection to supervise
+	 *  @param connector creates a replacement for the connection
+	 *  @param policy the delays between reconnect attempts 
+	 *  @throws JMSException if the exception listener cannot be registered */
+	public ConnectionSupervisor(ManagedConnection connection, Callable<Connection> connector, ReconnectPolicy policy) 
+			throws JMSException {
+		this.connection = connection;
+		this.connector = connector;
+		this.policy = policy;
+		this.listeners = new CopyOnWriteArrayList<Listener>();
+		connection.getConnection().setExceptionListener(this);
+		connection.setSupervisor(this);
+	}
+
+	public void addListener(Listener listener) {
+		listeners.add(listener);
+	}
+
+	public void removeListener(Listener listener) {
+		listeners.remove(listener);
+	}
+
+	@Override
+	public synchronized void onException(final JMSException exception) {
+		if (closed || abandoned || reconnectThread != null) {
+			return;
+		}
+		final long exceptionNanos = System.nanoTime();
+		reconnectThread = new Thread(new Runnable() {
+			@Override
+			public void run() {
+				if (isUsable()) {
+					LOGGER.warn(connection + " reported an error, but is still usable", exception);
+					checked();
+					return;
+				}
+				if (failed(exceptionNanos)) {
+					LOGGER.warn("Lost " + connection + ", reconnecting with " + policy, exception);
+					reconnect();
+				}
+			}
+		}, "JMS reconnect");
+		reconnectThread.setDaemon(true);
+		reconnectThread.start();
+	}
+
+	/** @return true if a session can be created on the connection, so it has not failed */
+	private boolean isUsable() {
+		try {
+			Session session = connection.getConnection().createSession(false, Session.AUTO_ACKNOWLEDGE);
+			session.close();
+			return true;
+		}
+		catch (JMSException e) {
+			LOGGER.debug("Check of " + connection + " failed: " + e);
+			return false;
+		}
+	}
+
+	/** Ends the check of a connection which is still usable. */
+	private synchronized void checked() {
+		if (!closed) {
+			reconnectThread = null;
+		}
+	}
+
+	/** Records the failure of the connection.
+	 *  @return false if the supervisor was closed in the meantime */
+	private synchronized boolean failed(long exceptionNanos) {
+		if (closed) {
+			return false;
+		}
+		reconnecting = true;
+		failureNanos = exceptionNanos;
+		failureCount++;
+		return true;
+	}
+
+	private void reconnect() {
+		int clientIdConflicts = 0;
+		for (int attempt = 0; !isClosed(); attempt++) {
+			try {
+				Thread.sleep(policy.getDelay(attempt));
+				Connection replacement = connector.call();
+				try {
+					// some providers only register the client ID with the broker when the connection is first used
+					Session session = replacement.createSession(false, Session.AUTO_ACKNOWLEDGE);
+					session.close();
+					replacement.setExceptionListener(this);
+				}
+				catch (JMSException e) {
+					close(replacement);
+					throw e;
+				}
+				if (!replace(replacement)) {
+					return;
+				}
+				LOGGER.info("Reconnected " + connection + " after " + (attempt + 1) + " attempt(s)");
+				for (Listener listener : listeners) {
+					try {
+						listener.reconnected(connection);
+					}
+					catch (RuntimeException e) {
+						LOGGER.warn("Failed to restore resources of " + connection + " in " + listener, e);
+					}
+				}
+				return;
+			}
+			catch (InterruptedException e) {
+				// closed
+				return;
+			}
+			catch (Exception e) {
+				if (!isClientIdConflict(e)) {
+					clientIdConflicts = 0;
+				}
+				else if (++clientIdConflicts >= MAX_CLIENT_ID_CONFLICTS) {
+					LOGGER.error("Abandoned reconnecting " + connection + " after " + clientIdConflicts 
+							+ " attempts, since its client ID is still in use", e);
+					abandon();
+					return;
+				}
+				LOGGER.debug("Reconnect attempt " + (attempt + 1) + " for " + connection + " failed: " + e);
+			}
+		}
+	}
+
+	private static boolean isClientIdConflict(Throwable exception) {
+		for (Throwable t = exception; t != null; t = t.getCause()) {
+			if (t instanceof InvalidClientIDException) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	/** Ends reconnecting for good; the connection stays failed. */
+	private synchronized void abandon() {
+		abandoned = true;
+		reconnectThread = null;
+	}
+
+	/** @return false if the supervisor was closed in the meantime */
+	private synchronized boolean replace(Connection replacement) {
+		if (closed) {
+			close(replacement);
+			return false;
+		}
+		connection.replace(replacement);
+		reconnectCount++;
+		downtimeNanos += System.nanoTime() - failureNanos;
+		reconnecting = false;
+		reconnectThread = null;
+		return true;
+	}
+
+	/** Stops reconnecting; a pending reconnect is abandoned. */
+	public synchronized void close() {
+		closed = true;
+		if (reconnectThread != null) {
+			reconnectThread.interrupt();
+			reconnectThread = null;
+		}
+		reconnecting = false;
+	}
+
+	public synchronized boolean isClosed() {
+		return closed;
+	}
+
+	/** @return true if reconnecting has been abandoned since the client ID of the connection stayed in use */
+	public synchronized boolean isAbandoned() {
+		return abandoned;
+	}
+
+	/** @return true if the connection failed and has not been replaced yet */
+	public synchronized boolean isReconnecting() {
+		return reconnecting;
+	}
+
+	/** @return the number of times the connection failed */
+	public synchronized int getFailureCount() {
+		return failureCount;
+	}
+
+	/** @return the number of times the connection was replaced successfully */
+	public synchronized int getReconnectCount() {
+		return reconnectCount;
+	}
+
+	/** @return the number of milliseconds between connection failures and their replacement, 
+	 *  		including a pending reconnect */
+	public synchronized long getDowntimeMillis() {
+		long nanos = downtimeNanos + (reconnecting ? System.nanoTime() - failureNanos : 0);
+		return TimeUnit.NANOSECONDS.toMillis(nanos);
+	}
+
+	@Override
+	public synchronized String toString() {
+		return "connection failures=" + failureCount + ", reconnects=" + reconnectCount 
+				+ ", downtime=" + getDowntimeMillis() + " ms" + (abandoned ? ", abandoned" : "");
+	}
+
+	private static void close(Connection connection) {
+		try {
+			connection.close();
+		}
+		catch (JMSException e) {
+			LOGGER.debug("Failed to close jms connection : ", e);
+		}
+	}
+
+}
@@ -0,0 +1,219 @@
+/*
+ * Copyright (C) 2015 Hamburg Sud and the contributors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.aludratest.service.jms.impl;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import javax.jms.Destination;
+import javax.jms.JMSException;
+import javax.jms.MessageConsumer;
+import javax.jms.Session;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Bounded cache of {@link MessageConsumer}s of one {@link Session}, keyed by destination name and message selector.
+ * Keeping a consumer open preserves the messages the provider has already prefetched for it, so that
+ * consecutive receives from the same queue do not pay a subscription round-trip each.
+ * <p>
+ * Prefetched messages are invisible to all other consumers of the queue until their consumer is closed,
+ * at which point the provider returns the unacknowledged ones to the queue. For this reason, a consumer is
+ * closed when it has been idle for longer than <code>idleTimeout</code> milliseconds, which is checked on each
+ * request and periodically by the {@link SessionPool}, even if the owning thread does not receive anymore; at most one
+ * consumer per destination is kept: Requesting a consumer with another selector closes the cached one
+ * first, so that messages matching the new selector are not held back in the old consumer's buffer.
+ * When the cache is full, the least recently used consumer is closed.
+ * A maximum size of <code>0</code> disables caching.
+ */
+
+public class ConsumerCache {
+
+	private static final Logger LOGGER = LoggerFactory.getLogger(ConsumerCache.class);
+
+	private final Session session;
+	private final int maxSize;
+	private final long idleTimeoutNanos;
+	private final LinkedHashMap<String, CachedConsumer> consumers;
+
+	private long hits;
+	private long misses;
+	private long evictions;
+
+	/** Full constructor.
+	 *  @param session the session to create the consumers with
+	 *  @param maxSize the maximum number of consumers to keep open, <code>0</code> disables caching
+	 *  @param idleTimeout the number of milliseconds after which an unused consumer is closed */
+	public ConsumerCache(Session session, int maxSize, long idleTimeout) {
+		this.session = session;
+		this.maxSize = maxSize;
+		this.idleTimeoutNanos = TimeUnit.MILLISECONDS.toNanos(idleTimeout);
+		// access order makes the eldest entry the least recently used one
+		this.consumers = new LinkedHashMap<String, CachedConsumer>(16, 0.75f, true) {
+			private static final long serialVersionUID = 1L;
+			@Override
+			protected boolean removeEldestEntry(Map.Entry<String, CachedConsumer> eldest) {
+				if (size() > ConsumerCache.this.maxSize) {
+					evictions++;
+					LOGGER.debug("Evicting consumer for destination " + eldest.getValue().destinationName);
+					closeConsumer(eldest.getValue().consumer);
+					return true;
+				}
+				return false;
+			}
+		};
+	}
+
+	/** Returns a consumer for the given destination and selector, reusing a cached one if available.
+	 *  @param destinationName the name of the destination, used as cache key
+	 *  @param messageSelector the message selector, may be <code>null</code>
+	 *  @param destination the destination to create a consumer for if none is cached
+	 *  @return a consumer for the destination */
+	public synchronized MessageConsumer getConsumer(String destinationName, String messageSelector, Destination destination)
+			throws JMSException {
+		if (maxSize <= 0) {
+			misses++;
+			return session.createConsumer(destination, messageSelector);
+		}
+		long now = System.nanoTime();
+		evictIdle(now);
+		String key = key(destinationName, messageSelector);
+		CachedConsumer entry = consumers.get(key);
+		if (entry != null) {
+			hits++;
+		} else {
+			misses++;
+			invalidate(destinationName);
+			entry = new CachedConsumer(destinationName, session.createConsumer(destination, messageSelector));
+			consumers.put(key, entry);
+		}
+		entry.lastUse = now;
+		entry.users++;
+		return entry.consumer;
+	}
+
+	/** Must be called after each use of a consumer obtained from {@link #getConsumer(String, String, Destination)}.
+	 *  Closes the consumer if caching is disabled, otherwise the consumer stays open for reuse
+	 *  and its idle time starts.
+	 *  @param consumer the consumer to release */
+	public synchronized void release(MessageConsumer consumer) {
+		if (maxSize <= 0) {
+			closeConsumer(consumer);
+			return;
+		}
+		for (CachedConsumer entry : consumers.values()) {
+			if (entry.consumer == consumer) {
+				entry.users--;
+				entry.lastUse = System.nanoTime();
+			}
+		}
+	}
+
+	/** Closes and removes the consumers of the given destination, if there are any.
+	 *  @param destinationName the name of the destination */
+	public synchronized void invalidate(String destinationName) {
+		Iterator<CachedConsumer> iterator = consumers.values().iterator();
+		while (iterator.hasNext()) {
+			CachedConsumer entry = iterator.next();
+			if (entry.destinationName.equals(destinationName)) {
+				closeConsumer(entry.consumer);
+				iterator.remove();
+			}
+		}
+	}
+
+	/** Closes all consumers which have not been used within the idle timeout.
+	 *  May be called by any thread, consumers which are currently in use are kept. */
+	public synchronized void evictIdle() {
+		evictIdle(System.nanoTime());
+	}
+
+	/** Closes all cached consumers. */
+	public synchronized void close() {
+		Iterator<CachedConsumer> iterator = consumers.values().iterator();
+		while (iterator.hasNext()) {
+			closeConsumer(iterator.next().consumer);
+			iterator.remove();
+		}
+	}
+
+	public synchronized int size() {
+		return consumers.size();
+	}
+
+	public synchronized long getHits() {
+		return hits;
+	}
+
+	public synchronized long getMisses() {
+		return misses;
+	}
+
+	public synchronized long getEvictions() {
+		return evictions;
+	}
+
+	@Override
+	public synchronized String toString() {
+		return "consumer cache [ size=" + consumers.size() + "/" + maxSize + ", hits=" + hits + ", misses=" + misses
+				+ ", evictions=" + evictions + " ]";
+	}
+
+	private void evictIdle(long now) {
+		Iterator<CachedConsumer> iterator = consumers.values().iterator();
+		while (iterator.hasNext()) {
+			CachedConsumer entry = iterator.next();
+			if (entry.users > 0 || now - entry.lastUse < idleTimeoutNanos) {
+				continue;
+			}
+			evictions++;
+			LOGGER.debug("Closing idle consumer for destination " + entry.destinationName);
+			closeConsumer(entry.consumer);
+			iterator.remove();
+		}
+	}
+
+	private static String key(String destinationName, String messageSelector) {
+		return (messageSelector == null ? destinationName : destinationName + '\u0000' + messageSelector);
+	}
+
+	private static void closeConsumer(MessageConsumer consumer) {
+		try {
+			// unacknowledged prefetched messages are returned to the destination by the provider
+			consumer.close();
+		}
+		catch (JMSException e) {
+			LOGGER.debug("Failed to close consumer: ", e);
+		}
+	}
+
+	private static final class CachedConsumer {
+
+		final String destinationName;
+		final MessageConsumer consumer;
+		long lastUse;
+		int users;
+
+		CachedConsumer(String destinationName, MessageConsumer consumer) {
+			this.destinationName = destinationName;
+			this.consumer = consumer;
+		}
+	}
+
+}
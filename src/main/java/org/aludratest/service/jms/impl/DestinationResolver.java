@@ -0,0 +1,196 @@
+/*
+ * Copyright (C) 2015 Hamburg Sud and the contributors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.aludratest.service.jms.impl;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+
+import javax.jms.Destination;
+import javax.naming.Context;
+import javax.naming.NameNotFoundException;
+import javax.naming.NamingException;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Resolves JNDI names to {@link Destination}s and caches the results.
+ * Successful lookups are cached for <code>ttl</code> milliseconds. Failed lookups of availability
+ * checks are cached for <code>negativeTtl</code> milliseconds, so that polling loops on a missing
+ * destination do not hit the JNDI server on each iteration; they do not affect {@link #resolve(String)}.
+ * A TTL of <code>0</code> disables the respective cache, a negative TTL makes entries live until
+ * they are invalidated explicitly.
+ * JNDI contexts need not be thread-safe, and a pooled context is shared by the resolvers of several services,
+ * so lookups synchronize on the context.
+ */
+
+public class DestinationResolver {
+
+	private static final Logger LOGGER = LoggerFactory.getLogger(DestinationResolver.class);
+
+	private final Context context;
+	private final long ttlNanos;
+	private final long negativeTtlNanos;
+	private final ConcurrentMap<String, Entry> cache;
+	private volatile JmsMetrics metrics;
+	private volatile OperationTimeline timeline;
+
+	/** Full constructor.
+	 *  @param context the JNDI context to look up destinations in
+	 *  @param ttl the number of milliseconds to cache a resolved destination
+	 *  @param negativeTtl the number of milliseconds to cache a failed lookup */
+	public DestinationResolver(Context context, long ttl, long negativeTtl) {
+		this.context = context;
+		this.ttlNanos = toNanos(ttl);
+		this.negativeTtlNanos = toNanos(negativeTtl);
+		this.cache = new ConcurrentHashMap<String, Entry>();
+	}
+
+	/** Makes the resolver record the duration of JNDI lookups; cache hits are not recorded.
+	 *  @param metrics the metrics to record lookups in, or <code>null</code> */
+	public void setMetrics(JmsMetrics metrics) {
+		this.metrics = metrics;
+	}
+
+	/** Makes the resolver record JNDI lookups in a timeline; cache hits are not recorded.
+	 *  @param timeline the timeline to record lookups in, or <code>null</code> */
+	public void setTimeline(OperationTimeline timeline) {
+		this.timeline = timeline;
+	}
+
+	/** Resolves a destination name. Failed lookups cached by {@link #isAvailable(String)} are ignored,
+	 *  so that a destination which has just been created can be used immediately.
+	 *  @param destinationName the JNDI name of the destination
+	 *  @return the destination
+	 *  @throws NamingException if the name cannot be resolved or is not bound to a {@link Destination} */
+	public Destination resolve(String destinationName) throws NamingException {
+		long now = System.nanoTime();
+		Entry entry = getEntry(destinationName, now);
+		if (entry != null && entry.destination != null) {
+			return entry.destination;
+		}
+		return lookup(destinationName, now);
+	}
+
+	/** Tells if a destination name can be resolved. Failed lookups are cached for <code>negativeTtl</code>
+	 *  milliseconds, so that polling loops on a missing destination do not hit the JNDI server on each iteration.
+	 *  @param destinationName the JNDI name of the destination
+	 *  @return true if the name is bound to a {@link Destination}, otherwise false */
+	public boolean isAvailable(String destinationName) {
+		long now = System.nanoTime();
+		Entry entry = getEntry(destinationName, now);
+		if (entry != null) {
+			return (entry.destination != null);
+		}
+		try {
+			lookup(destinationName, now);
+			return true;
+		}
+		catch (NamingException e) {
+			if (negativeTtlNanos != 0) {
+				LOGGER.debug("Caching failed lookup of " + destinationName);
+				cache.put(destinationName, new Entry(null, expiry(now, negativeTtlNanos)));
+			}
+			return false;
+		}
+	}
+
+	/** @return the unexpired cache entry of the destination, or <code>null</code> */
+	private Entry getEntry(String destinationName, long now) {
+		Entry entry = cache.get(destinationName);
+		if (entry != null && entry.isExpired(now)) {
+			cache.remove(destinationName, entry);
+			return null;
+		}
+		return entry;
+	}
+
+	private Destination lookup(String destinationName, long now) throws NamingException {
+		JmsMetrics currentMetrics = metrics;
+		OperationTimeline currentTimeline = timeline;
+		Object object;
+		try {
+			synchronized (context) {
+				object = context.lookup(destinationName);
+			}
+		}
+		catch (NamingException e) {
+			if (currentMetrics != null) {
+				currentMetrics.recordError(JmsMetrics.Operation.LOOKUP, destinationName);
+			}
+			if (currentTimeline != null) {
+				currentTimeline.record(JmsMetrics.Operation.LOOKUP, destinationName, now, System.nanoTime() - now, 0,
+						OperationTimeline.Outcome.ERROR);
+			}
+			throw e;
+		}
+		// the lookup itself succeeded, even if the bound object turns out to be no destination
+		if (currentMetrics != null) {
+			currentMetrics.record(JmsMetrics.Operation.LOOKUP, destinationName, System.nanoTime() - now, 0);
+		}
+		if (currentTimeline != null) {
+			currentTimeline.record(JmsMetrics.Operation.LOOKUP, destinationName, now, System.nanoTime() - now, 0,
+					OperationTimeline.Outcome.OK);
+		}
+		if (!(object instanceof Destination)) {
+			throw new NameNotFoundException("JNDI object with name " + destinationName + " is no destination");
+		}
+		Destination destination = (Destination) object;
+		if (ttlNanos != 0) {
+			cache.put(destinationName, new Entry(destination, expiry(now, ttlNanos)));
+		} else {
+			// a negative entry must not outlive a successful lookup
+			cache.remove(destinationName);
+		}
+		return destination;
+	}
+
+	/** Removes a cached lookup result, positive or negative.
+	 *  @param destinationName the JNDI name of the destination */
+	public void invalidate(String destinationName) {
+		cache.remove(destinationName);
+	}
+
+	/** Removes all cached lookup results. */
+	public void invalidateAll() {
+		cache.clear();
+	}
+
+	private static long toNanos(long millis) {
+		return (millis < 0 ? -1 : TimeUnit.MILLISECONDS.toNanos(millis));
+	}
+
+	private static long expiry(long now, long ttlNanos) {
+		return (ttlNanos < 0 ? Long.MAX_VALUE : now + ttlNanos);
+	}
+
+	private static final class Entry {
+
+		final Destination destination;
+		final long expiry;
+
+		Entry(Destination destination, long expiry) {
+			this.destination = destination;
+			this.expiry = expiry;
+		}
+
+		boolean isExpired(long now) {
+			return (expiry != Long.MAX_VALUE && now - expiry >= 0);
+		}
+	}
+
+}
@@ -0,0 +1,384 @@
+/*
+ * Copyright (C) 2015 Hamburg Sud and the contributors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.aludratest.service.jms.impl;
+
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletionService;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+import javax.jms.Connection;
+import javax.jms.Destination;
+import javax.jms.JMSException;
+import javax.jms.Message;
+import javax.jms.MessageConsumer;
+import javax.jms.Session;
+
+import org.aludratest.exception.AccessFailure;
+import org.aludratest.service.jms.impl.selector.MessageSelector;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Runs blocking receives on many destinations concurrently and combines their results.
+ * Each waiting receive occupies a thread. On Java 21 and later, the receives can run on virtual threads, 
+ * so that thousands of concurrent waits cost little more than their consumers; otherwise they run on 
+ * a pool of platform threads which grows with the number of concurrent waits.
+ * <p>
+ * Queue messages are received in transacted sessions: Only the messages which are handed to the caller 
+ * are committed, all others are rolled back and thus stay on their queues.
+ */
+
+public class FanInReceiver {
+
+	private static final Logger LOGGER = LoggerFactory.getLogger(FanInReceiver.class);
+
+	/** Additional time to wait for a receive beyond its timeout, and for an aborted receive to return. */
+	private static final long GRACE_MILLIS = 5000;
+
+	private final ExecutorService executor;
+
+	private final boolean virtual;
+
+	/** Full constructor.
+	 *  @param virtualThreads if set, the receives run on virtual threads if the JVM supports them */
+	public FanInReceiver(boolean virtualThreads) {
+		ExecutorService virtualExecutor = (virtualThreads ? newVirtualThreadExecutor() : null);
+		if (virtualExecutor != null) {
+			this.executor = virtualExecutor;
+			this.virtual = true;
+		} else {
+			this.executor = Executors.newCachedThreadPool(new ThreadFactory() {
+				@Override
+				public Thread newThread(Runnable runnable) {
+					Thread thread = new Thread(runnable, "JMS receiver");
+					thread.setDaemon(true);
+					return thread;
+				}
+			});
+			this.virtual = false;
+		}
+	}
+
+	/** @return true if the receives run on virtual threads */
+	public boolean isVirtual() {
+		return virtual;
+	}
+
+	/** Waits for the first message from any of the queues. 
+	 *  @param connection the started connection to create the receiving sessions with
+	 *  @param destinations the queues to receive from
+	 *  @param messageSelector a message selector or <code>null</code>
+	 *  @param timeout the number of milliseconds to wait, <code>0</code> means to wait without timeout
+	 *  @return the first message and the index of its queue, or <code>null</code> if no message arrived within the timeout */
+	public Delivery receiveFirst(Connection connection, List<Destination> destinations, String messageSelector, long timeout) 
+			throws JMSException, InterruptedException {
+		List<Receiver> receivers = open(connection, destinations, messageSelector);
+		try {
+			CompletionService<Delivery> completion = new ExecutorCompletionService<Delivery>(executor);
+			List<Future<Delivery>> futures = new ArrayList<Future<Delivery>>(receivers.size());
+			for (Receiver receiver : receivers) {
+				futures.add(completion.submit(receiver.receiveTask(timeout)));
+			}
+			long deadline = deadline(timeout);
+			Delivery first = null;
+			for (int pending = futures.size(); pending > 0 && first == null; pending--) {
+				Future<Delivery> done = (timeout > 0 ? completion.poll(remaining(deadline), TimeUnit.NANOSECONDS) : completion.take());
+				if (done == null) {
+					break;
+				}
+				Delivery delivery = result(done);
+				if (delivery.getMessage() != null) {
+					first = delivery;
+				}
+			}
+			// aborts the other receives; messages which arrived meanwhile are rolled back below
+			for (Receiver receiver : receivers) {
+				if (first == null || receiver.index != first.getIndex()) {
+					receiver.closeConsumer();
+				}
+			}
+			awaitAborted(futures);
+			for (Receiver receiver : receivers) {
+				if (first == null || receiver.index != first.getIndex()) {
+					receiver.session.rollback();
+				}
+			}
+			if (first != null) {
+				receivers.get(first.getIndex()).session.commit();
+			}
+			return first;
+		}
+		finally {
+			close(receivers);
+		}
+	}
+
+	/** Waits for one message from each of the queues. The messages are only consumed if all queues deliver one.
+	 *  @param connection the started connection to create the receiving sessions with
+	 *  @param destinations the queues to receive from
+	 *  @param messageSelector a message selector or <code>null</code>
+	 *  @param timeout the number of milliseconds to wait, <code>0</code> means to wait without timeout
+	 *  @return the messages in the order of the destinations, with <code>null</code> for each queue which did not deliver one */
+	public Message[] receiveEach(Connection connection, List<Destination> destinations, String messageSelector, long timeout) 
+			throws JMSException, InterruptedException {
+		List<Receiver> receivers = open(connection, destinations, messageSelector);
+		try {
+			List<Future<Delivery>> futures = new ArrayList<Future<Delivery>>(receivers.size());
+			for (Receiver receiver : receivers) {
+				futures.add(executor.submit(receiver.receiveTask(timeout)));
+			}
+			Message[] messages = new Message[receivers.size()];
+			boolean complete = true;
+			long deadline = deadline(timeout);
+			for (int i = 0; i < futures.size(); i++) {
+				try {
+					messages[i] = result(futures.get(i), deadline).getMessage();
+				}
+				catch (TimeoutException e) {
+					receivers.get(i).closeConsumer();
+				}
+				complete &= (messages[i] != null);
+			}
+			if (!complete) {
+				awaitAborted(futures);
+			}
+			for (Receiver receiver : receivers) {
+				if (complete) {
+					receiver.session.commit();
+				} else {
+					receiver.session.rollback();
+				}
+			}
+			return messages;
+		}
+		finally {
+			close(receivers);
+		}
+	}
+
+	/** Waits for one message from each of the subscriptions. 
+	 *  Messages which are received from some subscriptions are consumed even if others do not deliver one.
+	 *  @param handlers the subscriptions to receive from
+	 *  @param selector the selector which the messages must match
+	 *  @param timeout the number of milliseconds to wait, <code>0</code> means to wait without timeout
+	 *  @return the messages in the order of the subscriptions, with <code>null</code> for each one which did not deliver one */
+	public Message[] receiveEach(List<TopicHandler> handlers, final MessageSelector selector, final long timeout) 
+			throws InterruptedException {
+		List<Future<Delivery>> futures = new ArrayList<Future<Delivery>>(handlers.size());
+		for (int i = 0; i < handlers.size(); i++) {
+			final int index = i;
+			final TopicHandler handler = handlers.get(i);
+			futures.add(executor.submit(new Callable<Delivery>() {
+				@Override
+				public Delivery call() {
+					return new Delivery(index, handler.receive(selector, timeout));
+				}
+			}));
+		}
+		Message[] messages = new Message[handlers.size()];
+		long deadline = deadline(timeout);
+		try {
+			for (int i = 0; i < futures.size(); i++) {
+				messages[i] = result(futures.get(i), deadline).getMessage();
+			}
+		}
+		catch (JMSException e) {
+			// not thrown by topic handlers
+			throw new AccessFailure("Could not receive JMS message", e);
+		}
+		catch (TimeoutException e) {
+			LOGGER.warn("Subscription receives did not return within the timeout");
+		}
+		return messages;
+	}
+
+	/** Stops the receiver threads. Receives which are still waiting are interrupted. */
+	public void close() {
+		executor.shutdownNow();
+	}
+
+	private static List<Receiver> open(Connection connection, List<Destination> destinations, String messageSelector) 
+			throws JMSException {
+		List<Receiver> receivers = new ArrayList<Receiver>(destinations.size());
+		try {
+			for (Destination destination : destinations) {
+				Session session = connection.createSession(true, Session.SESSION_TRANSACTED);
+				Receiver receiver = new Receiver(receivers.size(), session);
+				receivers.add(receiver);
+				receiver.consumer = session.createConsumer(destination, messageSelector);
+			}
+			return receivers;
+		}
+		catch (JMSException e) {
+			close(receivers);
+			throw e;
+		}
+	}
+
+	private static void close(List<Receiver> receivers) {
+		for (Receiver receiver : receivers) {
+			try {
+				receiver.session.close();
+			}
+			catch (JMSException e) {
+				LOGGER.debug("Failed to close jms session : ", e);
+			}
+		}
+	}
+
+	/** Waits for receives whose consumers have been closed. */
+	private static void awaitAborted(List<Future<Delivery>> futures) throws InterruptedException {
+		long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(GRACE_MILLIS);
+		for (Future<Delivery> future : futures) {
+			try {
+				future.get(remaining(deadline), TimeUnit.NANOSECONDS);
+			}
+			catch (ExecutionException e) {
+				LOGGER.debug("Aborted receive failed : ", e.getCause());
+			}
+			catch (TimeoutException e) {
+				LOGGER.warn("Aborted receive did not return within " + GRACE_MILLIS + " ms");
+			}
+		}
+	}
+
+	private static Delivery result(Future<Delivery> future) throws JMSException, InterruptedException {
+		try {
+			return future.get();
+		}
+		catch (ExecutionException e) {
+			throw unwrap(e);
+		}
+	}
+
+	private static Delivery result(Future<Delivery> future, long deadline) 
+			throws JMSException, InterruptedException, TimeoutException {
+		try {
+			return (deadline == Long.MAX_VALUE ? future.get() : future.get(remaining(deadline), TimeUnit.NANOSECONDS));
+		}
+		catch (ExecutionException e) {
+			throw unwrap(e);
+		}
+	}
+
+	private static JMSException unwrap(ExecutionException e) {
+		Throwable cause = e.getCause();
+		if (cause instanceof JMSException) {
+			return (JMSException) cause;
+		}
+		if (cause instanceof RuntimeException) {
+			throw (RuntimeException) cause;
+		}
+		if (cause instanceof Error) {
+			throw (Error) cause;
+		}
+		throw new IllegalStateException("Unexpected failure of receive", cause);
+	}
+
+	/** @return the point in time until which to wait for receives with the given timeout, 
+	 *  		or {@link Long#MAX_VALUE} if they wait without timeout */
+	private static long deadline(long timeout) {
+		return (timeout > 0 ? System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(timeout + GRACE_MILLIS) : Long.MAX_VALUE);
+	}
+
+	private static long remaining(long deadline) {
+		return Math.max(0, deadline - System.nanoTime());
+	}
+
+	/** Creates an executor which starts a virtual thread per task, if the JVM supports it.
+	 *  @return the executor, or <code>null</code> if virtual threads are not available */
+	private static ExecutorService newVirtualThreadExecutor() {
+		try {
+			Method factory = Executors.class.getMethod("newVirtualThreadPerTaskExecutor");
+			return (ExecutorService) factory.invoke(null);
+		}
+		catch (NoSuchMethodException e) {
+			LOGGER.info("Virtual threads are not available in this JVM, receiving on platform threads");
+		}
+		catch (IllegalAccessException e) {
+			LOGGER.info("Virtual threads are not accessible, receiving on platform threads: " + e);
+		}
+		catch (InvocationTargetException e) {
+			LOGGER.info("Virtual threads could not be created, receiving on platform threads: " + e.getCause());
+		}
+		return null;
+	}
+
+	/** A received message and the index of the destination or subscription it came from. */
+	public static final class Delivery {
+
+		private final int index;
+		private final Message message;
+
+		Delivery(int index, Message message) {
+			this.index = index;
+			this.message = message;
+		}
+
+		public int getIndex() {
+			return index;
+		}
+
+		/** @return the message, or <code>null</code> if none arrived within the timeout */
+		public Message getMessage() {
+			return message;
+		}
+	}
+
+	/** A transacted session with a consumer, used by one receive task at a time. */
+	private static final class Receiver {
+
+		final int index;
+		final Session session;
+		MessageConsumer consumer;
+
+		Receiver(int index, Session session) {
+			this.index = index;
+			this.session = session;
+		}
+
+		Callable<Delivery> receiveTask(final long timeout) {
+			return new Callable<Delivery>() {
+				@Override
+				public Delivery call() throws JMSException {
+					return new Delivery(index, (timeout > 0 ? consumer.receive(timeout) : consumer.receive()));
+				}
+			};
+		}
+
+		/** Closes the consumer, which makes a waiting receive return <code>null</code>. */
+		void closeConsumer() {
+			try {
+				consumer.close();
+			}
+			catch (JMSException e) {
+				LOGGER.debug("Failed to close jms consumer : ", e);
+			}
+		}
+	}
+
+}
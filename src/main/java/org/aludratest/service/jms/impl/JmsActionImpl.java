@@ -15,17 +15,32 @@
  */
 package org.aludratest.service.jms.impl;
 
+import java.io.Closeable;
 import java.io.IOException;
 import java.io.Serializable;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
 import java.util.HashMap;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
 
 import javax.jms.BytesMessage;
 import javax.jms.Connection;
 import javax.jms.ConnectionFactory;
 import javax.jms.Destination;
+import javax.jms.InvalidSelectorException;
 import javax.jms.JMSException;
 import javax.jms.Message;
 import javax.jms.MessageConsumer;
@@ -36,7 +51,6 @@ import javax.jms.TextMessage;
 import javax.jms.Topic;
 import javax.jms.TopicSession;
 import javax.jms.TopicSubscriber;
-import javax.naming.InitialContext;
 import javax.naming.NamingException;
 
 import org.aludratest.exception.AccessFailure;
@@ -47,12 +61,17 @@ import org.aludratest.exception.TechnicalException;
 import org.aludratest.service.SystemConnector;
 import org.aludratest.service.TechnicalArgument;
 import org.aludratest.service.TechnicalLocator;
+import org.aludratest.service.jms.Flow;
+import org.aludratest.service.jms.JmsAsyncInteraction;
 import org.aludratest.service.jms.JmsCondition;
 import org.aludratest.service.jms.JmsInteraction;
 import org.aludratest.service.jms.JmsVerification;
 import org.aludratest.service.jms.data.FileMessageData;
+import org.aludratest.service.jms.data.JmsMessageData;
+import org.aludratest.service.jms.data.LoadProfileData;
 import org.aludratest.service.jms.data.ObjectMessageData;
 import org.aludratest.service.jms.data.TextMessageData;
+import org.aludratest.service.jms.impl.selector.MessageSelector;
 import org.aludratest.testcase.event.attachment.Attachment;
 import org.aludratest.testcase.event.attachment.StringAttachment;
 import org.databene.commons.Assert;
@@ -68,19 +87,91 @@ public class JmsActionImpl implements JmsInteraction, JmsCondition, JmsVerificat
 
 	private static final Logger LOGGER = LoggerFactory.getLogger(JmsActionImpl.class);
 
-	private InitialContext context;
+	/** Number of milliseconds to wait for pending asynchronous sends on close. */
+	private static final long ASYNC_CLOSE_TIMEOUT = 5000;
+
+	/** Number of milliseconds to wait for all subscriptions and queue listeners to close. */
+	private static final long HANDLER_CLOSE_TIMEOUT = 10000;
+
+	/** Maximum number of threads which close subscriptions and queue listeners concurrently. */
+	private static final int MAX_CLOSE_THREADS = 8;
+
+	/** Number of milliseconds to wait for the destination lookups of the warm-up. */
+	private static final long WARM_UP_TIMEOUT = 30000;
+
+	/** Maximum number of threads which resolve destinations concurrently during warm-up. */
+	private static final int MAX_WARM_UP_THREADS = 8;
+
+	/** Number of milliseconds a newly created consumer waits for its first message 
+	 *  when a bulk receive has no time left, since the provider has not prefetched any messages for it yet. */
+	private static final long FRESH_CONSUMER_WAIT = 100;
+
+	private DestinationResolver destinationResolver;
 
     private ConnectionFactory connectionFactory;
 
-    private Connection connection;
+    private ManagedConnection connection;
+
+	/** Tells if the connection is provided by a {@link ConnectionPool} and must not be closed by this object. */
+	private final boolean sharedConnection;
+
+	/** The delays for reconnecting after a connection failure, or <code>null</code> to not reconnect. */
+	private final ReconnectPolicy reconnectPolicy;
+
+	private final ConnectionSupervisor.Listener reconnectListener;
+
+	private final boolean keepConnectionStarted;
 
 	/**
 	 * Need to keep track of durable subscribers to be able to disconnect them on
 	 * command.
 	 */
-    private Map<String, TopicHandler> topicHandlers;
+    private ConcurrentMap<String, TopicHandler> topicHandlers;
+
+	/** Connections which carry the topic subscriptions, by client ID. All non-durable subscriptions share 
+	 *  one connection, each durable subscription has its own one. Guarded by <code>this</code>. */
+	private final Map<String, SharedConnection> subscriptionConnections;
+
+	/** Listeners which buffer the messages of a queue, by queue name. */
+	private ConcurrentMap<String, QueueHandler> queueHandlers;
+
+	private final int queueBufferCapacity;
+
+	private final MessageBuffer.OverflowPolicy queueBufferOverflowPolicy;
+
+	/** If set, topic subscriptions are drained continuously into a buffer of the following size and policy. */
+	private final boolean topicListenerMode;
 
-	private Session session;
+	private final int topicBufferCapacity;
+
+	private final MessageBuffer.OverflowPolicy topicBufferOverflowPolicy;
+
+	/** Provides each thread with its own sessions, since JMS sessions must not be used concurrently. */
+	private SessionPool sessionPool;
+
+	private final int producerCacheSize;
+
+	private final int consumerCacheSize;
+
+	private final long consumerIdleTimeout;
+
+	private JmsAsyncActionImpl asyncAction;
+
+	private final int asyncMaxInFlight;
+
+	/** Runs the receives of fan-in operations, created on first use. */
+	private FanInReceiver fanInReceiver;
+
+	private final boolean virtualThreadReceives;
+
+	/** The instrumentation of the operations, or <code>null</code> if metrics are disabled. */
+	private final JmsMetrics metrics;
+
+	/** The last operations for the debug attachments, or <code>null</code> if the timeline is disabled. */
+	private final OperationTimeline timeline;
+
+	/** Stamps sent messages for end-to-end latency tracking, or <code>null</code> if it is disabled. */
+	private final MessageStamper stamper;
 
     private String userName;
 
@@ -88,34 +179,315 @@ public class JmsActionImpl implements JmsInteraction, JmsCondition, JmsVerificat
 
 	private String clientId;
 	
-	private String recentMessage;
+	private ThreadLocal<String> recentMessage;
 
+	/** Round-trip times of all request-reply exchanges. */
+	private final LatencyHistogram requestReplyLatency;
 
-	public JmsActionImpl(ConnectionFactory connectionFactory, InitialContext context, final String userName, final String password) {
+
+	/** Full constructor.
+	 *  @param connectionFactory the factory to create the connections with
+	 *  @param destinationResolver the resolver to look up destinations with
+	 *  @param sharedConnection a connection provided by a {@link ConnectionPool}, or <code>null</code> to create an own one
+	 *  @param settings the settings read from the service configuration */
+	public JmsActionImpl(ConnectionFactory connectionFactory, DestinationResolver destinationResolver,
+			ManagedConnection sharedConnection, JmsActionSettings settings) {
         this.connectionFactory = connectionFactory;
-		this.context = context;
-        this.userName = userName;
-        this.password = password;
-        this.topicHandlers = new HashMap<String, TopicHandler>();
+		this.connection = sharedConnection;
+		this.sharedConnection = (sharedConnection != null);
+		this.reconnectPolicy = settings.getReconnectPolicy();
+		this.reconnectListener = new ConnectionSupervisor.Listener() {
+			@Override
+			public void reconnected(ManagedConnection managedConnection) {
+				restoreAfterReconnect(managedConnection.getConnection());
+			}
+
+			@Override
+			public String toString() {
+				return "JmsService for clientId " + clientId;
+			}
+		};
+		if (sharedConnection != null && sharedConnection.getSupervisor() != null) {
+			sharedConnection.getSupervisor().addListener(reconnectListener);
+		}
+		this.destinationResolver = destinationResolver;
+        this.userName = settings.getUserName();
+        this.password = settings.getPassword();
+        this.topicHandlers = new ConcurrentHashMap<String, TopicHandler>();
+		this.queueHandlers = new ConcurrentHashMap<String, QueueHandler>();
+		this.subscriptionConnections = new HashMap<String, SharedConnection>();
 		this.clientId = userName + "@" + JmsActionImpl.class.getSimpleName() + this.hashCode();
-		this.recentMessage = null;
+		this.recentMessage = new ThreadLocal<String>();
+		this.requestReplyLatency = new LatencyHistogram();
+		this.producerCacheSize = settings.getProducerCacheSize();
+		this.consumerCacheSize = settings.getConsumerCacheSize();
+		this.consumerIdleTimeout = settings.getConsumerIdleTimeout();
+		this.keepConnectionStarted = settings.isKeepConnectionStarted();
+		this.asyncMaxInFlight = settings.getAsyncMaxInFlight();
+		this.queueBufferCapacity = settings.getQueueBufferCapacity();
+		this.queueBufferOverflowPolicy = settings.getQueueBufferOverflowPolicy();
+		this.topicListenerMode = settings.isTopicListenerMode();
+		this.topicBufferCapacity = settings.getTopicBufferCapacity();
+		this.topicBufferOverflowPolicy = settings.getTopicBufferOverflowPolicy();
+		this.virtualThreadReceives = settings.isVirtualThreadReceives();
+		if (settings.isMetricsEnabled()) {
+			this.metrics = new JmsMetrics(clientId);
+			this.metrics.register();
+			destinationResolver.setMetrics(metrics);
+		} else {
+			this.metrics = null;
+		}
+		this.timeline = (settings.getTimelineSize() > 0 ? new OperationTimeline(settings.getTimelineSize()) : null);
+		destinationResolver.setTimeline(timeline);
+		this.stamper = (settings.isEndToEndLatency() ? new MessageStamper() : null);
     }
 
+	/** @return the instrumentation of the operations, or <code>null</code> if metrics are disabled */
+	public JmsMetrics getMetrics() {
+		return metrics;
+	}
+
+	/** Provides the messages of a started subscription as a demand-driven stream of texts.
+	 *  @param subscriptionName the name of the subscription
+	 *  @param messageSelector a message selector or <code>null</code>
+	 *  @return a publisher which receives a message from the subscription for each item requested by a subscriber */
+	public Flow.Publisher<String> getTextMessagePublisher(String subscriptionName, String messageSelector) {
+		TopicHandler handler = getTopicHandler(subscriptionName);
+		if (handler == null) {
+			throw new AutomationException("No subscriber started for subscription " + subscriptionName);
+		}
+		MessageSelector selector;
+		try {
+			selector = MessageSelector.compile(messageSelector);
+		} catch (InvalidSelectorException e) {
+			throw new AutomationException("Invalid message selector: " + messageSelector, e);
+		}
+		return new SubscriptionPublisher<String>(handler, selector) {
+			@Override
+			protected String convert(Message message) throws JMSException {
+				return checkType(message, TextMessage.class).getText();
+			}
+		};
+	}
+
+	/** Provides the non-blocking send operations, which share this object's connection and destination cache.
+	 *  @return the {@link JmsAsyncInteraction} of this object */
+	public synchronized JmsAsyncInteraction getAsyncInteraction() {
+		if (asyncAction == null) {
+			asyncAction = new JmsAsyncActionImpl(getManagedConnection(), destinationResolver, producerCacheSize, asyncMaxInFlight,
+					stamper);
+		}
+		return asyncAction;
+	}
+
 	public void close() {
 		LOGGER.info("Closing JmsService for clientId " + this.clientId );
-		for (TopicHandler handler : this.topicHandlers.values()) {
-			handler.stop();
-			handler.close();
+		if (requestReplyLatency.getCount() > 0) {
+			LOGGER.info("Request-reply round trips: " + requestReplyLatency);
+		}
+		if (metrics != null) {
+			metrics.unregister();
+			if (!metrics.isEmpty()) {
+				LOGGER.info(metrics.getReport());
+			}
+		}
+		ConnectionSupervisor supervisor = (connection != null ? connection.getSupervisor() : null);
+		if (supervisor != null) {
+			supervisor.removeListener(reconnectListener);
+			if (supervisor.getFailureCount() > 0) {
+				LOGGER.info("Connection supervision: " + supervisor);
+			}
+		}
+		if (asyncAction != null) {
+			asyncAction.close(ASYNC_CLOSE_TIMEOUT);
+		}
+		List<Closeable> handlers = new ArrayList<Closeable>(this.topicHandlers.values());
+		handlers.addAll(this.queueHandlers.values());
+		List<Throwable> failures;
+		try {
+			failures = closeConcurrently(handlers, HANDLER_CLOSE_TIMEOUT);
+		}
+		finally {
+			this.topicHandlers.clear();
+			this.queueHandlers.clear();
+			synchronized (this) {
+				if (fanInReceiver != null) {
+					fanInReceiver.close();
+				}
+				if (sessionPool != null) {
+					sessionPool.close();
+				}
+				// closes the connections of subscriptions which did not close in time
+				for (SharedConnection subscriptionConnection : subscriptionConnections.values()) {
+					subscriptionConnection.close();
+				}
+				subscriptionConnections.clear();
+			}
+			if (connection != null && !sharedConnection) {
+				connection.close();
+			}
 		}
-		close(session);
-		stopAndClose(connection, "jms connection for client-id [ " + this.clientId + " ]");
+		if (!failures.isEmpty()) {
+			throw new AutomationException(failures.size() + " of " + handlers.size() 
+					+ " subscriptions and queue listeners failed to close", failures.get(0));
+		}
+	}
+
+	/** Closes the handlers on a bounded number of threads, each close being a synchronous broker round-trip.
+	 *  @param timeout the number of milliseconds to wait for all handlers together
+	 *  @return the failures of the handlers which could not be closed, including the ones which timed out */
+	static List<Throwable> closeConcurrently(Collection<? extends Closeable> handlers, long timeout) {
+		List<Throwable> failures = new ArrayList<Throwable>();
+		if (handlers.isEmpty()) {
+			return failures;
+		}
+		ExecutorService executor = newDaemonThreadPool(Math.min(handlers.size(), MAX_CLOSE_THREADS), "JMS close");
+		Map<Closeable, Future<?>> tasks = new LinkedHashMap<Closeable, Future<?>>();
+		try {
+			for (final Closeable handler : handlers) {
+				tasks.put(handler, executor.submit(new Callable<Void>() {
+					@Override
+					public Void call() throws IOException {
+						handler.close();
+						return null;
+					}
+				}));
+			}
+			executor.shutdown();
+			long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(timeout);
+			for (Map.Entry<Closeable, Future<?>> task : tasks.entrySet()) {
+				try {
+					task.getValue().get(Math.max(0, deadline - System.nanoTime()), TimeUnit.NANOSECONDS);
+				}
+				catch (ExecutionException e) {
+					LOGGER.warn("Failed to close " + task.getKey(), e.getCause());
+					failures.add(e.getCause());
+				}
+				catch (TimeoutException e) {
+					LOGGER.warn("Giving up to close " + task.getKey() + " after " + timeout + " ms");
+					failures.add(new TimeoutException(task.getKey() + " did not close within " + timeout + " ms"));
+				}
+			}
+		}
+		catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			LOGGER.warn("Interrupted while closing subscriptions and queue listeners");
+		}
+		finally {
+			executor.shutdownNow();
+		}
+		return failures;
+	}
+
+	private static ExecutorService newDaemonThreadPool(int threadCount, final String threadName) {
+		return Executors.newFixedThreadPool(threadCount, new ThreadFactory() {
+			@Override
+			public Thread newThread(Runnable runnable) {
+				Thread thread = new Thread(runnable, threadName);
+				thread.setDaemon(true);
+				return thread;
+			}
+		});
+	}
+
+	/** Opens the connection, starts it if it is kept started, creates idle sessions and resolves destinations 
+	 *  concurrently, so that the first operations of a test do not pay for it.
+	 *  @param destinationNames the JNDI names of the destinations to resolve
+	 *  @param sessionCount the number of sessions to create
+	 *  @return the number of milliseconds the warm-up took */
+	public long warmUp(Collection<String> destinationNames, int sessionCount) {
+		long start = System.nanoTime();
+		try {
+			startConnection();
+			stopConnection();
+			getSessionPool().prepare(sessionCount);
+		}
+		catch (JMSException e) {
+			throw new AccessFailure("Warm-up of the JMS connection failed", e);
+		}
+		int resolved = resolveConcurrently(destinationNames);
+		long millis = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+		LOGGER.info("Warm-up for client-id " + this.clientId + " took " + millis + " ms: " + sessionCount + " session(s), " 
+				+ resolved + " of " + destinationNames.size() + " destination(s) resolved");
+		return millis;
+	}
+
+	/** Measures a synchronous round-trip to the broker by creating and deleting a temporary queue 
+	 *  in a new session. 
+	 *  @return the number of nanoseconds the round-trip took
+	 *  @throws AccessFailure if the broker is not reachable */
+	public long measureRoundTrip() {
+		Session session = null;
+		long start = System.nanoTime();
+		try {
+			session = getOrCreateConnection().createSession(false, Session.AUTO_ACKNOWLEDGE);
+			session.createTemporaryQueue().delete();
+			return System.nanoTime() - start;
+		}
+		catch (JMSException e) {
+			throw new AccessFailure("Broker round-trip failed for client-id " + this.clientId, e);
+		}
+		finally {
+			close(session);
+		}
+	}
+
+	/** Resolves the destinations on a bounded number of threads, waiting up to {@link #WARM_UP_TIMEOUT} milliseconds.
+	 *  Destinations which cannot be resolved are logged, since they may be created by the test itself.
+	 *  @return the number of resolved destinations */
+	private int resolveConcurrently(Collection<String> destinationNames) {
+		if (destinationNames.isEmpty()) {
+			return 0;
+		}
+		ExecutorService executor = newDaemonThreadPool(Math.min(destinationNames.size(), MAX_WARM_UP_THREADS), "JMS warm-up");
+		Map<String, Future<Destination>> tasks = new LinkedHashMap<String, Future<Destination>>();
+		int resolved = 0;
+		try {
+			for (final String destinationName : destinationNames) {
+				tasks.put(destinationName, executor.submit(new Callable<Destination>() {
+					@Override
+					public Destination call() throws NamingException {
+						return destinationResolver.resolve(destinationName);
+					}
+				}));
+			}
+			executor.shutdown();
+			long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(WARM_UP_TIMEOUT);
+			for (Map.Entry<String, Future<Destination>> task : tasks.entrySet()) {
+				try {
+					task.getValue().get(Math.max(0, deadline - System.nanoTime()), TimeUnit.NANOSECONDS);
+					resolved++;
+				}
+				catch (ExecutionException e) {
+					LOGGER.warn("Could not resolve destination " + task.getKey() + " during warm-up: " + e.getCause());
+				}
+				catch (TimeoutException e) {
+					LOGGER.warn("Giving up to resolve destination " + task.getKey() + " after " + WARM_UP_TIMEOUT + " ms");
+				}
+			}
+		}
+		catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new AutomationException("Interrupted during warm-up", e);
+		}
+		finally {
+			executor.shutdownNow();
+		}
+		return resolved;
 	}
 	
 	@Override
 	public List<Attachment> createDebugAttachments() {
         List<Attachment> attachments = new ArrayList<Attachment>();
-        if (this.recentMessage != null) {
-            attachments.add(new StringAttachment("message content", this.recentMessage, "txt"));
+        String message = this.recentMessage.get();
+        if (message != null) {
+            attachments.add(new StringAttachment("message content", message, "txt"));
+        }
+        if (timeline != null && timeline.getRecordedCount() > 0) {
+            attachments.add(new StringAttachment("JMS timeline", timeline.toString(), "txt"));
+        }
+        if (metrics != null && !metrics.isEmpty()) {
+            attachments.add(new StringAttachment("JMS metrics", metrics.getReport(), "txt"));
         }
         return attachments;
 	}
@@ -141,12 +513,111 @@ public class JmsActionImpl implements JmsInteraction, JmsCondition, JmsVerificat
 	@Override
 	public boolean isDestinationAvailable(String destinationName) {
 		memorizeMessage(null);
+		return destinationResolver.isAvailable(destinationName);
+	}
+
+	@Override
+	public void assertLatencyPercentileBelow(String operation, String destinationName, double percentile, long maxMillis) {
+		memorizeMessage(null);
+		failOnViolation(getMetricsForCheck().checkLatencyPercentile(toOperation(operation), destinationName, percentile,
+				maxMillis));
+	}
+
+	@Override
+	public boolean isLatencyPercentileBelow(String operation, String destinationName, double percentile, long maxMillis) {
+		memorizeMessage(null);
+		return getMetricsForCheck().checkLatencyPercentile(toOperation(operation), destinationName, percentile,
+				maxMillis) == null;
+	}
+
+	@Override
+	public void assertMaxLatencyBelow(String operation, String destinationName, long maxMillis) {
+		memorizeMessage(null);
+		failOnViolation(getMetricsForCheck().checkMaxLatency(toOperation(operation), destinationName, maxMillis));
+	}
+
+	@Override
+	public boolean isMaxLatencyBelow(String operation, String destinationName, long maxMillis) {
+		memorizeMessage(null);
+		return getMetricsForCheck().checkMaxLatency(toOperation(operation), destinationName, maxMillis) == null;
+	}
+
+	@Override
+	public void assertThroughputAtLeast(String operation, String destinationName, double minPerSecond) {
+		memorizeMessage(null);
+		failOnViolation(getMetricsForCheck().checkThroughput(toOperation(operation), destinationName, minPerSecond));
+	}
+
+	@Override
+	public boolean isThroughputAtLeast(String operation, String destinationName, double minPerSecond) {
+		memorizeMessage(null);
+		return getMetricsForCheck().checkThroughput(toOperation(operation), destinationName, minPerSecond) == null;
+	}
+
+	private JmsMetrics getMetricsForCheck() {
+		if (metrics == null) {
+			throw new AutomationException("Latency and throughput checks require the JMS metrics, "
+					+ "which are disabled in the configuration of " + clientId);
+		}
+		return metrics;
+	}
+
+	private static JmsMetrics.Operation toOperation(String operation) {
 		try {
-			Object o = context.lookup(destinationName);
-			return (o instanceof Destination);
+			return JmsMetrics.Operation.valueOf(operation);
 		}
-		catch (NamingException e) {
-			return false;
+		catch (RuntimeException e) {
+			throw new AutomationException("Unknown JMS operation " + operation + ", expected one of "
+					+ Arrays.toString(JmsMetrics.Operation.values()));
+		}
+	}
+
+	private static void failOnViolation(String violation) {
+		if (violation != null) {
+			throw new PerformanceFailure(violation);
+		}
+	}
+
+	@Override
+	public String reportMetrics() {
+		if (metrics == null) {
+			return "JMS metrics of " + clientId + " are disabled\n";
+		}
+		return metrics.getReport();
+	}
+
+	@Override
+	public void invalidateDestination(String destinationName) {
+		memorizeMessage(null);
+		if (destinationName != null) {
+			destinationResolver.invalidate(destinationName);
+		} else {
+			destinationResolver.invalidateAll();
+		}
+		getSessionPool().invalidate(destinationName);
+	}
+
+	@Override
+	public String requestTextReply(TextMessageData request, String destinationName, long timeout) {
+		try {
+			TextMessage reply = requestReply(request, destinationName, timeout, TextMessage.class);
+			String text = reply.getText();
+			memorizeMessage(text);
+			return text;
+		} catch (JMSException e) {
+			throw new AutomationException("Unable to read reply text", e);
+		}
+	}
+
+	@Override
+	public Serializable requestObjectReply(ObjectMessageData request, String destinationName, long timeout) {
+		try {
+			ObjectMessage reply = requestReply(request, destinationName, timeout, ObjectMessage.class);
+			Serializable object = reply.getObject();
+			memorizeMessage(object);
+			return object;
+		} catch (JMSException e) {
+			throw new AutomationException("Unable to read reply object", e);
 		}
 	}
 	
@@ -182,7 +653,27 @@ public class JmsActionImpl implements JmsInteraction, JmsCondition, JmsVerificat
 		
 	}
 
-	
+	@Override
+	public void sendTextMessageBatch(Collection<TextMessageData> messages, String destinationName, int commitInterval) {
+		sendBatch(messages, destinationName, commitInterval);
+	}
+
+	@Override
+	public void sendObjectMessageBatch(Collection<ObjectMessageData> messages, String destinationName, int commitInterval) {
+		sendBatch(messages, destinationName, commitInterval);
+	}
+
+	@Override
+	public String generateLoad(TextMessageData template, String destinationName, LoadProfileData profile) {
+		memorizeMessage(template.getMessageText());
+		try {
+			Destination dest = destinationResolver.resolve(destinationName);
+			return new LoadGenerator(getOrCreateConnection(), dest, destinationName, template, profile, stamper).run();
+		}
+		catch (NamingException e) {
+			throw new AutomationException("Could not lookup destination " + destinationName, e);
+		}
+	}
 
 	@Override
 	public String sendMessage(FileMessageData fileMessageData, String destinationName) {
@@ -282,6 +773,40 @@ public class JmsActionImpl implements JmsInteraction, JmsCondition, JmsVerificat
 		}
 	}
 	
+	@Override
+	public List<String> receiveTextMessagesFromQueue(String destinationName, String messageSelector, int maxCount, 
+			long totalTimeout) {
+		try {
+			List<TextMessage> messages = receiveQueueMessages(destinationName, messageSelector, maxCount, totalTimeout, 
+					TextMessage.class);
+			List<String> texts = new ArrayList<String>(messages.size());
+			for (TextMessage message : messages) {
+				texts.add(message.getText());
+			}
+			memorizeMessages(texts);
+			return texts;
+		} catch (JMSException e) {
+			throw new AutomationException("Unable to read message text", e);
+		}
+	}
+
+	@Override
+	public List<Serializable> receiveObjectMessagesFromQueue(String destinationName, String messageSelector, int maxCount, 
+			long totalTimeout) {
+		try {
+			List<ObjectMessage> messages = receiveQueueMessages(destinationName, messageSelector, maxCount, totalTimeout, 
+					ObjectMessage.class);
+			List<Serializable> objects = new ArrayList<Serializable>(messages.size());
+			for (ObjectMessage message : messages) {
+				objects.add(message.getObject());
+			}
+			memorizeMessages(objects);
+			return objects;
+		} catch (JMSException e) {
+			throw new AutomationException("Unable to read message object", e);
+		}
+	}
+
 	@Override
 	public String receiveTextMessageFromQueueAndValidate(@TechnicalLocator String destinationName, String messageSelector,
 			@TechnicalArgument long timeout, @TechnicalArgument Validator<String> validator) {
@@ -302,19 +827,63 @@ public class JmsActionImpl implements JmsInteraction, JmsCondition, JmsVerificat
 		return object;
 	}
     
+	@Override
+	public void startQueueListener(String destinationName, String messageSelector) {
+		QueueHandler handler = new QueueHandler(destinationName, messageSelector, getManagedConnection(), 
+				new MessageBuffer(queueBufferCapacity, queueBufferOverflowPolicy));
+		QueueHandler existing = queueHandlers.putIfAbsent(destinationName, handler);
+		if (existing != null) {
+			if (!existing.matches(messageSelector)) {
+				throw new AutomationException("Already listening to " + destinationName + " with another message selector");
+			}
+			return;
+		}
+		try {
+			// the listener receives all messages of the queue, which must not be held back by a cached consumer
+			getSessionPool().get().invalidateConsumer(destinationName);
+			handler.start(destinationResolver.resolve(destinationName));
+		}
+		catch (NamingException e) {
+			queueHandlers.remove(destinationName, handler);
+			throw new AutomationException("Could not lookup destination " + destinationName, e);
+		}
+		catch (RuntimeException e) {
+			queueHandlers.remove(destinationName, handler);
+			throw e;
+		}
+	}
+
+	@Override
+	public void stopQueueListener(String destinationName) {
+		QueueHandler handler = queueHandlers.remove(destinationName);
+		if (handler != null) {
+			handler.close();
+		}
+	}
+
 	// topic subscription interface --------------------------------------------
 	
 	@Override
 	public void startSubscriber(String subscriptionName, String destinationName, String messageSelector, boolean durable) {
 		Assert.notEmpty(subscriptionName, "subscriptionName must be provided!");
 		memorizeMessage(null);
-		TopicHandler handler = getOrCreateTopicHandler(subscriptionName, destinationName, messageSelector, durable);
-		handler.start();
+		long start = operationStart();
+		try {
+			TopicHandler handler = getOrCreateTopicHandler(subscriptionName, destinationName, messageSelector, durable);
+			handler.start();
+		}
+		catch (RuntimeException e) {
+			recordFailure(JmsMetrics.Operation.SUBSCRIBER_START, subscriptionName, start, OperationTimeline.Outcome.ERROR);
+			throw e;
+		}
+		recordOperation(JmsMetrics.Operation.SUBSCRIBER_START, subscriptionName, start, null);
 	}
 
 	@Override
 	public void stopSubscriber(String subscriptionName) {
+		long start = operationStart();
 		getTopicHandler(subscriptionName).stop();
+		recordOperation(JmsMetrics.Operation.SUBSCRIBER_STOP, subscriptionName, start, null);
 	}
 	
 	@Override
@@ -360,19 +929,84 @@ public class JmsActionImpl implements JmsInteraction, JmsCondition, JmsVerificat
 			throw new FunctionalFailure("Message invalid");
 		return object;
 	}
+
+	// fan-in receives ---------------------------------------------------------
+
+	@Override
+	public String receiveFirstTextMessageFromQueues(List<String> destinationNames, String messageSelector, long timeout) {
+		try {
+			TextMessage message = receiveFirstQueueMessage(destinationNames, messageSelector, timeout, TextMessage.class);
+			String text = message.getText();
+			memorizeMessage(text);
+			return text;
+		} catch (JMSException e) {
+			throw new AutomationException("Unable to read message text", e);
+		}
+	}
+
+	@Override
+	public List<String> receiveTextMessageFromEachQueue(List<String> destinationNames, String messageSelector, long timeout) {
+		try {
+			List<TextMessage> messages = receiveQueueMessageFromEach(destinationNames, messageSelector, timeout, TextMessage.class);
+			return getTexts(messages);
+		} catch (JMSException e) {
+			throw new AutomationException("Unable to read message text", e);
+		}
+	}
+
+	@Override
+	public List<String> receiveTextMessageFromEachTopic(List<String> subscriptionNames, String messageSelector, long timeout) {
+		try {
+			List<TextMessage> messages = receiveTopicMessageFromEach(subscriptionNames, messageSelector, timeout, TextMessage.class);
+			return getTexts(messages);
+		} catch (JMSException e) {
+			throw new AutomationException("Unable to read message text", e);
+		}
+	}
+
+	/** Provides the executor of fan-in receives.
+	 *  @return the receiver, which runs on virtual threads if configured and supported by the JVM */
+	public synchronized FanInReceiver getFanInReceiver() {
+		if (fanInReceiver == null) {
+			fanInReceiver = new FanInReceiver(virtualThreadReceives);
+			LOGGER.debug("Fan-in receives run on " + (fanInReceiver.isVirtual() ? "virtual" : "platform") + " threads");
+		}
+		return fanInReceiver;
+	}
     
 	
     // private helper methods --------------------------------------------------
 	
 	private void memorizeMessage(Object message) {
 		if (message == null) {
-			this.recentMessage = null;
+			this.recentMessage.remove();
 		} else if (message instanceof String) {
-			this.recentMessage = (String) message;
+			this.recentMessage.set((String) message);
 		} else if (message instanceof byte[]) {
-			this.recentMessage = Base64Codec.encode((byte[]) message);
+			this.recentMessage.set(Base64Codec.encode((byte[]) message));
 		} else {
-			this.recentMessage = message.toString();
+			this.recentMessage.set(message.toString());
+		}
+	}
+
+	private List<String> getTexts(List<TextMessage> messages) throws JMSException {
+		List<String> texts = new ArrayList<String>(messages.size());
+		for (TextMessage message : messages) {
+			texts.add(message.getText());
+		}
+		memorizeMessages(texts);
+		return texts;
+	}
+
+	private void memorizeMessages(List<?> messages) {
+		if (messages.isEmpty()) {
+			memorizeMessage(null);
+		} else {
+			StringBuilder builder = new StringBuilder();
+			for (Object message : messages) {
+				builder.append(message).append('\n');
+			}
+			memorizeMessage(builder.toString());
 		}
 	}
 
@@ -385,7 +1019,13 @@ public class JmsActionImpl implements JmsInteraction, JmsCondition, JmsVerificat
 		return handler;
 	}
 
-	private TopicHandler getTopicHandler(String subscriptionName) {
+	/** @return the listener of the queue if it serves the given selector, otherwise <code>null</code> */
+	private QueueHandler getQueueHandler(String destinationName, String messageSelector) {
+		QueueHandler handler = queueHandlers.get(destinationName);
+		return (handler != null && handler.matches(messageSelector) ? handler : null);
+	}
+
+	TopicHandler getTopicHandler(String subscriptionName) {
 		return this.topicHandlers.get(subscriptionName);
 	}
 
@@ -393,45 +1033,156 @@ public class JmsActionImpl implements JmsInteraction, JmsCondition, JmsVerificat
 			boolean durable) {
 		LOGGER.debug("Creating topic-subscriber for topic " + destinationName + " and subscription name " + subscriptionName);
 	    try {
-			Connection c = createDynamicConnection(subscriptionName);
-			TopicSession ts = (TopicSession) c.createSession(false, Session.AUTO_ACKNOWLEDGE);
+			if (reconnectPolicy != null) {
+				// the supervisor of the main connection detects the failure of the broker
+				getManagedConnection();
+			}
+			MessageBuffer buffer = (topicListenerMode ? new MessageBuffer(topicBufferCapacity, topicBufferOverflowPolicy) : null);
+			TopicHandler handler = subscribe(subscriptionName, destinationName, messageSelector, durable, buffer, null);
+			TopicHandler existing = this.topicHandlers.putIfAbsent(subscriptionName, handler);
+			if (existing != null) {
+				// another thread subscribed concurrently
+				handler.close();
+				return existing;
+			}
+		    return handler;
+		} catch (JMSException e) {
+			throw new AutomationException("Failed to subscribe", e);
+		}
+	}
+
+	/** Creates a subscriber with its own session on the subscription connection.
+	 *  @param buffer the buffer for a new handler in listener mode
+	 *  @param restoredHandler an existing handler to pass the subscriber to, or <code>null</code> to create a new one
+	 *  @return the handler of the subscriber */
+	private TopicHandler subscribe(String subscriptionName, String destinationName, String messageSelector, boolean durable, 
+			MessageBuffer buffer, TopicHandler restoredHandler) throws JMSException {
+		SharedConnection c = acquireSubscriptionConnection(subscriptionName, durable);
+		TopicSession ts;
+		try {
+			ts = (TopicSession) c.getConnection().createSession(false, Session.AUTO_ACKNOWLEDGE);
+		} catch (JMSException e) {
+			c.release();
+			throw e;
+		}
+		TopicSubscriber subscriber;
+		try {
 			Topic topic = lookupTopic(destinationName);
-			TopicSubscriber subscriber;
 			if (durable) {
 				subscriber = ts.createDurableSubscriber(topic, subscriptionName, messageSelector, false);
 			} else {
 				subscriber = ts.createSubscriber(topic, messageSelector, true);
 			}
-			TopicHandler handler = new TopicHandler(subscriptionName, durable, subscriber, c);
-		    this.topicHandlers.put(subscriptionName, handler);
-		    return handler;
 		} catch (JMSException e) {
-			throw new AutomationException("Failed to subscribe", e);
+			close(ts);
+			c.release();
+			throw e;
+		} catch (RuntimeException e) {
+			close(ts);
+			c.release();
+			throw e;
+		}
+		if (restoredHandler != null) {
+			restoredHandler.restore(subscriber, ts, c);
+			return restoredHandler;
+		}
+		return new TopicHandler(subscriptionName, destinationName, messageSelector, durable, subscriber, ts, c, buffer);
+	}
+
+	/** Recreates the sessions, cached producers and consumers and queue listeners 
+	 *  after the connection has been replaced by the {@link ConnectionSupervisor}. The topic subscriptions 
+	 *  are restored by the supervisors of their own connections, see {@link #restoreSubscriptions(SharedConnection)}. */
+	private void restoreAfterReconnect(Connection replacement) {
+		synchronized (this) {
+			if (sessionPool != null) {
+				sessionPool.reset(replacement);
+			}
+			if (asyncAction != null) {
+				asyncAction.reset();
+			}
+		}
+		for (QueueHandler handler : queueHandlers.values()) {
+			try {
+				handler.restart();
+			} catch (RuntimeException e) {
+				LOGGER.warn("Failed to restore " + handler, e);
+			}
+		}
+	}
+
+	/** Recreates the subscribers of the topic subscriptions on a subscription connection 
+	 *  after it has been replaced by its {@link ConnectionSupervisor}. */
+	private void restoreSubscriptions(SharedConnection subscriptionConnection) {
+		for (TopicHandler handler : topicHandlers.values()) {
+			if (handler.getConnection() != subscriptionConnection) {
+				continue;
+			}
+			try {
+				subscribe(handler.getSubscriptionName(), handler.getDestinationName(), handler.getMessageSelector(), 
+						handler.isDurable(), null, handler);
+			} catch (JMSException e) {
+				LOGGER.warn("Failed to restore " + handler, e);
+			} catch (RuntimeException e) {
+				LOGGER.warn("Failed to restore " + handler, e);
+			}
 		}
 	}
 
 	private Topic lookupTopic(String destinationName) {
 		Topic topic;
         try {
-            topic = (Topic) context.lookup(destinationName);
+            topic = (Topic) destinationResolver.resolve(destinationName);
         } catch (NamingException e) {
             throw new AutomationException("Could not lookup destination " + destinationName, e);
+        } catch (ClassCastException e) {
+            throw new AutomationException("JNDI object with name " + destinationName + " is no topic", e);
         }
 		return topic;
 	}
 
     private void startConnection() throws JMSException {
-		LOGGER.debug("starting connection");
-        this.getOrCreateConnection().start();
+		long start = operationStart();
+		try {
+			if (this.getManagedConnection().beginUse()) {
+				recordOperation(JmsMetrics.Operation.CONNECTION_START, JmsMetrics.NO_DESTINATION, start, null);
+			}
+		}
+		catch (JMSException e) {
+			recordFailure(JmsMetrics.Operation.CONNECTION_START, JmsMetrics.NO_DESTINATION, start, OperationTimeline.Outcome.ERROR);
+			throw e;
+		}
     }
 
-    private synchronized Connection getOrCreateConnection() {
+    synchronized ManagedConnection getManagedConnection() {
         if (this.connection == null) {
-            this.connection = createConnection(this.clientId);
+            this.connection = new ManagedConnection(createConnection(this.clientId), keepConnectionStarted, 
+            		"jms connection for client-id [ " + this.clientId + " ]");
+			if (reconnectPolicy != null) {
+				try {
+					new ConnectionSupervisor(this.connection, new Callable<Connection>() {
+						@Override
+						public Connection call() {
+							return createConnection(clientId);
+						}
+					}, reconnectPolicy).addListener(reconnectListener);
+				} catch (JMSException e) {
+					throw new TechnicalException("Could not register exception listener for " + this.connection, e);
+				}
+			}
         }
         return this.connection;
     }
 
+	/** @return the supervisor of the connection, which provides the reconnect metrics, 
+	 *  		or <code>null</code> if reconnecting is disabled or no connection has been opened yet */
+	public synchronized ConnectionSupervisor getConnectionSupervisor() {
+		return (connection != null ? connection.getSupervisor() : null);
+	}
+
+    private Connection getOrCreateConnection() {
+        return getManagedConnection().getConnection();
+    }
+
 	/**
 	 * Build a new connection with the given clientId
 	 *
@@ -448,7 +1199,13 @@ public class JmsActionImpl implements JmsInteraction, JmsCondition, JmsVerificat
             else {
 				result = this.connectionFactory.createConnection(this.userName, this.password);
             }
-			result.setClientID(clientId);
+			try {
+				result.setClientID(clientId);
+			}
+			catch (JMSException e) {
+				close(result);
+				throw e;
+			}
 
 			return result;
         } catch (JMSException e) {
@@ -457,7 +1214,7 @@ public class JmsActionImpl implements JmsInteraction, JmsCondition, JmsVerificat
     }
 
 	/**
-	 * Creates a dynamic connection for the given subscriptionName.
+	 * Determines the clientId of the dynamic connection for the given durable subscriptionName.
 	 *
 	 * According to JavaDoc of {@link TopicSession#createDurableSubscriber(Topic, String, String, boolean)}
 	 * durable subscriptions must use the same clientIds on every connection to a particular subscription.
@@ -469,24 +1226,72 @@ public class JmsActionImpl implements JmsInteraction, JmsCondition, JmsVerificat
 	 * durable subscriptions.
 	 *
 	 * @param subscriptionName	the subscription name
-	 * @return	The connection.
-	 *
-	 * @throws JMSException
+	 * @return	The clientId.
      */
-    private Connection createDynamicConnection(String subscriptionName) throws  JMSException {
-		final String dynClientID =
-				this.userName + "@" + this.getClass().getSimpleName() + "[" +subscriptionName + "]";
-        Connection dynC = null;
-        dynC = createConnection(dynClientID);
-        return dynC;
+	private String getDynamicClientId(String subscriptionName) {
+		return this.userName + "@" + this.getClass().getSimpleName() + "[" + subscriptionName + "]";
+	}
 
-    }
+	/**
+	 * Acquires the connection for a new topic subscription. Non-durable subscriptions do not depend 
+	 * on a particular client ID, so they share one connection, with one session each. Durable subscriptions 
+	 * get their own connection with the client ID of {@link #getDynamicClientId(String)}.
+	 *
+	 * @param subscriptionName	the subscription name
+	 * @param durable	tells if the subscription is durable
+	 * @return	the acquired connection, which must be released when the subscription is closed
+	 */
+	private synchronized SharedConnection acquireSubscriptionConnection(String subscriptionName, boolean durable) 
+			throws JMSException {
+		String id = (durable ? getDynamicClientId(subscriptionName) : this.clientId + "[subscriptions]");
+		SharedConnection shared = subscriptionConnections.get(id);
+		if (shared == null || !shared.acquire()) {
+			shared = new SharedConnection(createConnection(id), id);
+			if (reconnectPolicy != null) {
+				try {
+					supervise(shared, id);
+				} catch (JMSException e) {
+					shared.close();
+					throw e;
+				}
+			}
+			shared.acquire();
+			subscriptionConnections.put(id, shared);
+		}
+		return shared;
+	}
 
-	private Session getSession() throws JMSException {
-		if (session == null) {
-			session = getOrCreateConnection().createSession(false, Session.AUTO_ACKNOWLEDGE);
+	/** Reconnects a subscription connection after a failure, like the main connection, 
+	 *  and restores its subscriptions afterwards. */
+	private void supervise(final SharedConnection subscriptionConnection, final String id) throws JMSException {
+		new ConnectionSupervisor(subscriptionConnection.getManagedConnection(), new Callable<Connection>() {
+			@Override
+			public Connection call() {
+				return createConnection(id);
+			}
+		}, reconnectPolicy).addListener(new ConnectionSupervisor.Listener() {
+			@Override
+			public void reconnected(ManagedConnection managedConnection) {
+				restoreSubscriptions(subscriptionConnection);
+			}
+
+			@Override
+			public String toString() {
+				return "subscriptions of " + subscriptionConnection;
+			}
+		});
+	}
+
+	/** @return the pool of the per-thread sessions, created on first use */
+	synchronized SessionPool getSessionPool() {
+		if (sessionPool == null) {
+			sessionPool = new SessionPool(getOrCreateConnection(), producerCacheSize, consumerCacheSize, consumerIdleTimeout);
 		}
-		return session;
+		return sessionPool;
+	}
+
+	private Session getSession() throws JMSException {
+		return getSessionPool().get().getSession();
 	}
 
 	private TextMessage createTextMessage() throws JMSException {
@@ -503,102 +1308,501 @@ public class JmsActionImpl implements JmsInteraction, JmsCondition, JmsVerificat
 
 	private void sendMessage(Message message, String destinationName) {
 		MessageProducer producer = null;
+		ProducerCache producerCache = null;
+		long start = operationStart();
 		try {
 			LOGGER.debug("Sending message to destination "  + destinationName);
-			Destination dest = (Destination) context.lookup(destinationName);
-			producer = getSession().createProducer(dest);
-			this.startConnection();
+			Destination dest = destinationResolver.resolve(destinationName);
+			producerCache = getSessionPool().get().getProducerCache();
+			producer = producerCache.getProducer(destinationName, dest);
+			// sending does not depend on the connection being started, so it is left as it is
+			stamp(message);
 			producer.send(message);
-			this.stopConnection();
+			recordOperation(JmsMetrics.Operation.SEND, destinationName, start, message);
 		}
 		catch (NamingException e) {
 			throw new AutomationException("Could not lookup destination " + destinationName, e);
 		}
-		catch (ClassCastException e) {
-			throw new AutomationException("JNDI object with name " + destinationName + " is no destination", e);
-		}
 		catch (JMSException e) {
+			recordFailure(JmsMetrics.Operation.SEND, destinationName, start, OperationTimeline.Outcome.ERROR);
+			// a failed producer might be unusable, so it is not reused
+			if (producerCache != null) {
+				producerCache.invalidate(destinationName);
+			}
 			throw new AccessFailure("Could not send JMS message", e);
 		}
 		finally {
-			close(producer);
+			if (producer != null) {
+				producerCache.release(producer);
+			}
+		}
+	}
+
+	/** Sends messages over the transacted session, committing the transaction 
+	 *  every <code>commitInterval</code> messages and after the last one.
+	 *  On failure, the messages sent since the last commit are rolled back. */
+	private void sendBatch(Collection<? extends JmsMessageData> messages, String destinationName, int commitInterval) {
+		memorizeMessage(null);
+		LOGGER.debug("Sending batch of " + messages.size() + " messages to destination " + destinationName);
+		MessageProducer producer = null;
+		Session txSession = null;
+		ProducerCache transactedProducerCache = null;
+		int sent = 0;
+		int committed = 0;
+		long start = operationStart();
+		try {
+			Destination dest = destinationResolver.resolve(destinationName);
+			SessionContext sessionContext = getSessionPool().get();
+			txSession = sessionContext.getTransactedSession();
+			transactedProducerCache = sessionContext.getTransactedProducerCache();
+			producer = transactedProducerCache.getProducer(destinationName, dest);
+			for (JmsMessageData data : messages) {
+				start = operationStart();
+				Message message = createMessage(txSession, data);
+				stamp(message);
+				producer.send(message);
+				recordOperation(JmsMetrics.Operation.SEND, destinationName, start, message);
+				sent++;
+				if (commitInterval > 0 && sent % commitInterval == 0) {
+					txSession.commit();
+					committed = sent;
+				}
+			}
+			if (sent > committed) {
+				txSession.commit();
+				committed = sent;
+			}
+		}
+		catch (NamingException e) {
+			throw new AutomationException("Could not lookup destination " + destinationName, e);
+		}
+		catch (JMSException e) {
+			recordFailure(JmsMetrics.Operation.SEND, destinationName, start, OperationTimeline.Outcome.ERROR);
+			rollback(txSession);
+			if (transactedProducerCache != null) {
+				transactedProducerCache.invalidate(destinationName);
+			}
+			throw new AccessFailure("Could not send JMS message batch, " + committed + " of " + messages.size() 
+					+ " messages have been committed", e);
+		}
+		finally {
+			if (producer != null) {
+				transactedProducerCache.release(producer);
+			}
+		}
+	}
+
+	static Message createMessage(Session session, JmsMessageData data) throws JMSException {
+		Message message;
+		if (data instanceof TextMessageData) {
+			message = session.createTextMessage(((TextMessageData) data).getMessageText());
+		} else if (data instanceof ObjectMessageData) {
+			message = session.createObjectMessage(((ObjectMessageData) data).getMessageObject());
+		} else {
+			throw new AutomationException("Unsupported message data type: " + data.getClass().getName());
 		}
+		return addPropertiesToMessage(message, data.getProperties());
 	}
 
 	@SuppressWarnings("unchecked")
 	private <T extends Message> T receiveQueueMessage(String destinationName, String messageSelector, long timeout, Class<T> type) {
+		long start = operationStart();
+		QueueHandler handler = getQueueHandler(destinationName, messageSelector);
+		if (handler != null) {
+			// like MessageConsumer.receive(long), a timeout of 0 waits without timeout; 
+			// a message of another type is not taken, so that it is not acknowledged
+			T message = handler.receive(timeout == 0 ? -1 : timeout, type);
+			if (message == null) {
+				recordFailure(JmsMetrics.Operation.RECEIVE, destinationName, start, OperationTimeline.Outcome.TIMEOUT);
+				throw new PerformanceFailure("Destination " + destinationName + " did not deliver a message within timeout");
+			}
+			recordOperation(JmsMetrics.Operation.RECEIVE, destinationName, start, message);
+			return message;
+		}
 		MessageConsumer consumer = null;
+		ConsumerCache consumerCache = null;
 		try {
-			Destination dest = (Destination) context.lookup(destinationName);
-			consumer = getSession().createConsumer(dest, messageSelector);
+			Destination dest = destinationResolver.resolve(destinationName);
+			consumerCache = getSessionPool().get().getConsumerCache();
+			consumer = consumerCache.getConsumer(destinationName, messageSelector, dest);
             this.startConnection();
 
 			Message message;
-			if (timeout == -1) {
-				message = consumer.receive();
+			try {
+				if (timeout == -1) {
+					message = consumer.receive();
+				}
+				else {
+					message = consumer.receive(timeout);
+				}
 			}
-			else {
-				message = consumer.receive(timeout);
+			finally {
+				this.stopConnection();
 			}
-			this.stopConnection();
 			if (message == null) {
+				recordFailure(JmsMetrics.Operation.RECEIVE, destinationName, start, OperationTimeline.Outcome.TIMEOUT);
 				throw new PerformanceFailure("Destination " + destinationName + " did not deliver a message within timeout");
 			}
+			recordOperation(JmsMetrics.Operation.RECEIVE, destinationName, start, message);
 			if (!type.isAssignableFrom(message.getClass())) {
-				throw new AutomationException("Received message is not a text message");
+				throw new AutomationException("Received message is not of type " + type.getSimpleName());
 			}
 			return (T) message;
 		}
 		catch (NamingException e) {
 			throw new AutomationException("Could not lookup destination " + destinationName, e);
 		}
-		catch (ClassCastException e) {
-			throw new AutomationException("JNDI object with name " + destinationName + " is no destination", e);
-		}
 		catch (JMSException e) {
+			recordFailure(JmsMetrics.Operation.RECEIVE, destinationName, start, OperationTimeline.Outcome.ERROR);
+			if (consumerCache != null) {
+				consumerCache.invalidate(destinationName);
+				consumer = null;
+			}
 			throw new AccessFailure("Could not receive JMS message", e);
 		}
 		finally {
-			close(consumer);
+			// a cached consumer keeps the messages the provider prefetched for it; when it is 
+			// finally closed, the ones which were not delivered to us go back to the queue
+			if (consumer != null) {
+				consumerCache.release(consumer);
+			}
 		}
 	}
 	
+	/** Receives messages until <code>maxCount</code> messages have arrived or the total timeout has elapsed, 
+	 *  using a single consumer and a single start of the connection. A message of another type is not consumed: 
+	 *  With a queue listener, it stays buffered and ends the call, which fails if it is the first message. 
+	 *  Otherwise the messages are received in a transaction which is rolled back, so that all of them stay 
+	 *  in the queue.
+	 *  @param totalTimeout the number of milliseconds to wait for all messages together, 
+	 *  		<code>0</code> only collects the messages which can be delivered without waiting, 
+	 *  		apart from a short wait for the first message of a new consumer 
+	 *  @return the received messages, which may be less than <code>maxCount</code> or none */
+	@SuppressWarnings("unchecked")
+	private <T extends Message> List<T> receiveQueueMessages(String destinationName, String messageSelector, int maxCount, 
+			long totalTimeout, Class<T> type) {
+		List<T> messages = new ArrayList<T>(Math.min(Math.max(maxCount, 0), 1000));
+		if (maxCount <= 0) {
+			return messages;
+		}
+		long start = operationStart();
+		QueueHandler handler = getQueueHandler(destinationName, messageSelector);
+		if (handler != null) {
+			long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(Math.max(0, totalTimeout));
+			while (messages.size() < maxCount) {
+				start = operationStart();
+				Message message;
+				try {
+					message = handler.receive(Math.max(0, TimeUnit.NANOSECONDS.toMillis(deadline - System.nanoTime())), 
+							type);
+				}
+				catch (AutomationException e) {
+					if (messages.isEmpty()) {
+						throw e;
+					}
+					LOGGER.debug("Stopped receiving from " + destinationName + " at a message of another type");
+					break;
+				}
+				if (message == null) {
+					break;
+				}
+				recordOperation(JmsMetrics.Operation.RECEIVE, destinationName, start, message);
+				messages.add((T) message);
+			}
+			return messages;
+		}
+		MessageConsumer consumer = null;
+		Session txSession = null;
+		try {
+			Destination dest = destinationResolver.resolve(destinationName);
+			// the consumer is not cached, since its prefetched messages would be bound to the transacted session; 
+			// a cached consumer of the same queue would hold back the messages it has prefetched, so it is closed
+			SessionContext context = getSessionPool().get();
+			context.invalidateConsumer(destinationName);
+			txSession = context.getTransactedSession();
+			consumer = txSession.createConsumer(dest, messageSelector);
+			this.startConnection();
+			try {
+				long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(Math.max(0, totalTimeout));
+				while (messages.size() < maxCount) {
+					long remaining = TimeUnit.NANOSECONDS.toMillis(deadline - System.nanoTime());
+					if (remaining <= 0 && messages.isEmpty()) {
+						remaining = FRESH_CONSUMER_WAIT;
+					}
+					// receive(0) would block forever, so a drained deadline switches to receiveNoWait()
+					start = operationStart();
+					Message message = (remaining > 0 ? consumer.receive(remaining) : consumer.receiveNoWait());
+					if (message == null) {
+						break;
+					}
+					recordOperation(JmsMetrics.Operation.RECEIVE, destinationName, start, message);
+					if (!type.isAssignableFrom(message.getClass())) {
+						// closing the consumer first keeps the rolled back messages from being 
+						// redelivered to it, which would count as another delivery attempt
+						close(consumer);
+						consumer = null;
+						rollback(txSession);
+						throw new AutomationException("Received message is not of type " + type.getSimpleName() 
+								+ ", the " + (messages.size() + 1) + " received message(s) have been rolled back");
+					}
+					messages.add((T) message);
+				}
+				txSession.commit();
+			}
+			finally {
+				this.stopConnection();
+			}
+			LOGGER.debug("Received " + messages.size() + " message(s) from " + destinationName);
+			return messages;
+		}
+		catch (NamingException e) {
+			throw new AutomationException("Could not lookup destination " + destinationName, e);
+		}
+		catch (JMSException e) {
+			recordFailure(JmsMetrics.Operation.RECEIVE, destinationName, start, OperationTimeline.Outcome.ERROR);
+			if (consumer != null) {
+				close(consumer);
+				consumer = null;
+			}
+			rollback(txSession);
+			throw new AccessFailure("Could not receive JMS messages after " + messages.size() + " message(s), "
+					+ "the received messages have been rolled back", e);
+		}
+		finally {
+			if (consumer != null) {
+				close(consumer);
+			}
+		}
+	}
+
+	/** Resolves the queues of a fan-in receive, which receives from the queues directly 
+	 *  and thus cannot be combined with queue listeners. */
+	private List<Destination> resolveFanInQueues(List<String> destinationNames) {
+		List<Destination> destinations = new ArrayList<Destination>(destinationNames.size());
+		for (String destinationName : destinationNames) {
+			if (queueHandlers.containsKey(destinationName)) {
+				throw new AutomationException("Fan-in receive is not supported on " + destinationName 
+						+ ", which has a queue listener");
+			}
+			// the fan-in consumers would not see the messages prefetched by a cached consumer
+			getSessionPool().get().invalidateConsumer(destinationName);
+			try {
+				destinations.add(destinationResolver.resolve(destinationName));
+			}
+			catch (NamingException e) {
+				throw new AutomationException("Could not lookup destination " + destinationName, e);
+			}
+		}
+		return destinations;
+	}
+
+	/** Waits for the first message from any of the queues; the other queues keep their messages.
+	 *  @param timeout the number of milliseconds to wait, <code>0</code> means to wait without timeout */
+	private <T extends Message> T receiveFirstQueueMessage(List<String> destinationNames, String messageSelector, long timeout, 
+			Class<T> type) {
+		List<Destination> destinations = resolveFanInQueues(destinationNames);
+		FanInReceiver.Delivery delivery;
+		try {
+			this.startConnection();
+			try {
+				delivery = getFanInReceiver().receiveFirst(getManagedConnection().getConnection(), destinations, 
+						messageSelector, timeout);
+			}
+			finally {
+				this.stopConnection();
+			}
+		}
+		catch (JMSException e) {
+			throw new AccessFailure("Could not receive JMS message", e);
+		}
+		catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new AutomationException("Interrupted while waiting for messages from " + destinationNames, e);
+		}
+		if (delivery == null) {
+			throw new PerformanceFailure("None of the destinations " + destinationNames + " delivered a message within timeout");
+		}
+		LOGGER.debug("Received first message from " + destinationNames.get(delivery.getIndex()));
+		return checkType(delivery.getMessage(), type);
+	}
+
+	/** Waits for one message from each of the queues; if one of them does not deliver a message, 
+	 *  all queues keep their messages.
+	 *  @param timeout the number of milliseconds to wait, <code>0</code> means to wait without timeout */
+	private <T extends Message> List<T> receiveQueueMessageFromEach(List<String> destinationNames, String messageSelector, 
+			long timeout, Class<T> type) {
+		List<Destination> destinations = resolveFanInQueues(destinationNames);
+		Message[] messages;
+		try {
+			this.startConnection();
+			try {
+				messages = getFanInReceiver().receiveEach(getManagedConnection().getConnection(), destinations, 
+						messageSelector, timeout);
+			}
+			finally {
+				this.stopConnection();
+			}
+		}
+		catch (JMSException e) {
+			throw new AccessFailure("Could not receive JMS messages", e);
+		}
+		catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new AutomationException("Interrupted while waiting for messages from " + destinationNames, e);
+		}
+		return checkComplete(messages, destinationNames, "Destinations", type);
+	}
+
+	/** Waits for one message from each of the subscriptions.
+	 *  @param timeout the number of milliseconds to wait, <code>0</code> means to wait without timeout */
+	private <T extends Message> List<T> receiveTopicMessageFromEach(List<String> subscriptionNames, String messageSelector, 
+			long timeout, Class<T> type) {
+		List<TopicHandler> handlers = new ArrayList<TopicHandler>(subscriptionNames.size());
+		for (String subscriptionName : subscriptionNames) {
+			TopicHandler handler = getTopicHandler(subscriptionName);
+			if (handler == null) {
+				throw new AutomationException("No subscriber started for subscription " + subscriptionName);
+			}
+			handlers.add(handler);
+		}
+		MessageSelector selector;
+		try {
+			selector = MessageSelector.compile(messageSelector);
+		} catch (InvalidSelectorException e) {
+			throw new AutomationException("Invalid message selector: " + messageSelector, e);
+		}
+		Message[] messages;
+		try {
+			messages = getFanInReceiver().receiveEach(handlers, selector, timeout);
+		}
+		catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new AutomationException("Interrupted while waiting for messages from " + subscriptionNames, e);
+		}
+		return checkComplete(messages, subscriptionNames, "Subscriptions", type);
+	}
+
+	private static <T extends Message> List<T> checkComplete(Message[] messages, List<String> names, String kind, Class<T> type) {
+		List<String> missing = new ArrayList<String>();
+		List<T> result = new ArrayList<T>(messages.length);
+		for (int i = 0; i < messages.length; i++) {
+			if (messages[i] == null) {
+				missing.add(names.get(i));
+			} else {
+				result.add(checkType(messages[i], type));
+			}
+		}
+		if (!missing.isEmpty()) {
+			throw new PerformanceFailure(kind + " " + missing + " did not deliver a message within timeout");
+		}
+		return result;
+	}
+
+	@SuppressWarnings("unchecked")
+	private static <T extends Message> T checkType(Message message, Class<T> type) {
+		if (!type.isAssignableFrom(message.getClass())) {
+			throw new AutomationException("Received message is not of type " + type.getSimpleName());
+		}
+		return (T) message;
+	}
+
+	/** Sends a request with the reply queue of the current thread's session context and waits for the reply.
+	 *  @param timeout the number of milliseconds to wait for the reply, <code>0</code> means to wait without timeout */
+	@SuppressWarnings("unchecked")
+	private <T extends Message> T requestReply(JmsMessageData request, String destinationName, long timeout, Class<T> type) {
+		ReplyChannel replyChannel = null;
+		ReplyChannel.Exchange exchange = null;
+		long start = operationStart();
+		try {
+			Destination dest = destinationResolver.resolve(destinationName);
+			SessionContext sessionContext = getSessionPool().get();
+			replyChannel = sessionContext.getReplyChannel();
+			Message message = createMessage(sessionContext.getSession(), request);
+			ProducerCache producerCache = sessionContext.getProducerCache();
+			this.startConnection();
+			Message reply;
+			try {
+				exchange = replyChannel.prepare(message);
+				MessageProducer producer = producerCache.getProducer(destinationName, dest);
+				try {
+					stamp(message);
+					producer.send(message);
+				}
+				finally {
+					producerCache.release(producer);
+				}
+				replyChannel.sent(exchange, message);
+				reply = replyChannel.awaitReply(exchange, timeout);
+			}
+			finally {
+				this.stopConnection();
+			}
+			if (reply == null) {
+				recordFailure(JmsMetrics.Operation.REQUEST_REPLY, destinationName, start, OperationTimeline.Outcome.TIMEOUT);
+				throw new PerformanceFailure("No reply to request to " + destinationName + " within the timeout of " 
+						+ timeout + " ms");
+			}
+			long roundTrip = exchange.getRoundTripNanos();
+			requestReplyLatency.record(roundTrip);
+			recordOperation(JmsMetrics.Operation.REQUEST_REPLY, destinationName, start, reply);
+			LOGGER.info("Reply to request to " + destinationName + " arrived after " + LatencyHistogram.millis(roundTrip) + " ms");
+			if (!type.isAssignableFrom(reply.getClass())) {
+				throw new AutomationException("Reply is not of type " + type.getSimpleName());
+			}
+			return (T) reply;
+		}
+		catch (NamingException e) {
+			throw new AutomationException("Could not lookup destination " + destinationName, e);
+		}
+		catch (JMSException e) {
+			recordFailure(JmsMetrics.Operation.REQUEST_REPLY, destinationName, start, OperationTimeline.Outcome.ERROR);
+			if (exchange != null) {
+				replyChannel.unregister(exchange);
+			}
+			getSessionPool().get().invalidate(destinationName);
+			throw new AccessFailure("Request-reply exchange with " + destinationName + " failed", e);
+		}
+		catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new AutomationException("Interrupted while waiting for reply from " + destinationName, e);
+		}
+	}
+
 	/** Waits until a message arrives, applying a timeout
 	 *  @param timeout the number of milliseconds to wait, <code>0</code> means to wait without timeout.
 	 *  @return the received message or <code>null</code> if no message arrived within the timeout */
 	@SuppressWarnings("unchecked")
 	private <T extends Message> T receiveTopicMessage(String subscriptionName, String messageSelector, long timeout, boolean required, Class<T> type) {
 		TopicHandler handler = getTopicHandler(subscriptionName);
-		Message message = handler.receive(timeout);
+		MessageSelector selector;
+		try {
+			selector = MessageSelector.compile(messageSelector);
+		} catch (InvalidSelectorException e) {
+			throw new AutomationException("Invalid message selector: " + messageSelector, e);
+		}
+		long start = operationStart();
+		Message message = handler.receive(selector, timeout);
 		if (message != null) {
+			// the end-to-end latency is a property of the topic, like for queues
+			recordOperation(JmsMetrics.Operation.RECEIVE, subscriptionName, handler.getDestinationName(), start, message);
 			if (!type.isAssignableFrom(message.getClass())) {
 				throw new AutomationException("Received message is not a text message. ");
 			}
 		} else if (required) {
+			recordFailure(JmsMetrics.Operation.RECEIVE, subscriptionName, start, OperationTimeline.Outcome.TIMEOUT);
 			throw new PerformanceFailure("No message received within the timeout of " + timeout + " ms. ");
 		}
 		
 		return (T) message;
 	}
 	
-	private static void close(MessageProducer producer) {
-		if (producer != null) {
-			try {
-				producer.close();
-			}
-			catch (JMSException e) {
-				LOGGER.debug("Failed to close producer: ", e );
-			}
-		}
-	}
-
-	private static void close(MessageConsumer consumer) {
-		if (consumer != null) {
+	private static void rollback(Session session) {
+		if (session != null) {
 			try {
-				consumer.close();
+				session.rollback();
 			}
 			catch (JMSException e) {
-				LOGGER.debug("Failed to close consumer: ", e );
+				LOGGER.debug("Failed to roll back jms session : ", e );
 			}
 		}
 	}
@@ -614,21 +1818,86 @@ public class JmsActionImpl implements JmsInteraction, JmsCondition, JmsVerificat
 		}
 	}
 
-	private static void stopAndClose(Connection connection, String description) {
-		if (connection != null) {
-			try {
-				connection.stop();
-				connection.close();
+	private static void close(Connection connection) {
+		try {
+			connection.close();
+		}
+		catch (JMSException e) {
+			LOGGER.debug("Failed to close jms connection : ", e);
+		}
+	}
+
+	private static void close(MessageConsumer consumer) {
+		try {
+			consumer.close();
+		}
+		catch (JMSException e) {
+			LOGGER.debug("Failed to close jms consumer : ", e );
+		}
+	}
+
+    private void stopConnection() {
+		long start = operationStart();
+		if (this.getManagedConnection().endUse()) {
+			recordOperation(JmsMetrics.Operation.CONNECTION_STOP, JmsMetrics.NO_DESTINATION, start, null);
+		}
+    }
+
+	/** @return the start time of an operation to record, or <code>0</code> if neither metrics nor timeline are enabled */
+	private long operationStart() {
+		return (metrics != null || timeline != null ? System.nanoTime() : 0);
+	}
+
+	/** Records a successful operation in the metrics and the timeline, if they are enabled. */
+	private void recordOperation(JmsMetrics.Operation operation, String destinationName, long start, Message message) {
+		recordOperation(operation, destinationName, destinationName, start, message);
+	}
+
+	/** Records a successful operation in the metrics and the timeline, if they are enabled.
+	 *  @param destinationName the destination or subscription name to record the operation for
+	 *  @param endToEndName the queue or topic name to record the end-to-end latency of a received message for */
+	private void recordOperation(JmsMetrics.Operation operation, String destinationName, String endToEndName, long start, 
+			Message message) {
+		if (metrics != null || timeline != null) {
+			long duration = System.nanoTime() - start;
+			long bytes = (message != null ? JmsMetrics.payloadSize(message) : 0);
+			if (metrics != null) {
+				metrics.record(operation, destinationName, duration, bytes);
+				if (stamper != null && operation == JmsMetrics.Operation.RECEIVE) {
+					recordEndToEndLatency(endToEndName, message);
+				}
 			}
-			catch (JMSException e) {
-				LOGGER.debug("Failed to close " + description + " : ", e );
+			if (timeline != null) {
+				timeline.record(operation, destinationName, start, duration, bytes, OperationTimeline.Outcome.OK);
 			}
 		}
 	}
 
-    private void stopConnection() throws JMSException {
-        this.getOrCreateConnection().stop();
-    }
+	/** Records the time from sending a message until now, if the message has been stamped. */
+	private void recordEndToEndLatency(String destinationName, Message message) {
+		long sendTime = MessageStamper.getSendTime(message);
+		if (sendTime != 0) {
+			metrics.record(JmsMetrics.Operation.END_TO_END, destinationName, MessageStamper.currentTimeNanos() - sendTime, 0);
+		}
+	}
+
+	/** Stamps a message with its send time and sequence number, if end-to-end latency tracking is enabled. */
+	private void stamp(Message message) throws JMSException {
+		if (stamper != null) {
+			stamper.stamp(message);
+		}
+	}
+
+	/** Records a failed operation in the metrics and the timeline, if they are enabled. */
+	private void recordFailure(JmsMetrics.Operation operation, String destinationName, long start, 
+			OperationTimeline.Outcome outcome) {
+		if (metrics != null) {
+			metrics.recordError(operation, destinationName);
+		}
+		if (timeline != null) {
+			timeline.record(operation, destinationName, start, System.nanoTime() - start, 0, outcome);
+		}
+	}
     
     /**
      * Applies the properties to javax.jms.Message
@@ -638,7 +1907,7 @@ public class JmsActionImpl implements JmsInteraction, JmsCondition, JmsVerificat
      * @return the update jms message with the properties, if they exist
      * @throws JMSException
      */
-    private Message addPropertiesToMessage(Message message, Map<String, Object> properties) throws JMSException {
+    private static Message addPropertiesToMessage(Message message, Map<String, Object> properties) throws JMSException {
 		// Adds the properties to the jms message.
 		for(Map.Entry<String, Object> entry : properties.entrySet()) {
 			message.setObjectProperty(entry.getKey(), entry.getValue());
@@ -0,0 +1,290 @@
+/*
+ * Copyright (C) 2015 Hamburg Sud and the contributors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.aludratest.service.jms.impl;
+
+/**
+ * The settings of a {@link JmsActionImpl}, as read from the service configuration by {@link JmsServiceImpl}, 
+ * together with the settings which {@link JmsServiceImpl} applies to the resources it sets up for the actions.
+ * The initial values are the defaults of the configuration properties of the JmsService.
+ */
+
+public class JmsActionSettings {
+
+	/** The user name for the connections, or <code>null</code> to connect without credentials. */
+	private String userName;
+
+	private String password;
+
+	/** The maximum number of producers to keep open per session, <code>0</code> disables caching. */
+	private int producerCacheSize = 20;
+
+	/** The maximum number of queue consumers to keep open per session, <code>0</code> disables caching.
+	 *  A cached consumer saves the subscription round-trip of each receive, but holds the messages the provider 
+	 *  has prefetched for it, which no other consumer of the queue receives until the cached one is closed 
+	 *  after {@link #consumerIdleTimeout}. For this reason caching is off by default. */
+	private int consumerCacheSize = 0;
+
+	/** The number of milliseconds after which an unused cached queue consumer is closed. */
+	private int consumerIdleTimeout = 30000;
+
+	/** The number of milliseconds to cache successful destination lookups, <code>0</code> disables caching, 
+	 *  a negative value caches until the destination is invalidated. */
+	private int destinationCacheTtl = 300000;
+
+	/** The number of milliseconds to cache failed destination lookups, <code>0</code> disables caching. */
+	private int destinationNegativeCacheTtl = 1000;
+
+	/** The number of milliseconds after which a pooled connection without users is closed. */
+	private int sharedConnectionIdleTimeout = 60000;
+
+	/** The number of sessions to open per broker during warm-up. */
+	private int warmUpSessions = 1;
+
+	/** The number of milliseconds between the health checks of unavailable brokers. */
+	private int brokerHealthCheckInterval = 5000;
+
+	/** If set, the connection is started on first use and not stopped after each operation. */
+	private boolean keepConnectionStarted = false;
+
+	/** The maximum number of pending asynchronous sends. */
+	private int asyncMaxInFlight = 1000;
+
+	/** The capacity of the buffers of queue listeners. */
+	private int queueBufferCapacity = 1000;
+
+	private MessageBuffer.OverflowPolicy queueBufferOverflowPolicy = MessageBuffer.OverflowPolicy.BLOCK;
+
+	/** If set, topic subscriptions are drained continuously into a buffer. */
+	private boolean topicListenerMode = false;
+
+	private int topicBufferCapacity = 10000;
+
+	private MessageBuffer.OverflowPolicy topicBufferOverflowPolicy = MessageBuffer.OverflowPolicy.DROP_OLDEST;
+
+	/** The number of milliseconds to wait before the first reconnect attempt. */
+	private int reconnectInitialDelay = 100;
+
+	/** The maximum number of milliseconds to wait between two reconnect attempts. */
+	private int reconnectMaxDelay = 30000;
+
+	/** The delays for reconnecting after a connection failure, or <code>null</code> to not reconnect. */
+	private ReconnectPolicy reconnectPolicy;
+
+	/** If set, fan-in receives run on virtual threads if the JVM supports them. */
+	private boolean virtualThreadReceives = false;
+
+	/** If set, latency histograms and counters are recorded per operation and destination. */
+	private boolean metricsEnabled = false;
+
+	/** The number of recent operations to keep for the debug attachments, <code>0</code> disables the timeline. */
+	private int timelineSize = 0;
+
+	/** If set, sent messages are stamped for end-to-end latency tracking. */
+	private boolean endToEndLatency = false;
+
+	public String getUserName() {
+		return userName;
+	}
+
+	public void setUserName(String userName) {
+		this.userName = userName;
+	}
+
+	public String getPassword() {
+		return password;
+	}
+
+	public void setPassword(String password) {
+		this.password = password;
+	}
+
+	public int getProducerCacheSize() {
+		return producerCacheSize;
+	}
+
+	public void setProducerCacheSize(int producerCacheSize) {
+		this.producerCacheSize = producerCacheSize;
+	}
+
+	public int getConsumerCacheSize() {
+		return consumerCacheSize;
+	}
+
+	public void setConsumerCacheSize(int consumerCacheSize) {
+		this.consumerCacheSize = consumerCacheSize;
+	}
+
+	public int getConsumerIdleTimeout() {
+		return consumerIdleTimeout;
+	}
+
+	public void setConsumerIdleTimeout(int consumerIdleTimeout) {
+		this.consumerIdleTimeout = consumerIdleTimeout;
+	}
+
+	public int getDestinationCacheTtl() {
+		return destinationCacheTtl;
+	}
+
+	public void setDestinationCacheTtl(int destinationCacheTtl) {
+		this.destinationCacheTtl = destinationCacheTtl;
+	}
+
+	public int getDestinationNegativeCacheTtl() {
+		return destinationNegativeCacheTtl;
+	}
+
+	public void setDestinationNegativeCacheTtl(int destinationNegativeCacheTtl) {
+		this.destinationNegativeCacheTtl = destinationNegativeCacheTtl;
+	}
+
+	public int getSharedConnectionIdleTimeout() {
+		return sharedConnectionIdleTimeout;
+	}
+
+	public void setSharedConnectionIdleTimeout(int sharedConnectionIdleTimeout) {
+		this.sharedConnectionIdleTimeout = sharedConnectionIdleTimeout;
+	}
+
+	public int getWarmUpSessions() {
+		return warmUpSessions;
+	}
+
+	public void setWarmUpSessions(int warmUpSessions) {
+		this.warmUpSessions = warmUpSessions;
+	}
+
+	public int getBrokerHealthCheckInterval() {
+		return brokerHealthCheckInterval;
+	}
+
+	public void setBrokerHealthCheckInterval(int brokerHealthCheckInterval) {
+		this.brokerHealthCheckInterval = brokerHealthCheckInterval;
+	}
+
+	public boolean isKeepConnectionStarted() {
+		return keepConnectionStarted;
+	}
+
+	public void setKeepConnectionStarted(boolean keepConnectionStarted) {
+		this.keepConnectionStarted = keepConnectionStarted;
+	}
+
+	public int getAsyncMaxInFlight() {
+		return asyncMaxInFlight;
+	}
+
+	public void setAsyncMaxInFlight(int asyncMaxInFlight) {
+		this.asyncMaxInFlight = asyncMaxInFlight;
+	}
+
+	public int getQueueBufferCapacity() {
+		return queueBufferCapacity;
+	}
+
+	public void setQueueBufferCapacity(int queueBufferCapacity) {
+		this.queueBufferCapacity = queueBufferCapacity;
+	}
+
+	public MessageBuffer.OverflowPolicy getQueueBufferOverflowPolicy() {
+		return queueBufferOverflowPolicy;
+	}
+
+	public void setQueueBufferOverflowPolicy(MessageBuffer.OverflowPolicy queueBufferOverflowPolicy) {
+		this.queueBufferOverflowPolicy = queueBufferOverflowPolicy;
+	}
+
+	public boolean isTopicListenerMode() {
+		return topicListenerMode;
+	}
+
+	public void setTopicListenerMode(boolean topicListenerMode) {
+		this.topicListenerMode = topicListenerMode;
+	}
+
+	public int getTopicBufferCapacity() {
+		return topicBufferCapacity;
+	}
+
+	public void setTopicBufferCapacity(int topicBufferCapacity) {
+		this.topicBufferCapacity = topicBufferCapacity;
+	}
+
+	public MessageBuffer.OverflowPolicy getTopicBufferOverflowPolicy() {
+		return topicBufferOverflowPolicy;
+	}
+
+	public void setTopicBufferOverflowPolicy(MessageBuffer.OverflowPolicy topicBufferOverflowPolicy) {
+		this.topicBufferOverflowPolicy = topicBufferOverflowPolicy;
+	}
+
+	public int getReconnectInitialDelay() {
+		return reconnectInitialDelay;
+	}
+
+	public void setReconnectInitialDelay(int reconnectInitialDelay) {
+		this.reconnectInitialDelay = reconnectInitialDelay;
+	}
+
+	public int getReconnectMaxDelay() {
+		return reconnectMaxDelay;
+	}
+
+	public void setReconnectMaxDelay(int reconnectMaxDelay) {
+		this.reconnectMaxDelay = reconnectMaxDelay;
+	}
+
+	public ReconnectPolicy getReconnectPolicy() {
+		return reconnectPolicy;
+	}
+
+	public void setReconnectPolicy(ReconnectPolicy reconnectPolicy) {
+		this.reconnectPolicy = reconnectPolicy;
+	}
+
+	public boolean isVirtualThreadReceives() {
+		return virtualThreadReceives;
+	}
+
+	public void setVirtualThreadReceives(boolean virtualThreadReceives) {
+		this.virtualThreadReceives = virtualThreadReceives;
+	}
+
+	public boolean isMetricsEnabled() {
+		return metricsEnabled;
+	}
+
+	public void setMetricsEnabled(boolean metricsEnabled) {
+		this.metricsEnabled = metricsEnabled;
+	}
+
+	public int getTimelineSize() {
+		return timelineSize;
+	}
+
+	public void setTimelineSize(int timelineSize) {
+		this.timelineSize = timelineSize;
+	}
+
+	public boolean isEndToEndLatency() {
+		return endToEndLatency;
+	}
+
+	public void setEndToEndLatency(boolean endToEndLatency) {
+		this.endToEndLatency = endToEndLatency;
+	}
+
+}
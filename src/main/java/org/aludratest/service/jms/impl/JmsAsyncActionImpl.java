@@ -0,0 +1,390 @@
+/*
+ * Copyright (C) 2015 Hamburg Sud and the contributors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.aludratest.service.jms.impl;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+
+import javax.jms.Destination;
+import javax.jms.JMSException;
+import javax.jms.Message;
+import javax.jms.MessageProducer;
+import javax.jms.Session;
+import javax.naming.NamingException;
+
+import org.aludratest.exception.AccessFailure;
+import org.aludratest.exception.AutomationException;
+import org.aludratest.exception.PerformanceFailure;
+import org.aludratest.service.jms.JmsAsyncInteraction;
+import org.aludratest.service.jms.data.JmsMessageData;
+import org.aludratest.service.jms.data.ObjectMessageData;
+import org.aludratest.service.jms.data.TextMessageData;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Implements {@link JmsAsyncInteraction} with a dedicated sender thread which owns its own {@link Session}.
+ * If the JMS provider supports the JMS 2.0 <code>CompletionListener</code>, the sender thread hands
+ * each message over without waiting for the broker's acknowledgement, so that sends are pipelined.
+ * Otherwise the sender thread sends synchronously, which still frees the caller from waiting.
+ * The number of pending sends is limited by a semaphore of <code>maxInFlight</code> permits.
+ */
+
+public class JmsAsyncActionImpl implements JmsAsyncInteraction {
+
+	private static final Logger LOGGER = LoggerFactory.getLogger(JmsAsyncActionImpl.class);
+
+	private static final Class<?> COMPLETION_LISTENER_CLASS = findCompletionListenerClass();
+
+	private final ManagedConnection connection;
+	private final DestinationResolver destinationResolver;
+	private final int producerCacheSize;
+	private final int maxInFlight;
+	private final Semaphore inFlight;
+	private final ExecutorService senderThread;
+	private final AtomicInteger failureCount;
+	private final AtomicReference<Throwable> firstFailure;
+	private final MessageStamper stamper;
+
+	// the following fields are only accessed by the sender thread
+	private Session session;
+	private ProducerCache producerCache;
+	private boolean completionListenerSupported;
+
+	/** Full constructor.
+	 *  @param connection the connection to create the sender session with
+	 *  @param destinationResolver the resolver to look up destinations with
+	 *  @param producerCacheSize the maximum number of producers to keep open
+	 *  @param maxInFlight the maximum number of pending sends
+	 *  @param stamper the stamper for end-to-end latency tracking, or <code>null</code> */
+	public JmsAsyncActionImpl(ManagedConnection connection, DestinationResolver destinationResolver, int producerCacheSize, int maxInFlight,
+			MessageStamper stamper) {
+		this.connection = connection;
+		this.destinationResolver = destinationResolver;
+		this.producerCacheSize = producerCacheSize;
+		this.maxInFlight = maxInFlight;
+		this.inFlight = new Semaphore(maxInFlight);
+		this.senderThread = Executors.newSingleThreadExecutor(new ThreadFactory() {
+			@Override
+			public Thread newThread(Runnable runnable) {
+				Thread thread = new Thread(runnable, "JMS async sender");
+				thread.setDaemon(true);
+				return thread;
+			}
+		});
+		this.failureCount = new AtomicInteger();
+		this.firstFailure = new AtomicReference<Throwable>();
+		this.completionListenerSupported = (COMPLETION_LISTENER_CLASS != null);
+		this.stamper = stamper;
+	}
+
+	@Override
+	public Future<Void> sendTextMessage(String text, String destinationName) {
+		return send(new TextMessageData(text), destinationName);
+	}
+
+	@Override
+	public Future<Void> sendMessage(TextMessageData textMessageData, String destinationName) {
+		return send(textMessageData, destinationName);
+	}
+
+	@Override
+	public Future<Void> sendMessage(ObjectMessageData objectMessageData, String destinationName) {
+		return send(objectMessageData, destinationName);
+	}
+
+	@Override
+	public void awaitCompletion(long timeout) {
+		try {
+			if (!inFlight.tryAcquire(maxInFlight, timeout, TimeUnit.MILLISECONDS)) {
+				throw new PerformanceFailure((maxInFlight - inFlight.availablePermits())
+						+ " asynchronous sends did not complete within the timeout of " + timeout + " ms");
+			}
+			inFlight.release(maxInFlight);
+		}
+		catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new AutomationException("Interrupted while waiting for asynchronous sends", e);
+		}
+		int failures = failureCount.getAndSet(0);
+		Throwable failure = firstFailure.getAndSet(null);
+		if (failures > 0) {
+			throw new AccessFailure(failures + " asynchronous sends failed", failure);
+		}
+	}
+
+	/** Waits up to <code>timeout</code> milliseconds for pending sends, then stops the sender thread and closes its session. */
+	public void close(long timeout) {
+		try {
+			if (!inFlight.tryAcquire(maxInFlight, timeout, TimeUnit.MILLISECONDS)) {
+				LOGGER.warn("Closing asynchronous sender with pending sends");
+			}
+		}
+		catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+		senderThread.execute(new Runnable() {
+			@Override
+			public void run() {
+				closeSession();
+			}
+		});
+		senderThread.shutdown();
+	}
+
+	/** Discards the sender session after the connection has been replaced, the next send creates a new one. */
+	public void reset() {
+		try {
+			senderThread.execute(new Runnable() {
+				@Override
+				public void run() {
+					closeSession();
+				}
+			});
+		}
+		catch (RejectedExecutionException e) {
+			// already closed
+		}
+	}
+
+	/** Runs on the sender thread. */
+	private void closeSession() {
+		if (producerCache != null) {
+			producerCache.close();
+			producerCache = null;
+		}
+		if (session != null) {
+			try {
+				session.close();
+			}
+			catch (JMSException e) {
+				LOGGER.debug("Failed to close jms session : ", e);
+			}
+			session = null;
+		}
+	}
+
+	private Future<Void> send(final JmsMessageData data, final String destinationName) {
+		try {
+			inFlight.acquire();
+		}
+		catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new AutomationException("Interrupted while waiting for a free send slot", e);
+		}
+		final SendFuture future = new SendFuture();
+		try {
+			senderThread.execute(new Runnable() {
+				@Override
+				public void run() {
+					doSend(data, destinationName, future);
+				}
+			});
+		}
+		catch (RuntimeException e) {
+			complete(future, e);
+			throw e;
+		}
+		return future;
+	}
+
+	/** Runs on the sender thread. */
+	private void doSend(JmsMessageData data, String destinationName, SendFuture future) {
+		try {
+			Destination destination = destinationResolver.resolve(destinationName);
+			Session senderSession = getSession();
+			MessageProducer producer = producerCache.getProducer(destinationName, destination);
+			try {
+				Message message = JmsActionImpl.createMessage(senderSession, data);
+				if (stamper != null) {
+					stamper.stamp(message);
+				}
+				if (!sendWithCompletionListener(producer, message, future)) {
+					producer.send(message);
+					complete(future, null);
+				}
+			}
+			finally {
+				producerCache.release(producer);
+			}
+		}
+		catch (NamingException e) {
+			complete(future, new AutomationException("Could not lookup destination " + destinationName, e));
+		}
+		catch (JMSException e) {
+			if (producerCache != null) {
+				producerCache.invalidate(destinationName);
+			}
+			complete(future, new AccessFailure("Could not send JMS message", e));
+		}
+		catch (RuntimeException e) {
+			complete(future, e);
+		}
+	}
+
+	private Session getSession() throws JMSException {
+		if (session == null) {
+			session = connection.getConnection().createSession(false, Session.AUTO_ACKNOWLEDGE);
+			producerCache = new ProducerCache(session, producerCacheSize);
+		}
+		return session;
+	}
+
+	/** Sends a message with a JMS 2.0 <code>CompletionListener</code> that completes the future,
+	 *  if the provider supports it.
+	 *  @return true if the message was handed over to the provider, false if the provider does not support it */
+	private boolean sendWithCompletionListener(MessageProducer producer, Message message, final SendFuture future)
+			throws JMSException {
+		if (!completionListenerSupported) {
+			return false;
+		}
+		try {
+			Method send = MessageProducer.class.getMethod("send", Message.class, COMPLETION_LISTENER_CLASS);
+			Object listener = Proxy.newProxyInstance(COMPLETION_LISTENER_CLASS.getClassLoader(),
+					new Class<?>[] { COMPLETION_LISTENER_CLASS }, new InvocationHandler() {
+						@Override
+						public Object invoke(Object proxy, Method method, Object[] args) {
+							if ("onCompletion".equals(method.getName())) {
+								complete(future, null);
+							} else if ("onException".equals(method.getName())) {
+								complete(future, new AccessFailure("Could not send JMS message", (Throwable) args[1]));
+							} else if ("equals".equals(method.getName())) {
+								return proxy == args[0];
+							} else if ("hashCode".equals(method.getName())) {
+								return System.identityHashCode(proxy);
+							} else if ("toString".equals(method.getName())) {
+								return "CompletionListener for " + future;
+							}
+							return null;
+						}
+					});
+			send.invoke(producer, message, listener);
+			return true;
+		}
+		catch (NoSuchMethodException e) {
+			return disableCompletionListener(e);
+		}
+		catch (IllegalAccessException e) {
+			return disableCompletionListener(e);
+		}
+		catch (InvocationTargetException e) {
+			Throwable cause = e.getCause();
+			if (cause instanceof JMSException) {
+				throw (JMSException) cause;
+			}
+			// JMS 1.1 providers compiled against the JMS 2.0 API typically end up here
+			return disableCompletionListener(cause);
+		}
+	}
+
+	private boolean disableCompletionListener(Throwable reason) {
+		LOGGER.info("JMS provider does not support asynchronous sends with CompletionListener, "
+				+ "falling back to synchronous sends on the sender thread: " + reason);
+		completionListenerSupported = false;
+		return false;
+	}
+
+	private void complete(SendFuture future, Throwable failure) {
+		if (future.complete(failure)) {
+			if (failure != null) {
+				LOGGER.debug("Asynchronous send failed: ", failure);
+				failureCount.incrementAndGet();
+				firstFailure.compareAndSet(null, failure);
+			}
+			inFlight.release();
+		}
+	}
+
+	private static Class<?> findCompletionListenerClass() {
+		try {
+			return Class.forName("javax.jms.CompletionListener");
+		}
+		catch (ClassNotFoundException e) {
+			return null;
+		}
+	}
+
+	/** {@link Future} which is completed explicitly by the sender thread or a provider callback. */
+	static class SendFuture implements Future<Void> {
+
+		private final CountDownLatch done = new CountDownLatch(1);
+		private final AtomicReference<Throwable> failure = new AtomicReference<Throwable>();
+		private final AtomicInteger state = new AtomicInteger();
+
+		/** @return true if this call completed the future, false if it was already completed */
+		boolean complete(Throwable failure) {
+			if (!state.compareAndSet(0, 1)) {
+				return false;
+			}
+			this.failure.set(failure);
+			done.countDown();
+			return true;
+		}
+
+		@Override
+		public boolean cancel(boolean mayInterruptIfRunning) {
+			// a message that has been handed over cannot be called back
+			return false;
+		}
+
+		@Override
+		public boolean isCancelled() {
+			return false;
+		}
+
+		@Override
+		public boolean isDone() {
+			return done.getCount() == 0;
+		}
+
+		@Override
+		public Void get() throws InterruptedException, ExecutionException {
+			done.await();
+			return result();
+		}
+
+		@Override
+		public Void get(long timeout, TimeUnit unit) throws InterruptedException, ExecutionException, TimeoutException {
+			if (!done.await(timeout, unit)) {
+				throw new TimeoutException();
+			}
+			return result();
+		}
+
+		private Void result() throws ExecutionException {
+			Throwable t = failure.get();
+			if (t != null) {
+				throw new ExecutionException(t);
+			}
+			return null;
+		}
+	}
+
+}
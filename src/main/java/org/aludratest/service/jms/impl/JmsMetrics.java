@@ -0,0 +1,369 @@
+/*
+ * Copyright (C) 2015 Hamburg Sud and the contributors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.aludratest.service.jms.impl;
+
+import java.lang.management.ManagementFactory;
+import java.math.BigDecimal;
+import java.util.ArrayList;
+import java.util.EnumMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.jms.BytesMessage;
+import javax.jms.JMSException;
+import javax.jms.Message;
+import javax.jms.TextMessage;
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+import org.aludratest.exception.AutomationException;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Latency histograms and counters of the operations of a JmsService, kept per operation and destination.
+ * Recording a value for a known operation and destination does not allocate any objects; 
+ * the statistics of a destination are created when it is used for the first time.
+ * If metrics are disabled, the service holds no instance of this class, so that its only cost 
+ * is a <code>null</code> check per operation.
+ */
+
+public class JmsMetrics implements JmsMetricsMXBean {
+
+	private static final Logger LOGGER = LoggerFactory.getLogger(JmsMetrics.class);
+
+	/** The destination name under which operations without destination are recorded. */
+	public static final String NO_DESTINATION = "";
+
+	/** The instrumented operations. END_TO_END is the time from sending a stamped message until its receipt,
+	 *  see {@link MessageStamper}. */
+	public enum Operation {
+		SEND, RECEIVE, REQUEST_REPLY, LOOKUP, CONNECTION_START, CONNECTION_STOP, SUBSCRIBER_START, SUBSCRIBER_STOP, END_TO_END
+	}
+
+	private final String name;
+	private final Map<Operation, ConcurrentMap<String, Statistics>> statistics;
+	private ObjectName objectName;
+
+	/** Full constructor.
+	 *  @param name the name of the service instance, used to name the MBean */
+	public JmsMetrics(String name) {
+		this.name = name;
+		this.statistics = new EnumMap<Operation, ConcurrentMap<String, Statistics>>(Operation.class);
+		for (Operation operation : Operation.values()) {
+			statistics.put(operation, new ConcurrentHashMap<String, Statistics>());
+		}
+	}
+
+	/** Records a successful operation.
+	 *  @param operation the operation
+	 *  @param destinationName the destination or subscription name, or {@link #NO_DESTINATION}
+	 *  @param nanos the duration of the operation
+	 *  @param bytes the payload size of the messages sent or received */
+	public void record(Operation operation, String destinationName, long nanos, long bytes) {
+		Statistics stats = statisticsOf(operation, destinationName);
+		stats.latency.record(nanos);
+		stats.extendSpan(nanos);
+		if (bytes > 0) {
+			stats.bytes.addAndGet(bytes);
+		}
+	}
+
+	/** Records a failed operation.
+	 *  @param operation the operation
+	 *  @param destinationName the destination or subscription name, or {@link #NO_DESTINATION} */
+	public void recordError(Operation operation, String destinationName) {
+		statisticsOf(operation, destinationName).errors.incrementAndGet();
+	}
+
+	private Statistics statisticsOf(Operation operation, String destinationName) {
+		String key = keyOf(destinationName);
+		ConcurrentMap<String, Statistics> map = statistics.get(operation);
+		Statistics stats = map.get(key);
+		if (stats == null) {
+			Statistics created = new Statistics();
+			stats = map.putIfAbsent(key, created);
+			if (stats == null) {
+				stats = created;
+			}
+		}
+		return stats;
+	}
+
+	/** @return the statistics of the operation on the destination, or <code>null</code> if it has not been recorded yet */
+	public OperationStatistics getStatistics(Operation operation, String destinationName) {
+		String key = keyOf(destinationName);
+		Statistics stats = statistics.get(operation).get(key);
+		return (stats != null ? stats.snapshot(operation, key) : null);
+	}
+
+	/** Checks a latency percentile of an operation against a limit.
+	 *  @param percentile the percentile in the range 0 to 100
+	 *  @param maxMillis the number of milliseconds the percentile must stay below
+	 *  @return a description of the violation, or <code>null</code> if the percentile is below the limit */
+	public String checkLatencyPercentile(Operation operation, String destinationName, double percentile, long maxMillis) {
+		if (percentile < 0 || percentile > 100) {
+			throw new AutomationException("Percentile must be in the range 0 to 100: " + percentile);
+		}
+		LatencyHistogram latency = latencyOf(operation, destinationName);
+		if (latency == null) {
+			return notRecorded(operation, destinationName);
+		}
+		long value = latency.getValueAtPercentile(percentile);
+		if (value < TimeUnit.MILLISECONDS.toNanos(maxMillis)) {
+			return null;
+		}
+		return "p" + new BigDecimal(String.valueOf(percentile)).stripTrailingZeros().toPlainString() + " latency of "
+				+ describe(operation, destinationName) + " is " + LatencyHistogram.millis(value) + " ms, expected below "
+				+ maxMillis + " ms (" + latency.getCount() + " operations)";
+	}
+
+	/** Checks the maximum latency of an operation against a limit.
+	 *  @param maxMillis the number of milliseconds each execution must stay below
+	 *  @return a description of the violation, or <code>null</code> if all executions stayed below the limit */
+	public String checkMaxLatency(Operation operation, String destinationName, long maxMillis) {
+		LatencyHistogram latency = latencyOf(operation, destinationName);
+		if (latency == null) {
+			return notRecorded(operation, destinationName);
+		}
+		long value = latency.getMax();
+		if (value < TimeUnit.MILLISECONDS.toNanos(maxMillis)) {
+			return null;
+		}
+		return "Slowest " + describe(operation, destinationName) + " took " + LatencyHistogram.millis(value)
+				+ " ms, expected below " + maxMillis + " ms (" + latency.getCount() + " operations)";
+	}
+
+	/** Checks the throughput of an operation from the start of the first to the end of the last recorded execution.
+	 *  @param minPerSecond the minimum number of executions per second
+	 *  @return a description of the violation, or <code>null</code> if the throughput is at least the given rate */
+	public String checkThroughput(Operation operation, String destinationName, double minPerSecond) {
+		Statistics stats = statistics.get(operation).get(keyOf(destinationName));
+		double throughput = (stats != null ? stats.throughput() : 0);
+		if (throughput >= minPerSecond) {
+			return null;
+		}
+		return "Throughput of " + describe(operation, destinationName) + " is " + String.format(Locale.US, "%.1f", throughput)
+				+ "/s, expected at least " + String.format(Locale.US, "%.1f", minPerSecond) + "/s";
+	}
+
+	private LatencyHistogram latencyOf(Operation operation, String destinationName) {
+		Statistics stats = statistics.get(operation).get(keyOf(destinationName));
+		return (stats != null && stats.latency.getCount() > 0 ? stats.latency : null);
+	}
+
+	private static String notRecorded(Operation operation, String destinationName) {
+		return "No successful " + describe(operation, destinationName) + " has been recorded";
+	}
+
+	private static String describe(Operation operation, String destinationName) {
+		String key = keyOf(destinationName);
+		return (NO_DESTINATION.equals(key) ? operation.name() : operation + " on " + key);
+	}
+
+	private static String keyOf(String destinationName) {
+		return (destinationName != null ? destinationName : NO_DESTINATION);
+	}
+
+	@Override
+	public List<OperationStatistics> getStatistics() {
+		List<OperationStatistics> result = new ArrayList<OperationStatistics>();
+		for (Map.Entry<Operation, ConcurrentMap<String, Statistics>> entry : statistics.entrySet()) {
+			for (Map.Entry<String, Statistics> destination : new TreeMap<String, Statistics>(entry.getValue()).entrySet()) {
+				result.add(destination.getValue().snapshot(entry.getKey(), destination.getKey()));
+			}
+		}
+		return result;
+	}
+
+	@Override
+	public String getReport() {
+		StringBuilder builder = new StringBuilder();
+		builder.append("JMS metrics of ").append(name).append('\n');
+		for (Map.Entry<Operation, ConcurrentMap<String, Statistics>> entry : statistics.entrySet()) {
+			for (Map.Entry<String, Statistics> destination : new TreeMap<String, Statistics>(entry.getValue()).entrySet()) {
+				Statistics stats = destination.getValue();
+				builder.append(entry.getKey());
+				if (!NO_DESTINATION.equals(destination.getKey())) {
+					builder.append(' ').append(destination.getKey());
+				}
+				builder.append(": errors=").append(stats.errors.get());
+				builder.append(", bytes=").append(stats.bytes.get());
+				builder.append(", throughput=").append(String.format(Locale.US, "%.1f", stats.throughput())).append("/s");
+				builder.append(", latency: ").append(stats.latency).append('\n');
+			}
+		}
+		return builder.toString();
+	}
+
+	@Override
+	public long getOperationCount() {
+		long count = 0;
+		for (ConcurrentMap<String, Statistics> map : statistics.values()) {
+			for (Statistics stats : map.values()) {
+				count += stats.latency.getCount();
+			}
+		}
+		return count;
+	}
+
+	@Override
+	public long getErrorCount() {
+		long count = 0;
+		for (ConcurrentMap<String, Statistics> map : statistics.values()) {
+			for (Statistics stats : map.values()) {
+				count += stats.errors.get();
+			}
+		}
+		return count;
+	}
+
+	/** @return true if no operation has been recorded */
+	public boolean isEmpty() {
+		for (ConcurrentMap<String, Statistics> map : statistics.values()) {
+			if (!map.isEmpty()) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	@Override
+	public void reset() {
+		for (ConcurrentMap<String, Statistics> map : statistics.values()) {
+			map.clear();
+		}
+	}
+
+	/** Registers this object at the platform MBean server. A failure is logged, but not thrown. */
+	public synchronized void register() {
+		try {
+			ObjectName candidate = new ObjectName("org.aludratest.service.jms:type=JmsMetrics,name=" + ObjectName.quote(name));
+			ManagementFactory.getPlatformMBeanServer().registerMBean(this, candidate);
+			objectName = candidate;
+		}
+		catch (JMException e) {
+			LOGGER.warn("Could not register JMS metrics MBean for " + name + " : " + e);
+		}
+	}
+
+	/** Unregisters this object from the platform MBean server, if it has been registered. */
+	public synchronized void unregister() {
+		if (objectName != null) {
+			MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+			try {
+				server.unregisterMBean(objectName);
+			}
+			catch (JMException e) {
+				LOGGER.debug("Could not unregister JMS metrics MBean " + objectName + " : ", e);
+			}
+			objectName = null;
+		}
+	}
+
+	/** Determines the payload size of a message without copying its content.
+	 *  @return the UTF-8 length of a text message, the body length of a readable bytes message, otherwise <code>0</code> */
+	public static long payloadSize(Message message) {
+		try {
+			if (message instanceof TextMessage) {
+				return utf8Length(((TextMessage) message).getText());
+			}
+			if (message instanceof BytesMessage) {
+				return ((BytesMessage) message).getBodyLength();
+			}
+		}
+		catch (JMSException e) {
+			// bytes messages are not readable before they have been sent
+		}
+		return 0;
+	}
+
+	static long utf8Length(String text) {
+		if (text == null) {
+			return 0;
+		}
+		long length = 0;
+		for (int i = 0; i < text.length(); i++) {
+			char c = text.charAt(i);
+			if (c < 0x80) {
+				length++;
+			} else if (c < 0x800) {
+				length += 2;
+			} else if (Character.isHighSurrogate(c) && i + 1 < text.length() && Character.isLowSurrogate(text.charAt(i + 1))) {
+				length += 4;
+				i++;
+			} else {
+				length += 3;
+			}
+		}
+		return length;
+	}
+
+	@Override
+	public String toString() {
+		return "JMS metrics of " + name;
+	}
+
+	private static final class Statistics {
+
+		final LatencyHistogram latency = new LatencyHistogram();
+		final AtomicLong errors = new AtomicLong();
+		final AtomicLong bytes = new AtomicLong();
+		// start of the first and end of the last recorded operation, guarded by this
+		private boolean spanned;
+		private long firstStartNanos;
+		private long lastEndNanos;
+
+		/** Extends the span of the recorded operations by an operation which has just ended. */
+		synchronized void extendSpan(long nanos) {
+			long end = System.nanoTime();
+			long start = end - nanos;
+			if (!spanned || start - firstStartNanos < 0) {
+				firstStartNanos = start;
+			}
+			if (!spanned || end - lastEndNanos > 0) {
+				lastEndNanos = end;
+			}
+			spanned = true;
+		}
+
+		/** @return the number of operations per second within the span of the recorded operations, 
+		 *  		so that idle time after the last operation does not lower it */
+		synchronized double throughput() {
+			long elapsed = lastEndNanos - firstStartNanos;
+			return (spanned && elapsed > 0 ? latency.getCount() * 1000000000. / elapsed : 0);
+		}
+
+		OperationStatistics snapshot(Operation operation, String destinationName) {
+			return new OperationStatistics(operation.name(), destinationName, latency.getCount(), errors.get(), bytes.get(), 
+					throughput(), micros(latency.getValueAtPercentile(50)), micros(latency.getValueAtPercentile(90)), 
+					micros(latency.getValueAtPercentile(99)), micros(latency.getValueAtPercentile(99.9)), 
+					micros(latency.getValueAtPercentile(99.99)), micros(latency.getMax()), latency.getMean() / 1000.);
+		}
+
+		private static long micros(long nanos) {
+			return TimeUnit.NANOSECONDS.toMicros(nanos);
+		}
+	}
+
+}
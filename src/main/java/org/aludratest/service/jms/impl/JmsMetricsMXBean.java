@@ -0,0 +1,41 @@
+/*
+ * Copyright (C) 2015 Hamburg Sud and the contributors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.aludratest.service.jms.impl;
+
+import java.util.List;
+
+/**
+ * JMX view of the {@link JmsMetrics} of a JmsService.
+ */
+
+public interface JmsMetricsMXBean {
+
+	/** @return the statistics of each operation and destination */
+	List<OperationStatistics> getStatistics();
+
+	/** @return the statistics of all operations and destinations as text */
+	String getReport();
+
+	/** @return the number of successful operations */
+	long getOperationCount();
+
+	/** @return the number of failed operations */
+	long getErrorCount();
+
+	/** Discards all statistics. */
+	void reset();
+
+}
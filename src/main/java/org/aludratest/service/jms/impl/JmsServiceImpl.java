@@ -15,7 +15,10 @@
  */
 package org.aludratest.service.jms.impl;
 
+import java.util.ArrayList;
 import java.util.Hashtable;
+import java.util.List;
+import java.util.Locale;
 
 import javax.jms.ConnectionFactory;
 import javax.naming.Context;
@@ -27,19 +30,33 @@ import org.aludratest.config.Preferences;
 import org.aludratest.config.ValidatingPreferencesWrapper;
 import org.aludratest.exception.TechnicalException;
 import org.aludratest.service.AbstractConfigurableAludraService;
+import org.aludratest.service.jms.Flow;
+import org.aludratest.service.jms.JmsAsyncInteraction;
 import org.aludratest.service.jms.JmsCondition;
 import org.aludratest.service.jms.JmsInteraction;
 import org.aludratest.service.jms.JmsService;
 import org.aludratest.service.jms.JmsVerification;
 import org.apache.commons.lang.StringUtils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 
 public class JmsServiceImpl extends AbstractConfigurableAludraService implements JmsService {
 
+	private static final Logger LOGGER = LoggerFactory.getLogger(JmsServiceImpl.class);
+
 	private String providerUrl;
 
-	private InitialContext initialContext;
+	/** The connection pool entries of the brokers, if connections are shared. */
+	private final List<ConnectionPool.Entry> pooledConnections = new ArrayList<ConnectionPool.Entry>();
+
+	/** Routes the operations to the brokers if several provider URLs are configured, otherwise <code>null</code>. */
+	private BrokerRouter router;
+
+	private boolean warmUp;
 
-	private ConnectionFactory connectionFactory;
+	private int warmUpSessions;
+
+	private List<String> warmUpDestinations;
 
 	private JmsActionImpl action;
 
@@ -50,9 +67,23 @@ public class JmsServiceImpl extends AbstractConfigurableAludraService implements
 
 	@Override
 	public void close() {
-		if (action != null) {
-			action.close();
+		try {
+			if (router != null) {
+				router.close();
+			} else if (action != null) {
+				action.close();
+			}
+		}
+		finally {
+			releasePooledConnections();
+		}
+	}
+
+	private void releasePooledConnections() {
+		for (ConnectionPool.Entry pooledConnection : pooledConnections) {
+			pooledConnection.release();
 		}
+		pooledConnections.clear();
 	}
 
 	@Override
@@ -70,49 +101,184 @@ public class JmsServiceImpl extends AbstractConfigurableAludraService implements
 
 		String userName = prefs.getStringValue("jmsUser");
 		String password = prefs.getStringValue("jmsPassword");
-
-		Hashtable<String, String> env = new Hashtable<String, String>();
-		env.put(Context.INITIAL_CONTEXT_FACTORY, initialContextFactory);
-		env.put(Context.PROVIDER_URL, providerUrl);
-		if (!StringUtils.isEmpty(userName)) {
-			env.put(Context.SECURITY_PRINCIPAL, userName);
+		JmsActionSettings settings = new JmsActionSettings();
+		settings.setUserName(userName);
+		settings.setPassword(password);
+		settings.setProducerCacheSize(prefs.getIntValue("producerCacheSize", settings.getProducerCacheSize()));
+		settings.setConsumerCacheSize(prefs.getIntValue("consumerCacheSize", settings.getConsumerCacheSize()));
+		settings.setConsumerIdleTimeout(prefs.getIntValue("consumerIdleTimeout", settings.getConsumerIdleTimeout()));
+		settings.setDestinationCacheTtl(prefs.getIntValue("destinationCacheTtl", settings.getDestinationCacheTtl()));
+		settings.setDestinationNegativeCacheTtl(prefs.getIntValue("destinationNegativeCacheTtl", 
+				settings.getDestinationNegativeCacheTtl()));
+		boolean keepConnectionStarted = prefs.getBooleanValue("keepConnectionStarted", settings.isKeepConnectionStarted());
+		settings.setKeepConnectionStarted(keepConnectionStarted);
+		settings.setAsyncMaxInFlight(prefs.getIntValue("asyncMaxInFlight", settings.getAsyncMaxInFlight()));
+		settings.setQueueBufferCapacity(prefs.getIntValue("queueBufferCapacity", settings.getQueueBufferCapacity()));
+		settings.setQueueBufferOverflowPolicy(getEnumValue(prefs, "queueBufferOverflowPolicy", settings.getQueueBufferOverflowPolicy()));
+		if (settings.getQueueBufferCapacity() <= 0) {
+			throw new ConfigurationException("queueBufferCapacity must be positive: " + settings.getQueueBufferCapacity());
 		}
-		if (!StringUtils.isEmpty(password)) {
-			env.put(Context.SECURITY_CREDENTIALS, password);
+		settings.setTopicListenerMode(prefs.getBooleanValue("topicListenerMode", settings.isTopicListenerMode()));
+		settings.setTopicBufferCapacity(prefs.getIntValue("topicBufferCapacity", settings.getTopicBufferCapacity()));
+		settings.setTopicBufferOverflowPolicy(getEnumValue(prefs, "topicBufferOverflowPolicy", settings.getTopicBufferOverflowPolicy()));
+		if (settings.getTopicBufferCapacity() <= 0) {
+			throw new ConfigurationException("topicBufferCapacity must be positive: " + settings.getTopicBufferCapacity());
+		}
+		warmUp = prefs.getBooleanValue("warmUp", false);
+		settings.setWarmUpSessions(prefs.getIntValue("warmUpSessions", settings.getWarmUpSessions()));
+		warmUpSessions = settings.getWarmUpSessions();
+		warmUpDestinations = new ArrayList<String>();
+		for (String destinationName : StringUtils.split(prefs.getStringValue("warmUpDestinations", ""), ',')) {
+			if (!StringUtils.isBlank(destinationName)) {
+				warmUpDestinations.add(destinationName.trim());
+			}
+		}
+		ReconnectPolicy reconnectPolicy = null;
+		if (prefs.getBooleanValue("reconnect", false)) {
+			settings.setReconnectInitialDelay(prefs.getIntValue("reconnectInitialDelay", settings.getReconnectInitialDelay()));
+			settings.setReconnectMaxDelay(prefs.getIntValue("reconnectMaxDelay", settings.getReconnectMaxDelay()));
+			int reconnectInitialDelay = settings.getReconnectInitialDelay();
+			int reconnectMaxDelay = settings.getReconnectMaxDelay();
+			if (reconnectInitialDelay <= 0 || reconnectMaxDelay < reconnectInitialDelay) {
+				throw new ConfigurationException("reconnectInitialDelay must be positive and must not exceed reconnectMaxDelay: " 
+						+ reconnectInitialDelay + ", " + reconnectMaxDelay);
+			}
+			reconnectPolicy = new ReconnectPolicy(reconnectInitialDelay, reconnectMaxDelay);
+		}
+		settings.setReconnectPolicy(reconnectPolicy);
+		boolean shareConnections = prefs.getBooleanValue("shareConnections", false);
+		settings.setSharedConnectionIdleTimeout(prefs.getIntValue("sharedConnectionIdleTimeout", 
+				settings.getSharedConnectionIdleTimeout()));
+		BrokerRouter.RoutingPolicy brokerRouting = getEnumValue(prefs, "brokerRouting", BrokerRouter.RoutingPolicy.ROUND_ROBIN);
+		settings.setBrokerHealthCheckInterval(prefs.getIntValue("brokerHealthCheckInterval", 
+				settings.getBrokerHealthCheckInterval()));
+		settings.setVirtualThreadReceives(prefs.getBooleanValue("virtualThreadReceives", settings.isVirtualThreadReceives()));
+		settings.setMetricsEnabled(prefs.getBooleanValue("metrics", settings.isMetricsEnabled()));
+		settings.setTimelineSize(prefs.getIntValue("timelineSize", settings.getTimelineSize()));
+		settings.setEndToEndLatency(prefs.getBooleanValue("endToEndLatency", settings.isEndToEndLatency()));
+		if (settings.isEndToEndLatency() && !settings.isMetricsEnabled()) {
+			throw new ConfigurationException("endToEndLatency requires metrics to be enabled");
 		}
 
+		// several brokers may be listed, separated by semicolons
+		List<BrokerNode> nodes = new ArrayList<BrokerNode>();
 		try {
-			initialContext = new InitialContext(env);
-			connectionFactory = (ConnectionFactory) initialContext.lookup(connectionFactoryName);
-			if (connectionFactory == null) {
-				throw new ConfigurationException("The connection factory could not be found.");
-			}
+			for (String url : StringUtils.split(providerUrl, ';')) {
+				if (StringUtils.isBlank(url)) {
+					continue;
+				}
+				url = url.trim();
+				Hashtable<String, String> env = new Hashtable<String, String>();
+				env.put(Context.INITIAL_CONTEXT_FACTORY, initialContextFactory);
+				env.put(Context.PROVIDER_URL, url);
+				if (!StringUtils.isEmpty(userName)) {
+					env.put(Context.SECURITY_PRINCIPAL, userName);
+				}
+				if (!StringUtils.isEmpty(password)) {
+					env.put(Context.SECURITY_CREDENTIALS, password);
+				}
+
+				InitialContext initialContext;
+				ConnectionFactory connectionFactory;
+				ManagedConnection sharedConnection = null;
+				if (shareConnections) {
+					ConnectionPool.Entry pooledConnection = ConnectionPool.getInstance().acquire(env, connectionFactoryName, 
+							userName, password, keepConnectionStarted, reconnectPolicy, settings.getSharedConnectionIdleTimeout());
+					pooledConnections.add(pooledConnection);
+					initialContext = pooledConnection.getContext();
+					connectionFactory = pooledConnection.getConnectionFactory();
+					sharedConnection = pooledConnection.getConnection();
+				}
+				else {
+					try {
+						initialContext = new InitialContext(env);
+						connectionFactory = (ConnectionFactory) initialContext.lookup(connectionFactoryName);
+						if (connectionFactory == null) {
+							throw new ConfigurationException("The connection factory could not be found.");
+						}
 
+					}
+					catch (NamingException e) {
+						throw new TechnicalException("Could not retrieve objects from JNDI context", e);
+					}
+				}
+
+				DestinationResolver destinationResolver = new DestinationResolver(initialContext, settings.getDestinationCacheTtl(), 
+						settings.getDestinationNegativeCacheTtl());
+				JmsActionImpl brokerAction = new JmsActionImpl(connectionFactory, destinationResolver, sharedConnection, settings);
+				nodes.add(new BrokerNode(url, brokerAction));
+			}
+			if (nodes.isEmpty()) {
+				throw new ConfigurationException("No providerUrl specified");
+			}
+			action = nodes.get(0).getAction();
+			if (nodes.size() > 1) {
+				router = new BrokerRouter(nodes, brokerRouting, settings.getBrokerHealthCheckInterval());
+			}
 		}
-		catch (NamingException e) {
-			throw new TechnicalException("Could not retrieve objects from JNDI context", e);
+		catch (RuntimeException e) {
+			// the pool entries and the metrics of the brokers configured so far must not outlive the failure
+			for (BrokerNode node : nodes) {
+				try {
+					node.getAction().close();
+				}
+				catch (RuntimeException closeFailure) {
+					LOGGER.debug("Failed to close " + node + " after configuration failure: ", closeFailure);
+				}
+			}
+			action = null;
+			router = null;
+			releasePooledConnections();
+			throw e;
 		}
+	}
 
-		action = new JmsActionImpl(connectionFactory, initialContext, userName, password);
+	private static <E extends Enum<E>> E getEnumValue(ValidatingPreferencesWrapper prefs, String key, E defaultValue) {
+		String name = prefs.getStringValue(key, defaultValue.name());
+		try {
+			return Enum.valueOf(defaultValue.getDeclaringClass(), name.trim().toUpperCase(Locale.US));
+		}
+		catch (IllegalArgumentException e) {
+			throw new ConfigurationException("Unsupported " + key + ": " + name);
+		}
 	}
 
 	@Override
 	public JmsInteraction perform() {
-		return action;
+		return (router != null ? router.getInteraction() : action);
 	}
 
 	@Override
 	public JmsCondition check() {
-		return action;
+		return (router != null ? router.getCondition() : action);
 	}
 
 	@Override
 	public JmsVerification verify() {
-		return action;
+		return (router != null ? router.getVerification() : action);
+	}
+
+	@Override
+	public JmsAsyncInteraction performAsync() {
+		return action.getAsyncInteraction();
+	}
+
+	@Override
+	public Flow.Publisher<String> getTextMessagePublisher(String subscriptionName, String messageSelector) {
+		return action.getTextMessagePublisher(subscriptionName, messageSelector);
 	}
 
 	@Override
 	public void initService() {
+		if (warmUp) {
+			if (router != null) {
+				for (BrokerNode node : router.getNodes()) {
+					node.getAction().warmUp(warmUpDestinations, warmUpSessions);
+				}
+			} else {
+				action.warmUp(warmUpDestinations, warmUpSessions);
+			}
+		}
 	}
 
 }
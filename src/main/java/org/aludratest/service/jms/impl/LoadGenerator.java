@@ -0,0 +1,220 @@
+/*
+ * Copyright (C) 2015 Hamburg Sud and the contributors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.aludratest.service.jms.impl;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+import javax.jms.Connection;
+import javax.jms.Destination;
+import javax.jms.JMSException;
+import javax.jms.Message;
+import javax.jms.MessageProducer;
+import javax.jms.Session;
+
+import org.aludratest.exception.AccessFailure;
+import org.aludratest.exception.AutomationException;
+import org.aludratest.service.jms.data.JmsMessageData;
+import org.aludratest.service.jms.data.LoadProfileData;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Sends a message template to a destination at a target rate, using several concurrent producers.
+ * <p>
+ * All producers share one global schedule: Message number <code>n</code> is due at the point in time
+ * at which a rate that rises linearly during ramp-up and stays constant afterwards has produced
+ * <code>n</code> messages. Producer <code>k</code> of <code>p</code> sends the messages
+ * <code>k, k + p, k + 2p, ...</code>. The latency of a message is measured from the time it was due,
+ * not from the time it was actually sent, so that a send that stalls the producer is accounted for
+ * with all messages that were delayed by it (correction of coordinated omission).
+ * The pure duration of the send calls is recorded separately as service time.
+ */
+
+public class LoadGenerator {
+
+	private static final Logger LOGGER = LoggerFactory.getLogger(LoadGenerator.class);
+
+	/** Additional time to wait for the producers after the scheduled end of the load. */
+	private static final long SHUTDOWN_GRACE_MILLIS = 30000;
+
+	private final Connection connection;
+	private final Destination destination;
+	private final String destinationName;
+	private final JmsMessageData template;
+	private final LoadProfileData profile;
+	private final MessageStamper stamper;
+
+	private final LatencyHistogram latency;
+	private final LatencyHistogram serviceTime;
+	private final AtomicLong errors;
+
+	private long startNanos;
+	private long endNanos;
+
+	/** Full constructor.
+	 *  @param connection the connection to create the producer sessions with
+	 *  @param destination the destination to send to
+	 *  @param destinationName the name of the destination, used in the summary
+	 *  @param template the message to send repeatedly
+	 *  @param profile the load profile to apply
+	 *  @param stamper the stamper for end-to-end latency tracking, or <code>null</code> */
+	public LoadGenerator(Connection connection, Destination destination, String destinationName, JmsMessageData template,
+			LoadProfileData profile, MessageStamper stamper) {
+		if (profile.getMessagesPerSecond() <= 0 || profile.getDurationSeconds() <= 0 || profile.getProducerCount() <= 0) {
+			throw new AutomationException("Load profile requires positive rate, duration and producer count: " + profile);
+		}
+		this.connection = connection;
+		this.destination = destination;
+		this.destinationName = destinationName;
+		this.template = template;
+		this.profile = profile;
+		this.stamper = stamper;
+		this.latency = new LatencyHistogram();
+		this.serviceTime = new LatencyHistogram();
+		this.errors = new AtomicLong();
+	}
+
+	/** Generates the load and waits until all producers have finished.
+	 *  @return a textual summary of the achieved rate and the measured latencies */
+	public String run() {
+		int producerCount = profile.getProducerCount();
+		ExecutorService executor = Executors.newFixedThreadPool(producerCount);
+		List<Future<?>> producers = new ArrayList<Future<?>>(producerCount);
+		startNanos = System.nanoTime();
+		try {
+			for (int k = 0; k < producerCount; k++) {
+				final int producerIndex = k;
+				producers.add(executor.submit(new Runnable() {
+					@Override
+					public void run() {
+						produce(producerIndex);
+					}
+				}));
+			}
+			long deadline = startNanos + TimeUnit.SECONDS.toNanos(profile.getDurationSeconds())
+					+ TimeUnit.MILLISECONDS.toNanos(SHUTDOWN_GRACE_MILLIS);
+			for (Future<?> producer : producers) {
+				producer.get(Math.max(0, deadline - System.nanoTime()), TimeUnit.NANOSECONDS);
+			}
+		}
+		catch (ExecutionException e) {
+			throw new AccessFailure("Load generation on " + destinationName + " failed", e.getCause());
+		}
+		catch (TimeoutException e) {
+			throw new AutomationException("Load generation on " + destinationName + " did not terminate in time", e);
+		}
+		catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new AutomationException("Interrupted during load generation", e);
+		}
+		finally {
+			executor.shutdownNow();
+		}
+		endNanos = System.nanoTime();
+		String summary = createSummary();
+		LOGGER.info(summary);
+		return summary;
+	}
+
+	private void produce(int producerIndex) {
+		Session session = null;
+		try {
+			session = connection.createSession(false, Session.AUTO_ACKNOWLEDGE);
+			MessageProducer producer = session.createProducer(destination);
+			long durationNanos = TimeUnit.SECONDS.toNanos(profile.getDurationSeconds());
+			for (long n = producerIndex; !Thread.currentThread().isInterrupted(); n += profile.getProducerCount()) {
+				long due = dueTime(n);
+				if (due >= durationNanos) {
+					break;
+				}
+				long dueNanos = startNanos + due;
+				long now;
+				while ((now = System.nanoTime()) < dueNanos) {
+					LockSupport.parkNanos(dueNanos - now);
+				}
+				try {
+					Message message = JmsActionImpl.createMessage(session, template);
+					if (stamper != null) {
+						stamper.stamp(message);
+					}
+					producer.send(message);
+					long end = System.nanoTime();
+					serviceTime.record(end - now);
+					latency.record(end - dueNanos);
+				}
+				catch (JMSException e) {
+					if (errors.incrementAndGet() == 1) {
+						LOGGER.warn("Send failed during load generation on " + destinationName, e);
+					}
+				}
+			}
+		}
+		catch (JMSException e) {
+			throw new AccessFailure("Could not create producer for " + destinationName, e);
+		}
+		finally {
+			if (session != null) {
+				try {
+					session.close();
+				}
+				catch (JMSException e) {
+					LOGGER.debug("Failed to close jms session : ", e);
+				}
+			}
+		}
+	}
+
+	/** Calculates when message number n is due, relative to the start.
+	 *  @return the number of nanoseconds after the start */
+	long dueTime(long n) {
+		double rate = profile.getMessagesPerSecond();
+		double rampUp = profile.getRampUpSeconds();
+		double seconds;
+		double rampUpMessages = rate * rampUp / 2;
+		if (n < rampUpMessages) {
+			// during ramp-up, the number of messages sent until t is rate * t^2 / (2 * rampUp)
+			seconds = Math.sqrt(2 * rampUp * n / rate);
+		} else {
+			seconds = rampUp + (n - rampUpMessages) / rate;
+		}
+		return (long) (seconds * 1000000000.);
+	}
+
+	private String createSummary() {
+		double elapsedSeconds = (endNanos - startNanos) / 1000000000.;
+		long sent = serviceTime.getCount();
+		StringBuilder builder = new StringBuilder();
+		builder.append("Load generation on ").append(destinationName).append('\n');
+		builder.append("profile: ").append(profile).append('\n');
+		builder.append("messages sent: ").append(sent).append(", errors: ").append(errors.get());
+		builder.append(", elapsed: ").append(String.format(Locale.US, "%.3f", elapsedSeconds)).append(" s");
+		builder.append(", average rate: ").append(String.format(Locale.US, "%.1f", sent / elapsedSeconds)).append(" msg/s\n");
+		builder.append("latency (corrected for coordinated omission): ").append(latency).append('\n');
+		builder.append("service time: ").append(serviceTime).append('\n');
+		return builder.toString();
+	}
+
+}
@@ -0,0 +1,153 @@
+/*
+ * Copyright (C) 2015 Hamburg Sud and the contributors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.aludratest.service.jms.impl;
+
+import javax.jms.Connection;
+import javax.jms.JMSException;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Controls when a {@link Connection} delivers messages.
+ * Each operation that needs message delivery is enclosed by {@link #beginUse()} and {@link #endUse()}.
+ * In the default mode, the connection is started by the first concurrent user and stopped
+ * again when the last one is finished. If <code>keepStarted</code> is set, the connection is
+ * started on first use and stays started until it is closed, which saves two synchronous
+ * broker round-trips per operation.
+ * <p>
+ * If the connection is supervised by a {@link ConnectionSupervisor}, it may be replaced after a failure; 
+ * users must therefore not keep the result of {@link #getConnection()} beyond the current operation.
+ */
+
+public class ManagedConnection {
+
+	private static final Logger LOGGER = LoggerFactory.getLogger(ManagedConnection.class);
+
+	private volatile Connection connection;
+	private final boolean keepStarted;
+	private final String description;
+
+	private int users;
+	private boolean started;
+	private ConnectionSupervisor supervisor;
+
+	/** Full constructor.
+	 *  @param connection the connection to manage
+	 *  @param keepStarted if set, the connection is not stopped after use
+	 *  @param description a description of the connection for log output */
+	public ManagedConnection(Connection connection, boolean keepStarted, String description) {
+		this.connection = connection;
+		this.keepStarted = keepStarted;
+		this.description = description;
+		this.users = 0;
+		this.started = false;
+	}
+
+	public Connection getConnection() {
+		return connection;
+	}
+
+	public boolean isKeepStarted() {
+		return keepStarted;
+	}
+
+	/** @return the supervisor which reconnects the connection after a failure, or <code>null</code> */
+	public synchronized ConnectionSupervisor getSupervisor() {
+		return supervisor;
+	}
+
+	synchronized void setSupervisor(ConnectionSupervisor supervisor) {
+		this.supervisor = supervisor;
+	}
+
+	/** Replaces a failed connection, starting the new one if the old one was started.
+	 *  @param replacement the new connection */
+	synchronized void replace(Connection replacement) {
+		Connection failed = this.connection;
+		this.connection = replacement;
+		if (started) {
+			try {
+				replacement.start();
+			}
+			catch (JMSException e) {
+				LOGGER.warn("Failed to start " + description + " : ", e);
+			}
+		}
+		try {
+			failed.close();
+		}
+		catch (JMSException e) {
+			LOGGER.debug("Failed to close failed " + description + " : ", e);
+		}
+	}
+
+	/** Makes sure the connection is started and registers a user.
+	 *  @return true if the connection has been started by this call */
+	public synchronized boolean beginUse() throws JMSException {
+		boolean starting = !started;
+		if (starting) {
+			LOGGER.debug("starting " + description);
+			connection.start();
+			started = true;
+		}
+		users++;
+		return starting;
+	}
+
+	/** Unregisters a user and stops the connection if it was the last one and the connection is not kept started.
+	 *  @return true if the connection has been stopped by this call */
+	public synchronized boolean endUse() {
+		users--;
+		if (users == 0 && started && !keepStarted) {
+			LOGGER.debug("stopping " + description);
+			try {
+				connection.stop();
+			}
+			catch (JMSException e) {
+				LOGGER.debug("Failed to stop " + description + " : ", e);
+			}
+			started = false;
+			return true;
+		}
+		return false;
+	}
+
+	/** Stops reconnecting, then stops and closes the connection. */
+	public void close() {
+		// the supervisor locks itself before this object when it replaces the connection
+		ConnectionSupervisor currentSupervisor = getSupervisor();
+		if (currentSupervisor != null) {
+			currentSupervisor.close();
+		}
+		synchronized (this) {
+			try {
+				connection.stop();
+				connection.close();
+			}
+			catch (JMSException e) {
+				LOGGER.debug("Failed to close " + description + " : ", e);
+			}
+			started = false;
+		}
+	}
+
+	@Override
+	public String toString() {
+		return description;
+	}
+
+}
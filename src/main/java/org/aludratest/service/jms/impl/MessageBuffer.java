@@ -0,0 +1,418 @@
+/*
+ * Copyright (C) 2015 Hamburg Sud and the contributors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.aludratest.service.jms.impl;
+
+import java.util.ArrayDeque;
+import java.util.Iterator;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+import javax.jms.JMSException;
+import javax.jms.Message;
+
+import org.aludratest.service.jms.impl.selector.MessageSelector;
+
+/**
+ * Bounded FIFO buffer of {@link Message}s which have been delivered by a message listener
+ * but not yet been handed over to a caller. The messages and their arrival times are kept in 
+ * preallocated ring arrays, so buffering a message does not allocate memory. 
+ * When the buffer is full, the {@link OverflowPolicy} decides what happens to an arriving message.
+ */
+
+public class MessageBuffer {
+
+	/** Tells what happens when a message arrives at a full buffer. */
+	public enum OverflowPolicy {
+		/** The delivering thread waits until a message has been taken from the buffer. */
+		BLOCK,
+		/** The oldest buffered message is discarded to make room for the new one. */
+		DROP_OLDEST,
+		/** The arriving message is discarded. */
+		DROP_NEWEST,
+		/** The arriving message is put into an unbounded overflow list, from which the ring is refilled 
+		 *  in order of arrival as messages are taken. Nothing is lost, but memory is not bounded either. */
+		SPILL
+	}
+
+	private final int capacity;
+	private final OverflowPolicy overflowPolicy;
+	private final Message[] messages;
+	private final long[] arrivals;
+	private final ArrayDeque<Entry> spill;
+	private final ReentrantLock lock;
+	private final Condition notEmpty;
+	private final Condition notFull;
+
+	private int head;
+	private int count;
+	private long received;
+	private long dropped;
+	private long spilled;
+	private int highWaterMark;
+	private int spillHighWaterMark;
+	private boolean closed;
+
+	/** Full constructor.
+	 *  @param capacity the maximum number of messages to buffer
+	 *  @param overflowPolicy what to do when a message arrives at a full buffer */
+	public MessageBuffer(int capacity, OverflowPolicy overflowPolicy) {
+		if (capacity <= 0) {
+			throw new IllegalArgumentException("Buffer capacity must be positive: " + capacity);
+		}
+		this.capacity = capacity;
+		this.overflowPolicy = overflowPolicy;
+		this.messages = new Message[capacity];
+		this.arrivals = new long[capacity];
+		this.spill = new ArrayDeque<Entry>();
+		this.lock = new ReentrantLock();
+		this.notEmpty = lock.newCondition();
+		this.notFull = lock.newCondition();
+	}
+
+	/** Adds a message to the buffer, applying the overflow policy if it is full.
+	 *  @param message the message to add
+	 *  @return the message which was discarded, either the oldest buffered one or the new one, 
+	 *  		or <code>null</code> if none was 
+	 *  @throws InterruptedException if the thread was interrupted while waiting for free space
+	 *  @throws IllegalStateException if the buffer was closed */
+	public Message put(Message message) throws InterruptedException {
+		long arrival = System.nanoTime();
+		lock.lockInterruptibly();
+		try {
+			while (!closed && count >= capacity && overflowPolicy == OverflowPolicy.BLOCK) {
+				notFull.await();
+			}
+			if (closed) {
+				throw new IllegalStateException("Message buffer has been closed");
+			}
+			received++;
+			Message discarded = null;
+			if (count >= capacity || !spill.isEmpty()) {
+				switch (overflowPolicy) {
+					case DROP_OLDEST:
+						discarded = removeAt(0);
+						dropped++;
+						break;
+					case DROP_NEWEST:
+						dropped++;
+						return message;
+					default: // SPILL
+						spill.addLast(new Entry(message, arrival));
+						spilled++;
+						spillHighWaterMark = Math.max(spillHighWaterMark, spill.size());
+						notEmpty.signal();
+						return null;
+				}
+			}
+			append(message, arrival);
+			notEmpty.signal();
+			return discarded;
+		}
+		finally {
+			lock.unlock();
+		}
+	}
+
+	/** Removes the oldest message from the buffer, waiting for one if the buffer is empty.
+	 *  @param timeout the number of milliseconds to wait, a negative value waits without timeout
+	 *  @return the oldest message with its arrival time, or <code>null</code> if none arrived within the timeout 
+	 *  		or the buffer was closed
+	 *  @throws InterruptedException if the thread was interrupted while waiting */
+	public Entry take(long timeout) throws InterruptedException {
+		try {
+			return take(MessageSelector.ALL, timeout);
+		}
+		catch (JMSException e) {
+			// MessageSelector.ALL does not access the message
+			throw new IllegalStateException(e);
+		}
+	}
+
+	/** Removes the oldest message which matches a selector from the buffer, waiting for one if there is none.
+	 *  Messages which do not match stay in the buffer.
+	 *  @param selector the selector to apply
+	 *  @param timeout the number of milliseconds to wait, a negative value waits without timeout
+	 *  @return the oldest matching message with its arrival time, or <code>null</code> if none arrived 
+	 *  		within the timeout or the buffer was closed
+	 *  @throws InterruptedException if the thread was interrupted while waiting
+	 *  @throws JMSException if the selector cannot be evaluated */
+	public Entry take(MessageSelector selector, long timeout) throws InterruptedException, JMSException {
+		long remaining = TimeUnit.MILLISECONDS.toNanos(timeout);
+		lock.lockInterruptibly();
+		try {
+			while (true) {
+				// other threads may have removed messages while this one was waiting, so each pass starts at the head
+				for (int offset = 0; offset < count; offset++) {
+					int index = (head + offset) % capacity;
+					if (selector.matches(messages[index])) {
+						long arrival = arrivals[index];
+						Message message = removeAt(offset);
+						refillFromSpill();
+						notFull.signal();
+						return new Entry(message, arrival);
+					}
+				}
+				if (closed) {
+					return null;
+				}
+				if (!spill.isEmpty()) {
+					// no message in the ring matches, look at the spilled ones
+					Entry entry = takeFromSpill(selector);
+					if (entry != null) {
+						return entry;
+					}
+				}
+				if (timeout < 0) {
+					notEmpty.await();
+				} else if (remaining > 0) {
+					remaining = notEmpty.awaitNanos(remaining);
+				} else {
+					return null;
+				}
+			}
+		}
+		finally {
+			lock.unlock();
+		}
+	}
+
+	/** Removes the oldest message from the buffer if it is of the given type, waiting for one if the buffer is empty.
+	 *  A message of another type stays in the buffer.
+	 *  @param type the type of message to remove
+	 *  @param timeout the number of milliseconds to wait, a negative value waits without timeout
+	 *  @return the oldest message with its arrival time, which has only been removed if it is of the given type, 
+	 *  		or <code>null</code> if none arrived within the timeout or the buffer was closed
+	 *  @throws InterruptedException if the thread was interrupted while waiting */
+	public Entry takeIfInstance(Class<?> type, long timeout) throws InterruptedException {
+		long remaining = TimeUnit.MILLISECONDS.toNanos(timeout);
+		lock.lockInterruptibly();
+		try {
+			while (true) {
+				// spilled messages are newer than the ones in the ring, so the head is the oldest message
+				if (count > 0) {
+					long arrival = arrivals[head];
+					if (!type.isInstance(messages[head])) {
+						return new Entry(messages[head], arrival);
+					}
+					Message message = removeAt(0);
+					refillFromSpill();
+					notFull.signal();
+					return new Entry(message, arrival);
+				}
+				if (closed) {
+					return null;
+				}
+				if (timeout < 0) {
+					notEmpty.await();
+				} else if (remaining > 0) {
+					remaining = notEmpty.awaitNanos(remaining);
+				} else {
+					return null;
+				}
+			}
+		}
+		finally {
+			lock.unlock();
+		}
+	}
+
+	/** Discards all buffered messages, e.g. because the broker will redeliver them.
+	 *  @return the number of discarded messages, including spilled ones */
+	public int clear() {
+		lock.lock();
+		try {
+			int discarded = count + spill.size();
+			for (int offset = 0; offset < count; offset++) {
+				messages[(head + offset) % capacity] = null;
+			}
+			head = 0;
+			count = 0;
+			spill.clear();
+			notFull.signalAll();
+			return discarded;
+		}
+		finally {
+			lock.unlock();
+		}
+	}
+
+	/** Wakes up all waiting threads and rejects further messages. */
+	public void close() {
+		lock.lock();
+		try {
+			closed = true;
+			notEmpty.signalAll();
+			notFull.signalAll();
+		}
+		finally {
+			lock.unlock();
+		}
+	}
+
+	/** @return the number of buffered messages, including spilled ones */
+	public int size() {
+		lock.lock();
+		try {
+			return count + spill.size();
+		}
+		finally {
+			lock.unlock();
+		}
+	}
+
+	public int getCapacity() {
+		return capacity;
+	}
+
+	public OverflowPolicy getOverflowPolicy() {
+		return overflowPolicy;
+	}
+
+	/** @return the number of messages which have been put into the buffer */
+	public long getReceived() {
+		lock.lock();
+		try {
+			return received;
+		}
+		finally {
+			lock.unlock();
+		}
+	}
+
+	/** @return the number of messages which were discarded because the buffer was full */
+	public long getDropped() {
+		lock.lock();
+		try {
+			return dropped;
+		}
+		finally {
+			lock.unlock();
+		}
+	}
+
+	/** @return the number of messages which were put into the overflow list because the buffer was full */
+	public long getSpilled() {
+		lock.lock();
+		try {
+			return spilled;
+		}
+		finally {
+			lock.unlock();
+		}
+	}
+
+	/** @return the maximum number of messages which have been buffered at the same time, without spilled ones */
+	public int getHighWaterMark() {
+		lock.lock();
+		try {
+			return highWaterMark;
+		}
+		finally {
+			lock.unlock();
+		}
+	}
+
+	/** @return the maximum number of messages which have been in the overflow list at the same time */
+	public int getSpillHighWaterMark() {
+		lock.lock();
+		try {
+			return spillHighWaterMark;
+		}
+		finally {
+			lock.unlock();
+		}
+	}
+
+	@Override
+	public String toString() {
+		lock.lock();
+		try {
+			return "message buffer [ size=" + count + "/" + capacity + ", policy=" + overflowPolicy + ", received=" + received 
+					+ ", highWaterMark=" + highWaterMark + ", dropped=" + dropped 
+					+ (overflowPolicy == OverflowPolicy.SPILL ? ", spilled=" + spilled + ", spillHighWaterMark=" + spillHighWaterMark : "")
+					+ " ]";
+		}
+		finally {
+			lock.unlock();
+		}
+	}
+
+	private void append(Message message, long arrival) {
+		int tail = (head + count) % capacity;
+		messages[tail] = message;
+		arrivals[tail] = arrival;
+		count++;
+		highWaterMark = Math.max(highWaterMark, count);
+	}
+
+	/** Removes the message at the given offset from the head, closing the gap by moving the older messages. */
+	private Message removeAt(int offset) {
+		int index = (head + offset) % capacity;
+		Message message = messages[index];
+		for (int i = offset; i > 0; i--) {
+			int to = (head + i) % capacity;
+			int from = (head + i - 1) % capacity;
+			messages[to] = messages[from];
+			arrivals[to] = arrivals[from];
+		}
+		messages[head] = null;
+		head = (head + 1) % capacity;
+		count--;
+		return message;
+	}
+
+	private void refillFromSpill() {
+		while (count < capacity && !spill.isEmpty()) {
+			Entry entry = spill.removeFirst();
+			append(entry.message, entry.arrivalNanos);
+		}
+	}
+
+	private Entry takeFromSpill(MessageSelector selector) throws JMSException {
+		Iterator<Entry> iterator = spill.iterator();
+		while (iterator.hasNext()) {
+			Entry entry = iterator.next();
+			if (selector.matches(entry.message)) {
+				iterator.remove();
+				return entry;
+			}
+		}
+		return null;
+	}
+
+	/** A buffered message with its arrival time. */
+	public static final class Entry {
+
+		private final Message message;
+		private final long arrivalNanos;
+
+		Entry(Message message, long arrivalNanos) {
+			this.message = message;
+			this.arrivalNanos = arrivalNanos;
+		}
+
+		public Message getMessage() {
+			return message;
+		}
+
+		/** @return the {@link System#nanoTime()} at which the message was put into the buffer */
+		public long getArrivalNanos() {
+			return arrivalNanos;
+		}
+	}
+
+}
@@ -0,0 +1,76 @@
+/*
+ * Copyright (C) 2015 Hamburg Sud and the contributors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.aludratest.service.jms.impl;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.jms.JMSException;
+import javax.jms.Message;
+
+/**
+ * Stamps outgoing messages with their send time and a sequence number, so that the end-to-end latency
+ * from the producer to the consumer can be calculated on receipt.
+ * The send time is given in nanoseconds since the epoch. It is extrapolated from the wall clock time
+ * at class initialization with {@link System#nanoTime()}, which gives it nanosecond resolution and makes
+ * it immune to clock adjustments. Latencies are therefore exact if producer and consumer run in the same
+ * JVM; otherwise they are only as accurate as the synchronization of the clocks of both hosts.
+ */
+
+public class MessageStamper {
+
+	/** The name of the long property which holds the send time in nanoseconds since the epoch. */
+	public static final String SEND_TIME_PROPERTY = "AludraTestSendTime";
+
+	/** The name of the long property which holds the sequence number of the message. */
+	public static final String SEQUENCE_PROPERTY = "AludraTestSequence";
+
+	private static final long EPOCH_OFFSET_NANOS = TimeUnit.MILLISECONDS.toNanos(System.currentTimeMillis()) - System.nanoTime();
+
+	private final AtomicLong sequence = new AtomicLong();
+
+	/** Sets the sequence number and the send time of a message; should be called immediately before sending it.
+	 *  @param message the message to stamp */
+	public void stamp(Message message) throws JMSException {
+		message.setLongProperty(SEQUENCE_PROPERTY, sequence.incrementAndGet());
+		message.setLongProperty(SEND_TIME_PROPERTY, currentTimeNanos());
+	}
+
+	/** @return the number of messages stamped so far, which is the sequence number of the last one */
+	public long getSequence() {
+		return sequence.get();
+	}
+
+	/** @return the current time in nanoseconds since the epoch, on the clock used for stamping */
+	public static long currentTimeNanos() {
+		return System.nanoTime() + EPOCH_OFFSET_NANOS;
+	}
+
+	/** Reads the send time of a message.
+	 *  @return the send time in nanoseconds since the epoch, or <code>0</code> if the message has not been stamped */
+	public static long getSendTime(Message message) {
+		try {
+			if (message.propertyExists(SEND_TIME_PROPERTY)) {
+				return message.getLongProperty(SEND_TIME_PROPERTY);
+			}
+		}
+		catch (JMSException e) {
+			// the property has been set by someone else with an incompatible type
+		}
+		return 0;
+	}
+
+}
@@ -0,0 +1,118 @@
+/*
+ * Copyright (C) 2015 Hamburg Sud and the contributors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.aludratest.service.jms.impl;
+
+import java.beans.ConstructorProperties;
+
+/**
+ * Snapshot of the statistics of one operation on one destination, as published by {@link JmsMetricsMXBean}.
+ * Latencies are given in microseconds.
+ */
+
+public class OperationStatistics {
+
+	private final String operation;
+	private final String destination;
+	private final long count;
+	private final long errors;
+	private final long bytes;
+	private final double throughput;
+	private final long p50Micros;
+	private final long p90Micros;
+	private final long p99Micros;
+	private final long p999Micros;
+	private final long p9999Micros;
+	private final long maxMicros;
+	private final double meanMicros;
+
+	/** Full constructor. */
+	@ConstructorProperties({ "operation", "destination", "count", "errors", "bytes", "throughput", "p50Micros", "p90Micros", 
+			"p99Micros", "p999Micros", "p9999Micros", "maxMicros", "meanMicros" })
+	public OperationStatistics(String operation, String destination, long count, long errors, long bytes, double throughput,
+			long p50Micros, long p90Micros, long p99Micros, long p999Micros, long p9999Micros, long maxMicros, double meanMicros) {
+		this.operation = operation;
+		this.destination = destination;
+		this.count = count;
+		this.errors = errors;
+		this.bytes = bytes;
+		this.throughput = throughput;
+		this.p50Micros = p50Micros;
+		this.p90Micros = p90Micros;
+		this.p99Micros = p99Micros;
+		this.p999Micros = p999Micros;
+		this.p9999Micros = p9999Micros;
+		this.maxMicros = maxMicros;
+		this.meanMicros = meanMicros;
+	}
+
+	public String getOperation() {
+		return operation;
+	}
+
+	/** @return the JNDI name of the destination or the name of the subscription, empty for connection operations */
+	public String getDestination() {
+		return destination;
+	}
+
+	/** @return the number of successful operations */
+	public long getCount() {
+		return count;
+	}
+
+	/** @return the number of failed operations */
+	public long getErrors() {
+		return errors;
+	}
+
+	/** @return the payload size of the messages sent or received, in bytes */
+	public long getBytes() {
+		return bytes;
+	}
+
+	/** @return the number of successful operations per second since the first one */
+	public double getThroughput() {
+		return throughput;
+	}
+
+	public long getP50Micros() {
+		return p50Micros;
+	}
+
+	public long getP90Micros() {
+		return p90Micros;
+	}
+
+	public long getP99Micros() {
+		return p99Micros;
+	}
+
+	public long getP999Micros() {
+		return p999Micros;
+	}
+
+	public long getP9999Micros() {
+		return p9999Micros;
+	}
+
+	public long getMaxMicros() {
+		return maxMicros;
+	}
+
+	public double getMeanMicros() {
+		return meanMicros;
+	}
+
+}
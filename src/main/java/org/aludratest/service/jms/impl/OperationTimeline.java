@@ -0,0 +1,135 @@
+/*
+ * Copyright (C) 2015 Hamburg Sud and the contributors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.aludratest.service.jms.impl;
+
+import java.util.Locale;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Keeps the last operations of a JmsService in a ring buffer of fixed size, for the diagnosis of failed tests.
+ * All entries are preallocated as parallel arrays, so recording an operation does not allocate any objects 
+ * and takes no lock. Concurrent writers claim slots by an atomic sequence number; a slot is marked invalid 
+ * while it is being written, so that a snapshot skips entries which are written at the same time.
+ */
+
+public class OperationTimeline {
+
+	/** The outcome of an operation. */
+	public enum Outcome {
+		OK, TIMEOUT, ERROR
+	}
+
+	private static final JmsMetrics.Operation[] OPERATIONS = JmsMetrics.Operation.values();
+	private static final Outcome[] OUTCOMES = Outcome.values();
+
+	private final int capacity;
+	private final AtomicLong next;
+	private final AtomicLongArray sequences;
+	private final long[] startNanos;
+	private final long[] durationNanos;
+	private final long[] bytes;
+	private final byte[] operations;
+	private final byte[] outcomes;
+	private final String[] destinations;
+
+	/** Full constructor.
+	 *  @param capacity the number of operations to keep */
+	public OperationTimeline(int capacity) {
+		if (capacity <= 0) {
+			throw new IllegalArgumentException("Timeline capacity must be positive: " + capacity);
+		}
+		this.capacity = capacity;
+		this.next = new AtomicLong();
+		this.sequences = new AtomicLongArray(capacity);
+		for (int i = 0; i < capacity; i++) {
+			sequences.set(i, -1);
+		}
+		this.startNanos = new long[capacity];
+		this.durationNanos = new long[capacity];
+		this.bytes = new long[capacity];
+		this.operations = new byte[capacity];
+		this.outcomes = new byte[capacity];
+		this.destinations = new String[capacity];
+	}
+
+	public int getCapacity() {
+		return capacity;
+	}
+
+	/** @return the number of operations recorded so far, including those which have been overwritten */
+	public long getRecordedCount() {
+		return next.get();
+	}
+
+	/** Records an operation, overwriting the oldest one if the buffer is full.
+	 *  @param operation the operation
+	 *  @param destinationName the destination or subscription name, or {@link JmsMetrics#NO_DESTINATION}
+	 *  @param start the value of {@link System#nanoTime()} when the operation started
+	 *  @param duration the duration of the operation in nanoseconds
+	 *  @param payloadBytes the payload size of the message sent or received
+	 *  @param outcome the outcome of the operation */
+	public void record(JmsMetrics.Operation operation, String destinationName, long start, long duration, long payloadBytes, 
+			Outcome outcome) {
+		long sequence = next.getAndIncrement();
+		int slot = (int) (sequence % capacity);
+		sequences.set(slot, -1);
+		startNanos[slot] = start;
+		durationNanos[slot] = duration;
+		bytes[slot] = payloadBytes;
+		operations[slot] = (byte) operation.ordinal();
+		outcomes[slot] = (byte) outcome.ordinal();
+		destinations[slot] = destinationName;
+		sequences.set(slot, sequence);
+	}
+
+	/** Formats the recorded operations as a table, oldest first. Offsets are relative to the oldest listed operation. */
+	@Override
+	public String toString() {
+		long last = next.get();
+		long first = Math.max(0, last - capacity);
+		StringBuilder builder = new StringBuilder();
+		builder.append(String.format(Locale.US, "%20s %12s %14s %10s  %-7s  %-16s  %s%n", 
+				"start [ns]", "offset [ms]", "duration [ms]", "bytes", "outcome", "operation", "destination"));
+		long origin = 0;
+		int listed = 0;
+		for (long sequence = first; sequence < last; sequence++) {
+			int slot = (int) (sequence % capacity);
+			if (sequences.get(slot) != sequence) {
+				continue;
+			}
+			long start = startNanos[slot];
+			long duration = durationNanos[slot];
+			long size = bytes[slot];
+			int operation = operations[slot];
+			int outcome = outcomes[slot];
+			String destination = destinations[slot];
+			if (sequences.get(slot) != sequence) {
+				// overwritten while reading
+				continue;
+			}
+			if (listed++ == 0) {
+				origin = start;
+			}
+			builder.append(String.format(Locale.US, "%20d %12s %14s %10d  %-7s  %-16s  %s%n", start, 
+					LatencyHistogram.millis(start - origin), LatencyHistogram.millis(duration), size, OUTCOMES[outcome], 
+					OPERATIONS[operation], destination));
+		}
+		builder.insert(0, "Last " + listed + " of " + last + " JMS operations\n");
+		return builder.toString();
+	}
+
+}
@@ -0,0 +1,151 @@
+/*
+ * Copyright (C) 2015 Hamburg Sud and the contributors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.aludratest.service.jms.impl;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import javax.jms.Destination;
+import javax.jms.JMSException;
+import javax.jms.MessageProducer;
+import javax.jms.Session;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Bounded cache of {@link MessageProducer}s of one {@link Session}, keyed by destination name.
+ * When the cache is full, the least recently used producer is closed and evicted.
+ * A maximum size of <code>0</code> disables caching: Each call to {@link #getProducer(String, Destination)}
+ * then creates a new producer which is closed again by {@link #release(MessageProducer)}.
+ * The producers are used by the thread that owns the session, but the cache may be 
+ * invalidated and closed from other threads.
+ */
+
+public class ProducerCache {
+
+	private static final Logger LOGGER = LoggerFactory.getLogger(ProducerCache.class);
+
+	private final Session session;
+	private final int maxSize;
+	private final LinkedHashMap<String, MessageProducer> producers;
+
+	private long hits;
+	private long misses;
+	private long evictions;
+
+	/** Full constructor.
+	 *  @param session the session to create the producers with
+	 *  @param maxSize the maximum number of producers to keep open, <code>0</code> disables caching */
+	public ProducerCache(Session session, int maxSize) {
+		this.session = session;
+		this.maxSize = maxSize;
+		// access order makes the eldest entry the least recently used one
+		this.producers = new LinkedHashMap<String, MessageProducer>(16, 0.75f, true) {
+			private static final long serialVersionUID = 1L;
+			@Override
+			protected boolean removeEldestEntry(Map.Entry<String, MessageProducer> eldest) {
+				if (size() > ProducerCache.this.maxSize) {
+					evictions++;
+					LOGGER.debug("Evicting producer for destination " + eldest.getKey());
+					closeProducer(eldest.getValue());
+					return true;
+				}
+				return false;
+			}
+		};
+	}
+
+	/** Returns a producer for the given destination, reusing a cached one if available.
+	 *  @param destinationName the name of the destination, used as cache key
+	 *  @param destination the destination to create a producer for if none is cached
+	 *  @return a producer for the destination */
+	public synchronized MessageProducer getProducer(String destinationName, Destination destination) throws JMSException {
+		if (maxSize <= 0) {
+			misses++;
+			return session.createProducer(destination);
+		}
+		MessageProducer producer = producers.get(destinationName);
+		if (producer != null) {
+			hits++;
+		} else {
+			misses++;
+			producer = session.createProducer(destination);
+			producers.put(destinationName, producer);
+		}
+		return producer;
+	}
+
+	/** Must be called after each use of a producer obtained from {@link #getProducer(String, Destination)}.
+	 *  Closes the producer if caching is disabled, otherwise the producer stays open for reuse.
+	 *  @param producer the producer to release */
+	public synchronized void release(MessageProducer producer) {
+		if (maxSize <= 0) {
+			closeProducer(producer);
+		}
+	}
+
+	/** Closes and removes the producer of the given destination, if there is one.
+	 *  @param destinationName the name of the destination */
+	public synchronized void invalidate(String destinationName) {
+		MessageProducer producer = producers.remove(destinationName);
+		if (producer != null) {
+			closeProducer(producer);
+		}
+	}
+
+	/** Closes all cached producers. */
+	public synchronized void close() {
+		Iterator<MessageProducer> iterator = producers.values().iterator();
+		while (iterator.hasNext()) {
+			closeProducer(iterator.next());
+			iterator.remove();
+		}
+	}
+
+	public synchronized int size() {
+		return producers.size();
+	}
+
+	public synchronized long getHits() {
+		return hits;
+	}
+
+	public synchronized long getMisses() {
+		return misses;
+	}
+
+	public synchronized long getEvictions() {
+		return evictions;
+	}
+
+	@Override
+	public synchronized String toString() {
+		return "producer cache [ size=" + producers.size() + "/" + maxSize + ", hits=" + hits + ", misses=" + misses
+				+ ", evictions=" + evictions + " ]";
+	}
+
+	private static void closeProducer(MessageProducer producer) {
+		try {
+			producer.close();
+		}
+		catch (JMSException e) {
+			LOGGER.debug("Failed to close producer: ", e);
+		}
+	}
+
+}
@@ -0,0 +1,74 @@
+/*
+ * Copyright (C) 2015 Hamburg Sud and the contributors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.aludratest.service.jms.impl;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+import javax.jms.Connection;
+import javax.jms.JMSException;
+
+/**
+ * Provider specific extensions of JMS 1.1 which the service makes use of, looked up by the 
+ * {@link javax.jms.ConnectionMetaData#getJMSProviderName() provider name} of a connection.
+ * <p>
+ * JMS 1.1 only knows cumulative client acknowledgement, which acknowledges all messages the session 
+ * has delivered so far, so that a message which was delivered to a buffer cannot be acknowledged 
+ * without the ones behind it. Providers which can acknowledge single messages do so with a session 
+ * acknowledge mode of their own, which is registered here. ActiveMQ is registered by default; 
+ * the modes of other providers can be added with {@link #registerIndividualAcknowledgeMode(String, int)}.
+ */
+
+public class ProviderSupport {
+
+	/** Value of {@link #getIndividualAcknowledgeMode(Connection)} for providers which cannot acknowledge single messages. */
+	public static final int NO_INDIVIDUAL_ACKNOWLEDGE = -1;
+
+	/** The individual acknowledge modes by a part of the provider name. */
+	private static final Map<String, Integer> INDIVIDUAL_ACKNOWLEDGE_MODES = new ConcurrentHashMap<String, Integer>();
+
+	static {
+		// ActiveMQSession.INDIVIDUAL_ACKNOWLEDGE
+		registerIndividualAcknowledgeMode("ActiveMQ", 4);
+	}
+
+	private ProviderSupport() {
+	}
+
+	/** Registers the session acknowledge mode with which a provider acknowledges single messages.
+	 *  @param providerName a part of the provider name as reported by the connection meta data
+	 *  @param acknowledgeMode the acknowledge mode to pass to {@link Connection#createSession(boolean, int)} */
+	public static void registerIndividualAcknowledgeMode(String providerName, int acknowledgeMode) {
+		INDIVIDUAL_ACKNOWLEDGE_MODES.put(providerName, acknowledgeMode);
+	}
+
+	/** Returns the session acknowledge mode with which the provider of the given connection acknowledges 
+	 *  single messages.
+	 *  @param connection the connection to create the session with
+	 *  @return the acknowledge mode or {@link #NO_INDIVIDUAL_ACKNOWLEDGE} if the provider is not registered */
+	public static int getIndividualAcknowledgeMode(Connection connection) throws JMSException {
+		String providerName = connection.getMetaData().getJMSProviderName();
+		if (providerName != null) {
+			for (Map.Entry<String, Integer> entry : INDIVIDUAL_ACKNOWLEDGE_MODES.entrySet()) {
+				if (providerName.contains(entry.getKey())) {
+					return entry.getValue();
+				}
+			}
+		}
+		return NO_INDIVIDUAL_ACKNOWLEDGE;
+	}
+
+}
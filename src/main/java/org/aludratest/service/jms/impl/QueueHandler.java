@@ -0,0 +1,229 @@
+/*
+ * Copyright (C) 2015 Hamburg Sud and the contributors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.aludratest.service.jms.impl;
+
+import java.io.Closeable;
+import java.util.concurrent.TimeUnit;
+
+import javax.jms.Destination;
+import javax.jms.JMSException;
+import javax.jms.Message;
+import javax.jms.MessageConsumer;
+import javax.jms.MessageListener;
+import javax.jms.Session;
+
+import org.aludratest.exception.AccessFailure;
+import org.aludratest.exception.AutomationException;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Consumes a queue with a {@link MessageListener} which feeds a {@link MessageBuffer}, 
+ * so that receive calls are served from memory.
+ * <p>
+ * Messages are acknowledged one by one when they are handed over by {@link #receive(long)}, so that 
+ * buffered messages are redelivered when the handler is closed. JMS 1.1 client acknowledgement is cumulative 
+ * per session and would acknowledge the buffered messages as well, so a provider with an individual 
+ * acknowledge mode is required, see {@link ProviderSupport}. 
+ */
+
+public class QueueHandler implements Closeable {
+
+	private static final Logger LOGGER = LoggerFactory.getLogger(QueueHandler.class);
+
+	private final String destinationName;
+	private final String messageSelector;
+	private final ManagedConnection connection;
+	private final MessageBuffer buffer;
+
+	private Destination destination;
+	private Session session;
+	private MessageConsumer consumer;
+
+	/** Full constructor.
+	 *  @param destinationName the name of the queue
+	 *  @param messageSelector the message selector or <code>null</code>
+	 *  @param connection the connection to create the listener session with
+	 *  @param buffer the buffer to put the received messages into */
+	public QueueHandler(String destinationName, String messageSelector, ManagedConnection connection, MessageBuffer buffer) {
+		this.destinationName = destinationName;
+		this.messageSelector = messageSelector;
+		this.connection = connection;
+		this.buffer = buffer;
+	}
+
+	/** Registers the message listener and starts the connection.
+	 *  @param destination the queue to consume
+	 *  @throws AutomationException if the provider cannot acknowledge single messages */
+	public synchronized void start(Destination destination) {
+		try {
+			this.destination = destination;
+			createListener();
+			connection.beginUse();
+			LOGGER.debug("Started " + this);
+		}
+		catch (JMSException e) {
+			closeSession();
+			throw new AutomationException("Failed to start listener for queue " + destinationName, e);
+		}
+	}
+
+	/** Recreates the listener after the connection has been replaced. Buffered messages are discarded, 
+	 *  since the broker redelivers them. */
+	public synchronized void restart() {
+		if (consumer == null) {
+			// not started or already closed
+			return;
+		}
+		int discarded = buffer.clear();
+		closeSession();
+		try {
+			createListener();
+			LOGGER.info("Restarted " + this + ", discarded " + discarded + " message(s) buffered before the reconnect");
+		}
+		catch (JMSException e) {
+			closeSession();
+			throw new AccessFailure("Failed to restart listener for queue " + destinationName, e);
+		}
+	}
+
+	private void createListener() throws JMSException {
+		int acknowledgeMode = ProviderSupport.getIndividualAcknowledgeMode(connection.getConnection());
+		if (acknowledgeMode == ProviderSupport.NO_INDIVIDUAL_ACKNOWLEDGE) {
+			// with cumulative acknowledgement, the buffered messages would be acknowledged by each receive 
+			// or never, if the buffer is not drained
+			throw new AutomationException("Queue listeners are not supported by the JMS provider " 
+					+ connection.getConnection().getMetaData().getJMSProviderName() 
+					+ ", which cannot acknowledge single messages");
+		}
+		session = connection.getConnection().createSession(false, acknowledgeMode);
+		consumer = session.createConsumer(destination, messageSelector);
+		consumer.setMessageListener(new BufferingListener());
+	}
+
+	/** Tells if receive calls with the given selector can be served by this handler.
+	 *  @param selector the message selector of the receive call */
+	public boolean matches(String selector) {
+		return (messageSelector == null ? selector == null : messageSelector.equals(selector));
+	}
+
+	/** Takes the oldest buffered message, waiting for one if necessary, and acknowledges it.
+	 *  @param timeout the number of milliseconds to wait, a negative value waits without timeout
+	 *  @return the received message or <code>null</code> if no message arrived within the timeout */
+	public Message receive(long timeout) {
+		return receive(timeout, Message.class);
+	}
+
+	/** Takes the oldest buffered message if it is of the given type, waiting for one if necessary, 
+	 *  and acknowledges it. A message of another type stays buffered.
+	 *  @param timeout the number of milliseconds to wait, a negative value waits without timeout
+	 *  @param type the expected type of message
+	 *  @return the received message or <code>null</code> if no message arrived within the timeout
+	 *  @throws AutomationException if the oldest message is not of the given type */
+	public <T extends Message> T receive(long timeout, Class<T> type) {
+		MessageBuffer.Entry entry;
+		try {
+			entry = buffer.takeIfInstance(type, timeout);
+		}
+		catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new AutomationException("Interrupted while waiting for a message from " + destinationName, e);
+		}
+		if (entry == null) {
+			return null;
+		}
+		if (!type.isInstance(entry.getMessage())) {
+			throw new AutomationException("Received message is not of type " + type.getSimpleName());
+		}
+		if (LOGGER.isDebugEnabled()) {
+			LOGGER.debug("Message from " + destinationName + " was buffered for " 
+					+ TimeUnit.NANOSECONDS.toMicros(System.nanoTime() - entry.getArrivalNanos()) + " us");
+		}
+		Message message = entry.getMessage();
+		try {
+			message.acknowledge();
+		}
+		catch (JMSException e) {
+			throw new AccessFailure("Could not acknowledge message from " + destinationName, e);
+		}
+		return type.cast(message);
+	}
+
+	public MessageBuffer getBuffer() {
+		return buffer;
+	}
+
+	/** Stops the listener. Buffered messages are not acknowledged and thus will be redelivered. */
+	@Override
+	public synchronized void close() {
+		buffer.close();
+		if (consumer != null) {
+			try {
+				consumer.close();
+			}
+			catch (JMSException e) {
+				LOGGER.debug("Failed to close consumer: ", e);
+			}
+			consumer = null;
+			connection.endUse();
+		}
+		closeSession();
+		LOGGER.debug("Closed " + this);
+	}
+
+	@Override
+	public String toString() {
+		return "queue listener [ " + destinationName + (messageSelector != null ? ", " + messageSelector : "") 
+				+ " ] with " + buffer;
+	}
+
+	private void closeSession() {
+		if (session != null) {
+			try {
+				session.close();
+			}
+			catch (JMSException e) {
+				LOGGER.debug("Failed to close jms session : ", e);
+			}
+			session = null;
+		}
+	}
+
+	private class BufferingListener implements MessageListener {
+
+		@Override
+		public void onMessage(Message message) {
+			try {
+				Message discarded = buffer.put(message);
+				if (discarded != null) {
+					LOGGER.debug("Discarded oldest buffered message from " + destinationName);
+					// the message has been consumed, although nobody will see it
+					discarded.acknowledge();
+				}
+			}
+			catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+			}
+			catch (IllegalStateException e) {
+				// the handler is being closed, the message will be redelivered
+			}
+			catch (JMSException e) {
+				LOGGER.debug("Failed to acknowledge discarded message: ", e);
+			}
+		}
+	}
+
+}
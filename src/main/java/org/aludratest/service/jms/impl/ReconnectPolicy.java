@@ -0,0 +1,73 @@
+/*
+ * Copyright (C) 2015 Hamburg Sud and the contributors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.aludratest.service.jms.impl;
+
+import java.util.Random;
+
+/**
+ * Calculates the delays between reconnect attempts: The delay doubles with each failed attempt, 
+ * starting at <code>initialDelay</code> and limited by <code>maxDelay</code>. A random jitter 
+ * of up to half of the delay is subtracted, so that many clients which lost the connection at 
+ * the same time do not hit the broker in lockstep when it comes back.
+ */
+
+public class ReconnectPolicy {
+
+	private final long initialDelay;
+	private final long maxDelay;
+	private final Random random;
+
+	/** Full constructor.
+	 *  @param initialDelay the number of milliseconds to wait before the first attempt
+	 *  @param maxDelay the maximum number of milliseconds to wait between two attempts */
+	public ReconnectPolicy(long initialDelay, long maxDelay) {
+		if (initialDelay <= 0 || maxDelay < initialDelay) {
+			throw new IllegalArgumentException("Illegal reconnect delays: initial " + initialDelay + ", max " + maxDelay);
+		}
+		this.initialDelay = initialDelay;
+		this.maxDelay = maxDelay;
+		this.random = new Random();
+	}
+
+	public long getInitialDelay() {
+		return initialDelay;
+	}
+
+	public long getMaxDelay() {
+		return maxDelay;
+	}
+
+	/** Calculates the delay before an attempt.
+	 *  @param attempt the number of failed attempts so far, starting at <code>0</code>
+	 *  @return the number of milliseconds to wait */
+	public long getDelay(int attempt) {
+		long delay = maxDelay;
+		if (attempt < 62 && initialDelay <= (maxDelay >> attempt)) {
+			delay = initialDelay << attempt;
+		}
+		long jitter;
+		synchronized (random) {
+			jitter = (long) (random.nextDouble() * (delay / 2));
+		}
+		return delay - jitter;
+	}
+
+	@Override
+	public String toString() {
+		return "reconnect delay " + initialDelay + " to " + maxDelay + " ms";
+	}
+
+}
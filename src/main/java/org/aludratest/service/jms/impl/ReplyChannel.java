@@ -0,0 +1,227 @@
+/*
+ * Copyright (C) 2015 Hamburg Sud and the contributors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.aludratest.service.jms.impl;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.jms.Connection;
+import javax.jms.JMSException;
+import javax.jms.Message;
+import javax.jms.MessageConsumer;
+import javax.jms.MessageListener;
+import javax.jms.Session;
+import javax.jms.TemporaryQueue;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Receives the replies to request messages on a {@link TemporaryQueue}.
+ * A single long-lived consumer routes each reply by its <code>JMSCorrelationID</code> to the waiting
+ * caller, so no broker-side selector evaluation is needed. Responders may either copy the request's
+ * correlation ID or set the request's message ID as correlation ID of the reply.
+ */
+
+public class ReplyChannel {
+
+	private static final Logger LOGGER = LoggerFactory.getLogger(ReplyChannel.class);
+
+	/** Maximum number of replies kept which arrived before their exchange was registered or after it timed out. */
+	private static final int MAX_UNMATCHED = 100;
+
+	private final Session session;
+	private final TemporaryQueue replyQueue;
+	private final MessageConsumer consumer;
+	private final ConcurrentMap<String, Exchange> pending;
+	/** Also guards the registrations in {@link #pending} which have to be checked against the unmatched replies. */
+	private final Map<String, Message> unmatched;
+	private final String correlationIdPrefix;
+	private final AtomicLong sequence;
+
+	/** Creates the reply queue and its consumer.
+	 *  @param connection the connection to create the reply session with */
+	public ReplyChannel(Connection connection) throws JMSException {
+		this.session = connection.createSession(false, Session.AUTO_ACKNOWLEDGE);
+		this.pending = new ConcurrentHashMap<String, Exchange>();
+		this.unmatched = new LinkedHashMap<String, Message>() {
+			private static final long serialVersionUID = 1L;
+			@Override
+			protected boolean removeEldestEntry(Map.Entry<String, Message> eldest) {
+				return size() > MAX_UNMATCHED;
+			}
+		};
+		this.correlationIdPrefix = "aludratest-" + Long.toHexString(System.nanoTime()) + Integer.toHexString(hashCode()) + "-";
+		this.sequence = new AtomicLong();
+		try {
+			this.replyQueue = session.createTemporaryQueue();
+			this.consumer = session.createConsumer(replyQueue);
+			this.consumer.setMessageListener(new ReplyListener());
+		}
+		catch (JMSException e) {
+			session.close();
+			throw e;
+		}
+	}
+
+	/** Prepares a request message for this channel and registers the exchange, before the request is sent.
+	 *  @param request the request message
+	 *  @return the exchange to wait for the reply with */
+	public Exchange prepare(Message request) throws JMSException {
+		String correlationId = correlationIdPrefix + sequence.incrementAndGet();
+		request.setJMSReplyTo(replyQueue);
+		request.setJMSCorrelationID(correlationId);
+		Exchange exchange = new Exchange(correlationId);
+		pending.put(correlationId, exchange);
+		exchange.sentNanos = System.nanoTime();
+		return exchange;
+	}
+
+	/** Registers the message ID of a request after it has been sent, for replies correlated by message ID.
+	 *  @param exchange the exchange
+	 *  @param request the sent request */
+	public void sent(Exchange exchange, Message request) throws JMSException {
+		String messageId = request.getJMSMessageID();
+		if (messageId != null) {
+			exchange.messageId = messageId;
+			Message early;
+			// registering under the same lock as the listener keeps a reply from arriving in between
+			synchronized (unmatched) {
+				pending.put(messageId, exchange);
+				early = unmatched.remove(messageId);
+			}
+			if (early != null) {
+				exchange.complete(early, System.nanoTime());
+			}
+		}
+	}
+
+	/** Waits for the reply of an exchange and unregisters it.
+	 *  @param exchange the exchange
+	 *  @param timeout the number of milliseconds to wait, <code>0</code> means to wait without timeout
+	 *  @return the reply or <code>null</code> if it did not arrive within the timeout */
+	public Message awaitReply(Exchange exchange, long timeout) throws InterruptedException {
+		try {
+			if (timeout > 0) {
+				exchange.done.await(timeout, TimeUnit.MILLISECONDS);
+			} else {
+				exchange.done.await();
+			}
+			return exchange.reply;
+		}
+		finally {
+			unregister(exchange);
+		}
+	}
+
+	/** Unregisters an exchange, for example if its request could not be sent.
+	 *  @param exchange the exchange */
+	public void unregister(Exchange exchange) {
+		pending.remove(exchange.correlationId);
+		if (exchange.messageId != null) {
+			pending.remove(exchange.messageId);
+		}
+	}
+
+	public TemporaryQueue getReplyQueue() {
+		return replyQueue;
+	}
+
+	/** Closes the consumer, deletes the reply queue and closes the session. */
+	public void close() {
+		try {
+			consumer.close();
+			replyQueue.delete();
+		}
+		catch (JMSException e) {
+			LOGGER.debug("Failed to close reply queue: ", e);
+		}
+		try {
+			session.close();
+		}
+		catch (JMSException e) {
+			LOGGER.debug("Failed to close jms session : ", e);
+		}
+	}
+
+	/** A request waiting for its reply. */
+	public static final class Exchange {
+
+		private final String correlationId;
+		private final CountDownLatch done;
+		private volatile String messageId;
+		private volatile long sentNanos;
+		private volatile Message reply;
+		private volatile long replyNanos;
+
+		Exchange(String correlationId) {
+			this.correlationId = correlationId;
+			this.done = new CountDownLatch(1);
+		}
+
+		void complete(Message reply, long arrivalNanos) {
+			if (this.reply == null) {
+				this.replyNanos = arrivalNanos;
+				this.reply = reply;
+				done.countDown();
+			}
+		}
+
+		public String getCorrelationId() {
+			return correlationId;
+		}
+
+		/** @return the number of nanoseconds from the preparation of the request for sending to the arrival of the reply, 
+		 *  or -1 if no reply has arrived */
+		public long getRoundTripNanos() {
+			return (reply != null ? replyNanos - sentNanos : -1);
+		}
+	}
+
+	private class ReplyListener implements MessageListener {
+
+		@Override
+		public void onMessage(Message reply) {
+			long arrival = System.nanoTime();
+			try {
+				String correlationId = reply.getJMSCorrelationID();
+				if (correlationId == null) {
+					LOGGER.warn("Discarding reply without correlation ID");
+					return;
+				}
+				Exchange exchange;
+				synchronized (unmatched) {
+					exchange = pending.get(correlationId);
+					if (exchange == null) {
+						unmatched.put(correlationId, reply);
+					}
+				}
+				if (exchange != null) {
+					exchange.complete(reply, arrival);
+				}
+			}
+			catch (JMSException e) {
+				LOGGER.warn("Failed to read correlation ID of reply: ", e);
+			}
+		}
+	}
+
+}
@@ -0,0 +1,242 @@
+/*
+ * Copyright (C) 2015 Hamburg Sud and the contributors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.aludratest.service.jms.impl;
+
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+
+import javax.jms.Connection;
+import javax.jms.JMSException;
+import javax.jms.Session;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Bundles the {@link Session}s of one thread with the resources that belong to them.
+ * Like the sessions themselves, an instance must only be used by one thread at a time. 
+ * Other threads only close it, collect its statistics, or {@link #requestInvalidation(String) request} 
+ * the invalidation of cached resources, which the owning thread applies on its next access 
+ * through {@link SessionPool#get()}, so that a producer is not closed while it is in use. 
+ * The sessions and caches are guarded by this object.
+ */
+
+public class SessionContext {
+
+	private static final Logger LOGGER = LoggerFactory.getLogger(SessionContext.class);
+
+	/** Requests the invalidation of all destinations in {@link #pendingInvalidations}. */
+	private static final String ALL_DESTINATIONS = "*";
+
+	private final Connection connection;
+	private final int producerCacheSize;
+	private final int consumerCacheSize;
+	private final long consumerIdleTimeout;
+
+	private Session session;
+
+	/** Keeps the producers of {@link #session} open between sends. */
+	private ProducerCache producerCache;
+
+	/** Keeps the queue consumers of {@link #session} open between receives. Read by the idle consumer sweeper. */
+	private volatile ConsumerCache consumerCache;
+
+	/** Session used for batch sends, committed every n messages. */
+	private Session transactedSession;
+
+	private ProducerCache transactedProducerCache;
+
+	/** Receives the replies to the requests sent with {@link #session}. */
+	private ReplyChannel replyChannel;
+
+	/** The thread which uses this context, or <code>null</code> if it is idle. */
+	private volatile Thread owner;
+
+	/** Destinations whose cached producers and consumers the owning thread must close on its next access. */
+	private final Queue<String> pendingInvalidations;
+
+	/** Full constructor.
+	 *  @param connection the connection to create the sessions with
+	 *  @param producerCacheSize the maximum number of producers to keep open per session
+	 *  @param consumerCacheSize the maximum number of queue consumers to keep open
+	 *  @param consumerIdleTimeout the number of milliseconds after which an unused queue consumer is closed */
+	public SessionContext(Connection connection, int producerCacheSize, int consumerCacheSize, long consumerIdleTimeout) {
+		this.connection = connection;
+		this.producerCacheSize = producerCacheSize;
+		this.consumerCacheSize = consumerCacheSize;
+		this.consumerIdleTimeout = consumerIdleTimeout;
+		this.pendingInvalidations = new ConcurrentLinkedQueue<String>();
+	}
+
+	Thread getOwner() {
+		return owner;
+	}
+
+	void setOwner(Thread owner) {
+		this.owner = owner;
+	}
+
+	public synchronized Session getSession() throws JMSException {
+		if (session == null) {
+			session = connection.createSession(false, Session.AUTO_ACKNOWLEDGE);
+			producerCache = new ProducerCache(session, producerCacheSize);
+			consumerCache = new ConsumerCache(session, consumerCacheSize, consumerIdleTimeout);
+		}
+		return session;
+	}
+
+	public synchronized ProducerCache getProducerCache() throws JMSException {
+		getSession();
+		return producerCache;
+	}
+
+	public synchronized ConsumerCache getConsumerCache() throws JMSException {
+		getSession();
+		return consumerCache;
+	}
+
+	public synchronized Session getTransactedSession() throws JMSException {
+		if (transactedSession == null) {
+			transactedSession = connection.createSession(true, Session.SESSION_TRANSACTED);
+			transactedProducerCache = new ProducerCache(transactedSession, producerCacheSize);
+		}
+		return transactedSession;
+	}
+
+	public synchronized ProducerCache getTransactedProducerCache() throws JMSException {
+		getTransactedSession();
+		return transactedProducerCache;
+	}
+
+	public synchronized ReplyChannel getReplyChannel() throws JMSException {
+		if (replyChannel == null) {
+			replyChannel = new ReplyChannel(connection);
+		}
+		return replyChannel;
+	}
+
+	/** Requests the owning thread to close the cached producers and consumers of the given destination 
+	 *  on its next access. May be called by any thread.
+	 *  @param destinationName the name of the destination, or <code>null</code> for all destinations */
+	public void requestInvalidation(String destinationName) {
+		pendingInvalidations.add(destinationName != null ? destinationName : ALL_DESTINATIONS);
+	}
+
+	/** Closes the cached producers and consumers of the destinations whose invalidation has been requested. 
+	 *  Must be called by the owning thread. */
+	void applyInvalidations() {
+		String destinationName;
+		while ((destinationName = pendingInvalidations.poll()) != null) {
+			invalidate(ALL_DESTINATIONS.equals(destinationName) ? null : destinationName);
+		}
+	}
+
+	/** Closes the cached producers and consumers of the given destination.
+	 *  @param destinationName the name of the destination, or <code>null</code> for all destinations */
+	public synchronized void invalidate(String destinationName) {
+		invalidate(producerCache, destinationName);
+		invalidate(transactedProducerCache, destinationName);
+		if (consumerCache != null) {
+			if (destinationName != null) {
+				consumerCache.invalidate(destinationName);
+			} else {
+				consumerCache.close();
+			}
+		}
+	}
+
+	/** Closes the cached queue consumer of the given destination, returning its prefetched messages to the queue.
+	 *  @param destinationName the name of the queue */
+	public synchronized void invalidateConsumer(String destinationName) {
+		if (consumerCache != null) {
+			consumerCache.invalidate(destinationName);
+		}
+	}
+
+	/** Closes the cached queue consumers which have not been used within the idle timeout.
+	 *  May be called by any thread. */
+	public void evictIdleConsumers() {
+		ConsumerCache cache = consumerCache;
+		if (cache != null) {
+			cache.evictIdle();
+		}
+	}
+
+	/** Closes all cached queue consumers, returning their prefetched messages to the queues. */
+	public synchronized void closeConsumers() {
+		if (consumerCache != null) {
+			consumerCache.close();
+		}
+	}
+
+	/** Adds the counters of the producer caches to the given array of hits, misses and evictions. */
+	synchronized void addProducerCacheStatistics(long[] statistics) {
+		addStatistics(producerCache, statistics);
+		addStatistics(transactedProducerCache, statistics);
+	}
+
+	/** Adds the counters of the consumer cache to the given array of hits, misses and evictions. */
+	synchronized void addConsumerCacheStatistics(long[] statistics) {
+		if (consumerCache != null) {
+			statistics[0] += consumerCache.getHits();
+			statistics[1] += consumerCache.getMisses();
+			statistics[2] += consumerCache.getEvictions();
+		}
+	}
+
+	/** Closes all producers, consumers and sessions. */
+	public synchronized void close() {
+		if (replyChannel != null) {
+			replyChannel.close();
+		}
+		closeConsumers();
+		close(producerCache, session);
+		close(transactedProducerCache, transactedSession);
+	}
+
+	private static void invalidate(ProducerCache cache, String destinationName) {
+		if (cache != null) {
+			if (destinationName != null) {
+				cache.invalidate(destinationName);
+			} else {
+				cache.close();
+			}
+		}
+	}
+
+	private static void addStatistics(ProducerCache cache, long[] statistics) {
+		if (cache != null) {
+			statistics[0] += cache.getHits();
+			statistics[1] += cache.getMisses();
+			statistics[2] += cache.getEvictions();
+		}
+	}
+
+	private static void close(ProducerCache cache, Session session) {
+		if (cache != null) {
+			cache.close();
+		}
+		if (session != null) {
+			try {
+				session.close();
+			}
+			catch (JMSException e) {
+				LOGGER.debug("Failed to close jms session : ", e);
+			}
+		}
+	}
+
+}
@@ -0,0 +1,232 @@
+/*
+ * Copyright (C) 2015 Hamburg Sud and the contributors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.aludratest.service.jms.impl;
+
+import java.util.Collections;
+import java.util.Queue;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+import javax.jms.Connection;
+import javax.jms.JMSException;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Hands out {@link SessionContext}s with thread affinity: Each thread gets its own context on first access
+ * and keeps it until the pool is reset or closed. A thread without context gets one of the contexts prepared
+ * in advance by {@link #prepare(int)}, or the context of a thread which has terminated, before a new one is
+ * created; so the number of sessions is bounded by the number of threads alive at the same time.
+ * <p>
+ * Idle cached queue consumers of all contexts are closed periodically, so that messages prefetched by
+ * a thread which has stopped receiving are returned to the queue for other consumers.
+ */
+
+public class SessionPool {
+
+	private static final Logger LOGGER = LoggerFactory.getLogger(SessionPool.class);
+
+	/** Closes the idle consumers of all session pools of the JVM, created on first use. */
+	private static ScheduledExecutorService consumerSweeper;
+
+	private volatile Connection connection;
+	private final int producerCacheSize;
+	private final int consumerCacheSize;
+	private final long consumerIdleTimeout;
+	private final ThreadLocal<SessionContext> threadContext;
+	private final Queue<SessionContext> idle;
+	private final Set<SessionContext> all;
+	private final ScheduledFuture<?> consumerSweep;
+
+	private volatile boolean closed;
+
+	/** Full constructor.
+	 *  @param connection the connection to create the sessions with
+	 *  @param producerCacheSize the maximum number of producers to keep open per session
+	 *  @param consumerCacheSize the maximum number of queue consumers to keep open per session
+	 *  @param consumerIdleTimeout the number of milliseconds after which an unused queue consumer is closed */
+	public SessionPool(Connection connection, int producerCacheSize, int consumerCacheSize, long consumerIdleTimeout) {
+		this.connection = connection;
+		this.producerCacheSize = producerCacheSize;
+		this.consumerCacheSize = consumerCacheSize;
+		this.consumerIdleTimeout = consumerIdleTimeout;
+		this.threadContext = new ThreadLocal<SessionContext>();
+		this.idle = new ConcurrentLinkedQueue<SessionContext>();
+		this.all = Collections.newSetFromMap(new ConcurrentHashMap<SessionContext, Boolean>());
+		this.closed = false;
+		if (consumerCacheSize > 0 && consumerIdleTimeout > 0) {
+			long period = Math.max(consumerIdleTimeout / 2, 1);
+			this.consumerSweep = getConsumerSweeper().scheduleWithFixedDelay(new Runnable() {
+				@Override
+				public void run() {
+					evictIdleConsumers();
+				}
+			}, period, period, TimeUnit.MILLISECONDS);
+		} else {
+			this.consumerSweep = null;
+		}
+	}
+
+	/** @return the context of the current thread */
+	public SessionContext get() {
+		SessionContext context = threadContext.get();
+		if (context != null && !all.contains(context)) {
+			// discarded by reset()
+			context = null;
+		}
+		if (context == null) {
+			if (closed) {
+				throw new IllegalStateException("Session pool has been closed");
+			}
+			context = idle.poll();
+			if (context == null) {
+				context = reclaim();
+			}
+			if (context == null) {
+				context = new SessionContext(connection, producerCacheSize, consumerCacheSize, consumerIdleTimeout);
+				all.add(context);
+			}
+			context.setOwner(Thread.currentThread());
+			threadContext.set(context);
+		}
+		context.applyInvalidations();
+		return context;
+	}
+
+	/** Creates idle contexts with open sessions in advance, up to the given total number of contexts.
+	 *  @param count the number of contexts which shall exist
+	 *  @throws JMSException if a session could not be created */
+	public void prepare(int count) throws JMSException {
+		for (int i = all.size(); i < count && !closed; i++) {
+			SessionContext context = new SessionContext(connection, producerCacheSize, consumerCacheSize, consumerIdleTimeout);
+			all.add(context);
+			context.getSession();
+			idle.add(context);
+		}
+	}
+
+	/** Closes the cached queue consumers of all contexts which have not been used within the idle timeout. */
+	public void evictIdleConsumers() {
+		for (SessionContext context : all) {
+			try {
+				context.evictIdleConsumers();
+			}
+			catch (RuntimeException e) {
+				LOGGER.warn("Failed to close idle consumers : ", e);
+			}
+		}
+	}
+
+	/** @return the number of contexts, idle or in use */
+	public int size() {
+		return all.size();
+	}
+
+	/** Takes over the context of a thread which has terminated. Its queue consumers are closed,
+	 *  so that their prefetched messages become available to other consumers.
+	 *  @return the context, or <code>null</code> if all contexts belong to live threads */
+	private synchronized SessionContext reclaim() {
+		for (SessionContext context : all) {
+			Thread owner = context.getOwner();
+			if (owner != null && !owner.isAlive()) {
+				LOGGER.debug("Reusing session context of terminated thread " + owner.getName());
+				context.setOwner(null);
+				context.closeConsumers();
+				return context;
+			}
+		}
+		return null;
+	}
+
+	/** Discards all contexts after the connection has been replaced. Each thread gets a new context 
+	 *  with new sessions, producers and consumers on its next access.
+	 *  @param replacement the connection to create the new sessions with */
+	public void reset(Connection replacement) {
+		this.connection = replacement;
+		for (SessionContext context : all) {
+			all.remove(context);
+			context.close();
+		}
+		idle.clear();
+	}
+
+	/** Closes the cached producers and consumers of the given destination in all contexts. 
+	 *  Each context is invalidated by the thread which uses it, on its next access.
+	 *  @param destinationName the name of the destination, or <code>null</code> for all destinations */
+	public void invalidate(String destinationName) {
+		for (SessionContext context : all) {
+			context.requestInvalidation(destinationName);
+		}
+	}
+
+	/** @return the hits, misses and evictions of the producer caches of all contexts, in this order */
+	public long[] getProducerCacheStatistics() {
+		long[] statistics = new long[3];
+		for (SessionContext context : all) {
+			context.addProducerCacheStatistics(statistics);
+		}
+		return statistics;
+	}
+
+	/** @return the hits, misses and evictions of the consumer caches of all contexts, in this order */
+	public long[] getConsumerCacheStatistics() {
+		long[] statistics = new long[3];
+		for (SessionContext context : all) {
+			context.addConsumerCacheStatistics(statistics);
+		}
+		return statistics;
+	}
+
+	/** Closes all contexts. */
+	public void close() {
+		closed = true;
+		if (consumerSweep != null) {
+			consumerSweep.cancel(false);
+		}
+		long[] statistics = getProducerCacheStatistics();
+		long[] consumerStatistics = getConsumerCacheStatistics();
+		for (SessionContext context : all) {
+			context.close();
+		}
+		LOGGER.info("Closed " + all.size() + " session context(s), producer cache hits=" + statistics[0] 
+				+ ", misses=" + statistics[1] + ", evictions=" + statistics[2] + ", consumer cache hits=" 
+				+ consumerStatistics[0] + ", misses=" + consumerStatistics[1] + ", evictions=" + consumerStatistics[2]);
+		all.clear();
+		idle.clear();
+	}
+
+	private static synchronized ScheduledExecutorService getConsumerSweeper() {
+		if (consumerSweeper == null) {
+			consumerSweeper = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+				@Override
+				public Thread newThread(Runnable runnable) {
+					Thread thread = new Thread(runnable, "JMS idle consumer sweeper");
+					thread.setDaemon(true);
+					return thread;
+				}
+			});
+		}
+		return consumerSweeper;
+	}
+
+}
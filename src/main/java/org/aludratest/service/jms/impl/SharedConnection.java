@@ -0,0 +1,118 @@
+/*
+ * Copyright (C) 2015 Hamburg Sud and the contributors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.aludratest.service.jms.impl;
+
+import javax.jms.Connection;
+import javax.jms.JMSException;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Reference-counted {@link Connection} which carries the sessions of one or more topic subscriptions.
+ * Each subscription {@link #acquire()}s the connection when it is created and {@link #release()}s it
+ * when it is closed; the connection is closed with the last release. Once closed, the connection
+ * cannot be acquired again, so a new instance must be created for subsequent subscriptions.
+ * <p>
+ * The connection is held by a {@link ManagedConnection}, so that a {@link ConnectionSupervisor} can replace it 
+ * after a failure; users must therefore not keep the result of {@link #getConnection()}.
+ */
+
+public class SharedConnection {
+
+	private static final Logger LOGGER = LoggerFactory.getLogger(SharedConnection.class);
+
+	private final ManagedConnection connection;
+	private final String clientId;
+
+	private int references;
+	private boolean started;
+	private boolean closed;
+
+	/** Full constructor.
+	 *  @param connection the connection to share
+	 *  @param clientId the client ID of the connection */
+	public SharedConnection(Connection connection, String clientId) {
+		this.connection = new ManagedConnection(connection, true, "subscription connection [ " + clientId + " ]");
+		this.clientId = clientId;
+		this.references = 0;
+		this.started = false;
+		this.closed = false;
+	}
+
+	public Connection getConnection() {
+		return connection.getConnection();
+	}
+
+	/** @return the connection to supervise */
+	ManagedConnection getManagedConnection() {
+		return connection;
+	}
+
+	public String getClientId() {
+		return clientId;
+	}
+
+	/** Registers a user of the connection.
+	 *  @return true if the connection has been acquired, false if it is already closed */
+	public synchronized boolean acquire() {
+		if (closed) {
+			return false;
+		}
+		references++;
+		return true;
+	}
+
+	/** Unregisters a user of the connection and closes it if it was the last one. */
+	public synchronized void release() {
+		if (closed || --references > 0) {
+			return;
+		}
+		LOGGER.debug("Closing " + this + " after its last subscription");
+		close();
+	}
+
+	/** Closes the connection regardless of the remaining users, e.g. if they could not be closed in time. */
+	public synchronized void close() {
+		if (!closed) {
+			closed = true;
+			connection.close();
+		}
+	}
+
+	/** Starts message delivery, if it has not been started yet. The connection is not stopped before it is closed,
+	 *  since stopping it would affect all subscriptions on it. */
+	public synchronized void start() throws JMSException {
+		if (!started) {
+			connection.beginUse();
+			started = true;
+		}
+	}
+
+	public synchronized int getReferenceCount() {
+		return references;
+	}
+
+	public synchronized boolean isClosed() {
+		return closed;
+	}
+
+	@Override
+	public String toString() {
+		return "subscription connection [ " + clientId + " ]";
+	}
+
+}
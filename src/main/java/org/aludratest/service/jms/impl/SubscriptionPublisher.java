@@ -0,0 +1,188 @@
+/*
+ * Copyright (C) 2015 Hamburg Sud and the contributors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.aludratest.service.jms.impl;
+
+import javax.jms.JMSException;
+import javax.jms.Message;
+
+import org.aludratest.service.jms.Flow;
+import org.aludratest.service.jms.impl.selector.MessageSelector;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Publishes the messages of a topic subscription to {@link Flow.Subscriber}s.
+ * Each subscriber is served by its own delivery thread which only receives a message from the 
+ * {@link TopicHandler} when the subscriber has signalled demand for it. Without demand, messages 
+ * stay in the handler's buffer or in the provider's prefetch buffer of the subscriber, 
+ * and once that is full, in the broker.
+ * <p>
+ * Several subscribers of the same subscription compete for its messages, like concurrent receive calls.
+ * The subscribers are completed when the subscription is closed.
+ * @param <T> the type of the published items
+ */
+
+public abstract class SubscriptionPublisher<T> implements Flow.Publisher<T> {
+
+	private static final Logger LOGGER = LoggerFactory.getLogger(SubscriptionPublisher.class);
+
+	/** Maximum number of milliseconds for which a receive waits before checking for cancellation. */
+	private static final long POLL_INTERVAL = 500;
+
+	private final TopicHandler handler;
+	private final MessageSelector selector;
+
+	/** Full constructor.
+	 *  @param handler the subscription to publish
+	 *  @param selector the selector which the published messages must match */
+	protected SubscriptionPublisher(TopicHandler handler, MessageSelector selector) {
+		this.handler = handler;
+		this.selector = selector;
+	}
+
+	@Override
+	public void subscribe(Flow.Subscriber<? super T> subscriber) {
+		if (subscriber == null) {
+			throw new NullPointerException("subscriber");
+		}
+		Thread thread = new Thread(new Delivery(subscriber), "JMS publisher for " + handler);
+		thread.setDaemon(true);
+		thread.start();
+	}
+
+	/** Converts a received message to the item to publish.
+	 *  @param message the message
+	 *  @return the item */
+	protected abstract T convert(Message message) throws JMSException;
+
+	@Override
+	public String toString() {
+		return "publisher of " + handler;
+	}
+
+	/** Runs on the delivery thread of a subscriber and serves as its subscription. */
+	private final class Delivery implements Flow.Subscription, Runnable {
+
+		private final Flow.Subscriber<? super T> subscriber;
+
+		// guarded by this
+		private long demand;
+		private boolean cancelled;
+		private IllegalArgumentException invalidRequest;
+
+		Delivery(Flow.Subscriber<? super T> subscriber) {
+			this.subscriber = subscriber;
+		}
+
+		@Override
+		public synchronized void request(long n) {
+			if (n <= 0) {
+				invalidRequest = new IllegalArgumentException("Requested a non-positive number of items: " + n);
+			} else {
+				demand += n;
+				if (demand < 0) {
+					demand = Long.MAX_VALUE;
+				}
+			}
+			notifyAll();
+		}
+
+		@Override
+		public synchronized void cancel() {
+			cancelled = true;
+			notifyAll();
+		}
+
+		@Override
+		public void run() {
+			try {
+				subscriber.onSubscribe(this);
+				while (awaitDemand()) {
+					Message message = handler.receive(selector, POLL_INTERVAL);
+					if (message != null) {
+						T item = convert(message);
+						if (!consumeDemand()) {
+							LOGGER.debug("Discarding a message of " + handler + " received during cancellation");
+							return;
+						}
+						subscriber.onNext(item);
+					}
+				}
+			}
+			catch (JMSException e) {
+				signalError(e);
+			}
+			catch (RuntimeException e) {
+				signalError(e);
+			}
+		}
+
+		/** Waits until the subscriber has demand or the delivery ends, and signals the end to the subscriber.
+		 *  @return true if there is demand, false if the delivery ends */
+		private boolean awaitDemand() throws JMSException {
+			IllegalArgumentException failure;
+			synchronized (this) {
+				try {
+					while (demand == 0 && !cancelled && invalidRequest == null && !handler.isClosed()) {
+						wait(POLL_INTERVAL);
+					}
+				}
+				catch (InterruptedException e) {
+					Thread.currentThread().interrupt();
+					cancelled = true;
+				}
+				if (cancelled) {
+					return false;
+				}
+				failure = invalidRequest;
+			}
+			if (failure != null) {
+				signalError(failure);
+				return false;
+			}
+			if (handler.isClosed()) {
+				LOGGER.debug("Completing subscriber of closed " + handler);
+				cancel();
+				subscriber.onComplete();
+				return false;
+			}
+			return true;
+		}
+
+		private synchronized boolean consumeDemand() {
+			if (cancelled) {
+				return false;
+			}
+			if (demand != Long.MAX_VALUE) {
+				demand--;
+			}
+			return true;
+		}
+
+		private void signalError(Exception e) {
+			synchronized (this) {
+				if (cancelled) {
+					LOGGER.debug("Failure after cancellation of subscriber of " + handler + " : ", e);
+					return;
+				}
+				cancelled = true;
+			}
+			LOGGER.warn("Delivery of " + handler + " failed: " + e);
+			subscriber.onError(e);
+		}
+	}
+
+}
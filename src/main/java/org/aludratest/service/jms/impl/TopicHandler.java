@@ -16,32 +16,127 @@
 package org.aludratest.service.jms.impl;
 
 import java.io.Closeable;
+import java.util.ArrayDeque;
+import java.util.Iterator;
 
-import javax.jms.Connection;
 import javax.jms.JMSException;
 import javax.jms.Message;
+import javax.jms.MessageListener;
+import javax.jms.Session;
 import javax.jms.TopicSubscriber;
 
 import org.aludratest.exception.AccessFailure;
 import org.aludratest.exception.AutomationException;
+import org.aludratest.service.jms.impl.selector.MessageSelector;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 
 /**
- * Encapsulates access to {@link TopicSubscriber} and underlying {@link Connection}.
+ * Encapsulates access to a {@link TopicSubscriber}, its {@link Session} and the underlying {@link SharedConnection}.
+ * The connection may carry further subscriptions, so stopping a handler does not stop the connection: 
+ * A stopped handler keeps its subscription, but receive calls wait until the handler is started again 
+ * or the timeout elapses, as they would on a stopped connection. A receive call which is already waiting 
+ * for a message when the handler is stopped takes no message after at most {@link #RECEIVE_SLICE} milliseconds. 
+ * Since the subscription stays registered, the broker keeps delivering messages to a stopped handler: 
+ * Synchronously received messages wait in the provider, while in listener mode they are buffered, 
+ * subject to the overflow policy of the buffer.
+ * <p>
+ * Receive calls may apply a {@link MessageSelector} on the client side: Messages which do not match 
+ * are kept in a pending buffer and are offered to subsequent receive calls in order of arrival, 
+ * so that one subscription can serve receives with different selectors.
+ * <p>
+ * In listener mode, a {@link MessageListener} continuously drains the subscription into a {@link MessageBuffer}, 
+ * also between receive calls, and receives are served from that buffer. This keeps messages from piling up 
+ * in the broker and in the prefetch buffer during slow test phases.
+ * <p>
+ * When the connection fails and is replaced, {@link #restore} attaches a new subscriber to the handler, 
+ * keeping its state and the messages it has already received.
  * @author Volker Bergmann
  */
 
 public class TopicHandler implements Closeable {
+
+	private static final Logger LOGGER = LoggerFactory.getLogger(TopicHandler.class);
+
+	/** Maximum number of messages kept for later selective receives; the oldest ones are discarded beyond it. */
+	private static final int MAX_PENDING = 10000;
+
+	/** Maximum number of milliseconds a synchronous receive waits for the subscriber before it checks 
+	 *  if the handler has been stopped or closed. */
+	private static final long RECEIVE_SLICE = 100;
 	
-	private TopicSubscriber subscriber;
-	private Connection connection;
+	private volatile TopicSubscriber subscriber;
+	private volatile Session session;
+	private volatile SharedConnection connection;
 	private String subscriptionName;
+	private final String destinationName;
+	private final String messageSelector;
 	boolean durable;
-	
-	public TopicHandler(String subscriptionName, boolean durable, TopicSubscriber subscriber, Connection connection) {
+	/** Messages which did not match a selective receive, guarded by itself. */
+	private final ArrayDeque<Message> pending;
+	/** Number of messages discarded since the pending messages or the buffer became full, guarded by {@link #pending}. */
+	private long discardedInWindow;
+	private final MessageBuffer buffer;
+
+	/** Serializes the synchronous receives, since the session must only be used by one thread at a time. */
+	private final Object receiveLock = new Object();
+
+	private final Object startLock = new Object();
+	private boolean stopped;
+	private boolean closed;
+
+	/** Full constructor.
+	 *  @param destinationName the JNDI name of the topic
+	 *  @param messageSelector the selector which the broker applies to the subscription, or <code>null</code>
+	 *  @param session the session of the subscriber, which is owned by the handler
+	 *  @param connection the connection of the session, which must have been acquired for the handler
+	 *  @param buffer the buffer to drain the subscription into in listener mode, 
+	 *  		or <code>null</code> to receive synchronously from the subscriber */
+	public TopicHandler(String subscriptionName, String destinationName, String messageSelector, boolean durable, 
+			TopicSubscriber subscriber, Session session, SharedConnection connection, MessageBuffer buffer) {
 		this.subscriptionName = subscriptionName;
+		this.destinationName = destinationName;
+		this.messageSelector = messageSelector;
 		this.durable = durable;
 		this.subscriber = subscriber;
+		this.session = session;
 		this.connection = connection;
+		this.pending = new ArrayDeque<Message>();
+		this.buffer = buffer;
+		this.stopped = true;
+		this.closed = false;
+		registerListener(subscriber);
+	}
+
+	private void registerListener(TopicSubscriber newSubscriber) {
+		if (buffer != null) {
+			try {
+				newSubscriber.setMessageListener(new BufferingListener());
+			} catch (JMSException e) {
+				throw new AutomationException("Failed to register message listener for " + toString(), e);
+			}
+		}
+	}
+
+	public String getSubscriptionName() {
+		return subscriptionName;
+	}
+
+	public String getDestinationName() {
+		return destinationName;
+	}
+
+	public String getMessageSelector() {
+		return messageSelector;
+	}
+
+	public boolean isListenerMode() {
+		return buffer != null;
+	}
+
+	/** @return the buffer of the listener mode, or <code>null</code> if the handler receives synchronously */
+	public MessageBuffer getBuffer() {
+		return buffer;
 	}
 	
 	public boolean isDurable() {
@@ -50,21 +145,168 @@ public class TopicHandler implements Closeable {
 
 	/** Waits until a message arrives, applying no timeout */
 	public Message receive() {
-		try {
-			return subscriber.receive();
-		} catch (JMSException e) {
-			throw new AccessFailure("Could not receive JMS message", e);
-		}
+		return receive(MessageSelector.ALL, 0);
 	}
 
 	/** Waits until a message arrives, applying a timeout
 	 *  @param timeout the number of milliseconds to wait, <code>0</code> means to wait without timeout.
 	 *  @return the received message or <code>null</code> if no message arrived within the timeout */
 	public Message receive(long timeout) {
-		try {
-			return subscriber.receive(timeout);
-		} catch (JMSException e) {
-			throw new AccessFailure("Could not receive JMS message", e);
+		return receive(MessageSelector.ALL, timeout);
+	}
+
+	/** Waits until a message arrives which matches a selector, applying a timeout.
+	 *  Pending messages which did not match earlier selective receives are checked first.
+	 *  @param selector the selector which the message must match
+	 *  @param timeout the number of milliseconds to wait, <code>0</code> means to wait without timeout.
+	 *  @return the received message or <code>null</code> if no matching message arrived within the timeout */
+	public Message receive(MessageSelector selector, long timeout) {
+		long remaining = awaitStarted(timeout);
+		if (remaining < 0) {
+			return null;
+		}
+		if (buffer != null) {
+			try {
+				MessageBuffer.Entry entry = buffer.take(selector, remaining == 0 ? -1 : remaining);
+				return (entry != null ? entry.getMessage() : null);
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				throw new AutomationException("Interrupted while waiting for a message of " + toString(), e);
+			} catch (JMSException e) {
+				throw new AccessFailure("Could not evaluate message selector", e);
+			}
+		}
+		return receiveSynchronously(selector, remaining);
+	}
+
+	/** Waits while the handler is stopped.
+	 *  @param timeout the number of milliseconds to wait, <code>0</code> means to wait without timeout.
+	 *  @return the remaining timeout, <code>0</code> if no timeout applies, 
+	 *  		or <code>-1</code> if the handler is still stopped after the timeout or has been closed */
+	private long awaitStarted(long timeout) {
+		synchronized (startLock) {
+			long deadline = System.currentTimeMillis() + timeout;
+			try {
+				while (stopped && !closed) {
+					if (timeout == 0) {
+						startLock.wait();
+					} else {
+						long remaining = deadline - System.currentTimeMillis();
+						if (remaining <= 0) {
+							return -1;
+						}
+						startLock.wait(remaining);
+					}
+				}
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				throw new AutomationException("Interrupted while waiting for " + toString() + " to be started", e);
+			}
+			if (closed) {
+				return -1;
+			}
+			return (timeout == 0 ? 0 : Math.max(1, deadline - System.currentTimeMillis()));
+		}
+	}
+
+	/** Receives from the subscriber in slices of at most {@link #RECEIVE_SLICE} milliseconds, 
+	 *  so that stopping or closing the handler takes effect while waiting.
+	 *  @param timeout the number of milliseconds to wait, <code>0</code> means to wait without timeout. */
+	private Message receiveSynchronously(MessageSelector selector, long timeout) {
+		long deadline = System.currentTimeMillis() + timeout;
+		synchronized (receiveLock) {
+			try {
+				Message message = takePending(selector);
+				if (message != null) {
+					return message;
+				}
+				while (true) {
+					long remaining = 0;
+					if (timeout != 0) {
+						remaining = deadline - System.currentTimeMillis();
+						if (remaining <= 0) {
+							return null;
+						}
+					}
+					if (awaitStarted(remaining) < 0) {
+						return null;
+					}
+					TopicSubscriber current = subscriber;
+					try {
+						message = current.receive(timeout == 0 ? RECEIVE_SLICE : Math.min(remaining, RECEIVE_SLICE));
+					} catch (JMSException e) {
+						if (current != subscriber || isClosed()) {
+							// the subscriber has been replaced or closed while waiting
+							continue;
+						}
+						throw e;
+					}
+					if (message == null) {
+						continue;
+					}
+					if (selector.matches(message)) {
+						return message;
+					}
+					addPending(message);
+				}
+			} catch (JMSException e) {
+				throw new AccessFailure("Could not receive JMS message", e);
+			}
+		}
+	}
+
+	/** @return the number of messages kept for later receives */
+	public int getPendingCount() {
+		if (buffer != null) {
+			return buffer.size();
+		}
+		synchronized (pending) {
+			return pending.size();
+		}
+	}
+
+	private Message takePending(MessageSelector selector) throws JMSException {
+		synchronized (pending) {
+			Iterator<Message> iterator = pending.iterator();
+			while (iterator.hasNext()) {
+				Message message = iterator.next();
+				if (selector.matches(message)) {
+					iterator.remove();
+					endDiscardWindow();
+					return message;
+				}
+			}
+			return null;
+		}
+	}
+
+	private void addPending(Message message) {
+		synchronized (pending) {
+			if (pending.size() >= MAX_PENDING) {
+				pending.removeFirst();
+				discarded("more than " + MAX_PENDING + " messages did not match any selective receive, "
+						+ "the oldest ones are discarded");
+			}
+			pending.addLast(message);
+		}
+	}
+
+	/** Counts a discarded message, logging the first one of each window in which messages are discarded. */
+	private void discarded(String reason) {
+		synchronized (pending) {
+			if (discardedInWindow++ == 0) {
+				LOGGER.warn("Discarding messages of " + this + ", since " + reason);
+			}
+		}
+	}
+
+	/** Ends a window in which messages were discarded, logging the number of discarded messages. */
+	private void endDiscardWindow() {
+		synchronized (pending) {
+			if (discardedInWindow > 0) {
+				LOGGER.warn(this + " discarded " + discardedInWindow + " message(s) in total before space became available");
+				discardedInWindow = 0;
+			}
 		}
 	}
 
@@ -74,33 +316,119 @@ public class TopicHandler implements Closeable {
 		} catch (JMSException e) {
 			throw new AutomationException("Starting connection failed", e);
 		}
+		synchronized (startLock) {
+			stopped = false;
+			startLock.notifyAll();
+		}
 	}
 
+	/** Suspends receive calls; the subscription stays registered and the connection stays started. */
 	public void stop() {
+		synchronized (startLock) {
+			stopped = true;
+		}
+	}
+
+	/** Replaces the subscriber after the connection failed and has been replaced. 
+	 *  Pending and buffered messages are kept, the handler stays started or stopped.
+	 *  @param newSubscriber the subscriber on the new connection
+	 *  @param newSession the session of the subscriber, which is owned by the handler
+	 *  @param newConnection the new connection, which must have been acquired for the handler */
+	public void restore(TopicSubscriber newSubscriber, Session newSession, SharedConnection newConnection) {
+		TopicSubscriber oldSubscriber;
+		Session oldSession;
+		SharedConnection oldConnection;
+		boolean started;
+		synchronized (startLock) {
+			if (closed) {
+				closeQuietly(newSubscriber, newSession, newConnection);
+				return;
+			}
+			registerListener(newSubscriber);
+			oldSubscriber = this.subscriber;
+			oldSession = this.session;
+			oldConnection = this.connection;
+			this.subscriber = newSubscriber;
+			this.session = newSession;
+			this.connection = newConnection;
+			started = !stopped;
+		}
+		closeQuietly(oldSubscriber, oldSession, oldConnection);
+		if (started) {
+			try {
+				newConnection.start();
+			} catch (JMSException e) {
+				throw new AccessFailure("Starting connection failed for " + toString(), e);
+			}
+		}
+		LOGGER.info("Restored " + this);
+	}
+
+	private static void closeQuietly(TopicSubscriber oldSubscriber, Session oldSession, SharedConnection oldConnection) {
 		try {
-			this.connection.stop();
+			oldSubscriber.close();
+			oldSession.close();
 		} catch (JMSException e) {
-			throw new AutomationException("Stopping connection failed for " + toString(), e);
+			LOGGER.debug("Failed to close subscriber of failed connection : ", e);
+		} finally {
+			oldConnection.release();
 		}
 	}
+
+	/** @return true if the handler has been closed */
+	public boolean isClosed() {
+		synchronized (startLock) {
+			return closed;
+		}
+	}
+
+	/** @return the connection which carries the subscription */
+	public SharedConnection getConnection() {
+		return connection;
+	}
 	
 	@Override
 	public void close() {
+		if (buffer != null) {
+			// releases a listener which waits for free space
+			buffer.close();
+			LOGGER.info("Closing " + this + " with " + buffer);
+		}
+		synchronized (startLock) {
+			closed = true;
+			startLock.notifyAll();
+		}
 		try {
 			subscriber.close();
+			session.close();
 		} catch (JMSException e) {
 			throw new AutomationException("Failed to close the subscriber for " + toString(), e);
-		}
-		try {
-			connection.close();
-		} catch (JMSException e) {
-			throw new AutomationException("Failed to close the connection for " + toString(), e);
+		} finally {
+			connection.release();
 		}
 	}
 	
 	@Override
 	public String toString() {
-		return "dynamic connection [ " + subscriptionName + " ]";
+		return "subscription [ " + subscriptionName + " ]";
+	}
+
+	private class BufferingListener implements MessageListener {
+
+		@Override
+		public void onMessage(Message message) {
+			try {
+				if (buffer.put(message) != null) {
+					discarded("the buffer is full");
+				} else {
+					endDiscardWindow();
+				}
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+			} catch (IllegalStateException e) {
+				// the handler is being closed
+			}
+		}
 	}
 	
 }
@@ -0,0 +1,31 @@
+/*
+ * Copyright (C) 2015 Hamburg Sud and the contributors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.aludratest.service.jms.impl.selector;
+
+import javax.jms.JMSException;
+import javax.jms.Message;
+
+/**
+ * Node of a compiled message selector.
+ * Evaluation yields a {@link Boolean}, {@link Long}, {@link Double} or {@link String}, 
+ * or <code>null</code> for an unknown value.
+ */
+
+interface Expression {
+
+	Object evaluate(Message message) throws JMSException;
+
+}
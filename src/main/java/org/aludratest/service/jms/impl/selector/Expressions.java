@@ -0,0 +1,451 @@
+/*
+ * Copyright (C) 2015 Hamburg Sud and the contributors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.aludratest.service.jms.impl.selector;
+
+import java.util.Set;
+import java.util.regex.Pattern;
+
+import javax.jms.DeliveryMode;
+import javax.jms.JMSException;
+import javax.jms.Message;
+
+/**
+ * The node types of compiled message selectors and the rules of the JMS selector type system:
+ * Integral values are evaluated as {@link Long}, approximate ones as {@link Double}. 
+ * Any operation on an unknown (<code>null</code>) value yields an unknown value, 
+ * except for the three-valued logic of AND, OR and IS NULL. 
+ * Comparing values of different types yields false.
+ */
+
+final class Expressions {
+
+	private Expressions() {
+	}
+
+	// literals and identifiers ------------------------------------------------
+
+	static final class Literal implements Expression {
+
+		private final Object value;
+
+		Literal(Object value) {
+			this.value = value;
+		}
+
+		@Override
+		public Object evaluate(Message message) {
+			return value;
+		}
+
+		Object getValue() {
+			return value;
+		}
+
+		@Override
+		public String toString() {
+			return (value instanceof String ? "'" + value + "'" : String.valueOf(value));
+		}
+	}
+
+	/** A message property or one of the header fields which may be used in selectors. */
+	static final class Identifier implements Expression {
+
+		private final String name;
+
+		Identifier(String name) {
+			this.name = name;
+		}
+
+		@Override
+		public Object evaluate(Message message) throws JMSException {
+			if (name.startsWith("JMS")) {
+				if ("JMSDeliveryMode".equals(name)) {
+					return (message.getJMSDeliveryMode() == DeliveryMode.PERSISTENT ? "PERSISTENT" : "NON_PERSISTENT");
+				} else if ("JMSPriority".equals(name)) {
+					return Long.valueOf(message.getJMSPriority());
+				} else if ("JMSMessageID".equals(name)) {
+					return message.getJMSMessageID();
+				} else if ("JMSTimestamp".equals(name)) {
+					return Long.valueOf(message.getJMSTimestamp());
+				} else if ("JMSCorrelationID".equals(name)) {
+					return message.getJMSCorrelationID();
+				} else if ("JMSType".equals(name)) {
+					return message.getJMSType();
+				} else if ("JMSExpiration".equals(name)) {
+					return Long.valueOf(message.getJMSExpiration());
+				} else if ("JMSRedelivered".equals(name)) {
+					return Boolean.valueOf(message.getJMSRedelivered());
+				}
+			}
+			return normalize(message.getObjectProperty(name));
+		}
+
+		@Override
+		public String toString() {
+			return name;
+		}
+	}
+
+	// logical operators -------------------------------------------------------
+
+	static final class And implements Expression {
+
+		private final Expression left;
+		private final Expression right;
+
+		And(Expression left, Expression right) {
+			this.left = left;
+			this.right = right;
+		}
+
+		@Override
+		public Object evaluate(Message message) throws JMSException {
+			Boolean l = asBoolean(left.evaluate(message));
+			if (Boolean.FALSE.equals(l)) {
+				return Boolean.FALSE;
+			}
+			Boolean r = asBoolean(right.evaluate(message));
+			if (Boolean.FALSE.equals(r)) {
+				return Boolean.FALSE;
+			}
+			return (l == null || r == null ? null : Boolean.TRUE);
+		}
+
+		@Override
+		public String toString() {
+			return "(" + left + " AND " + right + ")";
+		}
+	}
+
+	static final class Or implements Expression {
+
+		private final Expression left;
+		private final Expression right;
+
+		Or(Expression left, Expression right) {
+			this.left = left;
+			this.right = right;
+		}
+
+		@Override
+		public Object evaluate(Message message) throws JMSException {
+			Boolean l = asBoolean(left.evaluate(message));
+			if (Boolean.TRUE.equals(l)) {
+				return Boolean.TRUE;
+			}
+			Boolean r = asBoolean(right.evaluate(message));
+			if (Boolean.TRUE.equals(r)) {
+				return Boolean.TRUE;
+			}
+			return (l == null || r == null ? null : Boolean.FALSE);
+		}
+
+		@Override
+		public String toString() {
+			return "(" + left + " OR " + right + ")";
+		}
+	}
+
+	static final class Not implements Expression {
+
+		private final Expression operand;
+
+		Not(Expression operand) {
+			this.operand = operand;
+		}
+
+		@Override
+		public Object evaluate(Message message) throws JMSException {
+			Boolean value = asBoolean(operand.evaluate(message));
+			return (value == null ? null : Boolean.valueOf(!value.booleanValue()));
+		}
+
+		@Override
+		public String toString() {
+			return "NOT " + operand;
+		}
+	}
+
+	// comparison --------------------------------------------------------------
+
+	enum ComparisonOperator {
+		EQ("="), NE("<>"), LT("<"), LE("<="), GT(">"), GE(">=");
+
+		private final String symbol;
+
+		ComparisonOperator(String symbol) {
+			this.symbol = symbol;
+		}
+
+		boolean test(int comparison) {
+			switch (this) {
+				case EQ: return comparison == 0;
+				case NE: return comparison != 0;
+				case LT: return comparison < 0;
+				case LE: return comparison <= 0;
+				case GT: return comparison > 0;
+				default: return comparison >= 0;
+			}
+		}
+
+		boolean isEquality() {
+			return this == EQ || this == NE;
+		}
+
+		@Override
+		public String toString() {
+			return symbol;
+		}
+	}
+
+	static final class Comparison implements Expression {
+
+		private final ComparisonOperator operator;
+		private final Expression left;
+		private final Expression right;
+
+		Comparison(ComparisonOperator operator, Expression left, Expression right) {
+			this.operator = operator;
+			this.left = left;
+			this.right = right;
+		}
+
+		@Override
+		public Object evaluate(Message message) throws JMSException {
+			return compare(operator, left.evaluate(message), right.evaluate(message));
+		}
+
+		@Override
+		public String toString() {
+			return "(" + left + " " + operator + " " + right + ")";
+		}
+	}
+
+	static final class Between implements Expression {
+
+		private final Expression value;
+		private final Expression lower;
+		private final Expression upper;
+
+		Between(Expression value, Expression lower, Expression upper) {
+			this.value = value;
+			this.lower = lower;
+			this.upper = upper;
+		}
+
+		@Override
+		public Object evaluate(Message message) throws JMSException {
+			Object v = value.evaluate(message);
+			Boolean aboveLower = compare(ComparisonOperator.GE, v, lower.evaluate(message));
+			if (Boolean.FALSE.equals(aboveLower)) {
+				return Boolean.FALSE;
+			}
+			Boolean belowUpper = compare(ComparisonOperator.LE, v, upper.evaluate(message));
+			if (Boolean.FALSE.equals(belowUpper)) {
+				return Boolean.FALSE;
+			}
+			return (aboveLower == null || belowUpper == null ? null : Boolean.TRUE);
+		}
+
+		@Override
+		public String toString() {
+			return "(" + value + " BETWEEN " + lower + " AND " + upper + ")";
+		}
+	}
+
+	static final class In implements Expression {
+
+		private final Expression value;
+		private final Set<String> candidates;
+
+		In(Expression value, Set<String> candidates) {
+			this.value = value;
+			this.candidates = candidates;
+		}
+
+		@Override
+		public Object evaluate(Message message) throws JMSException {
+			Object v = value.evaluate(message);
+			if (v == null) {
+				return null;
+			}
+			return Boolean.valueOf(v instanceof String && candidates.contains(v));
+		}
+
+		@Override
+		public String toString() {
+			return "(" + value + " IN " + candidates + ")";
+		}
+	}
+
+	static final class Like implements Expression {
+
+		private final Expression value;
+		private final Pattern pattern;
+
+		Like(Expression value, Pattern pattern) {
+			this.value = value;
+			this.pattern = pattern;
+		}
+
+		@Override
+		public Object evaluate(Message message) throws JMSException {
+			Object v = value.evaluate(message);
+			if (v == null) {
+				return null;
+			}
+			return Boolean.valueOf(v instanceof String && pattern.matcher((String) v).matches());
+		}
+
+		@Override
+		public String toString() {
+			return "(" + value + " LIKE /" + pattern + "/)";
+		}
+	}
+
+	static final class IsNull implements Expression {
+
+		private final Expression value;
+
+		IsNull(Expression value) {
+			this.value = value;
+		}
+
+		@Override
+		public Object evaluate(Message message) throws JMSException {
+			return Boolean.valueOf(value.evaluate(message) == null);
+		}
+
+		@Override
+		public String toString() {
+			return "(" + value + " IS NULL)";
+		}
+	}
+
+	// arithmetic --------------------------------------------------------------
+
+	static final class Arithmetic implements Expression {
+
+		private final char operator;
+		private final Expression left;
+		private final Expression right;
+
+		Arithmetic(char operator, Expression left, Expression right) {
+			this.operator = operator;
+			this.left = left;
+			this.right = right;
+		}
+
+		@Override
+		public Object evaluate(Message message) throws JMSException {
+			Object l = left.evaluate(message);
+			Object r = right.evaluate(message);
+			if (!(l instanceof Number) || !(r instanceof Number)) {
+				return null;
+			}
+			if (l instanceof Long && r instanceof Long) {
+				long a = ((Long) l).longValue();
+				long b = ((Long) r).longValue();
+				switch (operator) {
+					case '+': return Long.valueOf(a + b);
+					case '-': return Long.valueOf(a - b);
+					case '*': return Long.valueOf(a * b);
+					default: return (b == 0 ? null : Long.valueOf(a / b));
+				}
+			}
+			double a = ((Number) l).doubleValue();
+			double b = ((Number) r).doubleValue();
+			switch (operator) {
+				case '+': return Double.valueOf(a + b);
+				case '-': return Double.valueOf(a - b);
+				case '*': return Double.valueOf(a * b);
+				default: return Double.valueOf(a / b);
+			}
+		}
+
+		@Override
+		public String toString() {
+			return "(" + left + " " + operator + " " + right + ")";
+		}
+	}
+
+	static final class Negation implements Expression {
+
+		private final Expression operand;
+
+		Negation(Expression operand) {
+			this.operand = operand;
+		}
+
+		@Override
+		public Object evaluate(Message message) throws JMSException {
+			return negate(operand.evaluate(message));
+		}
+
+		@Override
+		public String toString() {
+			return "-" + operand;
+		}
+	}
+
+	// helpers -----------------------------------------------------------------
+
+	/** Maps property values to the types of the selector type system. */
+	static Object normalize(Object value) {
+		if (value instanceof Integer || value instanceof Short || value instanceof Byte) {
+			return Long.valueOf(((Number) value).longValue());
+		} else if (value instanceof Float) {
+			return Double.valueOf(((Float) value).doubleValue());
+		}
+		return value;
+	}
+
+	/** @return the negated number or <code>null</code> if the value is not numeric */
+	static Object negate(Object value) {
+		if (value instanceof Long) {
+			return Long.valueOf(-((Long) value).longValue());
+		} else if (value instanceof Double) {
+			return Double.valueOf(-((Double) value).doubleValue());
+		}
+		return null;
+	}
+
+	/** @return the value if it is a Boolean, otherwise <code>null</code> (unknown) */
+	static Boolean asBoolean(Object value) {
+		return (value instanceof Boolean ? (Boolean) value : null);
+	}
+
+	static Boolean compare(ComparisonOperator operator, Object l, Object r) {
+		if (l == null || r == null) {
+			return null;
+		}
+		if (l instanceof Number && r instanceof Number) {
+			int comparison;
+			if (l instanceof Long && r instanceof Long) {
+				comparison = ((Long) l).compareTo((Long) r);
+			} else {
+				comparison = Double.compare(((Number) l).doubleValue(), ((Number) r).doubleValue());
+			}
+			return Boolean.valueOf(operator.test(comparison));
+		}
+		if (!l.getClass().equals(r.getClass()) || !operator.isEquality()) {
+			// strings and booleans only support equality; values of different types are never equal
+			return Boolean.FALSE;
+		}
+		return Boolean.valueOf(operator.test(l.equals(r) ? 0 : 1));
+	}
+
+}
@@ -0,0 +1,84 @@
+/*
+ * Copyright (C) 2015 Hamburg Sud and the contributors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.aludratest.service.jms.impl.selector;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import javax.jms.InvalidSelectorException;
+import javax.jms.JMSException;
+import javax.jms.Message;
+
+/**
+ * A JMS message selector compiled to a predicate which can be evaluated on the client side.
+ * Compiled selectors are immutable and cached by their text, so that repeated receive calls 
+ * with the same selector parse it only once.
+ */
+
+public final class MessageSelector {
+
+	/** Maximum number of cached selectors; the cache is cleared when it is exceeded. */
+	private static final int MAX_CACHE_SIZE = 1000;
+
+	private static final ConcurrentMap<String, MessageSelector> CACHE = new ConcurrentHashMap<String, MessageSelector>();
+
+	/** Selector which matches all messages. */
+	public static final MessageSelector ALL = new MessageSelector("", null);
+
+	private final String text;
+	private final Expression expression;
+
+	private MessageSelector(String text, Expression expression) {
+		this.text = text;
+		this.expression = expression;
+	}
+
+	/** Returns the compiled form of a selector.
+	 *  @param selector the selector text, <code>null</code> or a blank text match all messages
+	 *  @return the compiled selector
+	 *  @throws InvalidSelectorException if the selector is not valid */
+	public static MessageSelector compile(String selector) throws InvalidSelectorException {
+		if (selector == null || selector.trim().length() == 0) {
+			return ALL;
+		}
+		MessageSelector compiled = CACHE.get(selector);
+		if (compiled == null) {
+			compiled = new MessageSelector(selector, SelectorParser.parse(selector));
+			if (CACHE.size() >= MAX_CACHE_SIZE) {
+				CACHE.clear();
+			}
+			CACHE.put(selector, compiled);
+		}
+		return compiled;
+	}
+
+	/** Evaluates the selector on a message.
+	 *  @param message the message to evaluate
+	 *  @return true if the selector evaluates to true, false if it evaluates to false or unknown */
+	public boolean matches(Message message) throws JMSException {
+		return (expression == null || Boolean.TRUE.equals(expression.evaluate(message)));
+	}
+
+	public String getText() {
+		return text;
+	}
+
+	@Override
+	public String toString() {
+		return (expression != null ? expression.toString() : "TRUE");
+	}
+
+}
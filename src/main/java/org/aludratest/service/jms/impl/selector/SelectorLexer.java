@@ -0,0 +1,196 @@
+/*
+ * Copyright (C) 2015 Hamburg Sud and the contributors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.aludratest.service.jms.impl.selector;
+
+import java.util.Locale;
+
+import javax.jms.InvalidSelectorException;
+
+/**
+ * Splits a message selector into tokens.
+ */
+
+final class SelectorLexer {
+
+	enum Type {
+		STRING, LONG, DOUBLE, IDENTIFIER, 
+		NOT, AND, OR, BETWEEN, LIKE, IN, IS, NULL, TRUE, FALSE, ESCAPE,
+		EQ, NE, LT, LE, GT, GE, PLUS, MINUS, TIMES, DIVIDE, LPAREN, RPAREN, COMMA, EOF
+	}
+
+	private final String text;
+	private int pos;
+
+	private Type type;
+	private String value;
+	private int start;
+
+	SelectorLexer(String text) throws InvalidSelectorException {
+		this.text = text;
+		this.pos = 0;
+		next();
+	}
+
+	Type type() {
+		return type;
+	}
+
+	/** @return the text of an identifier, the content of a string literal or the digits of a numeric literal */
+	String value() {
+		return value;
+	}
+
+	int start() {
+		return start;
+	}
+
+	String text() {
+		return text;
+	}
+
+	void next() throws InvalidSelectorException {
+		while (pos < text.length() && Character.isWhitespace(text.charAt(pos))) {
+			pos++;
+		}
+		start = pos;
+		value = null;
+		if (pos >= text.length()) {
+			type = Type.EOF;
+			return;
+		}
+		char c = text.charAt(pos);
+		if (c == '\'') {
+			readString();
+		} else if (Character.isDigit(c) || (c == '.' && pos + 1 < text.length() && Character.isDigit(text.charAt(pos + 1)))) {
+			readNumber();
+		} else if (Character.isJavaIdentifierStart(c)) {
+			readWord();
+		} else {
+			readOperator(c);
+		}
+	}
+
+	private void readString() throws InvalidSelectorException {
+		StringBuilder builder = new StringBuilder();
+		pos++;
+		while (true) {
+			if (pos >= text.length()) {
+				throw error("Unterminated string literal");
+			}
+			char c = text.charAt(pos++);
+			if (c == '\'') {
+				if (pos < text.length() && text.charAt(pos) == '\'') {
+					builder.append('\'');
+					pos++;
+				} else {
+					break;
+				}
+			} else {
+				builder.append(c);
+			}
+		}
+		type = Type.STRING;
+		value = builder.toString();
+	}
+
+	private void readNumber() {
+		boolean approximate = false;
+		while (pos < text.length() && Character.isDigit(text.charAt(pos))) {
+			pos++;
+		}
+		if (pos < text.length() && text.charAt(pos) == '.') {
+			approximate = true;
+			pos++;
+			while (pos < text.length() && Character.isDigit(text.charAt(pos))) {
+				pos++;
+			}
+		}
+		if (pos < text.length() && (text.charAt(pos) == 'e' || text.charAt(pos) == 'E')) {
+			int exponentStart = pos++;
+			if (pos < text.length() && (text.charAt(pos) == '+' || text.charAt(pos) == '-')) {
+				pos++;
+			}
+			if (pos < text.length() && Character.isDigit(text.charAt(pos))) {
+				approximate = true;
+				while (pos < text.length() && Character.isDigit(text.charAt(pos))) {
+					pos++;
+				}
+			} else {
+				// not an exponent, e.g. '1 eq'; leave the letter for the next token
+				pos = exponentStart;
+			}
+		}
+		type = (approximate ? Type.DOUBLE : Type.LONG);
+		value = text.substring(start, pos);
+	}
+
+	private void readWord() {
+		while (pos < text.length() && Character.isJavaIdentifierPart(text.charAt(pos))) {
+			pos++;
+		}
+		value = text.substring(start, pos);
+		type = Type.IDENTIFIER;
+		String upper = value.toUpperCase(Locale.US);
+		for (Type keyword : new Type[] { Type.NOT, Type.AND, Type.OR, Type.BETWEEN, Type.LIKE, Type.IN, Type.IS, 
+				Type.NULL, Type.TRUE, Type.FALSE, Type.ESCAPE }) {
+			if (keyword.name().equals(upper)) {
+				type = keyword;
+				break;
+			}
+		}
+	}
+
+	private void readOperator(char c) throws InvalidSelectorException {
+		pos++;
+		switch (c) {
+			case '=': type = Type.EQ; break;
+			case '+': type = Type.PLUS; break;
+			case '-': type = Type.MINUS; break;
+			case '*': type = Type.TIMES; break;
+			case '/': type = Type.DIVIDE; break;
+			case '(': type = Type.LPAREN; break;
+			case ')': type = Type.RPAREN; break;
+			case ',': type = Type.COMMA; break;
+			case '<':
+				if (consume('=')) {
+					type = Type.LE;
+				} else if (consume('>')) {
+					type = Type.NE;
+				} else {
+					type = Type.LT;
+				}
+				break;
+			case '>':
+				type = (consume('=') ? Type.GE : Type.GT);
+				break;
+			default:
+				throw error("Unexpected character '" + c + "'");
+		}
+	}
+
+	private boolean consume(char expected) {
+		if (pos < text.length() && text.charAt(pos) == expected) {
+			pos++;
+			return true;
+		}
+		return false;
+	}
+
+	InvalidSelectorException error(String message) {
+		return new InvalidSelectorException(message + " at position " + start + " of selector: " + text);
+	}
+
+}
@@ -0,0 +1,278 @@
+/*
+ * Copyright (C) 2015 Hamburg Sud and the contributors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.aludratest.service.jms.impl.selector;
+
+import java.util.HashSet;
+import java.util.Set;
+import java.util.regex.Pattern;
+
+import javax.jms.InvalidSelectorException;
+
+import org.aludratest.service.jms.impl.selector.Expressions.ComparisonOperator;
+import org.aludratest.service.jms.impl.selector.SelectorLexer.Type;
+
+/**
+ * Recursive descent parser for the JMS message selector syntax, a subset of SQL-92 conditional expressions.
+ * Operator precedence from lowest to highest: OR, AND, NOT, comparison/BETWEEN/IN/LIKE/IS NULL, 
+ * additive, multiplicative, unary sign.
+ */
+
+final class SelectorParser {
+
+	private final SelectorLexer lexer;
+
+	private SelectorParser(String selector) throws InvalidSelectorException {
+		this.lexer = new SelectorLexer(selector);
+	}
+
+	/** Parses a selector.
+	 *  @param selector the selector text
+	 *  @return the root of the expression tree
+	 *  @throws InvalidSelectorException if the selector is not valid */
+	static Expression parse(String selector) throws InvalidSelectorException {
+		SelectorParser parser = new SelectorParser(selector);
+		Expression expression = parser.parseOr();
+		if (parser.lexer.type() != Type.EOF) {
+			throw parser.lexer.error("Unexpected token");
+		}
+		if (!isConditional(expression)) {
+			throw new InvalidSelectorException("Selector is no conditional expression: " + selector);
+		}
+		return expression;
+	}
+
+	private Expression parseOr() throws InvalidSelectorException {
+		Expression expression = parseAnd();
+		while (accept(Type.OR)) {
+			expression = new Expressions.Or(expression, parseAnd());
+		}
+		return expression;
+	}
+
+	private Expression parseAnd() throws InvalidSelectorException {
+		Expression expression = parseNot();
+		while (accept(Type.AND)) {
+			expression = new Expressions.And(expression, parseNot());
+		}
+		return expression;
+	}
+
+	private Expression parseNot() throws InvalidSelectorException {
+		if (accept(Type.NOT)) {
+			return new Expressions.Not(parseNot());
+		}
+		return parsePredicate();
+	}
+
+	private Expression parsePredicate() throws InvalidSelectorException {
+		Expression left = parseAdditive();
+		ComparisonOperator operator = comparisonOperator(lexer.type());
+		if (operator != null) {
+			lexer.next();
+			return new Expressions.Comparison(operator, left, parseAdditive());
+		}
+		if (accept(Type.IS)) {
+			boolean negated = accept(Type.NOT);
+			expect(Type.NULL);
+			Expression isNull = new Expressions.IsNull(left);
+			return (negated ? new Expressions.Not(isNull) : isNull);
+		}
+		boolean negated = accept(Type.NOT);
+		Expression predicate;
+		if (accept(Type.BETWEEN)) {
+			Expression lower = parseAdditive();
+			expect(Type.AND);
+			predicate = new Expressions.Between(left, lower, parseAdditive());
+		} else if (accept(Type.IN)) {
+			predicate = new Expressions.In(left, parseStringList());
+		} else if (accept(Type.LIKE)) {
+			String pattern = expectString();
+			Character escape = null;
+			if (accept(Type.ESCAPE)) {
+				String escapeText = expectString();
+				if (escapeText.length() != 1) {
+					throw lexer.error("ESCAPE requires a single character");
+				}
+				escape = Character.valueOf(escapeText.charAt(0));
+			}
+			predicate = new Expressions.Like(left, likePattern(pattern, escape));
+		} else if (negated) {
+			throw lexer.error("Expected BETWEEN, IN or LIKE after NOT");
+		} else {
+			return left;
+		}
+		return (negated ? new Expressions.Not(predicate) : predicate);
+	}
+
+	private Expression parseAdditive() throws InvalidSelectorException {
+		Expression expression = parseMultiplicative();
+		while (true) {
+			if (accept(Type.PLUS)) {
+				expression = new Expressions.Arithmetic('+', expression, parseMultiplicative());
+			} else if (accept(Type.MINUS)) {
+				expression = new Expressions.Arithmetic('-', expression, parseMultiplicative());
+			} else {
+				return expression;
+			}
+		}
+	}
+
+	private Expression parseMultiplicative() throws InvalidSelectorException {
+		Expression expression = parseUnary();
+		while (true) {
+			if (accept(Type.TIMES)) {
+				expression = new Expressions.Arithmetic('*', expression, parseUnary());
+			} else if (accept(Type.DIVIDE)) {
+				expression = new Expressions.Arithmetic('/', expression, parseUnary());
+			} else {
+				return expression;
+			}
+		}
+	}
+
+	private Expression parseUnary() throws InvalidSelectorException {
+		if (accept(Type.PLUS)) {
+			return parseUnary();
+		}
+		if (accept(Type.MINUS)) {
+			if (lexer.type() == Type.LONG && "9223372036854775808".equals(lexer.value())) {
+				// the only long literal which is valid with a minus sign only
+				lexer.next();
+				return new Expressions.Literal(Long.valueOf(Long.MIN_VALUE));
+			}
+			int start = lexer.start();
+			Expression operand = parseUnary();
+			if (operand instanceof Expressions.Literal) {
+				// fold negative literals
+				Object value = Expressions.negate(((Expressions.Literal) operand).getValue());
+				if (value == null) {
+					throw new InvalidSelectorException("Non-numeric operand of sign at position " + start + " of selector: " 
+							+ lexer.text());
+				}
+				return new Expressions.Literal(value);
+			}
+			return new Expressions.Negation(operand);
+		}
+		return parsePrimary();
+	}
+
+	private Expression parsePrimary() throws InvalidSelectorException {
+		String value = lexer.value();
+		switch (lexer.type()) {
+			case STRING:
+				lexer.next();
+				return new Expressions.Literal(value);
+			case LONG:
+				lexer.next();
+				try {
+					return new Expressions.Literal(Long.valueOf(value));
+				}
+				catch (NumberFormatException e) {
+					throw new InvalidSelectorException("Numeric literal out of range: " + value);
+				}
+			case DOUBLE:
+				lexer.next();
+				return new Expressions.Literal(Double.valueOf(value));
+			case TRUE:
+				lexer.next();
+				return new Expressions.Literal(Boolean.TRUE);
+			case FALSE:
+				lexer.next();
+				return new Expressions.Literal(Boolean.FALSE);
+			case IDENTIFIER:
+				lexer.next();
+				return new Expressions.Identifier(value);
+			case LPAREN:
+				lexer.next();
+				Expression expression = parseOr();
+				expect(Type.RPAREN);
+				return expression;
+			default:
+				throw lexer.error("Unexpected token");
+		}
+	}
+
+	private Set<String> parseStringList() throws InvalidSelectorException {
+		expect(Type.LPAREN);
+		Set<String> values = new HashSet<String>();
+		do {
+			values.add(expectString());
+		} while (accept(Type.COMMA));
+		expect(Type.RPAREN);
+		return values;
+	}
+
+	private static Pattern likePattern(String pattern, Character escape) {
+		StringBuilder regex = new StringBuilder();
+		for (int i = 0; i < pattern.length(); i++) {
+			char c = pattern.charAt(i);
+			if (escape != null && c == escape.charValue() && i + 1 < pattern.length()) {
+				regex.append(Pattern.quote(String.valueOf(pattern.charAt(++i))));
+			} else if (c == '%') {
+				regex.append(".*");
+			} else if (c == '_') {
+				regex.append('.');
+			} else {
+				regex.append(Pattern.quote(String.valueOf(c)));
+			}
+		}
+		return Pattern.compile(regex.toString(), Pattern.DOTALL);
+	}
+
+	private static ComparisonOperator comparisonOperator(Type type) {
+		switch (type) {
+			case EQ: return ComparisonOperator.EQ;
+			case NE: return ComparisonOperator.NE;
+			case LT: return ComparisonOperator.LT;
+			case LE: return ComparisonOperator.LE;
+			case GT: return ComparisonOperator.GT;
+			case GE: return ComparisonOperator.GE;
+			default: return null;
+		}
+	}
+
+	/** Tells if an expression can yield a boolean, which literals other than TRUE and FALSE and arithmetic cannot. */
+	private static boolean isConditional(Expression expression) {
+		if (expression instanceof Expressions.Literal) {
+			return ((Expressions.Literal) expression).getValue() instanceof Boolean;
+		}
+		return !(expression instanceof Expressions.Arithmetic || expression instanceof Expressions.Negation);
+	}
+
+	private boolean accept(Type type) throws InvalidSelectorException {
+		if (lexer.type() == type) {
+			lexer.next();
+			return true;
+		}
+		return false;
+	}
+
+	private void expect(Type type) throws InvalidSelectorException {
+		if (!accept(type)) {
+			throw lexer.error("Expected " + type);
+		}
+	}
+
+	private String expectString() throws InvalidSelectorException {
+		if (lexer.type() != Type.STRING) {
+			throw lexer.error("Expected string literal");
+		}
+		String value = lexer.value();
+		lexer.next();
+		return value;
+	}
+
+}
@@ -45,13 +45,27 @@ public class AbstractJmsTest extends AbstractAludraServiceTest {
     @BeforeClass
     public static void startTestBroker() throws Exception {
         LOGGER.info("Setting up embedded ActiveMQ broker for URL " + testBrokerUri);
-        testBroker = new BrokerService();
-        testBroker.setPersistent(false);
-        testBroker.addConnector(testBrokerUri);
-        testBroker.start();
+        testBroker = createTestBroker();
         LOGGER.info("Done setting up embedded ActiveMQ broker for URL " + testBrokerUri);
     }
 
+    /** Stops the embedded broker, which drops all client connections, and starts a new one. */
+    protected static void restartTestBroker() throws Exception {
+        LOGGER.info("Restarting embedded ActiveMQ broker for URL " + testBrokerUri);
+        testBroker.stop();
+        testBroker.waitUntilStopped();
+        testBroker = createTestBroker();
+        LOGGER.info("Done restarting embedded ActiveMQ broker for URL " + testBrokerUri);
+    }
+
+    private static BrokerService createTestBroker() throws Exception {
+        BrokerService broker = new BrokerService();
+        broker.setPersistent(false);
+        broker.addConnector(testBrokerUri);
+        broker.start();
+        return broker;
+    }
+
     @Before
     public void prepareJmsService() {
         LOGGER.info("Setting up JmsService object connected to URL " + testBrokerUri);
@@ -0,0 +1,71 @@
+/*
+ * Copyright (C) 2015 Hamburg Sud and the contributors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.aludratest.service.jms;
+
+import static org.junit.Assert.assertEquals;
+
+import org.apache.log4j.Logger;
+import org.databene.commons.IOUtil;
+import org.junit.Ignore;
+import org.junit.Test;
+
+/**
+ * Compares the round-trip performance of the connection modes 
+ * 'start/stop per operation' and 'keep started' on the embedded broker.
+ * This is a benchmark which only logs its timings, so it is not part of the unit test suite;
+ * to run it, remove the {@link Ignore} annotation locally and run
+ * <code>mvn test -Dtest=ConnectionModeBenchmarkTest</code>.
+ */
+
+public class ConnectionModeBenchmarkTest extends AbstractJmsTest {
+
+    private static final Logger LOGGER = Logger.getLogger(ConnectionModeBenchmarkTest.class);
+
+    private static final String QUEUE_NAME = "dynamicQueues/benchmarkQueue";
+
+    private static final int MESSAGE_COUNT = 500;
+
+    @Test
+    @Ignore("benchmark, see class comment")
+    public void testStartStopVersusKeepStarted() {
+        // warm up the broker and the JVM
+        runRoundTrips(service, QUEUE_NAME + ".warmUp", MESSAGE_COUNT);
+
+        long startStopMillis = runRoundTrips(service, QUEUE_NAME + ".startStop", MESSAGE_COUNT);
+
+        JmsService keepStartedService = newLoggingService(JmsService.class, "jmsKeepStarted");
+        long keepStartedMillis;
+        try {
+            keepStartedMillis = runRoundTrips(keepStartedService, QUEUE_NAME + ".keepStarted", MESSAGE_COUNT);
+        }
+        finally {
+            IOUtil.close(keepStartedService);
+        }
+
+        LOGGER.info(MESSAGE_COUNT + " send/receive round-trips took " + startStopMillis + " ms in start/stop mode and " 
+                + keepStartedMillis + " ms in keep-started mode");
+    }
+
+    private static long runRoundTrips(JmsService service, String queueName, int count) {
+        long start = System.currentTimeMillis();
+        for (int i = 0; i < count; i++) {
+            service.perform().sendTextMessage("message " + i, queueName);
+            assertEquals("message " + i, service.perform().receiveTextMessageFromQueue(queueName, null, 1000));
+        }
+        return System.currentTimeMillis() - start;
+    }
+
+}
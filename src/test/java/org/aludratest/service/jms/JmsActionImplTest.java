@@ -17,19 +17,50 @@
 package org.aludratest.service.jms;
 
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
 import static org.junit.Assert.assertNull;
 import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
 
 import java.io.IOException;
 import java.io.UnsupportedEncodingException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
 import java.util.Iterator;
+import java.util.List;
 import java.util.UUID;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import javax.jms.Connection;
+import javax.jms.JMSException;
+import javax.jms.Message;
+import javax.jms.MessageConsumer;
+import javax.jms.MessageListener;
+import javax.jms.MessageProducer;
+import javax.jms.Session;
+import javax.jms.TextMessage;
 
 import org.aludratest.service.jms.data.FileMessageData;
+import org.aludratest.service.jms.data.LoadProfileData;
 import org.aludratest.service.jms.data.ObjectMessageData;
 import org.aludratest.service.jms.data.TextMessageData;
+import org.aludratest.service.jms.impl.ConnectionPool;
 import org.aludratest.service.jms.util.ObjDataTest;
+import org.aludratest.testcase.TestStatus;
+import org.aludratest.testcase.event.TestStepInfo;
 import org.aludratest.testcase.event.attachment.Attachment;
+import org.apache.activemq.ActiveMQConnectionFactory;
 import org.apache.commons.lang.StringUtils;
 import org.apache.log4j.Logger;
 import org.databene.commons.Encodings;
@@ -73,6 +104,289 @@ public class JmsActionImplTest extends AbstractJmsTest {
         LOGGER.info("End testBasicJms");
     }
 
+    @Test
+    public void testRepeatedSendsWithCachedProducer() {
+        String queueName = QUEUE_NAME + ".ProducerCache";
+
+        LOGGER.info("Begin testRepeatedSendsWithCachedProducer");
+        for (int i = 0; i < 5; i++) {
+            service.perform().sendTextMessage("message " + i, queueName);
+        }
+        for (int i = 0; i < 5; i++) {
+            assertEquals("message " + i, service.perform().receiveTextMessageFromQueue(queueName, null, 100));
+        }
+        LOGGER.info("End testRepeatedSendsWithCachedProducer");
+    }
+
+    @Test
+    public void testCachedConsumerReleasesPrefetchedMessages() {
+        String queueName = QUEUE_NAME + ".ConsumerCache";
+        JmsService cachingService = newLoggingService(JmsService.class, "jmsConsumerCache");
+        try {
+            LOGGER.info("Begin testCachedConsumerReleasesPrefetchedMessages");
+            for (int i = 0; i < 3; i++) {
+                TextMessageData data = new TextMessageData("message " + i);
+                data.addProperty("KEY", "value");
+                cachingService.perform().sendMessage(data, queueName);
+            }
+            assertEquals("message 0", cachingService.perform().receiveTextMessageFromQueue(queueName, "KEY='value'", 100));
+            // the remaining messages have been prefetched by the cached consumer with selector, 
+            // which must be closed when a consumer with another selector is requested
+            assertEquals("message 1", cachingService.perform().receiveTextMessageFromQueue(queueName, null, 100));
+            assertEquals("message 2", cachingService.perform().receiveTextMessageFromQueue(queueName, null, 100));
+            LOGGER.info("End testCachedConsumerReleasesPrefetchedMessages");
+        }
+        finally {
+            IOUtil.close(cachingService);
+        }
+    }
+
+    @Test
+    public void testBulkReceiveAfterSingleReceive() {
+        String queueName = QUEUE_NAME + ".SingleThenBulk";
+        JmsService cachingService = newLoggingService(JmsService.class, "jmsConsumerCache");
+        try {
+            LOGGER.info("Begin testBulkReceiveAfterSingleReceive");
+            for (int i = 0; i < 3; i++) {
+                cachingService.perform().sendTextMessage("message " + i, queueName);
+            }
+            assertEquals("message 0", cachingService.perform().receiveTextMessageFromQueue(queueName, null, 100));
+            // the messages prefetched by the cached consumer of the single receive must reach the bulk receive
+            assertEquals(Arrays.asList("message 1", "message 2"), 
+                    cachingService.perform().receiveTextMessagesFromQueue(queueName, null, 5, 1000));
+            LOGGER.info("End testBulkReceiveAfterSingleReceive");
+        }
+        finally {
+            IOUtil.close(cachingService);
+        }
+    }
+
+    @Test
+    public void testReceiveMessagesOfWrongTypeLosesNoMessages() {
+        String queueName = QUEUE_NAME + ".WrongType";
+
+        LOGGER.info("Begin testReceiveMessagesOfWrongTypeLosesNoMessages");
+        service.perform().sendTextMessage("message 0", queueName);
+        service.perform().sendTextMessage("message 1", queueName);
+        ObjectMessageData objectMessageData = new ObjectMessageData();
+        objectMessageData.setMessageObject(Integer.valueOf(2));
+        service.perform().sendMessage(objectMessageData, queueName);
+
+        service.perform().receiveTextMessagesFromQueue(queueName, null, 5, 1000);
+        assertEquals(TestStatus.FAILEDAUTOMATION, getLastFailedTestStep().getTestStatus());
+        // the receive has been rolled back, so all messages are still available
+        assertEquals("message 0", service.perform().receiveTextMessageFromQueue(queueName, null, 1000));
+        assertEquals("message 1", service.perform().receiveTextMessageFromQueue(queueName, null, 1000));
+        assertEquals(Integer.valueOf(2), service.perform().receiveObjectMessageFromQueue(queueName, null, 1000));
+        LOGGER.info("End testReceiveMessagesOfWrongTypeLosesNoMessages");
+    }
+
+    @Test
+    public void testQueueListenerKeepsMessageOfWrongType() {
+        String queueName = QUEUE_NAME + ".ListenerWrongType";
+
+        LOGGER.info("Begin testQueueListenerKeepsMessageOfWrongType");
+        service.perform().startQueueListener(queueName, null);
+        try {
+            ObjectMessageData objectMessageData = new ObjectMessageData();
+            objectMessageData.setMessageObject(Integer.valueOf(1));
+            service.perform().sendMessage(objectMessageData, queueName);
+
+            service.perform().receiveTextMessageFromQueue(queueName, null, 1000);
+            assertEquals(TestStatus.FAILEDAUTOMATION, getLastFailedTestStep().getTestStatus());
+            // the message has neither been taken from the buffer nor acknowledged
+            assertEquals(Integer.valueOf(1), service.perform().receiveObjectMessageFromQueue(queueName, null, 1000));
+        }
+        finally {
+            service.perform().stopQueueListener(queueName);
+        }
+        LOGGER.info("End testQueueListenerKeepsMessageOfWrongType");
+    }
+
+    @Test
+    public void testKeepStartedModeLosesNoPrefetchedMessages() throws Exception {
+        String queueName = QUEUE_NAME + ".KeepStarted";
+        JmsService keepStartedService = newLoggingService(JmsService.class, "jmsKeepStarted");
+        try {
+            LOGGER.info("Begin testKeepStartedModeLosesNoPrefetchedMessages");
+            // messages sent by the started connection must not be consumed without a receive
+            for (int i = 0; i < 5; i++) {
+                keepStartedService.perform().sendTextMessage("message " + i, queueName);
+            }
+            assertEquals("message 0", keepStartedService.perform().receiveTextMessageFromQueue(queueName, null, 1000));
+        }
+        finally {
+            IOUtil.close(keepStartedService);
+        }
+        // the messages prefetched by the consumer of the started connection are returned on close
+        for (int i = 1; i < 5; i++) {
+            assertEquals("message " + i, service.perform().receiveTextMessageFromQueue(queueName, null, 1000));
+        }
+        assertNull(service.perform().receiveTextMessageFromQueue(queueName, null, 100));
+        LOGGER.info("End testKeepStartedModeLosesNoPrefetchedMessages");
+    }
+
+    @Test
+    public void testConcurrentSendAndReceive() throws Exception {
+        final String queueName = QUEUE_NAME + ".Concurrent";
+        final int threadCount = 4;
+        final int messagesPerThread = 10;
+        final int total = threadCount * messagesPerThread;
+        // a consumer that keeps messages prefetched after its thread has stopped receiving
+        // is closed after the short idle timeout of this configuration
+        final JmsService concurrentService = newLoggingService(JmsService.class, "jmsConsumerIdle");
+
+        LOGGER.info("Begin testConcurrentSendAndReceive");
+        ExecutorService executor = Executors.newFixedThreadPool(threadCount);
+        final AtomicInteger received = new AtomicInteger();
+        final long deadline = System.currentTimeMillis() + 20000;
+        try {
+            List<Future<?>> results = new ArrayList<Future<?>>();
+            for (int t = 0; t < threadCount; t++) {
+                final int threadIndex = t;
+                results.add(executor.submit(new Callable<Void>() {
+                    @Override
+                    public Void call() throws Exception {
+                        for (int i = 0; i < messagesPerThread; i++) {
+                            concurrentService.perform().sendTextMessage("thread " + threadIndex + " message " + i, queueName);
+                        }
+                        while (received.get() < total && System.currentTimeMillis() < deadline) {
+                            if (concurrentService.perform().receiveTextMessageFromQueue(queueName, null, 200) != null) {
+                                received.incrementAndGet();
+                            }
+                        }
+                        return null;
+                    }
+                }));
+            }
+            for (Future<?> result : results) {
+                result.get(30, TimeUnit.SECONDS);
+            }
+            assertEquals(total, received.get());
+        }
+        finally {
+            executor.shutdownNow();
+            IOUtil.close(concurrentService);
+        }
+        LOGGER.info("End testConcurrentSendAndReceive");
+    }
+
+    @Test
+    public void testIdleConsumerReturnsPrefetchedMessagesToOtherThreads() throws Exception {
+        final String queueName = QUEUE_NAME + ".IdleConsumer";
+        final JmsService idleService = newLoggingService(JmsService.class, "jmsConsumerIdle");
+        // the thread of the executor stays alive, so its session is not taken over by another thread
+        ExecutorService firstThread = Executors.newSingleThreadExecutor();
+        try {
+            LOGGER.info("Begin testIdleConsumerReturnsPrefetchedMessagesToOtherThreads");
+            for (int i = 0; i < 5; i++) {
+                idleService.perform().sendTextMessage("message " + i, queueName);
+            }
+            String first = firstThread.submit(new Callable<String>() {
+                @Override
+                public String call() {
+                    // the cached consumer of this thread prefetches the other messages
+                    return idleService.perform().receiveTextMessageFromQueue(queueName, null, 1000);
+                }
+            }).get(10, TimeUnit.SECONDS);
+            assertEquals("message 0", first);
+            // messages returned to the queue may be redelivered in another order
+            List<String> rest = new ArrayList<String>();
+            for (int i = 1; i < 5; i++) {
+                rest.add(idleService.perform().receiveTextMessageFromQueue(queueName, null, 5000));
+            }
+            Collections.sort(rest);
+            assertEquals(Arrays.asList("message 1", "message 2", "message 3", "message 4"), rest);
+            LOGGER.info("End testIdleConsumerReturnsPrefetchedMessagesToOtherThreads");
+        }
+        finally {
+            firstThread.shutdownNow();
+            IOUtil.close(idleService);
+        }
+    }
+
+    @Test
+    public void testRequestReply() throws Exception {
+        // a responder which correlates its replies by the message ID of the request
+        Connection responderConnection = new ActiveMQConnectionFactory(testBrokerUri).createConnection();
+        try {
+            final Session responderSession = responderConnection.createSession(false, Session.AUTO_ACKNOWLEDGE);
+            final MessageProducer replyProducer = responderSession.createProducer(null);
+            MessageConsumer requestConsumer = responderSession.createConsumer(responderSession.createQueue("testQueue1.RequestReply"));
+            requestConsumer.setMessageListener(new MessageListener() {
+                @Override
+                public void onMessage(Message request) {
+                    try {
+                        TextMessage reply = responderSession.createTextMessage(((TextMessage) request).getText().toUpperCase());
+                        reply.setJMSCorrelationID(request.getJMSMessageID());
+                        replyProducer.send(request.getJMSReplyTo(), reply);
+                    }
+                    catch (JMSException e) {
+                        LOGGER.error("Failed to reply", e);
+                    }
+                }
+            });
+            responderConnection.start();
+
+            LOGGER.info("Begin testRequestReply");
+            for (int i = 0; i < 3; i++) {
+                assertEquals("REQUEST " + i, service.perform().requestTextReply(new TextMessageData("request " + i), 
+                        QUEUE_NAME + ".RequestReply", 2000));
+            }
+            LOGGER.info("End testRequestReply");
+        }
+        finally {
+            responderConnection.close();
+        }
+    }
+
+    @Test
+    public void testAsyncSend() throws Exception {
+        String queueName = QUEUE_NAME + ".Async";
+
+        LOGGER.info("Begin testAsyncSend");
+        List<Future<Void>> futures = new ArrayList<Future<Void>>();
+        for (int i = 0; i < 10; i++) {
+            futures.add(service.performAsync().sendTextMessage("async message " + i, queueName));
+        }
+        service.performAsync().awaitCompletion(5000);
+        for (Future<Void> future : futures) {
+            assertTrue(future.isDone());
+            future.get();
+        }
+        for (int i = 0; i < 10; i++) {
+            assertEquals("async message " + i, service.perform().receiveTextMessageFromQueue(queueName, null, 100));
+        }
+        LOGGER.info("End testAsyncSend");
+    }
+
+    @Test
+    public void testGenerateLoad() {
+        String queueName = QUEUE_NAME + ".Load";
+
+        LOGGER.info("Begin testGenerateLoad");
+        String summary = service.perform().generateLoad(new TextMessageData("load"), queueName, new LoadProfileData(50, 1, 2, 2));
+        assertNotNull(summary);
+        assertTrue(summary.contains("errors: 0"));
+        // 25 messages during ramp-up plus 50 afterwards; a slow scheduler may lose or add a few at the edges
+        Matcher matcher = Pattern.compile("messages sent: (\\d+)").matcher(summary);
+        assertTrue(summary, matcher.find());
+        int sent = Integer.parseInt(matcher.group(1));
+        assertTrue(summary, sent >= 65 && sent <= 85);
+        LOGGER.info("End testGenerateLoad");
+    }
+
+    @Test
+    public void testDestinationAvailability() {
+        assertTrue(service.check().isDestinationAvailable(QUEUE_NAME));
+        // the second checks are served from the destination cache
+        assertTrue(service.check().isDestinationAvailable(QUEUE_NAME));
+        assertFalse(service.check().isDestinationAvailable("unknownDestination"));
+        assertFalse(service.check().isDestinationAvailable("unknownDestination"));
+        service.perform().invalidateDestination(null);
+        assertTrue(service.check().isDestinationAvailable(QUEUE_NAME));
+    }
+
     /**
      * Check nondurable topic messaging.
      * <ul>
@@ -120,6 +434,316 @@ public class JmsActionImplTest extends AbstractJmsTest {
         LOGGER.info("End testTopicSubscriber");
     }
 
+    @Test
+    public void testWarmUp() throws Exception {
+        // the configuration lists an unknown destination, which must not make the warm-up fail
+        JmsService warmService = newLoggingService(JmsService.class, "jmsWarmUp");
+        try {
+            LOGGER.info("Begin testWarmUp");
+            String text = UUID.randomUUID().toString();
+            warmService.perform().sendTextMessage(text, QUEUE_NAME);
+            assertEquals(text, warmService.perform().receiveTextMessageFromQueue(QUEUE_NAME, null, 1000));
+            LOGGER.info("End testWarmUp");
+        }
+        finally {
+            IOUtil.close(warmService);
+        }
+    }
+
+    @Test
+    public void testReceiveFirstTextMessageFromQueues() {
+        final String queueA = "dynamicQueues/testFanInQueueA";
+        final String queueB = "dynamicQueues/testFanInQueueB";
+
+        LOGGER.info("Begin testReceiveFirstTextMessageFromQueues");
+        this.service.perform().sendTextMessage("b", queueB);
+        assertEquals("b", this.service.perform().receiveFirstTextMessageFromQueues(Arrays.asList(queueA, queueB), null, 1000));
+
+        // the queue which did not deliver the first message keeps its message
+        this.service.perform().sendTextMessage("a", queueA);
+        this.service.perform().sendTextMessage("b", queueB);
+        String first = this.service.perform().receiveFirstTextMessageFromQueues(Arrays.asList(queueA, queueB), null, 1000);
+        if ("a".equals(first)) {
+            assertEquals("b", this.service.perform().receiveTextMessageFromQueue(queueB, null, 1000));
+        } else {
+            assertEquals("b", first);
+            assertEquals("a", this.service.perform().receiveTextMessageFromQueue(queueA, null, 1000));
+        }
+        LOGGER.info("End testReceiveFirstTextMessageFromQueues");
+    }
+
+    @Test
+    public void testReceiveTextMessageFromEachQueue() {
+        final String queueA = "dynamicQueues/testFanInQueueC";
+        final String queueB = "dynamicQueues/testFanInQueueD";
+
+        LOGGER.info("Begin testReceiveTextMessageFromEachQueue");
+        this.service.perform().sendTextMessage("a", queueA);
+        this.service.perform().sendTextMessage("b", queueB);
+        assertEquals(Arrays.asList("a", "b"), 
+                this.service.perform().receiveTextMessageFromEachQueue(Arrays.asList(queueA, queueB), null, 1000));
+
+        // if one queue does not deliver, the other one keeps its message
+        this.service.perform().sendTextMessage("a", queueA);
+        this.service.perform().receiveTextMessageFromEachQueue(Arrays.asList(queueA, queueB), null, 500);
+        TestStepInfo lastFailedTestStep = getLastFailedTestStep();
+        assertNotNull(lastFailedTestStep);
+        assertEquals(TestStatus.FAILEDPERFORMANCE, lastFailedTestStep.getTestStatus());
+        assertEquals("a", this.service.perform().receiveTextMessageFromQueue(queueA, null, 1000));
+        LOGGER.info("End testReceiveTextMessageFromEachQueue");
+    }
+
+    @Test
+    public void testReceiveTextMessageFromEachTopic() {
+        final String subscriptionName1 = "testFanInSubscriber1@" + TOPIC_NAME;
+        final String subscriptionName2 = "testFanInSubscriber2@" + TOPIC_NAME;
+
+        LOGGER.info("Begin testReceiveTextMessageFromEachTopic");
+        this.service.perform().startSubscriber(subscriptionName1, TOPIC_NAME, null, false);
+        this.service.perform().startSubscriber(subscriptionName2, TOPIC_NAME, null, false);
+        try {
+            this.service.perform().sendTextMessage("fan-in", TOPIC_NAME);
+            assertEquals(Arrays.asList("fan-in", "fan-in"), this.service.perform().receiveTextMessageFromEachTopic(
+                    Arrays.asList(subscriptionName1, subscriptionName2), null, 1000));
+        }
+        finally {
+            this.service.perform().stopSubscriber(subscriptionName1);
+            this.service.perform().stopSubscriber(subscriptionName2);
+        }
+        LOGGER.info("End testReceiveTextMessageFromEachTopic");
+    }
+
+    @Test
+    public void testTextMessagePublisher() throws Exception {
+        final String subscriptionName = "testPublisherSubscriber@" + TOPIC_NAME;
+        final BlockingQueue<String> received = new LinkedBlockingQueue<String>();
+        final BlockingQueue<Flow.Subscription> subscriptions = new LinkedBlockingQueue<Flow.Subscription>();
+
+        LOGGER.info("Begin testTextMessagePublisher");
+        this.service.perform().startSubscriber(subscriptionName, TOPIC_NAME, null, false);
+        try {
+            this.service.getTextMessagePublisher(subscriptionName, null).subscribe(new Flow.Subscriber<String>() {
+                @Override
+                public void onSubscribe(Flow.Subscription subscription) {
+                    subscriptions.add(subscription);
+                    subscription.request(2);
+                }
+
+                @Override
+                public void onNext(String item) {
+                    received.add(item);
+                }
+
+                @Override
+                public void onError(Throwable throwable) {
+                    received.add("error: " + throwable);
+                }
+
+                @Override
+                public void onComplete() {
+                    received.add("complete");
+                }
+            });
+            Flow.Subscription subscription = subscriptions.poll(5, TimeUnit.SECONDS);
+            assertNotNull(subscription);
+            for (int i = 1; i <= 3; i++) {
+                this.service.perform().sendTextMessage("item " + i, TOPIC_NAME);
+            }
+            assertEquals("item 1", received.poll(5, TimeUnit.SECONDS));
+            assertEquals("item 2", received.poll(5, TimeUnit.SECONDS));
+            // the third message is only delivered on demand
+            assertNull(received.poll(1, TimeUnit.SECONDS));
+            subscription.request(1);
+            assertEquals("item 3", received.poll(5, TimeUnit.SECONDS));
+            subscription.cancel();
+        }
+        finally {
+            this.service.perform().stopSubscriber(subscriptionName);
+        }
+        LOGGER.info("End testTextMessagePublisher");
+    }
+
+    @Test
+    public void testMetrics() throws Exception {
+        JmsService measuredService = newLoggingService(JmsService.class, "jmsMetrics");
+        try {
+            LOGGER.info("Begin testMetrics");
+            measuredService.perform().sendTextMessage("measured", QUEUE_NAME);
+            assertEquals("measured", measuredService.perform().receiveTextMessageFromQueue(QUEUE_NAME, null, 1000));
+            String report = measuredService.perform().reportMetrics();
+            LOGGER.info(report);
+            assertTrue(report.contains("SEND " + QUEUE_NAME + ": errors=0, bytes=8"));
+            assertTrue(report.contains("RECEIVE " + QUEUE_NAME + ": errors=0, bytes=8"));
+            assertTrue(report.contains("LOOKUP " + QUEUE_NAME));
+
+            measuredService.verify().assertMaxLatencyBelow("SEND", QUEUE_NAME, 10000);
+            measuredService.verify().assertLatencyPercentileBelow("RECEIVE", QUEUE_NAME, 99, 10000);
+            assertTrue(measuredService.check().isThroughputAtLeast("SEND", QUEUE_NAME, 0.001));
+            assertFalse(measuredService.check().isLatencyPercentileBelow("SEND", QUEUE_NAME, 50, 0));
+            assertFalse(measuredService.check().isMaxLatencyBelow("SEND", "unused", 10000));
+            // one send per nanosecond cannot be reached
+            measuredService.verify().assertThroughputAtLeast("SEND", QUEUE_NAME, 1000000000);
+            TestStepInfo lastFailedTestStep = getLastFailedTestStep();
+            assertNotNull(lastFailedTestStep);
+            assertEquals(TestStatus.FAILEDPERFORMANCE, lastFailedTestStep.getTestStatus());
+            LOGGER.info("End testMetrics");
+        }
+        finally {
+            IOUtil.close(measuredService);
+        }
+    }
+
+    @Test
+    public void testEndToEndLatency() throws Exception {
+        JmsService stampingService = newLoggingService(JmsService.class, "jmsEndToEnd");
+        try {
+            LOGGER.info("Begin testEndToEndLatency");
+            stampingService.perform().sendTextMessage("stamped", QUEUE_NAME);
+            assertEquals("stamped", stampingService.perform().receiveTextMessageFromQueue(QUEUE_NAME, null, 1000));
+            String report = stampingService.perform().reportMetrics();
+            LOGGER.info(report);
+            assertTrue(report.contains("END_TO_END " + QUEUE_NAME + ": errors=0"));
+            stampingService.verify().assertMaxLatencyBelow("END_TO_END", QUEUE_NAME, 10000);
+
+            // messages of a service without stamping are not measured
+            this.service.perform().sendTextMessage("unstamped", QUEUE_NAME);
+            assertEquals("unstamped", stampingService.perform().receiveTextMessageFromQueue(QUEUE_NAME, null, 1000));
+            report = stampingService.perform().reportMetrics();
+            String endToEnd = report.substring(report.indexOf("END_TO_END " + QUEUE_NAME));
+            assertTrue(endToEnd.substring(0, endToEnd.indexOf('\n')).contains("latency: count=1,"));
+            assertFalse(stampingService.check().isThroughputAtLeast("END_TO_END", "unused", 0.001));
+
+            // the latency of topic messages is recorded for the topic, not for the subscription
+            String subscriptionName = "testEndToEndSubscriber@" + TOPIC_NAME;
+            stampingService.perform().startSubscriber(subscriptionName, TOPIC_NAME, null, false);
+            try {
+                stampingService.perform().sendTextMessage("stamped topic message", TOPIC_NAME);
+                assertEquals("stamped topic message", 
+                        stampingService.perform().receiveTextMessageFromTopic(subscriptionName, null, 1000, true));
+            }
+            finally {
+                stampingService.perform().stopSubscriber(subscriptionName);
+            }
+            assertTrue(stampingService.check().isMaxLatencyBelow("END_TO_END", TOPIC_NAME, 10000));
+            assertFalse(stampingService.check().isMaxLatencyBelow("END_TO_END", subscriptionName, 10000));
+            LOGGER.info("End testEndToEndLatency");
+        }
+        finally {
+            IOUtil.close(stampingService);
+        }
+    }
+
+    @Test
+    public void testTimelineAttachment() throws Exception {
+        JmsService recordingService = newLoggingService(JmsService.class, "jmsTimeline");
+        try {
+            LOGGER.info("Begin testTimelineAttachment");
+            recordingService.perform().sendTextMessage("timeline", QUEUE_NAME);
+            assertEquals("timeline", recordingService.perform().receiveTextMessageFromQueue(QUEUE_NAME, null, 1000));
+            String timeline = null;
+            for (Attachment attachment : recordingService.perform().createDebugAttachments()) {
+                if ("JMS timeline".equals(attachment.getLabel())) {
+                    timeline = new String(attachment.getFileData(), Encodings.UTF_8);
+                }
+            }
+            assertNotNull(timeline);
+            LOGGER.info(timeline);
+            assertTrue(timeline.contains("SEND"));
+            assertTrue(timeline.contains("RECEIVE"));
+
+            // the timeline is disabled by default
+            this.service.perform().sendTextMessage("untracked", QUEUE_NAME);
+            assertEquals("untracked", this.service.perform().receiveTextMessageFromQueue(QUEUE_NAME, null, 1000));
+            for (Attachment attachment : this.service.perform().createDebugAttachments()) {
+                assertFalse("JMS timeline".equals(attachment.getLabel()));
+            }
+            LOGGER.info("End testTimelineAttachment");
+        }
+        finally {
+            IOUtil.close(recordingService);
+        }
+    }
+
+    @Test
+    public void testConnectionPoolSharedBetweenServices() throws Exception {
+        // other tests may have left entries in the pool, which is global
+        int initialSize = ConnectionPool.getInstance().size();
+        JmsService sender = newLoggingService(JmsService.class, "jmsShared");
+        JmsService receiver = newLoggingService(JmsService.class, "jmsShared");
+        try {
+            LOGGER.info("Begin testConnectionPoolSharedBetweenServices");
+            assertEquals(initialSize + 1, ConnectionPool.getInstance().size());
+            String text = UUID.randomUUID().toString();
+            sender.perform().sendTextMessage(text, QUEUE_NAME);
+            assertEquals(text, receiver.perform().receiveTextMessageFromQueue(QUEUE_NAME, null, 1000));
+            sender.close();
+            sender = null;
+            // the connection is still in use by the receiver
+            assertEquals(initialSize + 1, ConnectionPool.getInstance().size());
+            receiver.perform().sendTextMessage(text, QUEUE_NAME);
+            assertEquals(text, receiver.perform().receiveTextMessageFromQueue(QUEUE_NAME, null, 1000));
+        }
+        finally {
+            if (sender != null) {
+                IOUtil.close(sender);
+            }
+            IOUtil.close(receiver);
+        }
+        // this configuration closes the connection with its last user
+        assertEquals(initialSize, ConnectionPool.getInstance().size());
+        LOGGER.info("End testConnectionPoolSharedBetweenServices");
+    }
+
+    @Test
+    public void testStoppedSubscriberKeepsOthersReceiving() {
+        final String subscriptionName1 = "testStoppedSubscriber1@" + TOPIC_NAME;
+        final String subscriptionName2 = "testStoppedSubscriber2@" + TOPIC_NAME;
+
+        LOGGER.info("Begin testStoppedSubscriberKeepsOthersReceiving");
+        this.service.perform().startSubscriber(subscriptionName1, TOPIC_NAME, null, false);
+        this.service.perform().startSubscriber(subscriptionName2, TOPIC_NAME, null, false);
+        try {
+            this.service.perform().sendTextMessage("first", TOPIC_NAME);
+            assertEquals("first", this.service.perform().receiveTextMessageFromTopic(subscriptionName1, null, 1000, true));
+            assertEquals("first", this.service.perform().receiveTextMessageFromTopic(subscriptionName2, null, 1000, true));
+
+            // the subscriptions share a connection, which must stay started for the other one
+            this.service.perform().stopSubscriber(subscriptionName1);
+            this.service.perform().sendTextMessage("second", TOPIC_NAME);
+            assertNull(this.service.perform().receiveTextMessageFromTopic(subscriptionName1, null, 100, false));
+            assertEquals("second", this.service.perform().receiveTextMessageFromTopic(subscriptionName2, null, 1000, true));
+        }
+        finally {
+            this.service.perform().stopSubscriber(subscriptionName1);
+            this.service.perform().stopSubscriber(subscriptionName2);
+        }
+        LOGGER.info("End testStoppedSubscriberKeepsOthersReceiving");
+    }
+
+    @Test
+    public void testTopicReceiveWithClientSideSelector() {
+        final String subscriptionName = "testTopicSelector@" + TOPIC_NAME;
+
+        LOGGER.info("Begin testTopicReceiveWithClientSideSelector");
+        this.service.perform().startSubscriber(subscriptionName, TOPIC_NAME, null, false);
+        try {
+            for (String color : new String[] { "red", "green", "blue" }) {
+                TextMessageData data = new TextMessageData(color + " message");
+                data.addProperty("color", color);
+                this.service.perform().sendMessage(data, TOPIC_NAME);
+            }
+            // non-matching messages stay pending for the later receives
+            assertEquals("blue message", this.service.perform().receiveTextMessageFromTopic(subscriptionName, "color = 'blue'", 1000, true));
+            assertEquals("green message", this.service.perform().receiveTextMessageFromTopic(subscriptionName, "color IN ('green', 'yellow')", 1000, true));
+            assertNull(this.service.perform().receiveTextMessageFromTopic(subscriptionName, "color LIKE 'b%'", 100, false));
+            assertEquals("red message", this.service.perform().receiveTextMessageFromTopic(subscriptionName, null, 1000, true));
+        }
+        finally {
+            this.service.perform().stopSubscriber(subscriptionName);
+        }
+        LOGGER.info("End testTopicReceiveWithClientSideSelector");
+    }
+
     /**
      *  Check durable messaging.
      *  <ul>
@@ -18,6 +18,8 @@ package org.aludratest.service.jms;
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertNotNull;
 
+import java.util.ArrayList;
+import java.util.List;
 import java.util.UUID;
 
 import org.aludratest.service.jms.data.TextMessageData;
@@ -61,6 +63,76 @@ public class JmsAwlTest extends AbstractJmsTest {
         LOGGER.info("End testQueue");
     }
 
+    @Test
+    public void testQueueBatch() {
+        String queueName = QUEUE_NAME + ".batch";
+        List<TextMessageData> messages = new ArrayList<TextMessageData>();
+        for (int i = 0; i < 5; i++) {
+            messages.add(new TextMessageData("batch message " + i));
+        }
+
+        LOGGER.info("Sending batch of TextMessages to queue " + queueName);
+        MyJmsSender sender = new MyJmsSender(queueName, service);
+        sender.sendTextMessages(messages, 2);
+
+        LOGGER.info("Receiving TextMessages from queue " + queueName);
+        MyQueueReceiver receiver = new MyQueueReceiver(queueName, service);
+        for (int i = 0; i < 5; i++) {
+            TextMessageData receivedMessage = new TextMessageData();
+            receiver.receiveTextMessage(null, 100, receivedMessage);
+            Assert.assertEquals("batch message " + i, receivedMessage.getMessageText());
+        }
+    }
+
+    @Test
+    public void testQueueListener() {
+        String queueName = QUEUE_NAME + ".listener";
+        MyQueueReceiver receiver = new MyQueueReceiver(queueName, service);
+        receiver.startListener(null);
+        try {
+            MyJmsSender sender = new MyJmsSender(queueName, service);
+            for (int i = 0; i < 5; i++) {
+                sender.sendTextMessage(new TextMessageData("listener message " + i));
+            }
+            for (int i = 0; i < 3; i++) {
+                TextMessageData receivedMessage = new TextMessageData();
+                receiver.receiveTextMessage(null, 1000, receivedMessage);
+                Assert.assertEquals("listener message " + i, receivedMessage.getMessageText());
+            }
+        }
+        finally {
+            receiver.stopListener();
+        }
+        // the messages which were still buffered have been returned to the queue
+        List<TextMessageData> remaining = new ArrayList<TextMessageData>();
+        receiver.receiveTextMessages(null, 2, 1000, remaining);
+        Assert.assertEquals(2, remaining.size());
+        Assert.assertEquals("listener message 3", remaining.get(0).getMessageText());
+    }
+
+    @Test
+    public void testQueueBulkReceive() {
+        String queueName = QUEUE_NAME + ".bulk";
+        List<TextMessageData> messages = new ArrayList<TextMessageData>();
+        for (int i = 0; i < 20; i++) {
+            messages.add(new TextMessageData("bulk message " + i));
+        }
+        MyJmsSender sender = new MyJmsSender(queueName, service);
+        sender.sendTextMessages(messages, 0);
+
+        LOGGER.info("Draining TextMessages from queue " + queueName);
+        MyQueueReceiver receiver = new MyQueueReceiver(queueName, service);
+        List<TextMessageData> received = new ArrayList<TextMessageData>();
+        receiver.receiveTextMessages(null, 15, 1000, received);
+        Assert.assertEquals(15, received.size());
+        // only 5 messages are left, so the call returns them after the timeout
+        receiver.receiveTextMessages(null, 15, 200, received);
+        Assert.assertEquals(20, received.size());
+        for (int i = 0; i < 20; i++) {
+            Assert.assertEquals("bulk message " + i, received.get(i).getMessageText());
+        }
+    }
+
     @Test
     public void testTopic() {
         final String textContent = UUID.randomUUID().toString();
@@ -0,0 +1,128 @@
+/*
+ * Copyright (C) 2015 Hamburg Sud and the contributors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.aludratest.service.jms;
+
+import static org.junit.Assert.assertEquals;
+
+import javax.jms.Connection;
+import javax.jms.MessageConsumer;
+import javax.jms.Session;
+
+import org.apache.activemq.ActiveMQConnectionFactory;
+import org.apache.activemq.broker.BrokerService;
+import org.apache.log4j.Logger;
+import org.databene.commons.IOUtil;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Tests the distribution of sends among several brokers listed in the providerUrl.
+ */
+
+public class JmsMultiBrokerTest extends AbstractJmsTest {
+
+    private static final Logger LOGGER = Logger.getLogger(JmsMultiBrokerTest.class);
+
+    private static final String QUEUE_NAME = "multiBrokerQueue";
+
+    private BrokerService broker1;
+
+    private BrokerService broker2;
+
+    @Before
+    public void startBrokers() throws Exception {
+        broker1 = startBroker("broker1");
+        broker2 = startBroker("broker2");
+    }
+
+    @After
+    public void stopBrokers() throws Exception {
+        stopBroker(broker1);
+        stopBroker(broker2);
+    }
+
+    @Test
+    public void testRoundRobin() throws Exception {
+        LOGGER.info("Begin testRoundRobin");
+        JmsService multiBrokerService = newLoggingService(JmsService.class, "jmsMultiBroker");
+        try {
+            for (int i = 0; i < 10; i++) {
+                multiBrokerService.perform().sendTextMessage("message " + i, "dynamicQueues/" + QUEUE_NAME);
+            }
+        }
+        finally {
+            IOUtil.close(multiBrokerService);
+        }
+        assertEquals(5, drainQueue("broker1"));
+        assertEquals(5, drainQueue("broker2"));
+        LOGGER.info("End testRoundRobin");
+    }
+
+    @Test
+    public void testFailover() throws Exception {
+        LOGGER.info("Begin testFailover");
+        JmsService multiBrokerService = newLoggingService(JmsService.class, "jmsMultiBroker");
+        try {
+            multiBrokerService.perform().sendTextMessage("before failure", "dynamicQueues/" + QUEUE_NAME);
+            stopBroker(broker2);
+            for (int i = 0; i < 10; i++) {
+                multiBrokerService.perform().sendTextMessage("message " + i, "dynamicQueues/" + QUEUE_NAME);
+            }
+        }
+        finally {
+            IOUtil.close(multiBrokerService);
+        }
+        assertEquals(11, drainQueue("broker1"));
+        LOGGER.info("End testFailover");
+    }
+
+    private static BrokerService startBroker(String name) throws Exception {
+        BrokerService broker = new BrokerService();
+        broker.setBrokerName(name);
+        broker.setPersistent(false);
+        broker.setUseJmx(false);
+        broker.start();
+        return broker;
+    }
+
+    private static void stopBroker(BrokerService broker) throws Exception {
+        if (broker.isStarted()) {
+            broker.stop();
+            broker.waitUntilStopped();
+        }
+    }
+
+    /** Receives all messages from the test queue of a broker, bypassing the service.
+     *  @return the number of messages received */
+    private static int drainQueue(String brokerName) throws Exception {
+        Connection connection = new ActiveMQConnectionFactory("vm://" + brokerName + "?create=false").createConnection();
+        try {
+            connection.start();
+            Session session = connection.createSession(false, Session.AUTO_ACKNOWLEDGE);
+            MessageConsumer consumer = session.createConsumer(session.createQueue(QUEUE_NAME));
+            int count = 0;
+            while (consumer.receive(1000) != null) {
+                count++;
+            }
+            return count;
+        }
+        finally {
+            connection.close();
+        }
+    }
+
+}
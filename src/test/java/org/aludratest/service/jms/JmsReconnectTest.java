@@ -0,0 +1,98 @@
+/*
+ * Copyright (C) 2015 Hamburg Sud and the contributors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.aludratest.service.jms;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.fail;
+
+import java.util.UUID;
+
+import org.apache.log4j.Logger;
+import org.databene.commons.IOUtil;
+import org.junit.Test;
+
+/**
+ * Tests the automatic reconnect of the {@link JmsService} by restarting the embedded broker.
+ */
+
+public class JmsReconnectTest extends AbstractJmsTest {
+
+    private static final Logger LOGGER = Logger.getLogger(JmsReconnectTest.class);
+
+    private static final String QUEUE_NAME = "dynamicQueues/reconnectQueue";
+
+    private static final String TOPIC_NAME = "dynamicTopics/reconnectTopic";
+
+    private static final String SUBSCRIPTION_NAME = "reconnectSubscription@" + TOPIC_NAME;
+
+    /** Number of milliseconds to wait for the service to become usable after the restart. */
+    private static final long RECONNECT_TIMEOUT = 15000;
+
+    @Test
+    public void testReconnectAfterBrokerRestart() throws Exception {
+        LOGGER.info("Begin testReconnectAfterBrokerRestart");
+        // the configuration waits 1 s before the first reconnect attempt, which leaves time for the restart
+        JmsService reconnectingService = newLoggingService(JmsService.class, "jmsReconnect");
+        try {
+            reconnectingService.perform().startSubscriber(SUBSCRIPTION_NAME, TOPIC_NAME, null, false);
+            String text = UUID.randomUUID().toString();
+            reconnectingService.perform().sendTextMessage(text, QUEUE_NAME);
+            assertEquals(text, reconnectingService.perform().receiveTextMessageFromQueue(QUEUE_NAME, null, 1000));
+
+            restartTestBroker();
+
+            // the queue is usable as soon as the main connection has been replaced
+            long deadline = System.currentTimeMillis() + RECONNECT_TIMEOUT;
+            String queueText = UUID.randomUUID().toString();
+            while (!trySend(reconnectingService, queueText, QUEUE_NAME)) {
+                if (System.currentTimeMillis() > deadline) {
+                    fail("Service did not reconnect within " + RECONNECT_TIMEOUT + " ms");
+                }
+                Thread.sleep(200);
+            }
+            assertEquals(queueText, reconnectingService.perform().receiveTextMessageFromQueue(QUEUE_NAME, null, 1000));
+
+            // the subscription is restored after the sessions, so messages sent before may be missed
+            String topicText = null;
+            while (topicText == null) {
+                if (System.currentTimeMillis() > deadline) {
+                    fail("Subscription was not restored within " + RECONNECT_TIMEOUT + " ms");
+                }
+                reconnectingService.perform().sendTextMessage("after restart", TOPIC_NAME);
+                topicText = reconnectingService.perform().receiveTextMessageFromTopic(SUBSCRIPTION_NAME, null, 500, false);
+            }
+            assertEquals("after restart", topicText);
+            reconnectingService.perform().stopSubscriber(SUBSCRIPTION_NAME);
+        }
+        finally {
+            IOUtil.close(reconnectingService);
+        }
+        LOGGER.info("End testReconnectAfterBrokerRestart");
+    }
+
+    private static boolean trySend(JmsService service, String text, String destinationName) {
+        try {
+            service.perform().sendTextMessage(text, destinationName);
+            return true;
+        }
+        catch (RuntimeException e) {
+            // the test framework may wrap the AccessFailure or TechnicalException of the service
+            LOGGER.info("Send failed while reconnecting: " + e.getMessage());
+            return false;
+        }
+    }
+
+}
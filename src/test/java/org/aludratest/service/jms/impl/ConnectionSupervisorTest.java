@@ -0,0 +1,153 @@
+/*
+ * Copyright (C) 2015 Hamburg Sud and the contributors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.aludratest.service.jms.impl;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import javax.jms.Connection;
+import javax.jms.InvalidClientIDException;
+import javax.jms.JMSException;
+import javax.jms.Session;
+
+import org.junit.Test;
+
+/**
+ * Tests the {@link ConnectionSupervisor} with connection stubs.
+ */
+
+public class ConnectionSupervisorTest {
+
+    private final AtomicInteger connects = new AtomicInteger();
+
+    private final CountDownLatch checked = new CountDownLatch(1);
+
+    @Test
+    public void testUsableConnectionIsKept() throws Exception {
+        Connection original = newConnection(true);
+        ManagedConnection connection = new ManagedConnection(original, false, "test connection");
+        ConnectionSupervisor supervisor = new ConnectionSupervisor(connection, newConnector(), new ReconnectPolicy(1, 1));
+        try {
+            supervisor.onException(new JMSException("transient error"));
+            // the check closes the session which it created
+            assertTrue(checked.await(5, TimeUnit.SECONDS));
+            assertSame(original, connection.getConnection());
+            assertEquals(0, supervisor.getFailureCount());
+            assertEquals(0, connects.get());
+        }
+        finally {
+            supervisor.close();
+        }
+    }
+
+    @Test
+    public void testFailedConnectionIsReplaced() throws Exception {
+        Connection original = newConnection(false);
+        ManagedConnection connection = new ManagedConnection(original, false, "test connection");
+        ConnectionSupervisor supervisor = new ConnectionSupervisor(connection, newConnector(), new ReconnectPolicy(1, 1));
+        try {
+            supervisor.onException(new JMSException("connection failed"));
+            long deadline = System.currentTimeMillis() + 5000;
+            while (supervisor.getReconnectCount() == 0 && System.currentTimeMillis() < deadline) {
+                Thread.sleep(10);
+            }
+            assertFalse(original == connection.getConnection());
+            assertEquals(1, supervisor.getFailureCount());
+            assertEquals(1, supervisor.getReconnectCount());
+            assertEquals(1, connects.get());
+        }
+        finally {
+            supervisor.close();
+        }
+    }
+
+    @Test
+    public void testClientIdConflictAbandonsReconnecting() throws Exception {
+        Connection original = newConnection(false);
+        ManagedConnection connection = new ManagedConnection(original, false, "test connection");
+        ConnectionSupervisor supervisor = new ConnectionSupervisor(connection, new Callable<Connection>() {
+            @Override
+            public Connection call() throws JMSException {
+                connects.incrementAndGet();
+                throw new InvalidClientIDException("client ID in use");
+            }
+        }, new ReconnectPolicy(1, 1));
+        try {
+            supervisor.onException(new JMSException("connection failed"));
+            long deadline = System.currentTimeMillis() + 5000;
+            while (!supervisor.isAbandoned() && System.currentTimeMillis() < deadline) {
+                Thread.sleep(10);
+            }
+            assertTrue(supervisor.isAbandoned());
+            assertEquals(ConnectionSupervisor.MAX_CLIENT_ID_CONFLICTS, connects.get());
+            assertSame(original, connection.getConnection());
+            // further errors of the failed connection do not start reconnecting again
+            supervisor.onException(new JMSException("connection failed"));
+            Thread.sleep(50);
+            assertEquals(ConnectionSupervisor.MAX_CLIENT_ID_CONFLICTS, connects.get());
+        }
+        finally {
+            supervisor.close();
+        }
+    }
+
+    private Callable<Connection> newConnector() {
+        return new Callable<Connection>() {
+            @Override
+            public Connection call() {
+                connects.incrementAndGet();
+                return newConnection(true);
+            }
+        };
+    }
+
+    /** Creates a connection stub on which sessions can only be created if it is usable. */
+    private Connection newConnection(final boolean usable) {
+        return (Connection) Proxy.newProxyInstance(ConnectionSupervisorTest.class.getClassLoader(), 
+                new Class<?>[] { Connection.class }, new InvocationHandler() {
+                    @Override
+                    public Object invoke(Object proxy, Method method, Object[] args) throws JMSException {
+                        if ("createSession".equals(method.getName())) {
+                            if (!usable) {
+                                throw new JMSException("connection failed");
+                            }
+                            return Proxy.newProxyInstance(ConnectionSupervisorTest.class.getClassLoader(), 
+                                    new Class<?>[] { Session.class }, new InvocationHandler() {
+                                        @Override
+                                        public Object invoke(Object session, Method sessionMethod, Object[] sessionArgs) {
+                                            if ("close".equals(sessionMethod.getName())) {
+                                                checked.countDown();
+                                            }
+                                            return null;
+                                        }
+                                    });
+                        }
+                        return null;
+                    }
+                });
+    }
+
+}
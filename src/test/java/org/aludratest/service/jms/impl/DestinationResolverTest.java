@@ -0,0 +1,180 @@
+/*
+ * Copyright (C) 2015 Hamburg Sud and the contributors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.aludratest.service.jms.impl;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import javax.jms.Queue;
+import javax.naming.Context;
+import javax.naming.NameNotFoundException;
+
+import org.junit.Test;
+
+/**
+ * Tests the {@link DestinationResolver} with an in-memory JNDI context.
+ */
+
+public class DestinationResolverTest {
+
+    private final Map<String, Object> bindings = new HashMap<String, Object>();
+
+    private int lookups;
+
+    private final AtomicInteger activeLookups = new AtomicInteger();
+
+    private volatile int maxActiveLookups;
+
+    @Test
+    public void testPositiveCache() throws Exception {
+        Queue queue = newQueue();
+        bindings.put("queue", queue);
+        DestinationResolver resolver = new DestinationResolver(newContext(), 60000, 60000);
+        assertSame(queue, resolver.resolve("queue"));
+        assertSame(queue, resolver.resolve("queue"));
+        assertTrue(resolver.isAvailable("queue"));
+        assertEquals(1, lookups);
+        resolver.invalidate("queue");
+        assertSame(queue, resolver.resolve("queue"));
+        assertEquals(2, lookups);
+    }
+
+    @Test
+    public void testNegativeCacheOnlyAffectsAvailabilityChecks() throws Exception {
+        DestinationResolver resolver = new DestinationResolver(newContext(), 60000, 60000);
+        assertFalse(resolver.isAvailable("queue"));
+        assertFalse(resolver.isAvailable("queue"));
+        assertEquals(1, lookups);
+
+        // a destination which appears after a failed check can be used immediately
+        Queue queue = newQueue();
+        bindings.put("queue", queue);
+        assertSame(queue, resolver.resolve("queue"));
+        assertEquals(2, lookups);
+        assertTrue(resolver.isAvailable("queue"));
+        assertEquals(2, lookups);
+    }
+
+    @Test
+    public void testFailedResolveIsNotCached() throws Exception {
+        DestinationResolver resolver = new DestinationResolver(newContext(), 60000, 60000);
+        for (int i = 0; i < 2; i++) {
+            try {
+                resolver.resolve("queue");
+            }
+            catch (NameNotFoundException e) {
+                // expected
+            }
+        }
+        assertEquals(2, lookups);
+    }
+
+    @Test
+    public void testLookupOfNoDestinationIsRecordedOnce() throws Exception {
+        bindings.put("factory", "no destination");
+        DestinationResolver resolver = new DestinationResolver(newContext(), 60000, 60000);
+        JmsMetrics metrics = new JmsMetrics("test");
+        resolver.setMetrics(metrics);
+        try {
+            resolver.resolve("factory");
+            fail("resolved an object which is no destination");
+        }
+        catch (NameNotFoundException e) {
+            // expected
+        }
+        OperationStatistics statistics = metrics.getStatistics(JmsMetrics.Operation.LOOKUP, "factory");
+        assertEquals(1, statistics.getCount());
+        assertEquals(0, statistics.getErrors());
+    }
+
+    @Test
+    public void testSharedContextIsNotUsedConcurrently() throws Exception {
+        bindings.put("queue", newQueue());
+        Context context = newContext();
+        // resolvers of pooled connections share the context, caching is disabled to force lookups
+        final DestinationResolver[] resolvers = { new DestinationResolver(context, 0, 0), new DestinationResolver(context, 0, 0) };
+        Thread[] threads = new Thread[4];
+        for (int i = 0; i < threads.length; i++) {
+            final DestinationResolver resolver = resolvers[i % resolvers.length];
+            threads[i] = new Thread() {
+                @Override
+                public void run() {
+                    for (int j = 0; j < 20; j++) {
+                        resolver.isAvailable("queue");
+                    }
+                }
+            };
+            threads[i].start();
+        }
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        assertEquals(80, lookups);
+        assertEquals(1, maxActiveLookups);
+    }
+
+    private Context newContext() {
+        return (Context) Proxy.newProxyInstance(getClass().getClassLoader(), new Class<?>[] { Context.class },
+                new InvocationHandler() {
+                    @Override
+                    public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+                        if ("lookup".equals(method.getName())) {
+                            maxActiveLookups = Math.max(maxActiveLookups, activeLookups.incrementAndGet());
+                            try {
+                                Thread.sleep(1);
+                            }
+                            finally {
+                                activeLookups.decrementAndGet();
+                            }
+                            lookups++;
+                            Object object = bindings.get(String.valueOf(args[0]));
+                            if (object == null) {
+                                throw new NameNotFoundException(String.valueOf(args[0]));
+                            }
+                            return object;
+                        }
+                        throw new UnsupportedOperationException(method.getName());
+                    }
+                });
+    }
+
+    private static Queue newQueue() {
+        return (Queue) Proxy.newProxyInstance(DestinationResolverTest.class.getClassLoader(), new Class<?>[] { Queue.class },
+                new InvocationHandler() {
+                    @Override
+                    public Object invoke(Object proxy, Method method, Object[] args) {
+                        if ("equals".equals(method.getName())) {
+                            return proxy == args[0];
+                        }
+                        if ("hashCode".equals(method.getName())) {
+                            return System.identityHashCode(proxy);
+                        }
+                        return "queue";
+                    }
+                });
+    }
+
+}
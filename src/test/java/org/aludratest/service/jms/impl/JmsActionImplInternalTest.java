@@ -0,0 +1,307 @@
+/*
+ * Copyright (C) 2015 Hamburg Sud and the contributors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.aludratest.service.jms.impl;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.util.Arrays;
+import java.util.Hashtable;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+import javax.jms.Connection;
+import javax.jms.ConnectionFactory;
+import javax.jms.JMSException;
+import javax.jms.Session;
+import javax.jms.TopicSubscriber;
+import javax.naming.Context;
+import javax.naming.InitialContext;
+import javax.naming.NamingException;
+
+import org.aludratest.exception.AutomationException;
+import org.aludratest.service.jms.AbstractJmsTest;
+import org.apache.activemq.ActiveMQConnection;
+import org.junit.Test;
+
+/**
+ * Tests internals of the {@link JmsActionImpl} which are not visible through the JmsService interfaces,
+ * using action objects that are created directly on the embedded broker.
+ */
+
+public class JmsActionImplInternalTest extends AbstractJmsTest {
+
+    private static final String QUEUE_NAME = "dynamicQueues/internalTestQueue";
+
+    private static final String TOPIC_NAME = "dynamicTopics/internalTestTopic";
+
+    @Test
+    public void testProducerCacheStatistics() throws Exception {
+        JmsActionSettings settings = new JmsActionSettings();
+        settings.setProducerCacheSize(2);
+        JmsActionImpl action = newAction(settings);
+        try {
+            int sends = 5;
+            for (int i = 0; i < sends; i++) {
+                action.sendTextMessage("message " + i, QUEUE_NAME);
+            }
+            long[] statistics = action.getSessionPool().getProducerCacheStatistics();
+            assertTrue("hits: " + statistics[0], statistics[0] >= sends - 1);
+            assertEquals(1, statistics[1]);
+            assertEquals(0, statistics[2]);
+
+            // a third destination exceeds the size limit of 2
+            action.sendTextMessage("a", QUEUE_NAME + ".A");
+            action.sendTextMessage("b", QUEUE_NAME + ".B");
+            statistics = action.getSessionPool().getProducerCacheStatistics();
+            assertEquals(3, statistics[1]);
+            assertEquals(1, statistics[2]);
+        }
+        finally {
+            action.close();
+        }
+    }
+
+    @Test
+    public void testInvalidationIsAppliedByOwningThread() throws Exception {
+        final String queueName = QUEUE_NAME + ".Invalidate";
+        final JmsActionImpl action = newAction(new JmsActionSettings());
+        // the thread of the executor stays alive, so it keeps its context
+        ExecutorService owner = Executors.newSingleThreadExecutor();
+        try {
+            Runnable send = new Runnable() {
+                @Override
+                public void run() {
+                    action.sendTextMessage("message", queueName);
+                }
+            };
+            owner.submit(send).get(10, TimeUnit.SECONDS);
+            action.invalidateDestination(queueName);
+            // the cached producer is closed by the owning thread before its next send, which creates a new one
+            owner.submit(send).get(10, TimeUnit.SECONDS);
+            long[] statistics = action.getSessionPool().getProducerCacheStatistics();
+            assertEquals(0, statistics[0]);
+            assertEquals(2, statistics[1]);
+        }
+        finally {
+            owner.shutdownNow();
+            action.close();
+        }
+    }
+
+    @Test
+    public void testSessionOfTerminatedThreadIsReused() throws Exception {
+        final JmsActionImpl action = newAction(new JmsActionSettings());
+        try {
+            for (int i = 0; i < 3; i++) {
+                final int index = i;
+                Thread thread = new Thread() {
+                    @Override
+                    public void run() {
+                        action.sendTextMessage("message " + index, QUEUE_NAME + ".Reuse");
+                    }
+                };
+                thread.start();
+                thread.join();
+            }
+            assertEquals(1, action.getSessionPool().size());
+            for (int i = 0; i < 3; i++) {
+                assertEquals("message " + i, action.receiveTextMessageFromQueue(QUEUE_NAME + ".Reuse", null, 1000));
+            }
+            // the receiving thread takes over the context of the last terminated sender
+            assertEquals(1, action.getSessionPool().size());
+        }
+        finally {
+            action.close();
+        }
+    }
+
+    @Test
+    public void testNonDurableSubscribersShareConnection() throws Exception {
+        String subscriptionName1 = "testSharedSubscriber1@" + TOPIC_NAME;
+        String subscriptionName2 = "testSharedSubscriber2@" + TOPIC_NAME;
+        JmsActionImpl action = newAction(new JmsActionSettings());
+        try {
+            action.startSubscriber(subscriptionName1, TOPIC_NAME, null, false);
+            action.startSubscriber(subscriptionName2, TOPIC_NAME, null, false);
+            TopicHandler handler1 = action.getTopicHandler(subscriptionName1);
+            TopicHandler handler2 = action.getTopicHandler(subscriptionName2);
+            SharedConnection connection = handler1.getConnection();
+            assertSame(connection, handler2.getConnection());
+            assertEquals(2, connection.getReferenceCount());
+
+            action.sendTextMessage("first", TOPIC_NAME);
+            assertEquals("first", action.receiveTextMessageFromTopic(subscriptionName1, null, 1000, true));
+            assertEquals("first", action.receiveTextMessageFromTopic(subscriptionName2, null, 1000, true));
+
+            // closing one subscription must not close the connection of the other one
+            handler1.close();
+            assertEquals(1, connection.getReferenceCount());
+            assertFalse(connection.isClosed());
+            action.sendTextMessage("second", TOPIC_NAME);
+            assertEquals("second", action.receiveTextMessageFromTopic(subscriptionName2, null, 1000, true));
+
+            handler2.close();
+            assertTrue(connection.isClosed());
+        }
+        finally {
+            action.close();
+        }
+    }
+
+    @Test
+    public void testSubscriptionConnectionsAreSupervised() throws Exception {
+        String subscriptionName = "testSupervisedSubscriber@" + TOPIC_NAME;
+        JmsActionSettings settings = new JmsActionSettings();
+        settings.setReconnectPolicy(new ReconnectPolicy(100, 1000));
+        JmsActionImpl action = newAction(settings);
+        try {
+            action.startSubscriber(subscriptionName, TOPIC_NAME, null, false);
+            SharedConnection connection = action.getTopicHandler(subscriptionName).getConnection();
+            assertNotNull(connection.getManagedConnection().getSupervisor());
+        }
+        finally {
+            action.close();
+        }
+    }
+
+    @Test
+    public void testTopicListenerModeDropsOldest() throws Exception {
+        String subscriptionName = "testTopicListener@" + TOPIC_NAME;
+        JmsActionSettings settings = new JmsActionSettings();
+        settings.setTopicListenerMode(true);
+        settings.setTopicBufferCapacity(3);
+        settings.setTopicBufferOverflowPolicy(MessageBuffer.OverflowPolicy.DROP_OLDEST);
+        JmsActionImpl action = newAction(settings);
+        try {
+            action.startSubscriber(subscriptionName, TOPIC_NAME, null, false);
+            for (int i = 0; i < 5; i++) {
+                action.sendTextMessage("message " + i, TOPIC_NAME);
+            }
+            // the listener drains the topic without any receive call
+            MessageBuffer buffer = action.getTopicHandler(subscriptionName).getBuffer();
+            long deadline = System.currentTimeMillis() + 5000;
+            while (buffer.getDropped() < 2 && System.currentTimeMillis() < deadline) {
+                Thread.sleep(10);
+            }
+            assertEquals(2, buffer.getDropped());
+            for (int i = 2; i < 5; i++) {
+                assertEquals("message " + i, action.receiveTextMessageFromTopic(subscriptionName, null, 1000, true));
+            }
+            assertNull(action.receiveTextMessageFromTopic(subscriptionName, null, 100, false));
+            action.stopSubscriber(subscriptionName);
+        }
+        finally {
+            action.close();
+        }
+    }
+
+    @Test
+    public void testCloseConcurrentlyReportsFailuresAndTimeouts() {
+        final CountDownLatch release = new CountDownLatch(1);
+        Closeable failing = new Closeable() {
+            @Override
+            public void close() throws IOException {
+                throw new IOException("close failed");
+            }
+        };
+        Closeable hanging = new Closeable() {
+            @Override
+            public void close() throws IOException {
+                try {
+                    release.await();
+                }
+                catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+        };
+        Closeable working = new Closeable() {
+            @Override
+            public void close() {
+            }
+        };
+        try {
+            List<Throwable> failures = JmsActionImpl.closeConcurrently(Arrays.asList(failing, hanging, working), 200);
+            assertEquals(2, failures.size());
+            assertTrue(failures.get(0) instanceof IOException);
+            assertTrue(failures.get(1) instanceof TimeoutException);
+        }
+        finally {
+            release.countDown();
+        }
+    }
+
+    @Test
+    public void testCloseClosesConnectionIfSubscriptionFailsToClose() throws Exception {
+        String subscriptionName = "testFailingSubscriber@" + TOPIC_NAME;
+        JmsActionImpl action = newAction(new JmsActionSettings());
+        action.startSubscriber(subscriptionName, TOPIC_NAME, null, false);
+        Connection mainConnection = action.getManagedConnection().getConnection();
+        // replaces the subscriber by one which cannot be closed
+        SharedConnection brokenConnection = new SharedConnection(stub(Connection.class, false), "broken");
+        brokenConnection.acquire();
+        action.getTopicHandler(subscriptionName).restore(stub(TopicSubscriber.class, true), stub(Session.class, false), 
+                brokenConnection);
+        try {
+            action.close();
+            fail("close() did not report the failed subscription");
+        }
+        catch (AutomationException e) {
+            assertTrue(e.getMessage(), e.getMessage().startsWith("1 of 1 "));
+        }
+        assertTrue(((ActiveMQConnection) mainConnection).isClosed());
+        assertNull(action.getTopicHandler(subscriptionName));
+    }
+
+    /** Creates a proxy which does nothing, or throws a {@link JMSException} on <code>close()</code>. */
+    private static <T> T stub(Class<T> type, final boolean failingClose) {
+        return type.cast(Proxy.newProxyInstance(type.getClassLoader(), new Class<?>[] { type }, new InvocationHandler() {
+            @Override
+            public Object invoke(Object proxy, Method method, Object[] args) throws JMSException {
+                if (failingClose && "close".equals(method.getName())) {
+                    throw new JMSException("close failed");
+                }
+                return null;
+            }
+        }));
+    }
+
+    /** Creates an action on the embedded broker, with its own JNDI context and connection. */
+    static JmsActionImpl newAction(JmsActionSettings settings) throws NamingException {
+        Hashtable<String, String> env = new Hashtable<String, String>();
+        env.put(Context.INITIAL_CONTEXT_FACTORY, "org.apache.activemq.jndi.ActiveMQInitialContextFactory");
+        env.put(Context.PROVIDER_URL, testBrokerUri);
+        InitialContext context = new InitialContext(env);
+        ConnectionFactory connectionFactory = (ConnectionFactory) context.lookup("ConnectionFactory");
+        return new JmsActionImpl(connectionFactory, new DestinationResolver(context, 300000, 1000), null, settings);
+    }
+
+}
@@ -0,0 +1,122 @@
+/*
+ * Copyright (C) 2015 Hamburg Sud and the contributors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.aludratest.service.jms.impl;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.lang.management.ManagementFactory;
+
+import javax.management.ObjectName;
+
+import org.aludratest.exception.AutomationException;
+import org.junit.Test;
+
+/**
+ * Tests the {@link JmsMetrics}.
+ */
+
+public class JmsMetricsTest {
+
+    @Test
+    public void testRecord() {
+        JmsMetrics metrics = new JmsMetrics("test");
+        assertTrue(metrics.isEmpty());
+        metrics.record(JmsMetrics.Operation.SEND, "queue1", 2000000, 100);
+        metrics.record(JmsMetrics.Operation.SEND, "queue1", 4000000, 50);
+        metrics.recordError(JmsMetrics.Operation.SEND, "queue1");
+        metrics.record(JmsMetrics.Operation.CONNECTION_START, null, 1000000, 0);
+
+        OperationStatistics send = metrics.getStatistics(JmsMetrics.Operation.SEND, "queue1");
+        assertEquals(2, send.getCount());
+        assertEquals(1, send.getErrors());
+        assertEquals(150, send.getBytes());
+        assertEquals(4000, send.getMaxMicros(), 4000 / 50);
+        assertEquals(3000, send.getMeanMicros(), 1);
+        assertNull(metrics.getStatistics(JmsMetrics.Operation.RECEIVE, "queue1"));
+        assertEquals(1, metrics.getStatistics(JmsMetrics.Operation.CONNECTION_START, JmsMetrics.NO_DESTINATION).getCount());
+        assertEquals(3, metrics.getOperationCount());
+        assertEquals(1, metrics.getErrorCount());
+        assertEquals(2, metrics.getStatistics().size());
+        assertTrue(metrics.getReport().contains("SEND queue1: errors=1, bytes=150"));
+
+        metrics.reset();
+        assertTrue(metrics.isEmpty());
+    }
+
+    @Test
+    public void testChecks() {
+        JmsMetrics metrics = new JmsMetrics("test");
+        for (int i = 1; i <= 100; i++) {
+            metrics.record(JmsMetrics.Operation.SEND, "queue1", i * 1000000L, 0);
+        }
+        assertNull(metrics.checkLatencyPercentile(JmsMetrics.Operation.SEND, "queue1", 50, 52));
+        assertEquals("p99.9 latency of SEND on queue1 is 100.000 ms, expected below 100 ms (100 operations)",
+                metrics.checkLatencyPercentile(JmsMetrics.Operation.SEND, "queue1", 99.9, 100));
+        assertNull(metrics.checkMaxLatency(JmsMetrics.Operation.SEND, "queue1", 101));
+        assertEquals("Slowest SEND on queue1 took 100.000 ms, expected below 100 ms (100 operations)",
+                metrics.checkMaxLatency(JmsMetrics.Operation.SEND, "queue1", 100));
+        assertEquals("No successful RECEIVE on queue1 has been recorded",
+                metrics.checkMaxLatency(JmsMetrics.Operation.RECEIVE, "queue1", 100));
+        assertNull(metrics.checkThroughput(JmsMetrics.Operation.SEND, "queue1", 1));
+        assertTrue(metrics.checkThroughput(JmsMetrics.Operation.CONNECTION_START, null, 1)
+                .startsWith("Throughput of CONNECTION_START is 0.0/s"));
+    }
+
+    @Test
+    public void testThroughputIgnoresIdleTime() throws Exception {
+        JmsMetrics metrics = new JmsMetrics("test");
+        for (int i = 0; i < 10; i++) {
+            metrics.record(JmsMetrics.Operation.SEND, "queue1", 1000000, 0);
+        }
+        // the rate refers to the span of the recorded sends, not to the time of the check
+        Thread.sleep(200);
+        assertNull(metrics.checkThroughput(JmsMetrics.Operation.SEND, "queue1", 1000));
+        assertTrue(metrics.getStatistics(JmsMetrics.Operation.SEND, "queue1").getThroughput() > 1000);
+    }
+
+    @Test(expected = AutomationException.class)
+    public void testIllegalPercentile() {
+        new JmsMetrics("test").checkLatencyPercentile(JmsMetrics.Operation.SEND, "queue1", 101, 100);
+    }
+
+    @Test
+    public void testRegister() throws Exception {
+        JmsMetrics metrics = new JmsMetrics("test@registration");
+        ObjectName name = new ObjectName("org.aludratest.service.jms:type=JmsMetrics,name=" + ObjectName.quote("test@registration"));
+        metrics.register();
+        try {
+            metrics.record(JmsMetrics.Operation.RECEIVE, "queue1", 1000, 0);
+            assertEquals(1L, ManagementFactory.getPlatformMBeanServer().getAttribute(name, "OperationCount"));
+        }
+        finally {
+            metrics.unregister();
+        }
+        assertFalse(ManagementFactory.getPlatformMBeanServer().isRegistered(name));
+    }
+
+    @Test
+    public void testUtf8Length() {
+        assertEquals(0, JmsMetrics.utf8Length(null));
+        assertEquals(3, JmsMetrics.utf8Length("abc"));
+        assertEquals(2, JmsMetrics.utf8Length("\u00e4"));
+        assertEquals(3, JmsMetrics.utf8Length("\u20ac"));
+        assertEquals(4, JmsMetrics.utf8Length("\ud83d\ude00"));
+    }
+
+}
@@ -0,0 +1,74 @@
+/*
+ * Copyright (C) 2015 Hamburg Sud and the contributors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.aludratest.service.jms.impl;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+/**
+ * Tests the {@link OperationTimeline}.
+ */
+
+public class OperationTimelineTest {
+
+    @Test
+    public void testKeepsLastOperations() {
+        OperationTimeline timeline = new OperationTimeline(2);
+        timeline.record(JmsMetrics.Operation.LOOKUP, "queue1", 1000000, 500000, 0, OperationTimeline.Outcome.OK);
+        timeline.record(JmsMetrics.Operation.SEND, "queue2", 2000000, 1500000, 42, OperationTimeline.Outcome.OK);
+        timeline.record(JmsMetrics.Operation.RECEIVE, "queue3", 4000000, 3000000, 0, OperationTimeline.Outcome.TIMEOUT);
+        assertEquals(3, timeline.getRecordedCount());
+
+        String text = timeline.toString();
+        String[] lines = text.split("\n");
+        assertEquals(4, lines.length);
+        assertEquals("Last 2 of 3 JMS operations", lines[0]);
+        assertFalse(text.contains("queue1"));
+        assertTrue(lines[2].matches("\\s+2000000\\s+0\\.000\\s+1\\.500\\s+42\\s+OK\\s+SEND\\s+queue2"));
+        assertTrue(lines[3].matches("\\s+4000000\\s+2\\.000\\s+3\\.000\\s+0\\s+TIMEOUT\\s+RECEIVE\\s+queue3"));
+    }
+
+    @Test
+    public void testConcurrentRecording() throws Exception {
+        final OperationTimeline timeline = new OperationTimeline(16);
+        Thread[] threads = new Thread[4];
+        for (int i = 0; i < threads.length; i++) {
+            threads[i] = new Thread() {
+                @Override
+                public void run() {
+                    for (int n = 0; n < 10000; n++) {
+                        timeline.record(JmsMetrics.Operation.SEND, "queue", n, n, n, OperationTimeline.Outcome.OK);
+                    }
+                }
+            };
+            threads[i].start();
+        }
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        assertEquals(40000, timeline.getRecordedCount());
+        assertTrue(timeline.toString().startsWith("Last 16 of 40000 JMS operations"));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testIllegalCapacity() {
+        new OperationTimeline(0);
+    }
+
+}
@@ -0,0 +1,55 @@
+/*
+ * Copyright (C) 2015 Hamburg Sud and the contributors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.aludratest.service.jms.impl;
+
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+/**
+ * Tests the {@link ReconnectPolicy}.
+ */
+
+public class ReconnectPolicyTest {
+
+    @Test
+    public void testDelayDoublesWithJitter() {
+        ReconnectPolicy policy = new ReconnectPolicy(100, 1000);
+        for (int i = 0; i < 100; i++) {
+            assertBetween(50, 100, policy.getDelay(0));
+            assertBetween(100, 200, policy.getDelay(1));
+            assertBetween(400, 800, policy.getDelay(3));
+        }
+    }
+
+    @Test
+    public void testDelayIsLimited() {
+        ReconnectPolicy policy = new ReconnectPolicy(100, 1000);
+        for (int attempt = 4; attempt < 100; attempt++) {
+            assertBetween(500, 1000, policy.getDelay(attempt));
+        }
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testIllegalDelays() {
+        new ReconnectPolicy(1000, 100);
+    }
+
+    private static void assertBetween(long min, long max, long actual) {
+        assertTrue("Expected " + actual + " to be between " + min + " and " + max, min <= actual && actual <= max);
+    }
+
+}
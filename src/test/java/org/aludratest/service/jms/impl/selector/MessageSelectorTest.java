@@ -0,0 +1,123 @@
+/*
+ * Copyright (C) 2015 Hamburg Sud and the contributors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.aludratest.service.jms.impl.selector;
+
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import javax.jms.DeliveryMode;
+import javax.jms.InvalidSelectorException;
+import javax.jms.JMSException;
+
+import org.apache.activemq.command.ActiveMQTextMessage;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Tests the {@link MessageSelector}.
+ */
+
+public class MessageSelectorTest {
+
+    private ActiveMQTextMessage message;
+
+    @Before
+    public void createMessage() throws JMSException {
+        message = new ActiveMQTextMessage();
+        message.setText("text");
+        message.setJMSPriority(4);
+        message.setJMSDeliveryMode(DeliveryMode.PERSISTENT);
+        message.setJMSType("order");
+        message.setStringProperty("color", "red");
+        message.setIntProperty("weight", 2500);
+        message.setFloatProperty("price", 9.5f);
+        message.setBooleanProperty("express", true);
+        message.setStringProperty("code", "A_1%");
+    }
+
+    @Test
+    public void testComparison() throws JMSException {
+        assertMatch("color = 'red'");
+        assertNoMatch("color <> 'red'");
+        assertMatch("weight > 2000 AND weight <= 2500");
+        assertMatch("weight = 2500.0");
+        assertMatch("price * 2 = 19");
+        assertMatch("-weight < -2 * 1000");
+        assertMatch("1.5E3 < weight");
+        assertMatch("express");
+        assertMatch("JMSPriority >= 4 AND JMSDeliveryMode = 'PERSISTENT' AND JMSType = 'order'");
+    }
+
+    @Test
+    public void testPredicates() throws JMSException {
+        assertMatch("weight BETWEEN 1000 AND 3000");
+        assertNoMatch("weight NOT BETWEEN 1000 AND 3000");
+        assertMatch("color IN ('red', 'blue')");
+        assertNoMatch("color NOT IN ('red', 'blue')");
+        assertMatch("color LIKE 'r_d'");
+        assertMatch("code LIKE 'A\\_1\\%' ESCAPE '\\'");
+        assertNoMatch("code LIKE 'A\\_2%' ESCAPE '\\'");
+        assertMatch("missing IS NULL AND color IS NOT NULL");
+    }
+
+    @Test
+    public void testThreeValuedLogic() throws JMSException {
+        // comparisons with a missing property are unknown, and so is their negation
+        assertNoMatch("missing = 1");
+        assertNoMatch("NOT missing = 1");
+        assertMatch("missing = 1 OR express");
+        assertNoMatch("missing = 1 AND express");
+        assertNoMatch("missing = 1 OR missing <> 1");
+        // comparisons of different types are false
+        assertNoMatch("color = 1");
+        assertMatch("NOT color = 1");
+    }
+
+    @Test
+    public void testMatchAll() throws JMSException {
+        assertTrue(MessageSelector.compile(null).matches(message));
+        assertTrue(MessageSelector.compile(" ").matches(message));
+    }
+
+    @Test
+    public void testCompiledSelectorsAreCached() throws InvalidSelectorException {
+        assertTrue(MessageSelector.compile("color = 'red'") == MessageSelector.compile("color = 'red'"));
+    }
+
+    @Test
+    public void testInvalidSelectors() {
+        for (String selector : new String[] { "color =", "color = 'red", "weight + 1", "'text'", "color IN ()", 
+                "color NOT = 'red'", "code LIKE 'a' ESCAPE 'ab'", "color = 'red' weight" }) {
+            try {
+                MessageSelector.compile(selector);
+                throw new AssertionError("Invalid selector was accepted: " + selector);
+            }
+            catch (InvalidSelectorException e) {
+                // expected
+            }
+        }
+    }
+
+    private void assertMatch(String selector) throws JMSException {
+        assertTrue(selector, MessageSelector.compile(selector).matches(message));
+    }
+
+    private void assertNoMatch(String selector) throws JMSException {
+        assertFalse(selector, MessageSelector.compile(selector).matches(message));
+    }
+
+}